@@ -22,6 +22,7 @@
 
 #include <string.h>
 #include <shared_mutex>
+#include <string>
 namespace android {
 
 static jmethodID method_onConnectStateChanged;
@@ -465,6 +466,84 @@ static jboolean sendDataNative(JNIEnv* env, jobject object, jbyteArray address,
   return ret;
 }
 
+// The HAL takes the reports as hex strings, encode the raw report here
+// instead of building a java String for each report.
+static bool report_to_hex(JNIEnv* env, jbyteArray report, std::string* hex) {
+  static const char kHexDigits[] = "0123456789ABCDEF";
+  jsize len = env->GetArrayLength(report);
+  jbyte* data = env->GetByteArrayElements(report, NULL);
+  if (!data) return false;
+
+  hex->reserve(2 * len);
+  for (jsize i = 0; i < len; i++) {
+    uint8_t value = (uint8_t)data[i];
+    hex->push_back(kHexDigits[value >> 4]);
+    hex->push_back(kHexDigits[value & 0x0F]);
+  }
+  env->ReleaseByteArrayElements(report, data, JNI_ABORT);
+  return true;
+}
+
+static jboolean setReportBytesNative(JNIEnv* env, jobject object,
+                                     jbyteArray address, jbyte reportType,
+                                     jbyteArray report) {
+  ALOGV("%s: reportType = %d", __func__, reportType);
+  if (!sBluetoothHidInterface) return JNI_FALSE;
+
+  std::string c_report;
+  if (!report_to_hex(env, report, &c_report)) {
+    ALOGE("%s: Failed to read report", __func__);
+    return JNI_FALSE;
+  }
+
+  jbyte* addr = env->GetByteArrayElements(address, NULL);
+  if (!addr) {
+    ALOGE("Bluetooth device address null");
+    return JNI_FALSE;
+  }
+  jint rType = reportType;
+
+  jboolean ret = JNI_TRUE;
+  bt_status_t status = sBluetoothHidInterface->set_report(
+      (RawAddress*)addr, (bthh_report_type_t)rType, &c_report[0]);
+  if (status != BT_STATUS_SUCCESS) {
+    ALOGE("Failed set report, status: %d", status);
+    ret = JNI_FALSE;
+  }
+  env->ReleaseByteArrayElements(address, addr, 0);
+
+  return ret;
+}
+
+static jboolean sendDataBytesNative(JNIEnv* env, jobject object,
+                                    jbyteArray address, jbyteArray report) {
+  ALOGV("%s", __func__);
+  if (!sBluetoothHidInterface) return JNI_FALSE;
+
+  std::string c_report;
+  if (!report_to_hex(env, report, &c_report)) {
+    ALOGE("%s: Failed to read report", __func__);
+    return JNI_FALSE;
+  }
+
+  jbyte* addr = env->GetByteArrayElements(address, NULL);
+  if (!addr) {
+    ALOGE("Bluetooth device address null");
+    return JNI_FALSE;
+  }
+
+  jboolean ret = JNI_TRUE;
+  bt_status_t status =
+      sBluetoothHidInterface->send_data((RawAddress*)addr, &c_report[0]);
+  if (status != BT_STATUS_SUCCESS) {
+    ALOGE("Failed set data, status: %d", status);
+    ret = JNI_FALSE;
+  }
+  env->ReleaseByteArrayElements(address, addr, 0);
+
+  return ret;
+}
+
 static jboolean getIdleTimeNative(JNIEnv* env, jobject object,
                                   jbyteArray address) {
   if (!sBluetoothHidInterface) return JNI_FALSE;
@@ -516,6 +595,8 @@ static JNINativeMethod sMethods[] = {
     {"getReportNative", "([BBBI)Z", (void*)getReportNative},
     {"setReportNative", "([BBLjava/lang/String;)Z", (void*)setReportNative},
     {"sendDataNative", "([BLjava/lang/String;)Z", (void*)sendDataNative},
+    {"setReportBytesNative", "([BB[B)Z", (void*)setReportBytesNative},
+    {"sendDataBytesNative", "([B[B)Z", (void*)sendDataBytesNative},
     {"getIdleTimeNative", "([B)Z", (void*)getIdleTimeNative},
     {"setIdleTimeNative", "([BB)Z", (void*)setIdleTimeNative},
 };
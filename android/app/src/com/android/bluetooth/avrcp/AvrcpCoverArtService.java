@@ -30,6 +30,8 @@ import com.android.obex.ServerSession;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The AVRCP Cover Art Service
@@ -54,6 +56,9 @@ public class AvrcpCoverArtService {
     // Cover Art and Image Handle objects
     private final AvrcpCoverArtStorage mStorage;
 
+    // Encodes new images in the background, before they are requested
+    private ExecutorService mEncoder = null;
+
     // BIP Server Objects
     private volatile boolean mShutdown = true;
     private final SocketAcceptor mAcceptThread;
@@ -86,6 +91,9 @@ public class AvrcpCoverArtService {
             return true;
         }
         mStorage.clear();
+        synchronized (mServerLock) {
+            mEncoder = Executors.newSingleThreadExecutor();
+        }
         return startBipServer();
     }
 
@@ -103,6 +111,12 @@ public class AvrcpCoverArtService {
             }
             mClients.clear();
         }
+        synchronized (mServerLock) {
+            if (mEncoder != null) {
+                mEncoder.shutdownNow();
+                mEncoder = null;
+            }
+        }
         mStorage.clear();
         return true;
     }
@@ -153,7 +167,25 @@ public class AvrcpCoverArtService {
     public String storeImage(Image image) {
         debug("storeImage(image='" + image + "')");
         if (image == null || image.getImage() == null) return null;
-        return mStorage.storeImage(new CoverArt(image));
+        String imageHandle = mStorage.storeImage(new CoverArt(image));
+        encodeImage(imageHandle);
+        return imageHandle;
+    }
+
+    /**
+     * Encode a stored image in the background, so that it is ready to be sent once requested, as
+     * controllers typically do right after a track change.
+     */
+    private void encodeImage(String imageHandle) {
+        if (imageHandle == null) return;
+        CoverArt coverArt = mStorage.getImage(imageHandle);
+        if (coverArt == null || coverArt.isEncoded()) return;
+        synchronized (mServerLock) {
+            if (mEncoder != null) {
+                debug("Encoding image at handle '" + imageHandle + "'");
+                mEncoder.execute(coverArt::encode);
+            }
+        }
     }
 
     /**
@@ -67,7 +67,11 @@ public class AvrcpTargetService extends ProfileService {
             MEDIA_KEY_EVENT_LOGGER_SIZE, MEDIA_KEY_EVENT_LOGGER_TITLE);
 
     private AvrcpVersion mAvrcpVersion;
-    private MediaPlayerList mMediaPlayerList;
+    @VisibleForTesting
+    MediaPlayerList mMediaPlayerList;
+    // Whether the player list is initialized once Bluetooth is started
+    @VisibleForTesting
+    boolean mPlayerListInitDeferred = false;
     private AudioManager mAudioManager;
     private AvrcpBroadcastReceiver mReceiver;
     private AvrcpNativeInterface mNativeInterface;
@@ -181,9 +185,23 @@ public class AvrcpTargetService extends ProfileService {
 
     @Override
     protected void setUserUnlocked(int userId) {
+        if (mMediaPlayerList == null) {
+            return;
+        }
+        if (mPlayerListInitDeferred) {
+            // startDeferred() initializes it, which must happen only once
+            Log.i(TAG, "User unlocked, the media player list is initialized once started");
+            return;
+        }
         Log.i(TAG, "User unlocked, initializing the service");
+        mMediaPlayerList.init(new ListCallback());
+    }
 
-        if (mMediaPlayerList != null) {
+    @Override
+    protected void startDeferred() {
+        if (mPlayerListInitDeferred && mMediaPlayerList != null) {
+            Log.i(TAG, "Bluetooth started, initializing the media player list");
+            mPlayerListInitDeferred = false;
             mMediaPlayerList.init(new ListCallback());
         }
     }
@@ -210,10 +228,10 @@ public class AvrcpTargetService extends ProfileService {
 
         mVolumeManager = new AvrcpVolumeManager(this, mAudioManager, mNativeInterface);
 
+        // Finding and connecting to the media players is slow, it is done once all the profiles
+        // are started. If the user is still locked, it is done when the user is unlocked.
         UserManager userManager = getApplicationContext().getSystemService(UserManager.class);
-        if (userManager.isUserUnlocked()) {
-            mMediaPlayerList.init(new ListCallback());
-        }
+        mPlayerListInitDeferred = userManager.isUserUnlocked();
 
         if (getResources().getBoolean(R.bool.avrcp_target_enable_cover_art)) {
             if (mAvrcpVersion.isAtleastVersion(AvrcpVersion.AVRCP_VERSION_1_6)) {
@@ -275,6 +293,7 @@ public class AvrcpTargetService extends ProfileService {
         if (mNativeInterface != null) mNativeInterface.cleanup();
 
         mMediaPlayerList = null;
+        mPlayerListInitDeferred = false;
         mNativeInterface = null;
         mAudioManager = null;
         mReceiver = null;
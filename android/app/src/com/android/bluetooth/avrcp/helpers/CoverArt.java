@@ -27,6 +27,7 @@ import com.android.bluetooth.avrcpcontroller.BipImageProperties;
 import com.android.bluetooth.avrcpcontroller.BipPixel;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -36,7 +37,9 @@ import java.security.NoSuchAlgorithmException;
  * This object abstracts away the actual storage method and provides a means for others to
  * understand available formats and get the underlying image in a particular format.
  *
- * All return values are ready to use by a BIP server.
+ * All return values are ready to use by a BIP server. The image is encoded once, either by
+ * {@link #encode()} ahead of the first request or by the first request, and the same bytes are then
+ * returned to every request. Callers must not modify them.
  */
 public class CoverArt {
     private static final String TAG = "CoverArt";
@@ -45,6 +48,8 @@ public class CoverArt {
 
     private String mImageHandle = null;
     private Bitmap mImage = null;
+    private String mImageHash = null;
+    private volatile byte[] mEncodedImage = null;
 
     /**
      * Create a CoverArt object from an audio_util Image abstraction
@@ -74,39 +79,60 @@ public class CoverArt {
         mImageHandle = handle;
     }
 
-    /**
-     * Covert a Bitmap to a byte array with an image format without lossy compression
-     */
-    private byte[] toByteArray(Bitmap bitmap) {
-        if (bitmap == null) return null;
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
-                    bitmap.getWidth() * bitmap.getHeight());
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, buffer);
-        return buffer.toByteArray();
-    }
-
     /**
      * Get a hash code of this CoverArt image
+     *
+     * The hash is computed over the pixels of the image, which all have the same dimensions.
      */
-    public String getImageHash() {
-        byte[] image = toByteArray(mImage);
-        if (image == null) return null;
-        String hash = null;
+    public synchronized String getImageHash() {
+        if (mImageHash != null || mImage == null) return mImageHash;
         try {
-            final byte[] digestBytes;
+            ByteBuffer pixels = ByteBuffer.allocate(mImage.getByteCount());
+            mImage.copyPixelsToBuffer(pixels);
             final MessageDigest digest = MessageDigest.getInstance("MD5");
-            digest.update(/* Bitmap to input stream */ image);
+            digest.update(pixels.array());
             byte[] messageDigest = digest.digest();
 
             StringBuffer hexString = new StringBuffer();
             for (int i = 0; i < messageDigest.length; i++) {
                 hexString.append(Integer.toHexString(0xFF & messageDigest[i]));
             }
-            hash = hexString.toString();
+            mImageHash = hexString.toString();
         } catch (NoSuchAlgorithmException e) {
             Log.e(TAG, "Failed to hash bitmap", e);
         }
-        return hash;
+        return mImageHash;
+    }
+
+    /**
+     * Encode the image, if it hasn't been yet, so that requests for it don't have to.
+     *
+     * The native format and the thumbnail format are both the 200 x 200 JPEG image, so a single
+     * encoding serves all the formats this image is available in.
+     */
+    public void encode() {
+        getEncodedImage();
+    }
+
+    /**
+     * Determine if the image has already been encoded
+     */
+    public boolean isEncoded() {
+        return mEncodedImage != null;
+    }
+
+    private byte[] getEncodedImage() {
+        byte[] bytes = mEncodedImage;
+        if (bytes != null || mImage == null) return bytes;
+        synchronized (this) {
+            if (mEncodedImage == null) {
+                debug("Encoding image");
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+                mEncodedImage = outputStream.toByteArray();
+            }
+            return mEncodedImage;
+        }
     }
 
     /**
@@ -115,11 +141,7 @@ public class CoverArt {
     public byte[] getImage() {
         debug("GetImage(native)");
         if (mImage == null) return null;
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getEncodedImage();
     }
 
     /**
@@ -133,12 +155,7 @@ public class CoverArt {
             error("Given format isn't available for this image");
             return null;
         }
-
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getEncodedImage();
     }
 
     /**
@@ -163,11 +180,7 @@ public class CoverArt {
     public byte[] getThumbnail() {
         debug("GetImageThumbnail()");
         if (mImage == null) return null;
-        byte[] bytes = null;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mImage.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        bytes = outputStream.toByteArray();
-        return bytes;
+        return getEncodedImage();
     }
 
     /**
@@ -199,7 +212,9 @@ public class CoverArt {
      * Get the storage size of this image in bytes
      */
     public int size() {
-        return mImage != null ? mImage.getAllocationByteCount() : 0;
+        byte[] encodedImage = mEncodedImage;
+        return (mImage != null ? mImage.getAllocationByteCount() : 0)
+                + (encodedImage != null ? encodedImage.length : 0);
     }
 
     @Override
@@ -87,12 +87,14 @@ public class AvrcpCoverArtManager {
      * A thread-safe collection of BIP connection specific imformation meant to be cleared each
      * time a client disconnects from the Target's BIP OBEX server.
      *
-     * Currently contains the mapping of image handles seen to assigned UUIDs.
+     * Currently contains the mapping of image handles seen to assigned UUIDs, and the handles of
+     * the evicted images being downloaded again.
      */
     private class AvrcpBipSession {
         private final BluetoothDevice mDevice;
         private Map<String, String> mUuids = new ConcurrentHashMap<>(1); /* handle -> UUID */
         private Map<String, String> mHandles = new ConcurrentHashMap<>(1); /* UUID -> handle */
+        private Set<String> mRedownloads = ConcurrentHashMap.newKeySet(1);
 
         AvrcpBipSession(BluetoothDevice device) {
             mDevice = device;
@@ -114,6 +116,15 @@ public class AvrcpCoverArtManager {
         public void clearHandleUuids() {
             mUuids.clear();
             mHandles.clear();
+            mRedownloads.clear();
+        }
+
+        public boolean startRedownload(String handle) {
+            return mRedownloads.add(handle);
+        }
+
+        public void finishRedownload(String handle) {
+            mRedownloads.remove(handle);
         }
 
         public Set<String> getSessionHandles() {
@@ -326,6 +337,41 @@ public class AvrcpCoverArtManager {
         return AvrcpCoverArtProvider.getImageUri(device, imageUuid);
     }
 
+    /**
+     * Download again an image which was evicted from storage while still in use
+     *
+     * Cover art Uris are handed out to BrowseTree nodes and metadata for the life of a connection,
+     * but storage only keeps a bounded amount of images. Once downloaded, the image is stored at
+     * the same Uri and its observers are notified. Only one download is issued for an image,
+     * however many times it is requested meanwhile.
+     *
+     * @param device The remote Bluetooth device the image belongs to
+     * @param imageUuid The UUID associated with the image that was requested
+     */
+    public void redownloadImage(BluetoothDevice device, String imageUuid) {
+        AvrcpBipSession session = getSession(device);
+        String imageHandle = getHandleForUuid(device, imageUuid);
+        if (session == null || imageHandle == null) {
+            debug("Image '" + imageUuid + "' is not part of the current session");
+            return;
+        }
+        if (!session.startRedownload(imageHandle)) {
+            debug("Image '" + imageUuid + "' is already being downloaded again");
+            return;
+        }
+        debug("Image '" + imageUuid + "' was evicted, download it again");
+        if (downloadImage(device, imageUuid) == null
+                || mCoverArtStorage.doesImageExist(device, imageUuid)) {
+            session.finishRedownload(imageHandle);
+        }
+    }
+
+    private void finishRedownload(BluetoothDevice device, String imageHandle) {
+        AvrcpBipSession session = getSession(device);
+        if (session == null) return;
+        session.finishRedownload(imageHandle);
+    }
+
     /**
      * Get a specific downloaded image if it exists
      *
@@ -336,6 +382,29 @@ public class AvrcpCoverArtManager {
         return mCoverArtStorage.getImage(device, imageUuid);
     }
 
+    /**
+     * Get a specific downloaded image if it exists, decoded no larger than needed for the given
+     * size
+     *
+     * @param device The remote Bluetooth device associated with the image
+     * @param imageUuid The UUID associated with the image you wish to retrieve
+     * @param width The width the image will be displayed at
+     * @param height The height the image will be displayed at
+     */
+    public Bitmap getImage(BluetoothDevice device, String imageUuid, int width, int height) {
+        return mCoverArtStorage.getImage(device, imageUuid, width, height);
+    }
+
+    /**
+     * Get the bytes of a specific downloaded image, as received, if they are available
+     *
+     * @param device The remote Bluetooth device associated with the image
+     * @param imageUuid The UUID associated with the image you wish to retrieve
+     */
+    public byte[] getImageData(BluetoothDevice device, String imageUuid) {
+        return mCoverArtStorage.getImageData(device, imageUuid);
+    }
+
     /**
      * Remove a specific downloaded image if it exists
      *
@@ -432,6 +501,7 @@ public class AvrcpCoverArtManager {
             if (status != ResponseCodes.OBEX_HTTP_OK || properties == null) {
                 warn(mDevice.getAddress() + ": GetImageProperties() failed - Handle: " + imageHandle
                         + ", Code: " + status);
+                finishRedownload(mDevice, imageHandle);
                 return;
             }
             BipImageDescriptor descriptor = determineImageDescriptor(properties);
@@ -448,6 +518,7 @@ public class AvrcpCoverArtManager {
 
         @Override
         public void onGetImageComplete(int status, String imageHandle, BipImage image) {
+            finishRedownload(mDevice, imageHandle);
             if (status != ResponseCodes.OBEX_HTTP_OK) {
                 warn(mDevice.getAddress() + ": GetImage() failed - Handle: " + imageHandle
                         + ", Code: " + status);
@@ -456,7 +527,8 @@ public class AvrcpCoverArtManager {
             String imageUuid = getUuidForHandle(mDevice, imageHandle);
             debug(mDevice.getAddress() + ": Received image data for handle: " + imageHandle
                     + ", uuid: " + imageUuid + ", image: " + image);
-            Uri uri = mCoverArtStorage.addImage(mDevice, imageUuid, image.getImage());
+            // Keep the image as received, it is decoded when requested
+            Uri uri = mCoverArtStorage.addImage(mDevice, imageUuid, image.getImageData());
             if (uri == null) {
                 error("Could not store downloaded image");
                 return;
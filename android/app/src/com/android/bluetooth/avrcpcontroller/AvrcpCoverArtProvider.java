@@ -19,10 +19,14 @@ package com.android.bluetooth.avrcpcontroller;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
@@ -34,7 +38,8 @@ import java.io.IOException;
  * A provider of downloaded cover art images.
  *
  * Cover art images are downloaded from remote devices and are promised to be "good" for the life of
- * a connection.
+ * a connection. Storage is bounded though, so an image requested after it was evicted is reported
+ * as not found while it is downloaded again, and observers of its Uri are notified once it is back.
  *
  * Android applications are provided a Uri with their MediaMetadata and MediaItem objects that
  * points back to this provider. Uris are in the following format:
@@ -73,7 +78,7 @@ public class AvrcpCoverArtProvider extends ContentProvider {
         return uri;
     }
 
-    private Bitmap getImage(BluetoothDevice device, String imageUuid) {
+    private AvrcpCoverArtManager getCoverArtManager() {
         AvrcpControllerService service = AvrcpControllerService.getAvrcpControllerService();
         if (service == null) {
             debug("Failed to get service, cover art not available");
@@ -85,15 +90,34 @@ public class AvrcpCoverArtProvider extends ContentProvider {
             debug("Failed to get cover art manager. Cover art may not be enabled.");
             return null;
         }
-        return manager.getImage(device, imageUuid);
+        return manager;
     }
 
-    private ParcelFileDescriptor getImageDescriptor(BluetoothDevice device, String imageUuid)
-            throws FileNotFoundException, IOException {
-        debug("getImageDescriptor(" + device + ", " + imageUuid + ")");
-        Bitmap image = getImage(device, imageUuid);
-        if (image == null) {
+    /*
+     * Images are sent as received from the remote device when possible, and only decoded when a
+     * specific size is requested, so that a large image is not decoded at full size to then be
+     * scaled down by the reader.
+     */
+    private ParcelFileDescriptor getImageDescriptor(BluetoothDevice device, String imageUuid,
+            Point size) throws FileNotFoundException, IOException {
+        debug("getImageDescriptor(" + device + ", " + imageUuid + ", " + size + ")");
+        AvrcpCoverArtManager manager = getCoverArtManager();
+        if (manager == null) {
+            throw new FileNotFoundException();
+        }
+
+        final byte[] data = size == null ? manager.getImageData(device, imageUuid) : null;
+        final Bitmap image;
+        if (data != null) {
+            image = null;
+        } else if (size == null) {
+            image = manager.getImage(device, imageUuid);
+        } else {
+            image = manager.getImage(device, imageUuid, size.x, size.y);
+        }
+        if (data == null && image == null) {
             debug("Could not get requested image");
+            manager.redownloadImage(device, imageUuid);
             throw new FileNotFoundException();
         }
 
@@ -103,7 +127,11 @@ public class AvrcpCoverArtProvider extends ContentProvider {
                 try {
                     FileOutputStream fout =
                             new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
-                    image.compress(Bitmap.CompressFormat.PNG, 100, fout);
+                    if (data != null) {
+                        fout.write(data);
+                    } else {
+                        image.compress(Bitmap.CompressFormat.PNG, 100, fout);
+                    }
                     fout.flush();
                     fout.close();
                 } catch (IOException e) {
@@ -115,9 +143,7 @@ public class AvrcpCoverArtProvider extends ContentProvider {
         return pipe[0];
     }
 
-    @Override
-    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
-        debug("openFile(" + uri + ", '" + mode + "')");
+    private ParcelFileDescriptor openImage(Uri uri, Point size) throws FileNotFoundException {
         String address = null;
         String imageUuid = null;
         BluetoothDevice device = null;
@@ -136,7 +162,7 @@ public class AvrcpCoverArtProvider extends ContentProvider {
 
         ParcelFileDescriptor pfd = null;
         try {
-            pfd = getImageDescriptor(device, imageUuid);
+            pfd = getImageDescriptor(device, imageUuid, size);
         } catch (IOException e) {
             debug("Failed to create inputstream from Bitmap");
             throw new FileNotFoundException();
@@ -144,6 +170,28 @@ public class AvrcpCoverArtProvider extends ContentProvider {
         return pfd;
     }
 
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        debug("openFile(" + uri + ", '" + mode + "')");
+        return openImage(uri, null);
+    }
+
+    /**
+     * Supports ContentResolver#loadThumbnail, decoding the image no larger than needed for the
+     * size given in the options
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        debug("openTypedAssetFile(" + uri + ", '" + mimeTypeFilter + "')");
+        Point size = opts != null ? opts.getParcelable(ContentResolver.EXTRA_SIZE) : null;
+        if (size == null || size.x <= 0 || size.y <= 0) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        return new AssetFileDescriptor(openImage(uri, size), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
     @Override
     public boolean onCreate() {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -19,35 +19,124 @@ package com.android.bluetooth.avrcpcontroller;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Pair;
 
+import com.android.bluetooth.R;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An abstraction of the cover art image storage mechanism.
+ *
+ * Images are kept in memory up to a total size in bytes, least recently used images being evicted
+ * first. The most recently added image is always kept. Images are kept as the compressed bytes
+ * received from the remote device whenever possible and only decoded when requested, at the
+ * requested size.
+ *
+ * Optionally, evicted images are spilled to a bounded on-disk cache from which they are loaded
+ * back when requested again. Files are only read and written outside of the images lock, an image
+ * being spilled is served from memory until its file is written.
  */
 public class AvrcpCoverArtStorage {
     private static final String TAG = "AvrcpCoverArtStorage";
     private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
 
+    private static final String DISK_CACHE_DIRECTORY = "avrcpcontroller_cover_art";
+
     private final Context mContext;
 
-    /* Each device gets its own place to land images. This makes it easier to clean things up on a
-     * per device basis. This also allows us to be confident that acting on one device will not
-     * impact the images of another.
-     *
-     * The "landing place" is simply a map that will direct a given UUID to the proper bitmap image
+    /*
+     * Images are keyed by device and UUID. The maps are ordered LRU -> MRU (true param does this)
+     * so that the least recently accessed images are removed first when running out of space.
+     */
+    private final Object mImagesLock = new Object();
+    private final int mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+    private final Map<Pair<BluetoothDevice, String>, StoredImage> mImages =
+            new LinkedHashMap<>(0, 0.75f /* default load factor */, true);
+    private final Map<Pair<BluetoothDevice, String>, DiskImage> mDiskImages =
+            new LinkedHashMap<>(0, 0.75f /* default load factor */, true);
+    private int mMemoryBytes = 0;
+    private long mDiskBytes = 0;
+    private final File mDiskCacheDir;
+
+    /*
+     * Each spilled image gets its own file so that deleting the file of a removed image never
+     * races with writing the file of a newer one. The prefix keeps the names of this instance
+     * apart from whatever a previous instance left on disk.
+     */
+    private final String mDiskFilePrefix = Long.toHexString(SystemClock.elapsedRealtimeNanos());
+    private long mNextDiskFileId = 0;
+
+    /**
+     * An image as stored, either its compressed bytes or, if those are not available, its bitmap
      */
-    private final Map<BluetoothDevice, Map<String, Bitmap>> mDeviceImages =
-            new ConcurrentHashMap<>(1);
+    private static class StoredImage {
+        final byte[] mData;
+        final Bitmap mBitmap;
+
+        StoredImage(byte[] data, Bitmap bitmap) {
+            mData = data;
+            mBitmap = bitmap;
+        }
+
+        int size() {
+            return mData != null ? mData.length : mBitmap.getAllocationByteCount();
+        }
+    }
+
+    /**
+     * An image spilled to disk. Its bytes are kept until its file is written. Guarded by the
+     * images lock.
+     */
+    private static class DiskImage {
+        final File mFile;
+        final int mSize;
+        byte[] mPendingData;
+        boolean mRemoved = false;
+
+        DiskImage(File file, byte[] data) {
+            mFile = file;
+            mSize = data.length;
+            mPendingData = data;
+        }
+    }
 
     /**
      * Create and initialize this Cover Art storage interface
      */
     public AvrcpCoverArtStorage(Context context) {
+        this(context,
+                context.getResources().getInteger(R.integer.avrcp_controller_cover_art_cache_size)
+                        * 1024,
+                context.getResources().getInteger(
+                        R.integer.avrcp_controller_cover_art_disk_cache_size) * 1024L);
+    }
+
+    /**
+     * Create a Cover Art storage with the given bounds
+     *
+     * @param maxMemoryBytes - The amount of image bytes kept in memory
+     * @param maxDiskBytes - The amount of image bytes kept on disk, 0 to not spill to disk
+     */
+    @VisibleForTesting
+    AvrcpCoverArtStorage(Context context, int maxMemoryBytes, long maxDiskBytes) {
         mContext = context;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
     }
 
     /**
@@ -58,9 +147,10 @@ public class AvrcpCoverArtStorage {
      */
     public boolean doesImageExist(BluetoothDevice device, String imageUuid) {
         if (device == null || imageUuid == null || "".equals(imageUuid)) return false;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
-        if (images == null) return false;
-        return images.containsKey(imageUuid);
+        Pair<BluetoothDevice, String> key = new Pair<>(device, imageUuid);
+        synchronized (mImagesLock) {
+            return mImages.containsKey(key) || mDiskImages.containsKey(key);
+        }
     }
 
     /**
@@ -71,10 +161,46 @@ public class AvrcpCoverArtStorage {
      * @return A Bitmap object of the image
      */
     public Bitmap getImage(BluetoothDevice device, String imageUuid) {
-        if (device == null || imageUuid == null || "".equals(imageUuid)) return null;
-        Map<String, Bitmap> images = mDeviceImages.get(device);
-        if (images == null) return null;
-        return images.get(imageUuid);
+        return getImage(device, imageUuid, 0, 0);
+    }
+
+    /**
+     * Retrieve an image from storage, decoded at a reduced size if it is larger than needed
+     *
+     * @param device - The device the images was downloaded from
+     * @param imageUuid - The UUID that identifies the image
+     * @param width - The width the image will be displayed at, 0 for the full size image
+     * @param height - The height the image will be displayed at, 0 for the full size image
+     * @return A Bitmap object of the image, downsampled as long as it stays at least as large as
+     *         the given size
+     */
+    public Bitmap getImage(BluetoothDevice device, String imageUuid, int width, int height) {
+        StoredImage image = getStoredImage(device, imageUuid);
+        if (image == null) return null;
+        if (image.mData == null) return image.mBitmap;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (width > 0 && height > 0) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(image.mData, 0, image.mData.length, options);
+            options.inSampleSize =
+                    getSampleSize(options.outWidth, options.outHeight, width, height);
+            options.inJustDecodeBounds = false;
+        }
+        return BitmapFactory.decodeByteArray(image.mData, 0, image.mData.length, options);
+    }
+
+    /**
+     * Retrieve the compressed bytes of an image from storage
+     *
+     * @param device - The device the images was downloaded from
+     * @param imageUuid - The UUID that identifies the image
+     * @return The bytes of the image as received, or null if only its Bitmap is available
+     */
+    public byte[] getImageData(BluetoothDevice device, String imageUuid) {
+        StoredImage image = getStoredImage(device, imageUuid);
+        if (image == null) return null;
+        return image.mData;
     }
 
     /**
@@ -85,22 +211,43 @@ public class AvrcpCoverArtStorage {
      * @param image - The image
      */
     public Uri addImage(BluetoothDevice device, String imageUuid, Bitmap image) {
+        if (image == null) {
+            debug("Cannot store image. Improper aruguments");
+            return null;
+        }
+        return addImage(device, imageUuid, new StoredImage(null, image));
+    }
+
+    /**
+     * Add an image to storage, as it was received
+     *
+     * @param device - The device the images was downloaded from
+     * @param imageUuid - The UUID that identifies the image
+     * @param data - The compressed bytes of the image, in a format BitmapFactory can decode
+     */
+    public Uri addImage(BluetoothDevice device, String imageUuid, byte[] data) {
+        if (data == null) {
+            debug("Cannot store image. Improper aruguments");
+            return null;
+        }
+        return addImage(device, imageUuid, new StoredImage(data, null));
+    }
+
+    private Uri addImage(BluetoothDevice device, String imageUuid, StoredImage image) {
         debug("Storing image '" + imageUuid + "' from device " + device);
-        if (device == null || imageUuid == null || "".equals(imageUuid) || image == null) {
+        if (device == null || imageUuid == null || "".equals(imageUuid)) {
             debug("Cannot store image. Improper aruguments");
             return null;
         }
 
-        // A Thread safe way of creating a new UUID->Image set for a device. The putIfAbsent()
-        // function will return the value of the key if it wasn't absent. If it returns null, then
-        // there was no value there and we are to assume the reference we passed in was added.
-        Map<String, Bitmap> newImageSet = new ConcurrentHashMap<String, Bitmap>(1);
-        Map<String, Bitmap> images = mDeviceImages.putIfAbsent(device, newImageSet);
-        if (images == null) {
-            newImageSet.put(imageUuid, image);
-        } else {
-            images.put(imageUuid, image);
+        Pair<BluetoothDevice, String> key = new Pair<>(device, imageUuid);
+        List<Runnable> diskWork = new ArrayList<>();
+        synchronized (mImagesLock) {
+            // A new image replaces any spilled copy of an older one
+            removeFromDisk(key, diskWork);
+            putInMemory(key, image, diskWork);
         }
+        runDiskWork(diskWork);
 
         Uri uri = AvrcpCoverArtProvider.getImageUri(device, imageUuid);
         mContext.getContentResolver().notifyChange(uri, null);
@@ -118,15 +265,13 @@ public class AvrcpCoverArtStorage {
         debug("Removing image '" + imageUuid + "' from device " + device);
         if (device == null || imageUuid == null || "".equals(imageUuid)) return;
 
-        Map<String, Bitmap> images = mDeviceImages.get(device);
-        if (images == null) {
-            return;
-        }
-
-        images.remove(imageUuid);
-        if (images.size() == 0) {
-            mDeviceImages.remove(device);
+        Pair<BluetoothDevice, String> key = new Pair<>(device, imageUuid);
+        List<Runnable> diskWork = new ArrayList<>();
+        synchronized (mImagesLock) {
+            removeFromMemory(key);
+            removeFromDisk(key, diskWork);
         }
+        runDiskWork(diskWork);
 
         debug("Image '" + imageUuid + "' removed for device '" + device.getAddress() + "'");
     }
@@ -139,7 +284,20 @@ public class AvrcpCoverArtStorage {
     public void removeImagesForDevice(BluetoothDevice device) {
         if (device == null) return;
         debug("Remove cover art for device " + device.getAddress());
-        mDeviceImages.remove(device);
+        List<Runnable> diskWork = new ArrayList<>();
+        synchronized (mImagesLock) {
+            for (Pair<BluetoothDevice, String> key : new ArrayList<>(mImages.keySet())) {
+                if (device.equals(key.first)) {
+                    removeFromMemory(key);
+                }
+            }
+            for (Pair<BluetoothDevice, String> key : new ArrayList<>(mDiskImages.keySet())) {
+                if (device.equals(key.first)) {
+                    removeFromDisk(key, diskWork);
+                }
+            }
+        }
+        runDiskWork(diskWork);
     }
 
     /**
@@ -147,19 +305,209 @@ public class AvrcpCoverArtStorage {
      */
     public void clear() {
         debug("Clearing all images");
-        mDeviceImages.clear();
+        // Also drops whatever a previous instance left on disk. Listed first so that only files
+        // of images cleared below are deleted, never the ones of images spilled afterwards.
+        File[] files = mDiskCacheDir.listFiles();
+        List<Runnable> diskWork = new ArrayList<>();
+        synchronized (mImagesLock) {
+            mImages.clear();
+            mMemoryBytes = 0;
+            for (Pair<BluetoothDevice, String> key : new ArrayList<>(mDiskImages.keySet())) {
+                removeFromDisk(key, diskWork);
+            }
+        }
+        runDiskWork(diskWork);
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private StoredImage getStoredImage(BluetoothDevice device, String imageUuid) {
+        if (device == null || imageUuid == null || "".equals(imageUuid)) return null;
+        Pair<BluetoothDevice, String> key = new Pair<>(device, imageUuid);
+        List<Runnable> diskWork = new ArrayList<>();
+        try {
+            DiskImage diskImage;
+            synchronized (mImagesLock) {
+                StoredImage image = mImages.get(key);
+                if (image != null) return image;
+                diskImage = mDiskImages.get(key);
+                if (diskImage == null) return null;
+                if (diskImage.mPendingData != null) {
+                    return loadInMemory(key, diskImage.mPendingData, diskWork);
+                }
+            }
+
+            byte[] data = readFromDisk(key, diskImage);
+            synchronized (mImagesLock) {
+                if (data == null) {
+                    if (!diskImage.mRemoved) removeFromDisk(key, diskWork);
+                    return null;
+                }
+                // The image may have been added again or removed while its file was read
+                StoredImage image = mImages.get(key);
+                if (image != null || diskImage.mRemoved) return image;
+                return loadInMemory(key, data, diskWork);
+            }
+        } finally {
+            runDiskWork(diskWork);
+        }
+    }
+
+    private StoredImage loadInMemory(Pair<BluetoothDevice, String> key, byte[] data,
+            List<Runnable> diskWork) {
+        StoredImage image = new StoredImage(data, null);
+        putInMemory(key, image, diskWork);
+        return image;
+    }
+
+    /**
+     * Run the file reads, writes and deletes collected while holding the images lock
+     */
+    private static void runDiskWork(List<Runnable> diskWork) {
+        for (Runnable work : diskWork) {
+            work.run();
+        }
+    }
+
+    private void putInMemory(Pair<BluetoothDevice, String> key, StoredImage image,
+            List<Runnable> diskWork) {
+        removeFromMemory(key);
+        mImages.put(key, image);
+        mMemoryBytes += image.size();
+
+        Iterator<Map.Entry<Pair<BluetoothDevice, String>, StoredImage>> it =
+                mImages.entrySet().iterator();
+        // The image just added is always kept, even if larger than the whole budget
+        while (mMemoryBytes > mMaxMemoryBytes && mImages.size() > 1) {
+            Map.Entry<Pair<BluetoothDevice, String>, StoredImage> entry = it.next();
+            debug("Evicting '" + entry.getKey().second + "' from memory");
+            it.remove();
+            mMemoryBytes -= entry.getValue().size();
+            spillToDisk(entry.getKey(), entry.getValue(), diskWork);
+        }
+    }
+
+    private void removeFromMemory(Pair<BluetoothDevice, String> key) {
+        StoredImage image = mImages.remove(key);
+        if (image != null) {
+            mMemoryBytes -= image.size();
+        }
+    }
+
+    private void spillToDisk(Pair<BluetoothDevice, String> key, StoredImage image,
+            List<Runnable> diskWork) {
+        if (image.mData == null || image.mData.length > mMaxDiskBytes) return;
+        if (mDiskImages.containsKey(key)) return;
+
+        File file = new File(mDiskCacheDir, mDiskFilePrefix + "_" + mNextDiskFileId++);
+        DiskImage diskImage = new DiskImage(file, image.mData);
+        mDiskImages.put(key, diskImage);
+        mDiskBytes += diskImage.mSize;
+        diskWork.add(() -> writeToDisk(key, diskImage));
+
+        Iterator<Map.Entry<Pair<BluetoothDevice, String>, DiskImage>> it =
+                mDiskImages.entrySet().iterator();
+        while (mDiskBytes > mMaxDiskBytes && it.hasNext()) {
+            Map.Entry<Pair<BluetoothDevice, String>, DiskImage> entry = it.next();
+            debug("Evicting '" + entry.getKey().second + "' from disk");
+            it.remove();
+            onRemovedFromDisk(entry.getValue(), diskWork);
+        }
+    }
+
+    private void writeToDisk(Pair<BluetoothDevice, String> key, DiskImage diskImage) {
+        byte[] data;
+        synchronized (mImagesLock) {
+            data = diskImage.mPendingData;
+        }
+        // Evicted or removed before its turn came
+        if (data == null) return;
+
+        boolean written = false;
+        try {
+            mDiskCacheDir.mkdirs();
+            Files.write(diskImage.mFile.toPath(), data);
+            written = true;
+        } catch (IOException e) {
+            warn("Failed to write image '" + key.second + "' to disk: " + e);
+        }
+
+        synchronized (mImagesLock) {
+            if (!diskImage.mRemoved) {
+                if (written) {
+                    diskImage.mPendingData = null;
+                    return;
+                }
+                mDiskImages.remove(key);
+                mDiskBytes -= diskImage.mSize;
+                diskImage.mRemoved = true;
+            }
+        }
+        // Removed while being written, or partially written
+        diskImage.mFile.delete();
+    }
+
+    private byte[] readFromDisk(Pair<BluetoothDevice, String> key, DiskImage diskImage) {
+        try {
+            return Files.readAllBytes(diskImage.mFile.toPath());
+        } catch (IOException e) {
+            warn("Failed to read image '" + key.second + "' from disk: " + e);
+            return null;
+        }
+    }
+
+    private void removeFromDisk(Pair<BluetoothDevice, String> key, List<Runnable> diskWork) {
+        DiskImage diskImage = mDiskImages.remove(key);
+        if (diskImage != null) {
+            onRemovedFromDisk(diskImage, diskWork);
+        }
+    }
+
+    private void onRemovedFromDisk(DiskImage diskImage, List<Runnable> diskWork) {
+        mDiskBytes -= diskImage.mSize;
+        diskImage.mRemoved = true;
+        // A file still being written is deleted by its writer once done
+        if (diskImage.mPendingData == null) {
+            diskWork.add(diskImage.mFile::delete);
+        } else {
+            diskImage.mPendingData = null;
+        }
+    }
+
+    /**
+     * Get the largest power of two sample size keeping the image at least as large as requested
+     */
+    @VisibleForTesting
+    static int getSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
     }
 
     @Override
     public String toString() {
         String s = "CoverArtStorage:\n";
-        for (BluetoothDevice device : mDeviceImages.keySet()) {
-            Map<String, Bitmap> images = mDeviceImages.get(device);
-            s += "  " + device.getAddress() + " (" + images.size() + "):";
-            for (String uuid : images.keySet()) {
-                s += "\n    " + uuid;
+        synchronized (mImagesLock) {
+            s += "  Memory: " + mMemoryBytes + " / " + mMaxMemoryBytes + " bytes, "
+                    + mImages.size() + " images\n";
+            s += "  Disk: " + mDiskBytes + " / " + mMaxDiskBytes + " bytes, "
+                    + mDiskImages.size() + " images\n";
+            // Be sure to use entry set below or each access will count to the ordering
+            for (Map.Entry<Pair<BluetoothDevice, String>, StoredImage> entry
+                    : mImages.entrySet()) {
+                s += "    " + entry.getKey().first.getAddress() + " " + entry.getKey().second
+                        + " (" + entry.getValue().size() + ")\n";
+            }
+            for (Map.Entry<Pair<BluetoothDevice, String>, DiskImage> entry
+                    : mDiskImages.entrySet()) {
+                s += "    " + entry.getKey().first.getAddress() + " " + entry.getKey().second
+                        + " (" + entry.getValue().mSize + ", disk)\n";
             }
-            s += "\n";
         }
         return s;
     }
@@ -170,6 +518,10 @@ public class AvrcpCoverArtStorage {
         }
     }
 
+    private void warn(String msg) {
+        Log.w(TAG, msg);
+    }
+
     private void error(String msg) {
         Log.e(TAG, msg);
     }
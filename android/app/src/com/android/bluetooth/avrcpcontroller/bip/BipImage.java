@@ -18,7 +18,10 @@ package com.android.bluetooth.avrcpcontroller;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -26,9 +29,14 @@ import java.io.InputStream;
  *
  * The image is sent as bytes in the payload of a GetImage request. The format of those bytes is
  * determined by the BipImageDescriptor used when making the request.
+ *
+ * Received images are kept as these bytes, and only decoded if their Bitmap is requested.
  */
 public class BipImage {
+    private static final String TAG = "avrcpcontroller.BipImage";
+
     private final String mImageHandle;
+    private byte[] mImageData = null;
     private Bitmap mImage = null;
 
     public BipImage(String imageHandle, InputStream inputStream) {
@@ -42,16 +50,46 @@ public class BipImage {
     }
 
     private void parse(InputStream inputStream) {
-        // BitmapFactory can handle BMP, GIF, JPEG, PNG, WebP, and HEIF formats. Returns null if
-        // the stream couldn't be parsed.
-        mImage = BitmapFactory.decodeStream(inputStream);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                data.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read image: " + e);
+            return;
+        }
+
+        // BitmapFactory can handle BMP, GIF, JPEG, PNG, WebP, and HEIF formats. Only the header is
+        // decoded here, to drop data that couldn't be parsed.
+        byte[] bytes = data.toByteArray();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            mImageData = bytes;
+        }
     }
 
     public String getImageHandle() {
         return mImageHandle;
     }
 
+    /**
+     * Get the image as received, in a format BitmapFactory can decode
+     *
+     * @return The bytes of the image, or null if the image was not received or can't be decoded
+     */
+    public byte[] getImageData() {
+        return mImageData;
+    }
+
     public Bitmap getImage() {
+        if (mImage == null && mImageData != null) {
+            mImage = BitmapFactory.decodeByteArray(mImageData, 0, mImageData.length);
+        }
         return mImage;
     }
 }
@@ -182,6 +182,9 @@ public class AdapterService extends Service {
     private final ArrayList<String> mStartedProfiles = new ArrayList<>();
     private final ArrayList<ProfileService> mRegisteredProfiles = new ArrayList<>();
     private final ArrayList<ProfileService> mRunningProfiles = new ArrayList<>();
+    private final ArrayList<ProfileService> mFailedProfiles = new ArrayList<>();
+    private final ProfileStartScheduler mProfileStartScheduler = new ProfileStartScheduler(
+            profile -> setProfileServiceState(profile, BluetoothAdapter.STATE_ON));
 
     public static final String ACTION_LOAD_ADAPTER_PROPERTIES =
             "com.android.bluetooth.btservice.action.LOAD_ADAPTER_PROPERTIES";
@@ -364,6 +367,15 @@ public class AdapterService extends Service {
         mHandler.sendMessage(m);
     }
 
+    /**
+     * Notify AdapterService that the start of a ProfileService failed.
+     *
+     * @param profile the service which failed to start.
+     */
+    public void onProfileServiceStartFailed(ProfileService profile) {
+        mHandler.obtainMessage(MESSAGE_PROFILE_SERVICE_START_FAILED, profile).sendToTarget();
+    }
+
     /**
      * Confirm whether the ProfileService is started expectedly.
      *
@@ -374,9 +386,17 @@ public class AdapterService extends Service {
         return mStartedProfiles.contains(serviceSampleName);
     }
 
+    /**
+     * Returns the scheduler running the start of the profile services.
+     */
+    ProfileStartScheduler getProfileStartScheduler() {
+        return mProfileStartScheduler;
+    }
+
     private static final int MESSAGE_PROFILE_SERVICE_STATE_CHANGED = 1;
     private static final int MESSAGE_PROFILE_SERVICE_REGISTERED = 2;
     private static final int MESSAGE_PROFILE_SERVICE_UNREGISTERED = 3;
+    private static final int MESSAGE_PROFILE_SERVICE_START_FAILED = 4;
 
     class AdapterServiceHandler extends Handler {
         @Override
@@ -396,6 +416,10 @@ public class AdapterService extends Service {
                     verboseLog("handleMessage() - MESSAGE_PROFILE_SERVICE_UNREGISTERED");
                     unregisterProfileService((ProfileService) msg.obj);
                     break;
+                case MESSAGE_PROFILE_SERVICE_START_FAILED:
+                    verboseLog("handleMessage() - MESSAGE_PROFILE_SERVICE_START_FAILED");
+                    processProfileServiceStartFailed((ProfileService) msg.obj);
+                    break;
             }
         }
 
@@ -413,6 +437,30 @@ public class AdapterService extends Service {
                 return;
             }
             mRegisteredProfiles.remove(profile);
+            mFailedProfiles.remove(profile);
+        }
+
+        private void processProfileServiceStartFailed(ProfileService profile) {
+            if (!mRegisteredProfiles.contains(profile) || mFailedProfiles.contains(profile)) {
+                return;
+            }
+            Log.e(TAG, profile.getName() + " failed to start.");
+            mFailedProfiles.add(profile);
+            // The profiles depending on it are started without it
+            mProfileStartScheduler.onProfileStartFailed(profile.getName());
+            startDeferredIfStartFailed();
+        }
+
+        /* BREDR_STARTED is not sent when a profile failed to start, but the running profiles still
+         * do their deferred initialization, as they did when it was part of their start(). */
+        private void startDeferredIfStartFailed() {
+            if (!mFailedProfiles.isEmpty()
+                    && mRegisteredProfiles.size() == Config.getSupportedProfiles().length
+                    && mRegisteredProfiles.size()
+                            == mRunningProfiles.size() + mFailedProfiles.size()) {
+                Log.w(TAG, mFailedProfiles.size() + " profiles failed to start");
+                post(() -> startDeferredProfileServices());
+            }
         }
 
         private void processProfileServiceStateChanged(ProfileService profile, int state) {
@@ -427,6 +475,7 @@ public class AdapterService extends Service {
                         return;
                     }
                     mRunningProfiles.add(profile);
+                    mProfileStartScheduler.onProfileStarted(profile.getName());
                     // TODO(b/228875190): GATT is assumed supported. GATT starting triggers hardware
                     // initializtion. Configuring a device without GATT causes start up failures.
                     if (GattService.class.getSimpleName().equals(profile.getName())) {
@@ -441,6 +490,9 @@ public class AdapterService extends Service {
                         getAdapterPropertyNative(AbstractionLayer.BT_PROPERTY_LOCAL_IO_CAPS_BLE);
                         getAdapterPropertyNative(AbstractionLayer.BT_PROPERTY_DYNAMIC_AUDIO_BUFFER);
                         mAdapterStateMachine.sendMessage(AdapterState.BREDR_STARTED);
+                        post(() -> startDeferredProfileServices());
+                    } else {
+                        startDeferredIfStartFailed();
                     }
                     break;
                 case BluetoothAdapter.STATE_OFF:
@@ -471,6 +523,13 @@ public class AdapterService extends Service {
 
     private final AdapterServiceHandler mHandler = new AdapterServiceHandler();
 
+    private void startDeferredProfileServices() {
+        debugLog("startDeferredProfileServices()");
+        for (ProfileService profile : mRunningProfiles) {
+            profile.startDeferred();
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -705,7 +764,16 @@ public class AdapterService extends Service {
             setBluetoothClassFromConfig();
             mAdapterStateMachine.sendMessage(AdapterState.BREDR_STARTED);
         } else {
-            setAllProfileServiceStates(supportedProfileServices, BluetoothAdapter.STATE_ON);
+            ArrayList<Class> profileServices = new ArrayList<>();
+            for (Class service : supportedProfileServices) {
+                // TODO(b/228875190): GATT is assumed supported and started as part of the
+                // "BLE ON" state.
+                if (!GattService.class.getSimpleName().equals(service.getSimpleName())) {
+                    profileServices.add(service);
+                }
+            }
+            mFailedProfiles.clear();
+            mProfileStartScheduler.start(profileServices.toArray(new Class[0]));
         }
     }
 
@@ -713,6 +781,7 @@ public class AdapterService extends Service {
         // Make sure to stop classic background tasks now
         cancelDiscoveryNative();
         mAdapterProperties.setScanMode(AbstractionLayer.BT_SCAN_MODE_NONE);
+        mProfileStartScheduler.cancel();
 
         Class[] supportedProfileServices = Config.getSupportedProfiles();
         // TODO(b/228875190): GATT is assumed supported. If we support no profiles then just move on
@@ -884,6 +953,8 @@ public class AdapterService extends Service {
 
         clearAdapterService(this);
 
+        mProfileStartScheduler.cleanup();
+
         mCleaningUp = true;
         invalidateBluetoothCaches();
 
@@ -986,6 +1057,7 @@ public class AdapterService extends Service {
         BluetoothAdapter.invalidateGetProfileConnectionStateCache();
         BluetoothAdapter.invalidateIsOffloadedFilteringSupportedCache();
         BluetoothDevice.invalidateBluetoothGetBondStateCache();
+        BluetoothDevice.invalidateBluetoothGetDevicePropertiesCache();
         BluetoothAdapter.invalidateBluetoothGetStateCache();
         BluetoothAdapter.invalidateGetAdapterConnectionStateCache();
         BluetoothMap.invalidateBluetoothGetConnectionStateCache();
@@ -2697,6 +2769,50 @@ public class AdapterService extends Service {
             return Arrays.asList(parcels);
         }
 
+        @Override
+        public void getRemoteDeviceProperties(BluetoothDevice device, AttributionSource source,
+                SynchronousResultReceiver receiver) {
+            try {
+                receiver.send(getRemoteDeviceProperties(device, source));
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private Bundle getRemoteDeviceProperties(
+                BluetoothDevice device, AttributionSource attributionSource) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(
+                            service, TAG, "getRemoteDeviceProperties")
+                    || !Utils.checkConnectPermissionForDataDelivery(service, attributionSource,
+                            "AdapterService getRemoteDeviceProperties")) {
+                return null;
+            }
+
+            Bundle properties = new Bundle();
+            DeviceProperties deviceProp = service.mRemoteDevices.getDeviceProperties(device);
+            if (deviceProp == null) {
+                properties.putInt(BluetoothDevice.DEVICE_PROPERTY_TYPE,
+                        BluetoothDevice.DEVICE_TYPE_UNKNOWN);
+                properties.putInt(BluetoothDevice.DEVICE_PROPERTY_BATTERY_LEVEL,
+                        BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+                return properties;
+            }
+            properties.putString(BluetoothDevice.DEVICE_PROPERTY_NAME, deviceProp.getName());
+            properties.putString(BluetoothDevice.DEVICE_PROPERTY_ALIAS, deviceProp.getAlias());
+            properties.putInt(BluetoothDevice.DEVICE_PROPERTY_TYPE, deviceProp.getDeviceType());
+            properties.putInt(BluetoothDevice.DEVICE_PROPERTY_CLASS,
+                    deviceProp.getBluetoothClass());
+            properties.putParcelableArray(BluetoothDevice.DEVICE_PROPERTY_UUIDS,
+                    deviceProp.getUuids());
+            // Same as getBatteryLevel(), the battery level is not shared with managed profiles
+            properties.putInt(BluetoothDevice.DEVICE_PROPERTY_BATTERY_LEVEL,
+                    callerIsSystemOrActiveUser(TAG, "getRemoteDeviceProperties")
+                            ? deviceProp.getBatteryLevel()
+                            : BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+            return properties;
+        }
+
         @Override
         public boolean fetchRemoteUuids(BluetoothDevice device) {
             if (mService == null) {
@@ -3922,10 +4038,10 @@ public class AdapterService extends Service {
     }
 
     public String getIdentityAddress(String address) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address.toUpperCase());
-        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
-        if (deviceProp != null && deviceProp.getIdentityAddress() != null) {
-            return deviceProp.getIdentityAddress();
+        // Called for every scan result, must not take the RemoteDevices lock.
+        String identityAddress = mRemoteDevices.getIdentityAddress(address);
+        if (identityAddress != null) {
+            return identityAddress;
         } else {
             return address;
         }
@@ -5007,6 +5123,7 @@ public class AdapterService extends Service {
         writer.println();
 
         mAdapterStateMachine.dump(fd, writer, args);
+        mProfileStartScheduler.dump(writer);
 
         StringBuilder sb = new StringBuilder();
         for (ProfileService profile : mRegisteredProfiles) {
@@ -5014,6 +5131,7 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        mRemoteDevices.dump(writer);
 
         writer.write(sb.toString());
         writer.flush();
@@ -36,6 +36,9 @@ import android.util.Log;
 
 import com.android.bluetooth.BluetoothMetricsProto;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * Base class for a background service that runs a Bluetooth profile
  */
@@ -62,7 +65,8 @@ public abstract class ProfileService extends Service {
     private final String mName;
     private AdapterService mAdapterService;
     private BroadcastReceiver mUserSwitchedReceiver;
-    private boolean mProfileStarted = false;
+    private volatile boolean mProfileStarted = false;
+    private Future<?> mPendingStart;
     private volatile boolean mTestModeEnabled = false;
 
     public String getName() {
@@ -100,6 +104,23 @@ public abstract class ProfileService extends Service {
     @SuppressLint("AndroidFrameworkRequiresPermission")
     protected abstract boolean start();
 
+    /**
+     * Whether {@link #start()} may run on a background thread, concurrently with the start of
+     * other profiles. Profiles whose start needs the main thread, e.g. to create handlers on its
+     * looper, must keep the default.
+     */
+    protected boolean canStartInBackground() {
+        return false;
+    }
+
+    /**
+     * Called on the main thread once all the supported profiles are started, for initialization
+     * which is not needed before the profile is reported as started, such as loading data.
+     */
+    // Suppressed since this is called from framework
+    @SuppressLint("AndroidFrameworkRequiresPermission")
+    protected void startDeferred() {}
+
     /**
      * Called in {@link #onStartCommand(Intent, int, int)} when the service is stopped by intent
      *
@@ -299,6 +320,7 @@ public abstract class ProfileService extends Service {
     // Suppressed since this is called from framework
     @SuppressLint("AndroidFrameworkRequiresPermission")
     public void onDestroy() {
+        waitForPendingStart();
         cleanup();
         if (mBinder != null) {
             mBinder.cleanup();
@@ -355,7 +377,23 @@ public abstract class ProfileService extends Service {
         if (userManager.isUserUnlocked(UserHandle.of(currentUserId))) {
             setUserUnlocked(currentUserId);
         }
-        mProfileStarted = start();
+        ProfileStartScheduler scheduler = mAdapterService.getProfileStartScheduler();
+        if (scheduler != null) {
+            mPendingStart = scheduler.run(mName, this::startProfile, canStartInBackground());
+        } else {
+            startProfile();
+        }
+    }
+
+    private void startProfile() {
+        try {
+            mProfileStarted = start();
+        } finally {
+            // The profiles depending on this one must not wait for it
+            if (!mProfileStarted) {
+                mAdapterService.onProfileServiceStartFailed(this);
+            }
+        }
         if (!mProfileStarted) {
             Log.e(mName, "Error starting profile. start() returned false.");
             return;
@@ -363,11 +401,28 @@ public abstract class ProfileService extends Service {
         mAdapterService.onProfileServiceStateChanged(this, BluetoothAdapter.STATE_ON);
     }
 
+    private void waitForPendingStart() {
+        if (mPendingStart == null) {
+            return;
+        }
+        try {
+            mPendingStart.get();
+        } catch (ExecutionException e) {
+            Log.e(mName, "Error starting profile", e.getCause());
+        } catch (InterruptedException e) {
+            Log.e(mName, "Interrupted while waiting for the profile to start");
+            Thread.currentThread().interrupt();
+        }
+        mPendingStart = null;
+    }
+
     private void doStop() {
         if (mAdapterService == null || mAdapterService.isStartedProfile(mName)) {
             Log.w(mName, "Unexpectedly do Stop, don't stop.");
             return;
         }
+        // A background start must complete before the profile is stopped
+        waitForPendingStart();
         if (!mProfileStarted) {
             Log.w(mName, "doStop() called, but the profile is not running.");
         }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.a2dp.A2dpService;
+import com.android.bluetooth.avrcp.AvrcpTargetService;
+import com.android.bluetooth.le_audio.LeAudioService;
+import com.android.bluetooth.mcp.McpService;
+import com.android.bluetooth.tbs.TbsService;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the profile services when Bluetooth is turned on.
+ *
+ * <p>A profile is only asked to start once the profiles it depends on are running, or have
+ * failed to start, in which case it starts without them as it did before this ordering. The
+ * {@link ProfileService#start()} of the profiles which allow it runs on a small pool of threads,
+ * concurrently with the start of the other profiles, instead of one after the other on the main
+ * thread. The start timeline of each profile is kept for dumpsys.
+ */
+class ProfileStartScheduler {
+    private static final boolean DBG = true;
+    private static final String TAG = "BluetoothProfileStartScheduler";
+
+    @VisibleForTesting
+    static final int MAX_START_THREADS = 4;
+    private static final long START_THREAD_KEEP_ALIVE_MS = 10000;
+
+    /** Profiles which are only started once all the listed profiles are running. */
+    private static final Map<Class, Class[]> DEPENDENCIES = new HashMap<>();
+    static {
+        // The AVRCP target reads the active A2DP device when it starts
+        DEPENDENCIES.put(AvrcpTargetService.class, new Class[] {A2dpService.class});
+        // LE Audio expects TBS and MCS to be initialized before it accepts connections
+        DEPENDENCIES.put(LeAudioService.class, new Class[] {TbsService.class, McpService.class});
+    }
+
+    /** Sends the start request of a profile service */
+    interface ProfileStarter {
+        void startProfile(Class profile);
+    }
+
+    /** Start timeline of a profile, relative to the start of all the profiles */
+    private static class StartEvents {
+        long mRequested = -1;
+        long mStarted = -1;
+        long mFinished = -1;
+        long mRunning = -1;
+        boolean mBackground;
+        boolean mFailed;
+    }
+
+    private final ProfileStarter mStarter;
+    private final Map<Class, Class[]> mDependencies;
+    private final ExecutorService mExecutor;
+
+    // Guarded by this: profiles are started from the adapter state machine, reported running on
+    // the main thread and timed on the start threads. The waiting profiles are in start order.
+    private final List<Class> mWaitingProfiles = new ArrayList<>();
+    private final Set<String> mProfiles = new HashSet<>();
+    private final Set<String> mRunningProfiles = new HashSet<>();
+    private final Set<String> mFailedProfiles = new HashSet<>();
+    private final Map<String, StartEvents> mTimeline = new LinkedHashMap<>();
+    private long mStartTime;
+
+    ProfileStartScheduler(ProfileStarter starter) {
+        this(starter, DEPENDENCIES, createExecutor());
+    }
+
+    @VisibleForTesting
+    ProfileStartScheduler(ProfileStarter starter, Map<Class, Class[]> dependencies,
+            ExecutorService executor) {
+        mStarter = starter;
+        mDependencies = dependencies;
+        mExecutor = executor;
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_START_THREADS,
+                MAX_START_THREADS, START_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(r, "BluetoothProfileStart"));
+        // Only keep the threads while the profiles are starting
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts the given profiles, each as soon as the profiles it depends on are running.
+     * Dependencies on profiles which are not in the list are ignored.
+     */
+    synchronized void start(Class[] profiles) {
+        mWaitingProfiles.clear();
+        mProfiles.clear();
+        mRunningProfiles.clear();
+        mFailedProfiles.clear();
+        mTimeline.clear();
+        mStartTime = SystemClock.elapsedRealtime();
+        for (Class profile : profiles) {
+            mProfiles.add(profile.getSimpleName());
+            mWaitingProfiles.add(profile);
+        }
+        startReadyProfiles();
+    }
+
+    /** Called when a profile service reports it is running. */
+    synchronized void onProfileStarted(String name) {
+        if (!mRunningProfiles.add(name)) {
+            return;
+        }
+        getEvents(name).mRunning = now();
+        if (mRunningProfiles.containsAll(mProfiles)) {
+            Log.i(TAG, "All " + mProfiles.size() + " profiles started in " + now() + "ms");
+        }
+        startReadyProfiles();
+    }
+
+    /**
+     * Called when the start of a profile service failed. The profiles depending on it are
+     * started anyway, otherwise they would wait for it until Bluetooth turns off.
+     */
+    synchronized void onProfileStartFailed(String name) {
+        if (!mProfiles.contains(name) || !mFailedProfiles.add(name)) {
+            return;
+        }
+        Log.w(TAG, "onProfileStartFailed() - " + name + " failed to start");
+        getEvents(name).mFailed = true;
+        startReadyProfiles();
+    }
+
+    /** Drops the profiles still waiting for their dependencies, e.g. when Bluetooth turns off. */
+    synchronized void cancel() {
+        if (!mWaitingProfiles.isEmpty()) {
+            Log.w(TAG, "cancel() - " + mWaitingProfiles.size() + " profiles not started");
+        }
+        mWaitingProfiles.clear();
+    }
+
+    /**
+     * Runs the start of a profile service, on one of the start threads if it may run in the
+     * background, or inline otherwise.
+     *
+     * @return the pending start, or null if the profile has been started inline
+     */
+    Future<?> run(String name, Runnable start, boolean background) {
+        if (background) {
+            try {
+                return mExecutor.submit(() -> runTimed(name, start, true));
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "run() - " + name + " start rejected, starting inline");
+            }
+        }
+        runTimed(name, start, false);
+        return null;
+    }
+
+    /** Stops the start threads. */
+    synchronized void cleanup() {
+        mWaitingProfiles.clear();
+        mExecutor.shutdown();
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.println("\nProfile start timeline (ms):");
+        writer.println(
+                "  Profile                        | Requested | Started | Finished | Running");
+        for (Map.Entry<String, StartEvents> entry : mTimeline.entrySet()) {
+            StartEvents events = entry.getValue();
+            writer.println(String.format("  %-30s | %9d | %7d | %8d | %7d%s", entry.getKey(),
+                    events.mRequested, events.mStarted, events.mFinished, events.mRunning,
+                    (events.mBackground ? " (background)" : "")
+                            + (events.mFailed ? " (failed)" : "")));
+        }
+        for (Class profile : mWaitingProfiles) {
+            writer.println("  " + profile.getSimpleName() + " waiting for its dependencies");
+        }
+    }
+
+    private void startReadyProfiles() {
+        Iterator<Class> iterator = mWaitingProfiles.iterator();
+        while (iterator.hasNext()) {
+            Class profile = iterator.next();
+            if (!isReady(profile)) {
+                continue;
+            }
+            iterator.remove();
+            if (DBG) {
+                Log.d(TAG, "startReadyProfiles() - starting " + profile.getSimpleName());
+            }
+            getEvents(profile.getSimpleName()).mRequested = now();
+            mStarter.startProfile(profile);
+        }
+    }
+
+    private boolean isReady(Class profile) {
+        Class[] dependencies = mDependencies.get(profile);
+        if (dependencies == null) {
+            return true;
+        }
+        for (Class dependency : dependencies) {
+            String name = dependency.getSimpleName();
+            if (mProfiles.contains(name) && !mRunningProfiles.contains(name)
+                    && !mFailedProfiles.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runTimed(String name, Runnable start, boolean background) {
+        synchronized (this) {
+            StartEvents events = getEvents(name);
+            events.mBackground = background;
+            events.mStarted = now();
+        }
+        try {
+            start.run();
+        } finally {
+            synchronized (this) {
+                getEvents(name).mFinished = now();
+            }
+        }
+    }
+
+    private synchronized StartEvents getEvents(String name) {
+        StartEvents events = mTimeline.get(name);
+        if (events == null) {
+            events = new StartEvents();
+            mTimeline.put(name, events);
+        }
+        return events;
+    }
+
+    private synchronized long now() {
+        return SystemClock.elapsedRealtime() - mStartTime;
+    }
+}
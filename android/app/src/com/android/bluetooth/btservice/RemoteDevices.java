@@ -38,6 +38,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothStatsLog;
@@ -47,20 +48,25 @@ import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 final class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
-    private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Maximum number of device properties to remember, bonded and connected devices are kept
+    // even above this limit
+    @VisibleForTesting
+    static final int MAX_DEVICE_QUEUE_SIZE = 200;
 
     private static BluetoothAdapter sAdapter;
     private static AdapterService sAdapterService;
@@ -70,9 +76,21 @@ final class RemoteDevices {
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private Queue<String> mDeviceQueue;
+    // Reads do not lock. Writers synchronize on mDevices so that the device table and the
+    // eviction queue are updated together.
+    private final ConcurrentHashMap<String, DeviceProperties> mDevices;
+    private final ConcurrentHashMap<String, String> mDualDevicesMap;
+    // Identity address of the devices in mDevices that have one, keyed by device address. Kept
+    // in sync with DeviceProperties#setIdentityAddress so that lookups on the scan path do not
+    // take the mDevices lock.
+    private final ConcurrentHashMap<String, String> mIdentityAddresses =
+            new ConcurrentHashMap<>();
+    // Addresses of mDevices, least recently found first. Guarded by mDevices.
+    private final LinkedHashSet<String> mDeviceQueue;
+    // Guarded by mDevices.
+    private long mEvictionCount;
+    private long mEvictionStartTime = SystemClock.elapsedRealtime();
+    private final AtomicLong mCacheInvalidationCount = new AtomicLong();
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -166,9 +184,9 @@ final class RemoteDevices {
         sAdapter = BluetoothAdapter.getDefaultAdapter();
         sAdapterService = service;
         sSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new LinkedList<String>();
+        mDevices = new ConcurrentHashMap<String, DeviceProperties>();
+        mDualDevicesMap = new ConcurrentHashMap<String, String>();
+        mDeviceQueue = new LinkedHashSet<String>();
         mHandler = new RemoteDevicesHandler(looper);
     }
 
@@ -226,15 +244,19 @@ final class RemoteDevices {
                     }
                 });
                 mDevices.clear();
+                mIdentityAddresses.clear();
+                invalidateDevicePropertiesCache();
             }
-        }
 
-        if (mDualDevicesMap != null) {
-            mDualDevicesMap.clear();
-        }
+            if (mDualDevicesMap != null) {
+                mDualDevicesMap.clear();
+            }
 
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
+            if (mDeviceQueue != null) {
+                mDeviceQueue.clear();
+            }
+            mEvictionCount = 0;
+            mEvictionStartTime = SystemClock.elapsedRealtime();
         }
     }
 
@@ -244,16 +266,35 @@ final class RemoteDevices {
     }
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
-        synchronized (mDevices) {
-            DeviceProperties prop = mDevices.get(device.getAddress());
-            if (prop == null) {
-                String mainAddress = mDualDevicesMap.get(device.getAddress());
-                if (mainAddress != null && mDevices.get(mainAddress) != null) {
-                    prop = mDevices.get(mainAddress);
-                }
+        DeviceProperties prop = mDevices.get(device.getAddress());
+        if (prop == null) {
+            String mainAddress = mDualDevicesMap.get(device.getAddress());
+            if (mainAddress != null) {
+                prop = mDevices.get(mainAddress);
             }
-            return prop;
         }
+        return prop;
+    }
+
+    /**
+     * Returns the identity address associated with the given device address, or null if there is
+     * none. Unlike {@link #getDeviceProperties}, this never takes the device table lock.
+     */
+    String getIdentityAddress(String address) {
+        String identityAddress = mIdentityAddresses.get(address);
+        if (identityAddress == null && !isUpperCase(address)) {
+            identityAddress = mIdentityAddresses.get(address.toUpperCase(Locale.ROOT));
+        }
+        return identityAddress;
+    }
+
+    private static boolean isUpperCase(String address) {
+        for (int i = 0, n = address.length(); i < n; i++) {
+            if (Character.isLowerCase(address.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     BluetoothDevice getDevice(byte[] address) {
@@ -261,11 +302,12 @@ final class RemoteDevices {
         DeviceProperties prop = mDevices.get(addressString);
         if (prop == null) {
             String mainAddress = mDualDevicesMap.get(addressString);
-            if (mainAddress != null && mDevices.get(mainAddress) != null) {
+            if (mainAddress != null) {
                 prop = mDevices.get(mainAddress);
-                return prop.getDevice();
             }
-            return null;
+            if (prop == null) {
+                return null;
+            }
         }
         return prop.getDevice();
     }
@@ -278,24 +320,91 @@ final class RemoteDevices {
             prop.mAddress = address;
             String key = Utils.getAddressStringFromByte(address);
             DeviceProperties pv = mDevices.put(key, prop);
+            mIdentityAddresses.remove(key);
 
-            if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : sAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
-                }
+            mDeviceQueue.remove(key);
+            mDeviceQueue.add(key);
+            if (pv == null && mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
+                evictLeastRecentlyFoundDevice();
             }
             return prop;
         }
     }
 
+    /**
+     * Marks the device as the most recently found one, so that it is the last to be evicted.
+     */
+    private void touchDevice(String address) {
+        synchronized (mDevices) {
+            if (mDeviceQueue.remove(address)) {
+                mDeviceQueue.add(address);
+            }
+        }
+    }
+
+    // Removes the least recently found device that is neither bonded nor connected, if any.
+    // Must be called with mDevices held.
+    private void evictLeastRecentlyFoundDevice() {
+        Iterator<String> iterator = mDeviceQueue.iterator();
+        while (iterator.hasNext()) {
+            String deleteKey = iterator.next();
+            DeviceProperties prop = mDevices.get(deleteKey);
+            if (prop != null && !prop.isEvictable()) {
+                continue;
+            }
+            iterator.remove();
+            debugLog("Removing device " + deleteKey + " from property map");
+            mDevices.remove(deleteKey);
+            mIdentityAddresses.remove(deleteKey);
+            if (prop != null && prop.getIdentityAddress() != null) {
+                mDualDevicesMap.remove(prop.getIdentityAddress(), deleteKey);
+            }
+            invalidateDevicePropertiesCache();
+            mEvictionCount++;
+            return;
+        }
+    }
+
+    @VisibleForTesting
+    int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    // Invalidates the properties cached by BluetoothDevice, for all the remote devices
+    private void invalidateDevicePropertiesCache() {
+        mCacheInvalidationCount.incrementAndGet();
+        BluetoothDevice.invalidateBluetoothGetDevicePropertiesCache();
+    }
+
+    @VisibleForTesting
+    long getCacheInvalidationCount() {
+        return mCacheInvalidationCount.get();
+    }
+
+    @VisibleForTesting
+    long getEvictionCount() {
+        synchronized (mDevices) {
+            return mEvictionCount;
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        int size;
+        long evictionCount;
+        long elapsedMillis;
+        synchronized (mDevices) {
+            size = mDevices.size();
+            evictionCount = mEvictionCount;
+            elapsedMillis = SystemClock.elapsedRealtime() - mEvictionStartTime;
+        }
+        writer.println("RemoteDevices:");
+        writer.println("  Devices: " + size + " (limit " + MAX_DEVICE_QUEUE_SIZE
+                + " unless bonded or connected)");
+        writer.println("  Evicted: " + evictionCount + " ("
+                + (evictionCount * 60 * 60 * 1000 / Math.max(elapsedMillis, 1)) + "/hour)");
+        writer.println("  Properties cache invalidations: " + mCacheInvalidationCount.get());
+    }
+
     class DeviceProperties {
         private String mName;
         private byte[] mAddress;
@@ -308,6 +417,7 @@ final class RemoteDevices {
         private boolean mIsBondingInitiatedLocally;
         private int mBatteryLevel = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
         private boolean mIsCoordinatedSetMember;
+        private boolean mIsAclConnected;
         @VisibleForTesting int mBondState;
         @VisibleForTesting int mDeviceType;
         @VisibleForTesting ParcelUuid[] mUuids;
@@ -334,6 +444,22 @@ final class RemoteDevices {
             }
         }
 
+        /**
+         * Set the identity address of this device and publish it for
+         * {@link RemoteDevices#getIdentityAddress(String)}.
+         */
+        void setIdentityAddress(String identityAddress) {
+            synchronized (mObject) {
+                mIdentityAddress = identityAddress;
+                String key = Utils.getAddressStringFromByte(mAddress);
+                if (identityAddress != null) {
+                    mIdentityAddresses.put(key, identityAddress);
+                } else {
+                    mIdentityAddresses.remove(key);
+                }
+            }
+        }
+
         /**
          * @return mIsConsolidated
          */
@@ -411,6 +537,7 @@ final class RemoteDevices {
         void setAlias(BluetoothDevice device, String mAlias) {
             synchronized (mObject) {
                 this.mAlias = mAlias;
+                invalidateDevicePropertiesCache();
                 sAdapterService.setDevicePropertyNative(mAddress,
                         AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME, mAlias.getBytes());
                 Intent intent = new Intent(BluetoothDevice.ACTION_ALIAS_CHANGED);
@@ -435,11 +562,30 @@ final class RemoteDevices {
                     This was resulting in multiple calls to connect().*/
                     mUuids = null;
                     mAlias = null;
+                    invalidateDevicePropertiesCache();
                 }
                 mBondState = newBondState;
             }
         }
 
+        /**
+         * @param isAclConnected whether an ACL link to the device is up on any transport
+         */
+        void setAclConnected(boolean isAclConnected) {
+            synchronized (mObject) {
+                mIsAclConnected = isAclConnected;
+            }
+        }
+
+        /**
+         * @return true if the device may be dropped from the device table
+         */
+        boolean isEvictable() {
+            synchronized (mObject) {
+                return mBondState == BluetoothDevice.BOND_NONE && !mIsAclConnected;
+            }
+        }
+
         /**
          * @return the mBondState
          */
@@ -555,6 +701,7 @@ final class RemoteDevices {
             }
             deviceProperties.setBatteryLevel(batteryLevel);
         }
+        invalidateDevicePropertiesCache();
         sendBatteryLevelChangedBroadcast(device, batteryLevel);
         Log.d(TAG, "Updated device " + device + " battery level to " + batteryLevel + "%");
     }
@@ -580,6 +727,7 @@ final class RemoteDevices {
             }
             deviceProperties.setBatteryLevel(BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
         }
+        invalidateDevicePropertiesCache();
         sendBatteryLevelChangedBroadcast(device, BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
         Log.d(TAG, "Reset battery level, device=" + device);
     }
@@ -661,6 +809,9 @@ final class RemoteDevices {
             return;
         }
 
+        // Only the properties returned by the BluetoothDevice getters invalidate their cache,
+        // the RSSI is updated for every inquiry result
+        boolean cachedPropertyChanged = false;
         for (int j = 0; j < types.length; j++) {
             type = types[j];
             val = values[j];
@@ -675,6 +826,7 @@ final class RemoteDevices {
                                 break;
                             }
                             device.mName = newName;
+                            cachedPropertyChanged = true;
                             intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
                             intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
                             intent.putExtra(BluetoothDevice.EXTRA_NAME, device.mName);
@@ -684,7 +836,13 @@ final class RemoteDevices {
                             debugLog("Remote Device name is: " + device.mName);
                             break;
                         case AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME:
-                            device.mAlias = new String(val);
+                            final String newAlias = new String(val);
+                            if (newAlias.equals(device.mAlias)) {
+                                debugLog("Skip alias update for " + bdDevice);
+                                break;
+                            }
+                            device.mAlias = newAlias;
+                            cachedPropertyChanged = true;
                             debugLog("Remote device alias is: " + device.mAlias);
                             break;
                         case AbstractionLayer.BT_PROPERTY_BDADDR:
@@ -698,6 +856,7 @@ final class RemoteDevices {
                                 break;
                             }
                             device.mBluetoothClass = Utils.byteArrayToInt(val);
+                            cachedPropertyChanged = true;
                             intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
                             intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
                             intent.putExtra(BluetoothDevice.EXTRA_CLASS,
@@ -715,6 +874,7 @@ final class RemoteDevices {
                                 break;
                             }
                             device.mUuids = newUuids;
+                            cachedPropertyChanged = true;
                             if (sAdapterService.getState() == BluetoothAdapter.STATE_ON) {
                                 sAdapterService.deviceUuidUpdated(bdDevice);
                                 sendUuidIntent(bdDevice, device);
@@ -729,7 +889,13 @@ final class RemoteDevices {
                             }
                             // The device type from hal layer, defined in bluetooth.h,
                             // matches the type defined in BluetoothDevice.java
-                            device.mDeviceType = Utils.byteArrayToInt(val);
+                            final int newType = Utils.byteArrayToInt(val);
+                            if (newType == device.mDeviceType) {
+                                debugLog("Skip type update for " + bdDevice);
+                                break;
+                            }
+                            device.mDeviceType = newType;
+                            cachedPropertyChanged = true;
                             break;
                         case AbstractionLayer.BT_PROPERTY_REMOTE_RSSI:
                             // RSSI from hal is in one byte
@@ -742,6 +908,9 @@ final class RemoteDevices {
                 }
             }
         }
+        if (cachedPropertyChanged) {
+            invalidateDevicePropertiesCache();
+        }
     }
 
     void deviceFoundCallback(byte[] address) {
@@ -754,6 +923,7 @@ final class RemoteDevices {
             errorLog("Device Properties is null for Device:" + device);
             return;
         }
+        touchDevice(device.getAddress());
 
         Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
@@ -802,7 +972,8 @@ final class RemoteDevices {
         DeviceProperties deviceProperties = getDeviceProperties(device);
         deviceProperties.mIsConsolidated = true;
         deviceProperties.mDeviceType = BluetoothDevice.DEVICE_TYPE_DUAL;
-        deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
+        invalidateDevicePropertiesCache();
+        deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
         mDualDevicesMap.put(deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
     }
 
@@ -824,7 +995,7 @@ final class RemoteDevices {
                 + Utils.getAddressStringFromByte(secondaryAddress));
 
         DeviceProperties deviceProperties = getDeviceProperties(device);
-        deviceProperties.mIdentityAddress = Utils.getAddressStringFromByte(secondaryAddress);
+        deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
     }
 
     void aclStateChangeCallback(int status, byte[] address, int newState,
@@ -838,8 +1009,12 @@ final class RemoteDevices {
         }
         int state = sAdapterService.getState();
 
+        DeviceProperties deviceProp = getDeviceProperties(device);
         Intent intent = null;
         if (newState == AbstractionLayer.BT_ACL_STATE_CONNECTED) {
+            if (deviceProp != null) {
+                deviceProp.setAclConnected(true);
+            }
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_ON) {
                 intent = new Intent(BluetoothDevice.ACTION_ACL_CONNECTED);
                 intent.putExtra(BluetoothDevice.EXTRA_TRANSPORT, transportLinkType);
@@ -874,6 +1049,9 @@ final class RemoteDevices {
             }
             // Reset battery level on complete disconnection
             if (sAdapterService.getConnectionState(device) == 0) {
+                if (deviceProp != null) {
+                    deviceProp.setAclConnected(false);
+                }
                 BatteryService batteryService = BatteryService.getBatteryService();
                 if (batteryService != null) {
                     batteryService.disconnect(device);
@@ -881,7 +1059,6 @@ final class RemoteDevices {
                 resetBatteryLevel(device);
             }
             if (!sAdapterService.isAnyProfileEnabled(device)) {
-                DeviceProperties deviceProp = getDeviceProperties(device);
                 if (deviceProp != null) {
                     deviceProp.setBondingInitiatedLocally(false);
                 }
@@ -33,6 +33,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -47,6 +48,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -74,12 +76,26 @@ public class DatabaseManager {
     private final EvictingQueue<String> mMetadataChangedLog;
 
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
+    // Delay before pending metadata updates are written, so that the updates made while a
+    // device connects its profiles are written once, in a single transaction.
+    private static final long WRITE_DELAY_MS = 500;
     private static final int MSG_LOAD_DATABASE = 0;
     private static final int MSG_UPDATE_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
     private static final int MSG_CLEAR_DATABASE = 100;
     private static final String LOCAL_STORAGE = "LocalStorage";
 
+    private long mWriteDelayMillis = WRITE_DELAY_MS;
+    // Metadata waiting to be written, keyed by address. Guarded by itself, as are the write
+    // statistics below.
+    private final Map<String, Metadata> mPendingWrites = new LinkedHashMap<>();
+    private long mWriteCount;
+    private long mFlushCount;
+    private long mFlushedRowCount;
+    private int mMaxFlushSize;
+    private long mTotalFlushLatencyMillis;
+    private long mMaxFlushLatencyMillis;
+
     private static final String
             LEGACY_BTSNOOP_DEFAULT_MODE = "bluetooth_btsnoop_default_mode";
     private static final String
@@ -124,6 +140,7 @@ public class DatabaseManager {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_LOAD_DATABASE: {
+                    flushPendingWrites();
                     synchronized (mDatabase) {
                         List<Metadata> list;
                         try {
@@ -140,10 +157,7 @@ public class DatabaseManager {
                     break;
                 }
                 case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabase) {
-                        mDatabase.insert(data);
-                    }
+                    flushPendingWrites();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -769,6 +783,9 @@ public class DatabaseManager {
      */
     public void factoryReset() {
         Log.w(TAG, "factoryReset");
+        synchronized (mPendingWrites) {
+            mPendingWrites.clear();
+        }
         Message message = mHandler.obtainMessage(MSG_CLEAR_DATABASE);
         mHandler.sendMessage(message);
     }
@@ -783,6 +800,10 @@ public class DatabaseManager {
             mHandlerThread.quit();
             mHandlerThread = null;
         }
+        // The scheduled write was dropped with the handler thread, do it now.
+        if (mDatabase != null) {
+            flushPendingWrites();
+        }
         mMetadataCache.clear();
     }
 
@@ -1035,9 +1056,62 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingWrites) {
+            mWriteCount++;
+            boolean scheduled = !mPendingWrites.isEmpty();
+            mPendingWrites.put(data.getAddress(), data);
+            if (!scheduled) {
+                mHandler.sendEmptyMessageDelayed(MSG_UPDATE_DATABASE, mWriteDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Write all pending metadata updates in a single transaction
+     */
+    private void flushPendingWrites() {
+        Metadata[] pending;
+        synchronized (mPendingWrites) {
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+            pending = mPendingWrites.values().toArray(new Metadata[0]);
+            mPendingWrites.clear();
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        synchronized (mDatabase) {
+            mDatabase.insert(pending);
+        }
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        synchronized (mPendingWrites) {
+            mFlushCount++;
+            mFlushedRowCount += pending.length;
+            mMaxFlushSize = Math.max(mMaxFlushSize, pending.length);
+            mTotalFlushLatencyMillis += latency;
+            mMaxFlushLatencyMillis = Math.max(mMaxFlushLatencyMillis, latency);
+        }
+    }
+
+    /**
+     * Set the delay before pending metadata updates are written
+     */
+    @VisibleForTesting
+    void setWriteDelayMillis(long writeDelayMillis) {
+        mWriteDelayMillis = writeDelayMillis;
+    }
+
+    @VisibleForTesting
+    long getFlushCount() {
+        synchronized (mPendingWrites) {
+            return mFlushCount;
+        }
+    }
+
+    @VisibleForTesting
+    long getFlushedRowCount() {
+        synchronized (mPendingWrites) {
+            return mFlushedRowCount;
+        }
     }
 
     @VisibleForTesting
@@ -1048,6 +1122,9 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(address, "Metadata deleted");
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
@@ -1106,6 +1183,14 @@ public class DatabaseManager {
         for (String log : mMetadataChangedLog) {
             writer.println("    " + log);
         }
+        synchronized (mPendingWrites) {
+            writer.println("  Writes: " + mWriteCount + " updates, " + mFlushedRowCount
+                    + " rows in " + mFlushCount + " transactions (max " + mMaxFlushSize
+                    + " rows), pending " + mPendingWrites.size());
+            writer.println("  Write latency: avg "
+                    + (mFlushCount == 0 ? 0 : mTotalFlushLatencyMillis / mFlushCount)
+                    + "ms, max " + mMaxFlushLatencyMillis + "ms");
+        }
         writer.println("\nMetadata:");
         for (HashMap.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
             if (entry.getKey().equals(LOCAL_STORAGE)) {
@@ -115,6 +115,11 @@ public class CsipSetCoordinatorService extends ProfileService {
         }
     }
 
+    @Override
+    protected boolean canStartInBackground() {
+        return true;
+    }
+
     @Override
     protected boolean start() {
         if (DBG) {
@@ -25,14 +25,17 @@ import android.os.WorkSource;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Helper class that keeps track of registered GATT applications.
@@ -177,6 +180,16 @@ import java.util.UUID;
     /** Internal list of connected devices **/
     private Set<Connection> mConnections = new HashSet<Connection>();
 
+    /*
+     * Indexes of the apps and connections, for the lookups done on every GATT callback. They are
+     * updated with mApps and mConnections held, and read without locking.
+     */
+    /** Apps by ID, filled on lookup as the ID is only known once the app is registered */
+    private final Map<Integer, App> mAppsById = new ConcurrentHashMap<>();
+    private final Map<Integer, Connection> mConnectionsById = new ConcurrentHashMap<>();
+    /** Connections by upper case device address, as immutable lists */
+    private final Map<String, List<Connection>> mConnectionsByAddress = new ConcurrentHashMap<>();
+
     /**
      * Add an entry to the application context list.
      */
@@ -212,6 +225,7 @@ import java.util.UUID;
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
                     i.remove();
+                    mAppsById.remove(entry.id, entry);
                     break;
                 }
             }
@@ -232,6 +246,7 @@ import java.util.UUID;
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
                     i.remove();
+                    mAppsById.remove(entry.id, entry);
                     break;
                 }
             }
@@ -260,7 +275,9 @@ import java.util.UUID;
         synchronized (mConnections) {
             App entry = getById(id);
             if (entry != null) {
-                mConnections.add(new Connection(connId, address, id));
+                Connection connection = new Connection(connId, address, id);
+                mConnections.add(connection);
+                indexConnection(connection);
             }
         }
     }
@@ -275,6 +292,7 @@ import java.util.UUID;
                 Connection connection = i.next();
                 if (connection.connId == connId) {
                     i.remove();
+                    unindexConnection(connection);
                     break;
                 }
             }
@@ -291,6 +309,7 @@ import java.util.UUID;
                 Connection connection = i.next();
                 if (connection.appId == appId) {
                     i.remove();
+                    unindexConnection(connection);
                 }
             }
         }
@@ -300,11 +319,16 @@ import java.util.UUID;
      * Get an application context by ID.
      */
     App getById(int id) {
+        App app = mAppsById.get(id);
+        if (app != null && app.id == id) {
+            return app;
+        }
         synchronized (mApps) {
             Iterator<App> i = mApps.iterator();
             while (i.hasNext()) {
                 App entry = i.next();
                 if (entry.id == id) {
+                    mAppsById.put(id, entry);
                     return entry;
                 }
             }
@@ -401,19 +425,9 @@ import java.util.UUID;
      * Get an application context by a connection ID.
      */
     App getByConnId(int connId) {
-        int appId = -1;
-        synchronized (mConnections) {
-            Iterator<Connection> ii = mConnections.iterator();
-            while (ii.hasNext()) {
-                Connection connection = ii.next();
-                if (connection.connId == connId) {
-                    appId = connection.appId;
-                    break;
-                }
-            }
-        }
-        if (appId >= 0) {
-            return getById(appId);
+        Connection connection = mConnectionsById.get(connId);
+        if (connection != null && connection.appId >= 0) {
+            return getById(connection.appId);
         }
         return null;
     }
@@ -426,11 +440,13 @@ import java.util.UUID;
         if (entry == null) {
             return null;
         }
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.address.equalsIgnoreCase(address) && connection.appId == id) {
+        if (address == null) {
+            return null;
+        }
+        List<Connection> connections = mConnectionsByAddress.get(addressKey(address));
+        if (connections != null) {
+            for (Connection connection : connections) {
+                if (connection.appId == id) {
                     return connection.connId;
                 }
             }
@@ -442,14 +458,9 @@ import java.util.UUID;
      * Returns the device address for a given connection ID.
      */
     String addressByConnId(int connId) {
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    return connection.address;
-                }
-            }
+        Connection connection = mConnectionsById.get(connId);
+        if (connection != null) {
+            return connection.address;
         }
         return null;
     }
@@ -480,10 +491,13 @@ import java.util.UUID;
                 entry.appScanStats.isRegistered = false;
                 i.remove();
             }
+            mAppsById.clear();
         }
 
         synchronized (mConnections) {
             mConnections.clear();
+            mConnectionsById.clear();
+            mConnectionsByAddress.clear();
         }
     }
 
@@ -500,6 +514,56 @@ import java.util.UUID;
         return connectedmap;
     }
 
+    /**
+     * Adds a connection to the indexes. Must be called with mConnections held.
+     */
+    private void indexConnection(Connection connection) {
+        mConnectionsById.put(connection.connId, connection);
+        if (connection.address == null) {
+            return;
+        }
+        String key = addressKey(connection.address);
+        List<Connection> connections = new ArrayList<Connection>(
+                mConnectionsByAddress.getOrDefault(key, Collections.emptyList()));
+        connections.add(connection);
+        mConnectionsByAddress.put(key, Collections.unmodifiableList(connections));
+    }
+
+    /**
+     * Removes a connection, already removed from mConnections, from the indexes. Must be called
+     * with mConnections held.
+     */
+    private void unindexConnection(Connection connection) {
+        if (mConnectionsById.remove(connection.connId, connection)) {
+            // Fall back to another connection with the same ID, if any
+            for (Connection other : mConnections) {
+                if (other.connId == connection.connId) {
+                    mConnectionsById.put(other.connId, other);
+                    break;
+                }
+            }
+        }
+        if (connection.address == null) {
+            return;
+        }
+        String key = addressKey(connection.address);
+        List<Connection> connections = mConnectionsByAddress.get(key);
+        if (connections == null) {
+            return;
+        }
+        List<Connection> remaining = new ArrayList<Connection>(connections);
+        remaining.remove(connection);
+        if (remaining.isEmpty()) {
+            mConnectionsByAddress.remove(key);
+        } else {
+            mConnectionsByAddress.put(key, Collections.unmodifiableList(remaining));
+        }
+    }
+
+    private static String addressKey(String address) {
+        return address.toUpperCase(Locale.ROOT);
+    }
+
     /**
      * Logs debug information.
      */
@@ -267,6 +267,7 @@ public class GattService extends ProfileService {
     private AdvertiseManager mAdvertiseManager;
     private PeriodicScanManager mPeriodicScanManager;
     private ScanManager mScanManager;
+    private ScanResultBatcher mScanResultBatcher;
     private AppOpsManager mAppOps;
     private CompanionDeviceManager mCompanionManager;
     private String mExposureNotificationPackage;
@@ -329,6 +330,7 @@ public class GattService extends ProfileService {
 
         mScanManager = new ScanManager(this, mAdapterService, mBluetoothAdapterProxy);
         mScanManager.start();
+        mScanResultBatcher = new ScanResultBatcher(getMainLooper(), this::sendBatchedResults);
 
         mPeriodicScanManager = new PeriodicScanManager(mAdapterService);
         mPeriodicScanManager.start();
@@ -354,6 +356,9 @@ public class GattService extends ProfileService {
         if (mScanManager != null) {
             mScanManager.cleanup();
         }
+        if (mScanResultBatcher != null) {
+            mScanResultBatcher.clear();
+        }
         if (mPeriodicScanManager != null) {
             mPeriodicScanManager.cleanup();
         }
@@ -1798,8 +1803,11 @@ public class GattService extends ProfileService {
             originalAddress = identityAddress;
         }
 
-
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        // The advertisement is decoded at most once per variant (legacy, fixed-size data and
+        // extended, full data) and the resulting ScanResult is shared by every client.
+        BluetoothDevice device = null;
+        ScanResult legacyResult = null;
+        ScanResult extendedResult = null;
 
         for (ScanClient client : mScanManager.getRegularScanQueue()) {
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
@@ -1810,10 +1818,8 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
+            ScanResult result;
             // This is for compability with applications that assume fixed size scan data.
             if (settings.getLegacy()) {
                 if ((eventType & ET_LEGACY_MASK) == 0) {
@@ -1822,20 +1828,28 @@ public class GattService extends ProfileService {
                         Log.d(TAG, "Legacy scan, non legacy result; skip.");
                     }
                     continue;
-                } else {
+                }
+                if (legacyResult == null) {
+                    if (device == null) {
+                        device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+                    }
                     // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+                    legacyResult = createScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt,
+                            Arrays.copyOfRange(advData, 0, 62));
                 }
+                result = legacyResult;
             } else {
-                scanRecordData = advData;
+                if (extendedResult == null) {
+                    if (device == null) {
+                        device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+                    }
+                    extendedResult = createScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt, advData);
+                }
+                result = extendedResult;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
-
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
                     Log.i(TAG, "Skipping client for location deny list");
@@ -1875,10 +1889,22 @@ public class GattService extends ProfileService {
                 continue;
             }
 
+            ScanResultDeduplicator deduplicator = client.deduplicator;
+            if (deduplicator != null && !deduplicator.shouldDeliver(result)) {
+                if (VDBG) {
+                    Log.d(TAG, "Skipping client: duplicate result");
+                }
+                continue;
+            }
+
             try {
                 app.appScanStats.addResult(client.scannerId);
                 if (app.callback != null) {
-                    app.callback.onScanResult(result);
+                    if (ScanResultBatcher.isBatchedDelivery(client)) {
+                        mScanResultBatcher.add(client, result);
+                    } else {
+                        app.callback.onScanResult(result);
+                    }
                 } else {
                     // Send the PendingIntent
                     ArrayList<ScanResult> results = new ArrayList<>();
@@ -1894,6 +1920,29 @@ public class GattService extends ProfileService {
         }
     }
 
+    private void sendBatchedResults(ScanClient client, List<ScanResult> results) {
+        ScannerMap.App app = mScannerMap.getById(client.scannerId);
+        if (app == null || app.callback == null) {
+            return;
+        }
+        try {
+            app.callback.onBatchScanResults(results);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception: " + e);
+            mScannerMap.remove(client.scannerId);
+            mScanResultBatcher.remove(client.scannerId);
+            mScanManager.stopScan(client.scannerId);
+        }
+    }
+
+    private static ScanResult createScanResult(BluetoothDevice device, int eventType,
+            int primaryPhy, int secondaryPhy, int advertisingSid, int txPower, int rssi,
+            int periodicAdvInt, byte[] scanRecordData) {
+        ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
+        return new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
+                txPower, rssi, periodicAdvInt, scanRecord, SystemClock.elapsedRealtimeNanos());
+    }
+
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
             int callbackType, ScanClient client) {
         ArrayList<ScanResult> results = new ArrayList<>();
@@ -1981,6 +2030,17 @@ public class GattService extends ProfileService {
             // TODO: Do we really wanna return true here?
             return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
         }
+        ScanFilterIndex filterIndex = client.filterIndex;
+        if (filterIndex != null) {
+            switch (filterIndex.match(scanResult, originalAddress)) {
+                case ScanFilterIndex.MATCH_PSEUDO_ADDRESS:
+                    return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
+                case ScanFilterIndex.MATCH_ORIGINAL_ADDRESS:
+                    return new MatchResult(true, MatchOrigin.ORIGINAL_ADDRESS);
+                default:
+                    return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
+            }
+        }
         for (ScanFilter filter : client.filters) {
             // Need to check the filter matches, and the original address without changing the API
             if (filter.matches(scanResult)) {
@@ -2952,6 +3012,7 @@ public class GattService extends ProfileService {
             Log.d(TAG, "unregisterScanner() - scannerId=" + scannerId);
         }
         mScannerMap.remove(scannerId);
+        mScanResultBatcher.remove(scannerId);
         mScanManager.unregisterScanner(scannerId);
     }
 
@@ -3146,6 +3207,7 @@ public class GattService extends ProfileService {
         if (DBG) {
             Log.d(TAG, "flushPendingBatchResults - scannerId=" + scannerId);
         }
+        mScanResultBatcher.flush(scannerId);
         mScanManager.flushBatchScanResults(new ScanClient(scannerId));
     }
 
@@ -3167,6 +3229,8 @@ public class GattService extends ProfileService {
             app.recordScanStop(scannerId);
         }
 
+        // Results already matched for this scan are still delivered.
+        mScanResultBatcher.stop(scannerId);
         mScanManager.stopScan(scannerId);
         mAdapterService.notifyActivityAttributionInfo(getAttributionSource(),
                 AdapterService.ACTIVITY_ATTRIBUTION_NO_ACTIVE_DEVICE_ADDRESS);
@@ -4583,6 +4647,10 @@ public class GattService extends ProfileService {
                         .setReportDelay(floor)
                         .setScanMode(settings.getScanMode())
                         .setScanResultType(settings.getScanResultType())
+                        .setBatchedDelivery(settings.getBatchedDeliveryWindowMillis(),
+                                settings.getBatchedDeliveryMaxResults())
+                        .setDuplicateFilter(settings.getDuplicateFilterRssiDelta(),
+                                settings.getDuplicateFilterRefreshMillis())
                         .build();
             }
         } finally {
@@ -17,6 +17,7 @@ package com.android.bluetooth.gatt;
 
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -83,34 +84,43 @@ class HandleMap {
     }
 
     List<Entry> mEntries = null;
+    // First entry of each handle, updated with mEntries under the lock of this object
+    Map<Integer, Entry> mEntriesByHandle = null;
     Map<Integer, Integer> mRequestMap = null;
     int mLastCharacteristic = 0;
 
     HandleMap() {
         mEntries = new CopyOnWriteArrayList<Entry>();
+        mEntriesByHandle = new ConcurrentHashMap<Integer, Entry>();
         mRequestMap = new ConcurrentHashMap<Integer, Integer>();
     }
 
-    void clear() {
+    synchronized void clear() {
         mEntries.clear();
+        mEntriesByHandle.clear();
         mRequestMap.clear();
     }
 
     void addService(int serverIf, int handle, UUID uuid, int serviceType, int instance,
             boolean advertisePreferred) {
-        mEntries.add(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
+        addEntry(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
     }
 
     void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
         mLastCharacteristic = handle;
-        mEntries.add(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
+        addEntry(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
     }
 
     void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
-        mEntries.add(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
+        addEntry(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
                 mLastCharacteristic));
     }
 
+    private synchronized void addEntry(Entry entry) {
+        mEntries.add(entry);
+        mEntriesByHandle.putIfAbsent(entry.handle, entry);
+    }
+
     void setStarted(int serverIf, int handle, boolean started) {
         for (Entry entry : mEntries) {
             if (entry.type != TYPE_SERVICE || entry.serverIf != serverIf
@@ -124,10 +134,9 @@ class HandleMap {
     }
 
     Entry getByHandle(int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.handle == handle) {
-                return entry;
-            }
+        Entry entry = mEntriesByHandle.get(handle);
+        if (entry != null) {
+            return entry;
         }
         Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
         return null;
@@ -142,9 +151,23 @@ class HandleMap {
         return false;
     }
 
-    void deleteService(int serverIf, int serviceHandle) {
-        mEntries.removeIf(entry -> ((entry.serverIf == serverIf)
-                && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)));
+    synchronized void deleteService(int serverIf, int serviceHandle) {
+        List<Entry> removed = new ArrayList<Entry>();
+        mEntries.removeIf(entry -> {
+            if (entry.serverIf == serverIf
+                    && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)) {
+                removed.add(entry);
+                return true;
+            }
+            return false;
+        });
+        for (Entry entry : removed) {
+            mEntriesByHandle.remove(entry.handle, entry);
+        }
+        // Index the remaining entries sharing a handle with a removed one, if any
+        for (Entry entry : mEntries) {
+            mEntriesByHandle.putIfAbsent(entry.handle, entry);
+        }
     }
 
     List<Entry> getEntries() {
@@ -36,6 +36,10 @@ import java.util.Objects;
     public boolean started = false;
     public int appUid;
     public List<ScanFilter> filters;
+    // Compiled form of filters, built by ScanManager while the scan is running.
+    public volatile ScanFilterIndex filterIndex;
+    // Drops repeated advertisements if duplicate filtering is enabled in the settings.
+    public volatile ScanResultDeduplicator deduplicator;
     // App associated with the scan client died.
     public boolean appDied;
     public boolean hasLocationPermission;
@@ -114,6 +118,10 @@ import java.util.Objects;
                 .setMatchMode(settings.getMatchMode())
                 .setLegacy(settings.getLegacy())
                 .setPhy(settings.getPhy())
+                .setBatchedDelivery(settings.getBatchedDeliveryWindowMillis(),
+                        settings.getBatchedDeliveryMaxResults())
+                .setDuplicateFilter(settings.getDuplicateFilterRssiDelta(),
+                        settings.getDuplicateFilterRefreshMillis())
                 .build();
         return true;
     }
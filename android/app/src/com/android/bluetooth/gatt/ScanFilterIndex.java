@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compiled lookup structure over the {@link ScanFilter}s of a {@link ScanClient}.
+ *
+ * <p>Filters are bucketed by device address, 16-bit service UUID or manufacturer id, so that
+ * an advertisement is only tested against the filters that can possibly match it. Filters that
+ * do not constrain any of these fields are always tested. Candidates are evaluated in their
+ * original order, so the outcome is identical to walking the filter list linearly.
+ *
+ * @hide
+ */
+/* package */class ScanFilterIndex {
+    /** No filter matched. */
+    static final int MATCH_NONE = 0;
+    /** A filter matched the advertisement through {@link ScanFilter#matches}. */
+    static final int MATCH_PSEUDO_ADDRESS = 1;
+    /** A filter matched the original (identity) address of the advertiser. */
+    static final int MATCH_ORIGINAL_ADDRESS = 2;
+
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final long UUID_16_BIT_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+    private static final long UUID_16_BIT_MSB_BASE = 0x1000L;
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+    private static final int[] EMPTY = new int[0];
+
+    private final ScanFilter[] mFilters;
+    private final Map<String, int[]> mByAddress;
+    private final SparseArray<int[]> mByServiceUuid16;
+    private final SparseArray<int[]> mByManufacturerId;
+    private final int[] mUnindexed;
+
+    private ScanFilterIndex(ScanFilter[] filters, Map<String, int[]> byAddress,
+            SparseArray<int[]> byServiceUuid16, SparseArray<int[]> byManufacturerId,
+            int[] unindexed) {
+        mFilters = filters;
+        mByAddress = byAddress;
+        mByServiceUuid16 = byServiceUuid16;
+        mByManufacturerId = byManufacturerId;
+        mUnindexed = unindexed;
+    }
+
+    /**
+     * Builds the index for the given filters. Returns null when there is nothing to index, in
+     * which case the caller should treat the client as unfiltered.
+     */
+    static ScanFilterIndex compile(List<ScanFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return null;
+        }
+        ScanFilter[] filterArray = filters.toArray(new ScanFilter[0]);
+        Map<String, List<Integer>> byAddress = new HashMap<>();
+        SparseArray<List<Integer>> byServiceUuid16 = new SparseArray<>();
+        SparseArray<List<Integer>> byManufacturerId = new SparseArray<>();
+        List<Integer> unindexed = new ArrayList<>();
+
+        for (int i = 0; i < filterArray.length; i++) {
+            ScanFilter filter = filterArray[i];
+            String address = filter.getDeviceAddress();
+            ParcelUuid serviceUuid = filter.getServiceUuid();
+            if (address != null) {
+                // Either ScanFilter#matches or the original address check requires the
+                // advertiser address to be equal to the filter address.
+                byAddress.computeIfAbsent(normalizeAddress(address), k -> new ArrayList<>())
+                        .add(i);
+            } else if (serviceUuid != null && filter.getServiceUuidMask() == null
+                    && is16BitUuid(serviceUuid.getUuid())) {
+                appendTo(byServiceUuid16, get16BitUuid(serviceUuid.getUuid()), i);
+            } else if (filter.getManufacturerId() >= 0 && filter.getManufacturerData() != null) {
+                appendTo(byManufacturerId, filter.getManufacturerId(), i);
+            } else {
+                unindexed.add(i);
+            }
+        }
+
+        Map<String, int[]> addressIndex = new HashMap<>(byAddress.size());
+        for (Map.Entry<String, List<Integer>> entry : byAddress.entrySet()) {
+            addressIndex.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return new ScanFilterIndex(filterArray, addressIndex, toArrays(byServiceUuid16),
+                toArrays(byManufacturerId), toArray(unindexed));
+    }
+
+    /** Returns the number of compiled filters. */
+    int size() {
+        return mFilters.length;
+    }
+
+    /**
+     * Returns how the first matching filter, in registration order, matched the given result:
+     * {@link #MATCH_NONE}, {@link #MATCH_PSEUDO_ADDRESS} or {@link #MATCH_ORIGINAL_ADDRESS}.
+     */
+    int match(ScanResult scanResult, String originalAddress) {
+        // Best match so far, encoded as (filter index << 2 | match origin) so that comparing
+        // two encoded values orders them by filter index.
+        int best = scan(mUnindexed, scanResult, originalAddress, NO_MATCH);
+
+        if (!mByAddress.isEmpty()) {
+            BluetoothDevice device = scanResult.getDevice();
+            int[] deviceCandidates = null;
+            if (device != null) {
+                deviceCandidates = mByAddress.get(normalizeAddress(device.getAddress()));
+                best = scan(deviceCandidates, scanResult, originalAddress, best);
+            }
+            if (originalAddress != null) {
+                int[] originalCandidates = mByAddress.get(normalizeAddress(originalAddress));
+                if (originalCandidates != deviceCandidates) {
+                    best = scan(originalCandidates, scanResult, originalAddress, best);
+                }
+            }
+        }
+
+        ScanRecord scanRecord = scanResult.getScanRecord();
+        if (scanRecord != null) {
+            if (mByServiceUuid16.size() > 0) {
+                List<ParcelUuid> uuids = scanRecord.getServiceUuids();
+                if (uuids != null) {
+                    for (int i = 0, n = uuids.size(); i < n; i++) {
+                        UUID uuid = uuids.get(i).getUuid();
+                        if (is16BitUuid(uuid)) {
+                            best = scan(mByServiceUuid16.get(get16BitUuid(uuid)), scanResult,
+                                    originalAddress, best);
+                        }
+                    }
+                }
+            }
+            if (mByManufacturerId.size() > 0) {
+                SparseArray<byte[]> manufacturerData = scanRecord.getManufacturerSpecificData();
+                if (manufacturerData != null) {
+                    for (int i = 0, n = manufacturerData.size(); i < n; i++) {
+                        best = scan(mByManufacturerId.get(manufacturerData.keyAt(i)), scanResult,
+                                originalAddress, best);
+                    }
+                }
+            }
+        }
+
+        return best == NO_MATCH ? MATCH_NONE : (best & 0x3);
+    }
+
+    /**
+     * Tests the candidate filters, which are sorted by filter index, and returns the better of
+     * {@code best} and the first candidate that matches.
+     */
+    private int scan(int[] candidates, ScanResult scanResult, String originalAddress, int best) {
+        if (candidates == null) {
+            return best;
+        }
+        for (int index : candidates) {
+            if ((index << 2) >= best) {
+                break;
+            }
+            ScanFilter filter = mFilters[index];
+            // Need to check the filter matches, and the original address without changing the API
+            if (filter.matches(scanResult)) {
+                return (index << 2) | MATCH_PSEUDO_ADDRESS;
+            }
+            if (originalAddress != null
+                    && originalAddress.equalsIgnoreCase(filter.getDeviceAddress())) {
+                return (index << 2) | MATCH_ORIGINAL_ADDRESS;
+            }
+        }
+        return best;
+    }
+
+    private static boolean is16BitUuid(UUID uuid) {
+        return uuid.getLeastSignificantBits() == BASE_UUID_LSB
+                && (uuid.getMostSignificantBits() & UUID_16_BIT_MSB_MASK) == UUID_16_BIT_MSB_BASE;
+    }
+
+    private static int get16BitUuid(UUID uuid) {
+        return (int) ((uuid.getMostSignificantBits() >>> 32) & 0xFFFF);
+    }
+
+    /** Upper-cases the address, without allocating when it is already upper case. */
+    private static String normalizeAddress(String address) {
+        for (int i = 0, n = address.length(); i < n; i++) {
+            if (Character.isLowerCase(address.charAt(i))) {
+                return address.toUpperCase(Locale.ROOT);
+            }
+        }
+        return address;
+    }
+
+    private static void appendTo(SparseArray<List<Integer>> buckets, int key, int index) {
+        List<Integer> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets.put(key, bucket);
+        }
+        bucket.add(index);
+    }
+
+    private static SparseArray<int[]> toArrays(SparseArray<List<Integer>> buckets) {
+        SparseArray<int[]> result = new SparseArray<>(buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            result.put(buckets.keyAt(i), toArray(buckets.valueAt(i)));
+        }
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> indices) {
+        if (indices.isEmpty()) {
+            return EMPTY;
+        }
+        int[] result = new int[indices.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indices.get(i);
+        }
+        return result;
+    }
+}
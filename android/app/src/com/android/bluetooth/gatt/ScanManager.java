@@ -402,6 +402,9 @@ public class ScanManager {
             }
 
             // Begin scan operations.
+            client.filterIndex = ScanFilterIndex.compile(client.filters);
+            client.deduplicator = ScanResultDeduplicator.isEnabled(client.settings)
+                    ? new ScanResultDeduplicator(client.settings) : null;
             if (isBatchClient(client)) {
                 mBatchClients.add(client);
                 mScanNative.startBatchScan(client);
@@ -461,6 +464,8 @@ public class ScanManager {
             } else {
                 mScanNative.stopBatchScan(client);
             }
+            client.filterIndex = null;
+            client.deduplicator = null;
             if (client.appDied) {
                 if (DBG) {
                     Log.d(TAG, "app died, unregister scanner - " + client.scannerId);
@@ -1114,6 +1119,10 @@ public class ScanManager {
             builder.setScanResultType(settings.getScanResultType());
             builder.setReportDelay(settings.getReportDelayMillis());
             builder.setNumOfMatches(settings.getNumOfMatches());
+            builder.setBatchedDelivery(settings.getBatchedDeliveryWindowMillis(),
+                    settings.getBatchedDeliveryMaxResults());
+            builder.setDuplicateFilter(settings.getDuplicateFilterRssiDelta(),
+                    settings.getDuplicateFilterRefreshMillis());
             client.settings = builder.build();
         }
 
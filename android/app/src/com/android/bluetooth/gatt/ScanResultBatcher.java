@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces the scan results of clients that enabled batched delivery through
+ * {@link ScanSettings.Builder#setBatchedDelivery}, so that they get one batch callback per
+ * window instead of one callback per advertisement.
+ *
+ * <p>Every client has its own batch and timer, so a busy client never delays the delivery of
+ * another one. Results of a client are delivered in the order they were added.
+ *
+ * @hide
+ */
+/* package */class ScanResultBatcher {
+    private static final boolean VDBG = GattServiceConfig.VDBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanResultBatcher";
+
+    /** Receives the batches that are ready for delivery. */
+    interface Callback {
+        /** Called with the pending results of {@code client}, in the order they were added. */
+        void onBatchReady(ScanClient client, List<ScanResult> results);
+    }
+
+    private final Handler mHandler;
+    private final Callback mCallback;
+
+    // Pending batches keyed by scanner id.
+    private final Map<Integer, Batch> mBatches = new HashMap<>();
+
+    ScanResultBatcher(Looper looper, Callback callback) {
+        mHandler = new Handler(looper);
+        mCallback = callback;
+    }
+
+    /** Returns true if results of the given client should go through the batcher. */
+    static boolean isBatchedDelivery(ScanClient client) {
+        return client.settings.getBatchedDeliveryWindowMillis() > 0;
+    }
+
+    /**
+     * Adds a result to the batch of the client. The batch is delivered right away if it reached
+     * the maximum size requested by the client, or when its window expires otherwise.
+     */
+    void add(ScanClient client, ScanResult result) {
+        Batch batch;
+        Batch previous = null;
+        synchronized (mBatches) {
+            batch = mBatches.get(client.scannerId);
+            if (batch == null || batch.mClient != client) {
+                // The scanner id was reused for a new scan, start a new batch.
+                previous = batch;
+                batch = new Batch(client);
+                mBatches.put(client.scannerId, batch);
+            }
+        }
+        if (previous != null) {
+            previous.deliver();
+        }
+        batch.add(result);
+    }
+
+    /** Delivers the pending results of the given scanner, if any. */
+    void flush(int scannerId) {
+        Batch batch;
+        synchronized (mBatches) {
+            batch = mBatches.get(scannerId);
+        }
+        if (batch != null) {
+            batch.deliver();
+        }
+    }
+
+    /**
+     * Delivers the pending results of the given scanner and drops its batch, once its scan is
+     * stopped. It can no longer be flushed afterwards.
+     */
+    void stop(int scannerId) {
+        Batch batch;
+        synchronized (mBatches) {
+            batch = mBatches.remove(scannerId);
+        }
+        if (batch != null) {
+            batch.deliver();
+        }
+    }
+
+    /** Drops the pending results of the given scanner. */
+    void remove(int scannerId) {
+        Batch batch;
+        synchronized (mBatches) {
+            batch = mBatches.remove(scannerId);
+        }
+        if (batch != null) {
+            batch.clear();
+        }
+    }
+
+    /** Drops all pending results. */
+    void clear() {
+        synchronized (mBatches) {
+            for (Batch batch : mBatches.values()) {
+                batch.clear();
+            }
+            mBatches.clear();
+        }
+    }
+
+    /** Returns the number of scanners with a batch. */
+    @VisibleForTesting
+    int getBatchCount() {
+        synchronized (mBatches) {
+            return mBatches.size();
+        }
+    }
+
+    private class Batch implements Runnable {
+        private final ScanClient mClient;
+        private ArrayList<ScanResult> mResults = new ArrayList<>();
+
+        Batch(ScanClient client) {
+            mClient = client;
+        }
+
+        // Delivery happens while holding the batch lock so that batches of a client cannot be
+        // reordered between the scan thread and the timer. Scanner callbacks are oneway.
+        synchronized void add(ScanResult result) {
+            if (mResults.isEmpty()) {
+                mHandler.postDelayed(this, mClient.settings.getBatchedDeliveryWindowMillis());
+            }
+            mResults.add(result);
+            if (mResults.size() >= mClient.settings.getBatchedDeliveryMaxResults()) {
+                deliver();
+            }
+        }
+
+        synchronized void deliver() {
+            mHandler.removeCallbacks(this);
+            if (mResults.isEmpty()) {
+                return;
+            }
+            ArrayList<ScanResult> results = mResults;
+            mResults = new ArrayList<>(results.size());
+            if (VDBG) {
+                Log.d(TAG, "deliver " + results.size() + " results to scannerId "
+                        + mClient.scannerId);
+            }
+            mCallback.onBatchReady(mClient, results);
+        }
+
+        synchronized void clear() {
+            mHandler.removeCallbacks(this);
+            mResults.clear();
+        }
+
+        @Override
+        public void run() {
+            deliver();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Drops repeated advertisements for scan clients that enabled duplicate filtering through
+ * {@link ScanSettings.Builder#setDuplicateFilter}.
+ *
+ * <p>The last delivered payload, RSSI and time are kept per advertiser address in a
+ * fixed-size LRU table, using primitive arrays indexed by slot and an open-addressing index
+ * from address to slot, so that the scan path does not allocate. An advertisement is delivered
+ * if its payload changed, its RSSI moved by more than the configured delta, or the refresh
+ * interval elapsed since the last delivery.
+ *
+ * @hide
+ */
+/* package */class ScanResultDeduplicator {
+    @VisibleForTesting
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final int NONE = -1;
+
+    private final int mRssiDelta;
+    private final long mRefreshNanos;
+    private final int mCapacity;
+
+    // Entry state, indexed by slot.
+    private final long[] mAddresses;
+    private final int[] mPayloadHashes;
+    // The payloads are compared when their hashes match, a collision must not drop a change.
+    // The scan record bytes are never modified, so they are kept without copy.
+    private final byte[][] mPayloads;
+    private final int[] mRssis;
+    private final long[] mDeliveredNanos;
+
+    // Doubly linked LRU list over the slots, most recently seen first.
+    private final int[] mPrev;
+    private final int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mSize;
+
+    // Open-addressing index from address to slot + 1, 0 meaning empty.
+    private final int[] mIndex;
+    private final int mIndexMask;
+
+    ScanResultDeduplicator(ScanSettings settings) {
+        this(settings.getDuplicateFilterRssiDelta(), settings.getDuplicateFilterRefreshMillis(),
+                DEFAULT_CAPACITY);
+    }
+
+    @VisibleForTesting
+    ScanResultDeduplicator(int rssiDelta, long refreshMillis, int capacity) {
+        mRssiDelta = rssiDelta;
+        mRefreshNanos = refreshMillis * 1000000L;
+        mCapacity = capacity;
+        mAddresses = new long[capacity];
+        mPayloadHashes = new int[capacity];
+        mPayloads = new byte[capacity][];
+        mRssis = new int[capacity];
+        mDeliveredNanos = new long[capacity];
+        mPrev = new int[capacity];
+        mNext = new int[capacity];
+        // Keep the load factor of the index at or below 0.5.
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        mIndex = new int[indexSize];
+        mIndexMask = indexSize - 1;
+    }
+
+    /** Returns true if the given client asked for duplicate filtering. */
+    static boolean isEnabled(ScanSettings settings) {
+        return settings.getDuplicateFilterRefreshMillis() > 0;
+    }
+
+    /**
+     * Returns true if the result should be delivered, and records it as delivered in that case.
+     */
+    synchronized boolean shouldDeliver(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        if (device == null) {
+            return true;
+        }
+        long address = addressToLong(device.getAddress());
+        ScanRecord scanRecord = result.getScanRecord();
+        byte[] payload = scanRecord == null ? null : scanRecord.getBytes();
+        int payloadHash = Arrays.hashCode(payload);
+        int rssi = result.getRssi();
+        long now = result.getTimestampNanos();
+
+        int slot = find(address);
+        if (slot == NONE) {
+            slot = allocate(address);
+        } else {
+            moveToHead(slot);
+            if (payloadHash == mPayloadHashes[slot]
+                    && Arrays.equals(payload, mPayloads[slot])
+                    && Math.abs(rssi - mRssis[slot]) <= mRssiDelta
+                    && now - mDeliveredNanos[slot] < mRefreshNanos) {
+                return false;
+            }
+        }
+        mPayloadHashes[slot] = payloadHash;
+        mPayloads[slot] = payload;
+        mRssis[slot] = rssi;
+        mDeliveredNanos[slot] = now;
+        return true;
+    }
+
+    /** Returns the number of tracked advertisers. */
+    synchronized int size() {
+        return mSize;
+    }
+
+    private int find(long address) {
+        for (int i = hash(address); ; i = (i + 1) & mIndexMask) {
+            int entry = mIndex[i];
+            if (entry == 0) {
+                return NONE;
+            }
+            if (mAddresses[entry - 1] == address) {
+                return entry - 1;
+            }
+        }
+    }
+
+    // Returns a slot for a new address, evicting the least recently seen one if full.
+    private int allocate(long address) {
+        int slot;
+        if (mSize < mCapacity) {
+            slot = mSize++;
+        } else {
+            slot = mTail;
+            unlink(slot);
+            removeFromIndex(mAddresses[slot]);
+        }
+        mAddresses[slot] = address;
+        int i = hash(address);
+        while (mIndex[i] != 0) {
+            i = (i + 1) & mIndexMask;
+        }
+        mIndex[i] = slot + 1;
+        linkAtHead(slot);
+        return slot;
+    }
+
+    // Removes the address from the index, shifting back the following entries of its probe
+    // sequence so that lookups never stop at a hole.
+    private void removeFromIndex(long address) {
+        int i = hash(address);
+        while (mAddresses[mIndex[i] - 1] != address) {
+            i = (i + 1) & mIndexMask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mIndexMask; mIndex[j] != 0; j = (j + 1) & mIndexMask) {
+            int home = hash(mAddresses[mIndex[j] - 1]);
+            // Move the entry into the hole if the hole lies between its home bucket and j.
+            if (((j - home) & mIndexMask) >= ((j - hole) & mIndexMask)) {
+                mIndex[hole] = mIndex[j];
+                hole = j;
+            }
+        }
+        mIndex[hole] = 0;
+    }
+
+    private void moveToHead(int slot) {
+        if (slot != mHead) {
+            unlink(slot);
+            linkAtHead(slot);
+        }
+    }
+
+    private void linkAtHead(int slot) {
+        mPrev[slot] = NONE;
+        mNext[slot] = mHead;
+        if (mHead != NONE) {
+            mPrev[mHead] = slot;
+        }
+        mHead = slot;
+        if (mTail == NONE) {
+            mTail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int prev = mPrev[slot];
+        int next = mNext[slot];
+        if (prev != NONE) {
+            mNext[prev] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrev[next] = prev;
+        } else {
+            mTail = prev;
+        }
+    }
+
+    private int hash(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mIndexMask;
+    }
+
+    /** Packs a "XX:XX:XX:XX:XX:XX" address into the low 48 bits of a long, without allocating. */
+    @VisibleForTesting
+    static long addressToLong(String address) {
+        long value = 0;
+        for (int i = 0, n = address.length(); i < n; i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                value = (value << 4) | digit;
+            }
+        }
+        return value;
+    }
+}
@@ -143,6 +143,11 @@ public class HapClientService extends ProfileService {
         return new BluetoothHapClientBinder(this);
     }
 
+    @Override
+    protected boolean canStartInBackground() {
+        return true;
+    }
+
     @Override
     protected boolean start() {
         if (DBG) {
@@ -25,11 +25,15 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHidHost;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.IBluetoothHidHost;
+import android.bluetooth.IBluetoothHidHostReportCallback;
 import android.content.AttributionSource;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
@@ -68,6 +72,15 @@ public class HidHostService extends ProfileService {
     private DatabaseManager mDatabaseManager;
     private AdapterService mAdapterService;
 
+    @VisibleForTesting
+    RemoteCallbackList<IBluetoothHidHostReportCallback> mReportCallbacks;
+    private final ReportLatencyHistogram mReportLatency =
+            new ReportLatencyHistogram("Report callbacks");
+    private final ReportLatencyHistogram mSetReportLatency =
+            new ReportLatencyHistogram("Set report");
+    private final ReportLatencyHistogram mSendDataLatency =
+            new ReportLatencyHistogram("Send data");
+
     private static final int MESSAGE_CONNECT = 1;
     private static final int MESSAGE_DISCONNECT = 2;
     private static final int MESSAGE_CONNECT_STATE_CHANGED = 3;
@@ -105,6 +118,7 @@ public class HidHostService extends ProfileService {
                 "AdapterService cannot be null when HidHostService starts");
 
         mInputDevices = Collections.synchronizedMap(new HashMap<BluetoothDevice, Integer>());
+        mReportCallbacks = new RemoteCallbackList<IBluetoothHidHostReportCallback>();
         initializeNative();
         mNativeAvailable = true;
         setHidHostService(this);
@@ -136,6 +150,9 @@ public class HidHostService extends ProfileService {
             }
             mInputDevices.clear();
         }
+        if (mReportCallbacks != null) {
+            mReportCallbacks.kill();
+        }
         // TODO(b/72948646): this should be moved to stop()
         setHidHostService(null);
     }
@@ -540,6 +557,36 @@ public class HidHostService extends ProfileService {
             }
         }
 
+        @Override
+        public void setReportBytes(BluetoothDevice device, byte reportType, byte[] report,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                HidHostService service = getService(source);
+                boolean defaultValue = false;
+                if (service != null) {
+                    defaultValue = service.setReport(device, reportType, report);
+                }
+                receiver.send(defaultValue);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+
+        @Override
+        public void sendDataBytes(BluetoothDevice device, byte[] report,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                HidHostService service = getService(source);
+                boolean defaultValue = false;
+                if (service != null) {
+                    defaultValue = service.sendData(device, report);
+                }
+                receiver.send(defaultValue);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+
         @Override
         public void setIdleTime(BluetoothDevice device, byte idleTime,
                 AttributionSource source, SynchronousResultReceiver receiver) {
@@ -569,6 +616,50 @@ public class HidHostService extends ProfileService {
                 receiver.propagateException(e);
             }
         }
+
+        @Override
+        public void registerReportCallback(IBluetoothHidHostReportCallback callback,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                Objects.requireNonNull(callback, "callback cannot be null");
+                Objects.requireNonNull(source, "source cannot be null");
+                Objects.requireNonNull(receiver, "receiver cannot be null");
+
+                HidHostService service = getService(source);
+                if (service == null) {
+                    throw new IllegalStateException("Service is unavailable");
+                }
+
+                enforceBluetoothPrivilegedPermission(service);
+
+                service.mReportCallbacks.register(callback);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+
+        @Override
+        public void unregisterReportCallback(IBluetoothHidHostReportCallback callback,
+                AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                Objects.requireNonNull(callback, "callback cannot be null");
+                Objects.requireNonNull(source, "source cannot be null");
+                Objects.requireNonNull(receiver, "receiver cannot be null");
+
+                HidHostService service = getService(source);
+                if (service == null) {
+                    throw new IllegalStateException("Service is unavailable");
+                }
+
+                enforceBluetoothPrivilegedPermission(service);
+
+                service.mReportCallbacks.unregister(callback);
+                receiver.send(null);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
     }
 
     ;
@@ -790,6 +881,38 @@ public class HidHostService extends ProfileService {
         return sendDataNative(getByteAddress(device), report);
     }
 
+    /**
+     * Sends a Set_Report with a raw report. Unlike {@link #setReport(BluetoothDevice, byte,
+     * String)} the report is passed down directly, without going through the handler.
+     */
+    boolean setReport(BluetoothDevice device, byte reportType, byte[] report) {
+        if (DBG) {
+            Log.d(TAG, "setReport: " + device.getAddress());
+        }
+        int state = this.getConnectionState(device);
+        if (state != BluetoothHidHost.STATE_CONNECTED || report == null || report.length == 0) {
+            return false;
+        }
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        boolean result = setReportBytesNative(getByteAddress(device), reportType, report);
+        mSetReportLatency.add(SystemClock.elapsedRealtimeNanos() - startNanos);
+        return result;
+    }
+
+    boolean sendData(BluetoothDevice device, byte[] report) {
+        if (DBG) {
+            Log.d(TAG, "sendData: " + device.getAddress());
+        }
+        int state = this.getConnectionState(device);
+        if (state != BluetoothHidHost.STATE_CONNECTED || report == null || report.length == 0) {
+            return false;
+        }
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        boolean result = sendDataBytesNative(getByteAddress(device), report);
+        mSendDataLatency.add(SystemClock.elapsedRealtimeNanos() - startNanos);
+        return result;
+    }
+
     boolean getIdleTime(BluetoothDevice device) {
         if (DBG) Log.d(TAG, "getIdleTime: " + device.getAddress());
         int state = this.getConnectionState(device);
@@ -834,6 +957,9 @@ public class HidHostService extends ProfileService {
 
     private void onGetReport(byte[] address, byte[] report, int rptSize) {
         if (DBG) Log.d(TAG, "onGetReport()");
+        // Deliver the report to the registered callbacks from the native callback thread, the
+        // broadcast still goes through the handler for the existing receivers.
+        dispatchReport(address, report, SystemClock.elapsedRealtimeNanos());
         Message msg = mHandler.obtainMessage(MESSAGE_ON_GET_REPORT);
         msg.obj = address;
         Bundle data = new Bundle();
@@ -867,6 +993,27 @@ public class HidHostService extends ProfileService {
         mHandler.sendMessage(msg);
     }
 
+    @VisibleForTesting
+    void dispatchReport(byte[] address, byte[] report, long receivedNanos) {
+        RemoteCallbackList<IBluetoothHidHostReportCallback> callbacks = mReportCallbacks;
+        if (callbacks == null || callbacks.getRegisteredCallbackCount() == 0) {
+            return;
+        }
+        BluetoothDevice device = getDevice(address);
+        synchronized (callbacks) {
+            int n = callbacks.beginBroadcast();
+            for (int i = 0; i < n; i++) {
+                try {
+                    callbacks.getBroadcastItem(i).onReport(device, report);
+                } catch (RemoteException e) {
+                    continue;
+                }
+            }
+            callbacks.finishBroadcast();
+        }
+        mReportLatency.add(SystemClock.elapsedRealtimeNanos() - receivedNanos);
+    }
+
     // This method does not check for error conditon (newState == prevState)
     private void broadcastConnectionState(BluetoothDevice device, int newState) {
         Integer prevStateInteger = mInputDevices.get(device);
@@ -1002,6 +1149,13 @@ public class HidHostService extends ProfileService {
         for (BluetoothDevice device : mInputDevices.keySet()) {
             println(sb, "  " + device + " : " + mInputDevices.get(device));
         }
+        if (mReportCallbacks != null) {
+            println(sb, "mReportCallbacks: " + mReportCallbacks.getRegisteredCallbackCount());
+        }
+        println(sb, "Report latency:");
+        mReportLatency.dump(sb);
+        mSetReportLatency.dump(sb);
+        mSendDataLatency.dump(sb);
     }
 
     // Constants matching Hal header file bt_hh.h
@@ -1034,6 +1188,10 @@ public class HidHostService extends ProfileService {
 
     private native boolean sendDataNative(byte[] btAddress, String report);
 
+    private native boolean setReportBytesNative(byte[] btAddress, byte reportType, byte[] report);
+
+    private native boolean sendDataBytesNative(byte[] btAddress, byte[] report);
+
     private native boolean setIdleTimeNative(byte[] btAddress, byte idleTime);
 
     private native boolean getIdleTimeNative(byte[] btAddress);
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hid;
+
+import com.android.bluetooth.btservice.ProfileService;
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Histogram of the time spent by the HID host service on a report, kept for dumpsys.
+ */
+class ReportLatencyHistogram {
+    /** Upper bounds of the buckets, in microseconds. The last bucket has no upper bound. */
+    @VisibleForTesting
+    static final long[] BUCKET_BOUNDS_US = {100, 250, 500, 1000, 2000, 5000, 10000, 20000};
+
+    private final String mName;
+    private final long[] mBuckets = new long[BUCKET_BOUNDS_US.length + 1];
+    private long mCount;
+    private long mTotalUs;
+    private long mMaxUs;
+
+    ReportLatencyHistogram(String name) {
+        mName = name;
+    }
+
+    /** Records a report which took the given time, in nanoseconds. */
+    synchronized void add(long latencyNanos) {
+        long latencyUs = latencyNanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_US.length && latencyUs >= BUCKET_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalUs += latencyUs;
+        mMaxUs = Math.max(mMaxUs, latencyUs);
+    }
+
+    @VisibleForTesting
+    synchronized long getCount() {
+        return mCount;
+    }
+
+    @VisibleForTesting
+    synchronized long getBucketCount(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        if (mCount == 0) {
+            ProfileService.println(sb, mName + ": no reports");
+            return;
+        }
+        ProfileService.println(sb, mName + ": " + mCount + " reports, avg " + mTotalUs / mCount
+                + "us, max " + mMaxUs + "us");
+        long lowerBound = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            String range = i < BUCKET_BOUNDS_US.length
+                    ? lowerBound + "-" + BUCKET_BOUNDS_US[i] + "us"
+                    : ">=" + lowerBound + "us";
+            ProfileService.println(sb, String.format("  %-14s %d", range, mBuckets[i]));
+            if (i < BUCKET_BOUNDS_US.length) {
+                lowerBound = BUCKET_BOUNDS_US[i];
+            }
+        }
+    }
+}
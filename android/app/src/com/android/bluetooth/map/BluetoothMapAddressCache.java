@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.provider.Telephony.CanonicalAddressesColumns;
+import android.provider.Telephony.MmsSms;
+import android.provider.Telephony.Threads;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.bluetooth.mapapi.BluetoothMapContract;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the addresses and contact names resolved while building message listings, so that
+ * listing a page of messages does not query the providers once per message and field.
+ *
+ * <p>Thread recipients and IM conversation contacts of a page are fetched up front with one
+ * batched {@code IN (...)} query each. MMS addresses and contact names can only be queried one
+ * at a time, but are then shared between the fields and the following requests.
+ *
+ * <p>Entries are dropped after {@link #MAX_AGE_MS}, and all of them are dropped by
+ * {@link #invalidate} when {@link BluetoothMapContentObserver} sees the messages change.
+ */
+public class BluetoothMapAddressCache {
+    private static final String TAG = "BluetoothMapAddressCache";
+    private static final boolean V = BluetoothMapService.VERBOSE;
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 512;
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+    // Keep the batched selections well below the SQLite expression limits
+    private static final int MAX_BATCH_SIZE = 200;
+
+    private static final Uri THREADS_URI =
+            Threads.CONTENT_URI.buildUpon().appendQueryParameter("simple", "true").build();
+    private static final Uri CANONICAL_ADDRESS_URI =
+            MmsSms.CONTENT_URI.buildUpon().appendPath("canonical-addresses").build();
+    private static final String[] THREAD_PROJECTION = {BaseColumns._ID, Threads.RECIPIENT_IDS};
+    private static final String[] CANONICAL_ADDRESS_PROJECTION =
+            {CanonicalAddressesColumns._ID, CanonicalAddressesColumns.ADDRESS};
+
+    private static final class Entry {
+        final String mValue;
+        final long mTime;
+
+        Entry(String value, long time) {
+            mValue = value;
+            mTime = time;
+        }
+    }
+
+    private static final class Lru<K> extends LinkedHashMap<K, Entry> {
+        Lru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Lru<Long> mMmsFromAddresses = new Lru<>();
+    private final Lru<Long> mMmsToAddresses = new Lru<>();
+    private final Lru<Long> mThreadAddresses = new Lru<>();
+    private final Lru<Long> mConvoContacts = new Lru<>();
+    private final Lru<String> mContactNames = new Lru<>();
+    // Incremented by invalidate(), so that results of queries racing with it are not cached
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+
+    public BluetoothMapAddressCache(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /** Drops all the cached entries, to be called when messages or contacts change. */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mMmsFromAddresses.clear();
+        mMmsToAddresses.clear();
+        mThreadAddresses.clear();
+        mConvoContacts.clear();
+        mContactNames.clear();
+    }
+
+    /**
+     * Returns the first address of the given type of an MMS message.
+     * @param type {@link BluetoothMapContent#MMS_FROM} or {@link BluetoothMapContent#MMS_TO}
+     */
+    public String getAddressMms(long id, int type) {
+        Lru<Long> cache = type == BluetoothMapContent.MMS_FROM ? mMmsFromAddresses
+                : type == BluetoothMapContent.MMS_TO ? mMmsToAddresses : null;
+        if (cache == null) {
+            return BluetoothMapContent.getAddressMms(mResolver, id, type);
+        }
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = get(cache, id);
+            generation = mGeneration;
+        }
+        if (entry != null) {
+            return entry.mValue;
+        }
+        String address = BluetoothMapContent.getAddressMms(mResolver, id, type);
+        put(cache, id, address, generation);
+        return address;
+    }
+
+    /** Returns the display name of the contact with the given phone number, or null. */
+    public String getContactNameFromPhone(String phone) {
+        if (phone == null || phone.isEmpty()) {
+            return null;
+        }
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = get(mContactNames, phone);
+            generation = mGeneration;
+        }
+        if (entry != null) {
+            return entry.mValue;
+        }
+        String name = BluetoothMapContent.getContactNameFromPhone(phone, mResolver);
+        put(mContactNames, phone, name, generation);
+        return name;
+    }
+
+    /**
+     * Returns the recipient addresses of an SMS thread, separated by ";".
+     * See {@link #prefetchThreadAddresses} to resolve several threads at once.
+     */
+    public String getCanonicalAddressSms(long threadId) {
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = get(mThreadAddresses, threadId);
+            generation = mGeneration;
+        }
+        if (entry != null) {
+            return entry.mValue;
+        }
+        String address = BluetoothMapContent.getCanonicalAddressSms(mResolver, (int) threadId);
+        put(mThreadAddresses, threadId, address, generation);
+        return address;
+    }
+
+    /**
+     * Returns the UCI of the contact of an IM conversation, or null.
+     * See {@link #prefetchConvoContacts} to resolve several conversations at once.
+     */
+    public String getConvoContactUci(Uri contactsUri, long convoId) {
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = get(mConvoContacts, convoId);
+            generation = mGeneration;
+        }
+        if (entry != null) {
+            return entry.mValue;
+        }
+        List<Long> ids = new ArrayList<Long>(1);
+        ids.add(convoId);
+        String uci = queryConvoContacts(contactsUri, ids).get(convoId);
+        put(mConvoContacts, convoId, uci, generation);
+        return uci;
+    }
+
+    /**
+     * Resolves the recipient addresses of the given SMS threads not cached yet, with one query
+     * on the threads and one on the canonical addresses per batch.
+     */
+    public void prefetchThreadAddresses(Collection<Long> threadIds) {
+        int generation;
+        Set<Long> pending = new LinkedHashSet<Long>();
+        synchronized (this) {
+            generation = mGeneration;
+            for (Long threadId : threadIds) {
+                if (!pending.contains(threadId) && get(mThreadAddresses, threadId) == null) {
+                    pending.add(threadId);
+                }
+            }
+        }
+        List<Long> missing = new ArrayList<Long>(pending);
+        for (int start = 0; start < missing.size(); start += MAX_BATCH_SIZE) {
+            List<Long> batch = missing.subList(start,
+                    Math.min(start + MAX_BATCH_SIZE, missing.size()));
+            Map<Long, String[]> recipients = queryThreadRecipients(batch);
+            List<Long> addressIds = new ArrayList<Long>();
+            for (String[] ids : recipients.values()) {
+                for (String id : ids) {
+                    Long addressId = parseId(id);
+                    if (addressId != null) {
+                        addressIds.add(addressId);
+                    }
+                }
+            }
+            Map<Long, String> addresses = queryCanonicalAddresses(addressIds);
+            for (Long threadId : batch) {
+                String[] ids = recipients.get(threadId);
+                StringBuilder address = new StringBuilder();
+                if (ids != null) {
+                    for (String id : ids) {
+                        String recipient = addresses.get(parseId(id));
+                        if (recipient == null) {
+                            continue;
+                        }
+                        //TODO: Multiple Recipeints are appended with ";" for now.
+                        if (address.length() != 0) {
+                            address.append(';');
+                        }
+                        address.append(recipient);
+                    }
+                }
+                put(mThreadAddresses, threadId, address.toString(), generation);
+            }
+        }
+    }
+
+    /**
+     * Resolves the contacts of the given IM conversations not cached yet, with one query per
+     * batch.
+     */
+    public void prefetchConvoContacts(Uri contactsUri, Collection<Long> convoIds) {
+        int generation;
+        Set<Long> pending = new LinkedHashSet<Long>();
+        synchronized (this) {
+            generation = mGeneration;
+            for (Long convoId : convoIds) {
+                if (!pending.contains(convoId) && get(mConvoContacts, convoId) == null) {
+                    pending.add(convoId);
+                }
+            }
+        }
+        List<Long> missing = new ArrayList<Long>(pending);
+        for (int start = 0; start < missing.size(); start += MAX_BATCH_SIZE) {
+            List<Long> batch = missing.subList(start,
+                    Math.min(start + MAX_BATCH_SIZE, missing.size()));
+            Map<Long, String> ucis = queryConvoContacts(contactsUri, batch);
+            for (Long convoId : batch) {
+                put(mConvoContacts, convoId, ucis.get(convoId), generation);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BluetoothMapAddressCache: hits=" + mHits + " misses=" + mMisses;
+    }
+
+    @VisibleForTesting
+    synchronized int getHitCount() {
+        return mHits;
+    }
+
+    private Map<Long, String[]> queryThreadRecipients(List<Long> threadIds) {
+        Map<Long, String[]> recipients = new HashMap<Long, String[]>();
+        String where = BaseColumns._ID + " IN (" + joinIds(threadIds) + ")";
+        if (V) {
+            Log.v(TAG, "queryThreadRecipients: " + where);
+        }
+        Cursor c = mResolver.query(THREADS_URI, THREAD_PROJECTION, where, null, null);
+        try {
+            while (c != null && c.moveToNext()) {
+                String ids = c.getString(1);
+                if (ids != null) {
+                    recipients.put(c.getLong(0), ids.split(" "));
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return recipients;
+    }
+
+    private Map<Long, String> queryCanonicalAddresses(List<Long> addressIds) {
+        Map<Long, String> addresses = new HashMap<Long, String>();
+        if (addressIds.isEmpty()) {
+            return addresses;
+        }
+        String where = CanonicalAddressesColumns._ID + " IN (" + joinIds(addressIds) + ")";
+        Cursor c = mResolver.query(CANONICAL_ADDRESS_URI, CANONICAL_ADDRESS_PROJECTION, where,
+                null, null);
+        try {
+            while (c != null && c.moveToNext()) {
+                addresses.put(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return addresses;
+    }
+
+    // TODO: This maps a contact ID to a conversation ID, and only keeps the first contact of a
+    //       conversation, hence will not work for group-chats.
+    private Map<Long, String> queryConvoContacts(Uri contactsUri, List<Long> convoIds) {
+        Map<Long, String> ucis = new HashMap<Long, String>();
+        String where = BluetoothMapContract.ConvoContactColumns.CONVO_ID + " IN ("
+                + joinIds(convoIds) + ")";
+        Cursor c = mResolver.query(contactsUri, BluetoothMapContract.BT_CONTACT_PROJECTION, where,
+                null, null);
+        try {
+            if (c != null) {
+                int convoIdCol = c.getColumnIndex(BluetoothMapContract.ConvoContactColumns.CONVO_ID);
+                int uciCol = c.getColumnIndex(BluetoothMapContract.ConvoContactColumns.UCI);
+                while (c.moveToNext()) {
+                    long convoId = c.getLong(convoIdCol);
+                    if (!ucis.containsKey(convoId)) {
+                        ucis.put(convoId, c.getString(uciCol));
+                    }
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return ucis;
+    }
+
+    // Returns the entry of the key, or null if it is not cached or expired. Counts the lookup.
+    private <K> Entry get(Lru<K> cache, K key) {
+        Entry entry = cache.get(key);
+        if (entry != null && SystemClock.elapsedRealtime() - entry.mTime > MAX_AGE_MS) {
+            cache.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return entry;
+    }
+
+    private synchronized <K> void put(Lru<K> cache, K key, String value, int generation) {
+        if (generation == mGeneration) {
+            cache.put(key, new Entry(value, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private static Long parseId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid recipient id: " + id);
+            return null;
+        }
+    }
+
+    private static String joinIds(Collection<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        Iterator<Long> it = ids.iterator();
+        while (it.hasNext()) {
+            sb.append(it.next());
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -144,6 +144,7 @@ public class BluetoothMapContent {
 
     private final Context mContext;
     private final ContentResolver mResolver;
+    private final BluetoothMapAddressCache mAddressCache;
     private final String mBaseUri;
     private final BluetoothMapAccountItem mAccount;
     /* The MasInstance reference is used to update persistent (over a connection) version counters*/
@@ -251,6 +252,24 @@ public class BluetoothMapContent {
         MMS_SMS_THREAD_COL_RECIPIENT_IDS = projection.indexOf(Threads.RECIPIENT_IDS);
     }
 
+    /**
+     * One of the per message type cursors merged into a message listing, with the element built
+     * from its current row.
+     */
+    private static class ListingSource {
+        final Cursor mCursor;
+        final int mMsgType;
+        // SMS and MMS rows are filtered on originator and recipient after the query
+        final boolean mMatchAddresses;
+        BluetoothMapMessageListingElement mHead;
+
+        ListingSource(Cursor cursor, int msgType, boolean matchAddresses) {
+            mCursor = cursor;
+            mMsgType = msgType;
+            mMatchAddresses = matchAddresses;
+        }
+    }
+
     private class FilterInfo {
         public static final int TYPE_SMS = 0;
         public static final int TYPE_MMS = 1;
@@ -422,9 +441,19 @@ public class BluetoothMapContent {
 
     public BluetoothMapContent(final Context context, BluetoothMapAccountItem account,
             BluetoothMapMasInstance mas) {
+        this(context, account, mas, new BluetoothMapAddressCache(context.getContentResolver()));
+    }
+
+    /**
+     * @param addressCache the cache shared with the {@link BluetoothMapContentObserver} of the
+     *        MAS instance, which invalidates it when messages change.
+     */
+    public BluetoothMapContent(final Context context, BluetoothMapAccountItem account,
+            BluetoothMapMasInstance mas, BluetoothMapAddressCache addressCache) {
         mContext = context;
         mResolver = mContext.getContentResolver();
         mMasInstance = mas;
+        mAddressCache = addressCache;
         if (mResolver == null) {
             if (D) {
                 Log.d(TAG, "getContentResolver failed");
@@ -1007,7 +1036,7 @@ public class BluetoothMapContent {
                     // If a draft message has no recipient, it has no thread ID
                     // hence threadIdStr could possibly be null
                     if (threadIdStr != null) {
-                        address = getCanonicalAddressSms(mResolver, Integer.valueOf(threadIdStr));
+                        address = mAddressCache.getCanonicalAddressSms(Long.parseLong(threadIdStr));
                     }
                     if (V) {
                         Log.v(TAG, "threadId = " + threadIdStr + " adress:" + address + "\n");
@@ -1015,7 +1044,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-                address = getAddressMms(mResolver, id, MMS_TO);
+                address = mAddressCache.getAddressMms(id, MMS_TO);
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle addresses */
                 address = getRecipientAddressingEmail(e, c, fi);
@@ -1039,7 +1068,7 @@ public class BluetoothMapContent {
                 if (msgType != 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = mAddressCache.getContactNameFromPhone(phone);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -1048,12 +1077,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getRecipientAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_TO);
+                    phone = mAddressCache.getAddressMms(id, MMS_TO);
                 } else {
                     phone = e.getRecipientAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = mAddressCache.getContactNameFromPhone(phone);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle address and names */
@@ -1100,7 +1129,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(fi.mMmsColId);
-                tempAddress = getAddressMms(mResolver, id, MMS_FROM);
+                tempAddress = mAddressCache.getAddressMms(id, MMS_FROM);
                 address = PhoneNumberUtils.extractNetworkPortion(tempAddress);
                 if (address == null || address.length() < 1) {
                     address = tempAddress; // if the number is a service acsii text just use it
@@ -1136,22 +1165,8 @@ public class BluetoothMapContent {
                 // TODO: This is a BAD hack, that we map the contact ID to a conversation ID!!!
                 //       We need to reach a conclusion on what to do
                 Uri contactsUri = Uri.parse(mBaseUri + BluetoothMapContract.TABLE_CONVOCONTACT);
-                Cursor contacts =
-                        mResolver.query(contactsUri, BluetoothMapContract.BT_CONTACT_PROJECTION,
-                                BluetoothMapContract.ConvoContactColumns.CONVO_ID + " = "
-                                        + contactId, null, null);
-                try {
-                    // TODO this will not work for group-chats
-                    if (contacts != null && contacts.moveToFirst()) {
-                        address = contacts.getString(contacts.getColumnIndex(
-                                BluetoothMapContract.ConvoContactColumns.UCI));
-                    }
-                } finally {
-                    if (contacts != null) {
-                        contacts.close();
-                    }
-                }
-
+                // TODO this will not work for group-chats
+                address = mAddressCache.getConvoContactUci(contactsUri, contactId);
             }
             if (V) {
                 Log.v(TAG, "setSenderAddressing: " + address);
@@ -1172,7 +1187,7 @@ public class BluetoothMapContent {
                 if (msgType == 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = mAddressCache.getContactNameFromPhone(phone);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -1181,12 +1196,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getSenderAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_FROM);
+                    phone = mAddressCache.getAddressMms(id, MMS_FROM);
                 } else {
                     phone = e.getSenderAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = mAddressCache.getContactNameFromPhone(phone);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL/*  ||
                        fi.mMsgType == FilterInfo.TYPE_IM*/) {
@@ -1536,7 +1551,7 @@ public class BluetoothMapContent {
     private boolean matchRecipientMms(Cursor c, FilterInfo fi, String recip) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_TO);
+        String phone = mAddressCache.getAddressMms(id, MMS_TO);
         if (phone != null && phone.length() > 0) {
             if (phone.matches(recip)) {
                 if (V) {
@@ -1544,7 +1559,7 @@ public class BluetoothMapContent {
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
+                String name = mAddressCache.getContactNameFromPhone(phone);
                 if (name != null && name.length() > 0 && name.matches(recip)) {
                     if (V) {
                         Log.v(TAG, "matchRecipientMms: match recipient name = " + name);
@@ -1588,7 +1603,7 @@ public class BluetoothMapContent {
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
+                    String name = mAddressCache.getContactNameFromPhone(phone);
                     if (name != null && name.length() > 0 && name.matches(recip)) {
                         if (V) {
                             Log.v(TAG, "matchRecipientSms: match recipient name = " + name);
@@ -1630,7 +1645,7 @@ public class BluetoothMapContent {
     private boolean matchOriginatorMms(Cursor c, FilterInfo fi, String orig) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_FROM);
+        String phone = mAddressCache.getAddressMms(id, MMS_FROM);
         if (phone != null && phone.length() > 0) {
             if (phone.matches(orig)) {
                 if (V) {
@@ -1638,7 +1653,7 @@ public class BluetoothMapContent {
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
+                String name = mAddressCache.getContactNameFromPhone(phone);
                 if (name != null && name.length() > 0 && name.matches(orig)) {
                     if (V) {
                         Log.v(TAG, "matchOriginatorMms: match originator name = " + name);
@@ -1666,7 +1681,7 @@ public class BluetoothMapContent {
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
+                    String name = mAddressCache.getContactNameFromPhone(phone);
                     if (name != null && name.length() > 0 && name.matches(orig)) {
                         if (V) {
                             Log.v(TAG, "matchOriginatorSms: match originator name = " + name);
@@ -2229,6 +2244,7 @@ public class BluetoothMapContent {
         Cursor mmsCursor = null;
         Cursor emailCursor = null;
         Cursor imCursor = null;
+        List<ListingSource> sources = new ArrayList<ListingSource>(4);
         String limit = "";
         int countNum = ap.getMaxListCount();
         int offsetNum = ap.getStartOffset();
@@ -2261,21 +2277,12 @@ public class BluetoothMapContent {
                     smsCursor = mResolver.query(Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(smsCursor, FilterInfo.TYPE_SMS, true));
                     }
                 }
             }
@@ -2303,21 +2310,12 @@ public class BluetoothMapContent {
                     mmsCursor = mResolver.query(Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingSource(mmsCursor, FilterInfo.TYPE_MMS, true));
                     }
                 }
             }
@@ -2348,21 +2346,12 @@ public class BluetoothMapContent {
                                     where, null,
                                     BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
-                        int cnt = 0;
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
+                        sources.add(new ListingSource(emailCursor, FilterInfo.TYPE_EMAIL, false));
                     }
                 }
             }
@@ -2391,68 +2380,45 @@ public class BluetoothMapContent {
                         BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
-                    }
+                    sources.add(new ListingSource(imCursor, FilterInfo.TYPE_IM, false));
                 }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
+            /* The cursors are all sorted by date, hence merging them yields the elements in
+             * listing order. Only the elements up to the end of the requested page are built. */
+            List<ListingSource> pageSources =
+                    mergeListing(bmList, sources, fi, ap, offsetNum, ap.getMaxListCount());
             List<BluetoothMapMessageListingElement> list = bmList.getList();
+            prefetchAddresses(list, pageSources, ap);
             int listSize = list.size();
-            Cursor tmpCursor = null;
             for (int x = 0; x < listSize; x++) {
                 BluetoothMapMessageListingElement ele = list.get(x);
-                /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
-                 * then ele.getType() returns "null" even for a valid cursor.
-                 * Avoid NullPointerException in equals() check when 'mType' value is "null" */
-                TYPE tmpType = ele.getType();
-                if (smsCursor != null && ((TYPE.SMS_GSM).equals(tmpType) || (TYPE.SMS_CDMA).equals(
-                        tmpType))) {
-                    tmpCursor = smsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_SMS;
-                } else if (mmsCursor != null && (TYPE.MMS).equals(tmpType)) {
-                    tmpCursor = mmsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_MMS;
-                } else if (emailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
-                    tmpCursor = emailCursor;
-                    fi.mMsgType = FilterInfo.TYPE_EMAIL;
-                } else if (imCursor != null && ((TYPE.IM).equals(tmpType))) {
-                    tmpCursor = imCursor;
-                    fi.mMsgType = FilterInfo.TYPE_IM;
-                }
-                if (tmpCursor != null) {
-                    tmpCursor.moveToPosition(ele.getCursorIndex());
-                    setSenderAddressing(ele, tmpCursor, fi, ap);
-                    setSenderName(ele, tmpCursor, fi, ap);
-                    setRecipientAddressing(ele, tmpCursor, fi, ap);
-                    setRecipientName(ele, tmpCursor, fi, ap);
-                    setSubject(ele, tmpCursor, fi, ap);
-                    setSize(ele, tmpCursor, fi, ap);
-                    setText(ele, tmpCursor, fi, ap);
-                    setPriority(ele, tmpCursor, fi, ap);
-                    setSent(ele, tmpCursor, fi, ap);
-                    setProtected(ele, tmpCursor, fi, ap);
-                    setReceptionStatus(ele, tmpCursor, fi, ap);
-                    setAttachment(ele, tmpCursor, fi, ap);
-
-                    if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
-                        setDeliveryStatus(ele, tmpCursor, fi, ap);
-                        setThreadId(ele, tmpCursor, fi, ap);
-                        setThreadName(ele, tmpCursor, fi, ap);
-                    }
+                ListingSource source = pageSources.get(x);
+                Cursor tmpCursor = source.mCursor;
+                fi.mMsgType = source.mMsgType;
+                tmpCursor.moveToPosition(ele.getCursorIndex());
+                setSenderAddressing(ele, tmpCursor, fi, ap);
+                setSenderName(ele, tmpCursor, fi, ap);
+                setRecipientAddressing(ele, tmpCursor, fi, ap);
+                setRecipientName(ele, tmpCursor, fi, ap);
+                setSubject(ele, tmpCursor, fi, ap);
+                setSize(ele, tmpCursor, fi, ap);
+                setText(ele, tmpCursor, fi, ap);
+                setPriority(ele, tmpCursor, fi, ap);
+                setSent(ele, tmpCursor, fi, ap);
+                setProtected(ele, tmpCursor, fi, ap);
+                setReceptionStatus(ele, tmpCursor, fi, ap);
+                setAttachment(ele, tmpCursor, fi, ap);
+
+                if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
+                    setDeliveryStatus(ele, tmpCursor, fi, ap);
+                    setThreadId(ele, tmpCursor, fi, ap);
+                    setThreadName(ele, tmpCursor, fi, ap);
                 }
             }
         } finally {
@@ -2477,6 +2443,101 @@ public class BluetoothMapContent {
         return bmList;
     }
 
+    /**
+     * Merges the date ordered cursors of the sources, newest first, skipping the first
+     * {@code offset} elements and adding the next {@code count} ones to {@code bmList}. The
+     * merge stops once the page is complete, so that the rows past the page are never read.
+     * @return the source of each element added to {@code bmList}
+     */
+    private List<ListingSource> mergeListing(BluetoothMapMessageListing bmList,
+            List<ListingSource> sources, FilterInfo fi, BluetoothMapAppParams ap, int offset,
+            int count) {
+        List<ListingSource> pageSources = new ArrayList<ListingSource>();
+        for (ListingSource source : sources) {
+            nextElement(source, fi, ap);
+        }
+        int skipped = 0;
+        while (count <= 0 || pageSources.size() < count) {
+            /* There are at most four sources, hence a linear scan is cheaper than a heap.
+             * On equal dates the first source wins, as with the previous stable sort. */
+            ListingSource newest = null;
+            for (ListingSource source : sources) {
+                if (source.mHead != null && (newest == null
+                        || source.mHead.getDateTime() > newest.mHead.getDateTime())) {
+                    newest = source;
+                }
+            }
+            if (newest == null) {
+                break;
+            }
+            if (skipped < offset) {
+                /* The NewMessage header reflects the whole listing up to the end of the page,
+                 * not only the page itself. */
+                if (!newest.mHead.getReadBool()) {
+                    bmList.markUnread();
+                }
+                skipped++;
+            } else {
+                bmList.add(newest.mHead);
+                pageSources.add(newest);
+            }
+            nextElement(newest, fi, ap);
+        }
+        if (D) {
+            Log.d(TAG, "mergeListing: skipped " + skipped + ", listed " + pageSources.size());
+        }
+        return pageSources;
+    }
+
+    /* Resolves the SMS draft recipients and IM senders of the page with batched queries, before
+     * the addressing of each element is set from the cache. */
+    private void prefetchAddresses(List<BluetoothMapMessageListingElement> list,
+            List<ListingSource> pageSources, BluetoothMapAppParams ap) {
+        List<Long> threadIds = new ArrayList<Long>();
+        List<Long> convoIds = new ArrayList<Long>();
+        for (int x = 0; x < list.size(); x++) {
+            ListingSource source = pageSources.get(x);
+            Cursor c = source.mCursor;
+            c.moveToPosition(list.get(x).getCursorIndex());
+            if (source.mMsgType == FilterInfo.TYPE_SMS
+                    && (ap.getParameterMask() & MASK_RECIPIENT_ADDRESSING) != 0) {
+                int threadIdInd = c.getColumnIndex(Sms.THREAD_ID);
+                if (c.getInt(c.getColumnIndex(Sms.TYPE)) == Sms.MESSAGE_TYPE_DRAFT
+                        && c.getString(c.getColumnIndex(Sms.ADDRESS)) == null
+                        && !c.isNull(threadIdInd)) {
+                    threadIds.add(c.getLong(threadIdInd));
+                }
+            } else if (source.mMsgType == FilterInfo.TYPE_IM
+                    && (ap.getParameterMask() & MASK_SENDER_ADDRESSING) != 0) {
+                convoIds.add(c.getLong(c.getColumnIndex(
+                        BluetoothMapContract.MessageColumns.FROM_LIST)));
+            }
+        }
+        if (!threadIds.isEmpty()) {
+            mAddressCache.prefetchThreadAddresses(threadIds);
+        }
+        if (!convoIds.isEmpty()) {
+            mAddressCache.prefetchConvoContacts(
+                    Uri.parse(mBaseUri + BluetoothMapContract.TABLE_CONVOCONTACT), convoIds);
+        }
+    }
+
+    /* Moves the cursor of the source to its next matching row and builds its element, or sets
+     * the element to null at the end of the cursor. */
+    private void nextElement(ListingSource source, FilterInfo fi, BluetoothMapAppParams ap) {
+        fi.mMsgType = source.mMsgType;
+        source.mHead = null;
+        while (source.mCursor.moveToNext()) {
+            if (!source.mMatchAddresses || matchAddresses(source.mCursor, fi, ap)) {
+                if (V) {
+                    BluetoothMapUtils.printCursor(source.mCursor);
+                }
+                source.mHead = element(source.mCursor, fi, ap);
+                return;
+            }
+        }
+    }
+
     /**
      * Get the size of the message listing
      * @param folderElement Must contain a valid folder string != null
@@ -37,7 +37,9 @@ import android.os.Message;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserManager;
+import android.provider.BaseColumns;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.MmsSms;
@@ -51,6 +53,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Xml;
 
 import com.android.bluetooth.Utils;
@@ -58,6 +61,7 @@ import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
 import com.android.bluetooth.mapapi.BluetoothMapContract;
 import com.android.bluetooth.mapapi.BluetoothMapContract.MessageColumns;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ResponseCodes;
 
 import com.google.android.mms.pdu.PduHeaders;
@@ -76,6 +80,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -122,6 +127,7 @@ public class BluetoothMapContentObserver {
 
     private Context mContext;
     private ContentResolver mResolver;
+    private BluetoothMapAddressCache mAddressCache;
     private ContentProviderClient mProviderClient = null;
     private BluetoothMnsObexClient mMnsClient;
     private BluetoothMapMasInstance mMasInstance = null;
@@ -195,7 +201,7 @@ public class BluetoothMapContentObserver {
     };
 
     static final String[] SMS_PROJECTION_SHORT = new String[]{
-            Sms._ID, Sms.THREAD_ID, Sms.TYPE, Sms.READ
+            Sms._ID, Sms.THREAD_ID, Sms.TYPE, Sms.READ, Sms.DATE
     };
 
     static final String[] SMS_PROJECTION_SHORT_EXT = new String[]{
@@ -203,7 +209,7 @@ public class BluetoothMapContentObserver {
     };
 
     static final String[] MMS_PROJECTION_SHORT = new String[]{
-            Mms._ID, Mms.THREAD_ID, Mms.MESSAGE_TYPE, Mms.MESSAGE_BOX, Mms.READ
+            Mms._ID, Mms.THREAD_ID, Mms.MESSAGE_TYPE, Mms.MESSAGE_BOX, Mms.READ, Mms.DATE
     };
 
     static final String[] MMS_PROJECTION_SHORT_EXT = new String[]{
@@ -250,6 +256,7 @@ public class BluetoothMapContentObserver {
             boolean enableSmsMms) throws RemoteException {
         mContext = context;
         mResolver = mContext.getContentResolver();
+        mAddressCache = new BluetoothMapAddressCache(mResolver);
         mAccount = account;
         mMasInstance = masInstance;
         mMasId = mMasInstance.getMasId();
@@ -282,19 +289,19 @@ public class BluetoothMapContentObserver {
         boolean doInit = false;
         if (mEnableSmsMms) {
             if (mMsgListSms == null) {
-                setMsgListSms(new HashMap<Long, Msg>(), false);
+                setMsgListSms(new LongSparseArray<Msg>(), false);
                 doInit = true;
             }
             mMsgListMms = mMasInstance.getMsgListMms();
             if (mMsgListMms == null) {
-                setMsgListMms(new HashMap<Long, Msg>(), false);
+                setMsgListMms(new LongSparseArray<Msg>(), false);
                 doInit = true;
             }
         }
         if (mAccount != null) {
             mMsgListMsg = mMasInstance.getMsgListMsg();
             if (mMsgListMsg == null) {
-                setMsgListMsg(new HashMap<Long, Msg>(), false);
+                setMsgListMsg(new LongSparseArray<Msg>(), false);
                 doInit = true;
             }
         }
@@ -336,11 +343,11 @@ public class BluetoothMapContentObserver {
         }
     }
 
-    private Map<Long, Msg> getMsgListSms() {
+    private LongSparseArray<Msg> getMsgListSms() {
         return mMsgListSms;
     }
 
-    private void setMsgListSms(Map<Long, Msg> msgListSms, boolean changesDetected) {
+    private void setMsgListSms(LongSparseArray<Msg> msgListSms, boolean changesDetected) {
         mMsgListSms = msgListSms;
         if (changesDetected) {
             mMasInstance.updateFolderVersionCounter();
@@ -349,12 +356,12 @@ public class BluetoothMapContentObserver {
     }
 
 
-    private Map<Long, Msg> getMsgListMms() {
+    private LongSparseArray<Msg> getMsgListMms() {
         return mMsgListMms;
     }
 
 
-    private void setMsgListMms(Map<Long, Msg> msgListMms, boolean changesDetected) {
+    private void setMsgListMms(LongSparseArray<Msg> msgListMms, boolean changesDetected) {
         mMsgListMms = msgListMms;
         if (changesDetected) {
             mMasInstance.updateFolderVersionCounter();
@@ -363,12 +370,12 @@ public class BluetoothMapContentObserver {
     }
 
 
-    private Map<Long, Msg> getMsgListMsg() {
+    private LongSparseArray<Msg> getMsgListMsg() {
         return mMsgListMsg;
     }
 
 
-    private void setMsgListMsg(Map<Long, Msg> msgListMsg, boolean changesDetected) {
+    private void setMsgListMsg(LongSparseArray<Msg> msgListMsg, boolean changesDetected) {
         mMsgListMsg = msgListMsg;
         if (changesDetected) {
             mMasInstance.updateFolderVersionCounter();
@@ -439,6 +446,14 @@ public class BluetoothMapContentObserver {
         return ((eventFilter & EVENT_FILTER_PARTICIPANT_CHATSTATE_CHANGED) > 0);
     }
 
+    /**
+     * Returns the cache of the addresses and names resolved for the message listings, which is
+     * invalidated whenever the observed messages or contacts change.
+     */
+    public BluetoothMapAddressCache getAddressCache() {
+        return mAddressCache;
+    }
+
     private static boolean sendEventMessageRemoved(long eventFilter) {
         return ((eventFilter & EVENT_FILTER_MESSAGE_REMOVED) > 0);
     }
@@ -456,7 +471,9 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    private final Handler mHandler = new Handler();
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -464,6 +481,9 @@ public class BluetoothMapContentObserver {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            // Any change may affect the addresses and names resolved for the listings
+            mAddressCache.invalidate();
+
             if (uri == null) {
                 Log.w(TAG, "onChange() with URI == null - not handled.");
                 return;
@@ -882,11 +902,48 @@ public class BluetoothMapContentObserver {
         }
     }
 
-    private Map<Long, Msg> mMsgListSms = null;
+    private LongSparseArray<Msg> mMsgListSms = null;
+
+    private LongSparseArray<Msg> mMsgListMms = null;
+
+    private LongSparseArray<Msg> mMsgListMsg = null;
+
+    /* The largest _ID and date seen in a message table, used to query only the rows added or
+     * updated since the last scan. */
+    @VisibleForTesting
+    static class HighWaterMark {
+        private final String mDateColumn;
+        private long mId = -1;
+        private long mDate = -1;
+
+        HighWaterMark(String dateColumn) {
+            mDateColumn = dateColumn;
+        }
+
+        void update(Cursor c) {
+            mId = Math.max(mId, c.getLong(c.getColumnIndex(BaseColumns._ID)));
+            int dateIndex = c.getColumnIndex(mDateColumn);
+            if (dateIndex != -1) {
+                mDate = Math.max(mDate, c.getLong(dateIndex));
+            }
+        }
+
+        String getSelection() {
+            return BaseColumns._ID + " > " + mId + " OR " + mDateColumn + " > " + mDate;
+        }
+    }
+
+    private final HighWaterMark mSmsHighWaterMark = new HighWaterMark(Sms.DATE);
+    private final HighWaterMark mMmsHighWaterMark = new HighWaterMark(Mms.DATE);
 
-    private Map<Long, Msg> mMsgListMms = null;
+    /* Keeps the message snapshots appended in key order when (re)built from a full scan */
+    private static final String ORDER_BY_ID = BaseColumns._ID + " ASC";
 
-    private Map<Long, Msg> mMsgListMsg = null;
+    /* The full reconcile of the SMS and MMS tables runs once changes have settled for
+     * RECONCILE_DELAY_MS, and at the latest RECONCILE_MAX_DELAY_MS after the first change. */
+    private static final long RECONCILE_DELAY_MS = 2 * DateUtils.SECOND_IN_MILLIS;
+    private static final long RECONCILE_MAX_DELAY_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+    private long mReconcileDeadline = 0;
 
     private Map<String, BluetoothMapConvoContactElement> mContactList = null;
 
@@ -1052,6 +1109,8 @@ public class BluetoothMapContentObserver {
         }
         mResolver.unregisterContentObserver(mObserver);
         mObserverRegistered = false;
+        mHandler.removeCallbacks(mReconcileRunnable);
+        mReconcileDeadline = 0;
         if (mProviderClient != null) {
             mProviderClient.close();
             mProviderClient = null;
@@ -1245,11 +1304,12 @@ public class BluetoothMapContentObserver {
         }
 
         if (mEnableSmsMms) {
-            HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+            LongSparseArray<Msg> msgListSms = new LongSparseArray<Msg>();
 
             Cursor c;
             try {
-                c = mResolver.query(Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
+                c = mResolver.query(Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null,
+                        ORDER_BY_ID);
             } catch (SQLiteException e) {
                 Log.e(TAG, "Failed to initialize the list of messages: " + e.toString());
                 return;
@@ -1265,6 +1325,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListSms.put(id, msg);
+                        mSmsHighWaterMark.update(c);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1278,9 +1339,9 @@ public class BluetoothMapContentObserver {
                 setMsgListSms(msgListSms, true); // Set initial folder version counter
             }
 
-            HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+            LongSparseArray<Msg> msgListMms = new LongSparseArray<Msg>();
 
-            c = mResolver.query(Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
+            c = mResolver.query(Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, ORDER_BY_ID);
             try {
                 if (c != null && c.moveToFirst()) {
                     do {
@@ -1291,6 +1352,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListMms.put(id, msg);
+                        mMmsHighWaterMark.update(c);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1306,9 +1368,9 @@ public class BluetoothMapContentObserver {
         }
 
         if (mAccount != null) {
-            HashMap<Long, Msg> msgList = new HashMap<Long, Msg>();
+            LongSparseArray<Msg> msgList = new LongSparseArray<Msg>();
             Uri uri = mMessageUri;
-            Cursor c = mProviderClient.query(uri, MSG_PROJECTION_SHORT, null, null, null);
+            Cursor c = mProviderClient.query(uri, MSG_PROJECTION_SHORT, null, null, ORDER_BY_ID);
 
             try {
                 if (c != null && c.moveToFirst()) {
@@ -1394,16 +1456,12 @@ public class BluetoothMapContentObserver {
             Log.d(TAG, "handleMsgListChangesSms");
         }
 
-        HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+        LongSparseArray<Msg> msgListSms = new LongSparseArray<Msg>();
         boolean listChanged = false;
 
         Cursor c;
         synchronized (getMsgListSms()) {
-            if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                c = mResolver.query(Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
-            } else {
-                c = mResolver.query(Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
-            }
+            c = mResolver.query(Sms.CONTENT_URI, getSmsProjection(), null, null, ORDER_BY_ID);
             try {
                 if (c != null && c.moveToFirst()) {
                     do {
@@ -1413,118 +1471,9 @@ public class BluetoothMapContentObserver {
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
-
-                        Msg msg = getMsgListSms().remove(id);
-
-                        /* We must filter out any actions made by the MCE, hence do not send e.g.
-                         * a message deleted and/or MessageShift for messages deleted by the MCE. */
-
-                        if (msg == null) {
-                            /* New message */
-                            msg = new Msg(id, type, threadId, read);
-                            msgListSms.put(id, msg);
-                            listChanged = true;
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                String date = BluetoothMapUtils.getDateTimeString(
-                                        c.getLong(c.getColumnIndex(Sms.DATE)));
-                                String subject = c.getString(c.getColumnIndex(Sms.BODY));
-                                if (subject == null) {
-                                    subject = "";
-                                }
-                                String name = "";
-                                String phone = "";
-                                if (type == 1) { //inbox
-                                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
-                                    if (phone != null && !phone.isEmpty()) {
-                                        name = BluetoothMapContent.getContactNameFromPhone(phone,
-                                                mResolver);
-                                        if (name == null || name.isEmpty()) {
-                                            name = phone;
-                                        }
-                                    } else {
-                                        name = phone;
-                                    }
-                                } else {
-                                    TelephonyManager tm = mContext.getSystemService(
-                                            TelephonyManager.class);
-                                    if (tm != null) {
-                                        phone = tm.getLine1Number();
-                                        name = phone;
-                                    }
-                                }
-                                String priority = "no"; // no priority for sms
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority,
-                                            (long) threadId, null);
-                                }
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null,
-                                        mSmsType);
-                            }
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                listChanged = true;
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                String oldFolder = getSmsFolderName(msg.type);
-                                String newFolder = getSmsFolderName(type);
-                                // Filter out the intermediate outbox steps
-                                if (!oldFolder.equalsIgnoreCase(newFolder)) {
-                                    Event evt =
-                                            new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type),
-                                                    oldFolder, mSmsType);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
-                            } else if (threadId != msg.threadId) {
-                                listChanged = true;
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // TODO:
-                                    // We shall only use the folder attribute, but can't remember
-                                    // wether to set it to "deleted" or the name of the folder
-                                    // from which the message have been deleted.
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getSmsFolderName(msg.type), null, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getSmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getSmsFolderName(msg.type), mSmsType);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListSms.put(id, msg);
-                        }
+                        Msg msg = getMsgListSms().get(id);
+                        getMsgListSms().remove(id);
+                        listChanged |= handleSmsRow(c, id, msg, msgListSms);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1533,7 +1482,8 @@ public class BluetoothMapContentObserver {
                 }
             }
             String eventType = EVENT_TYPE_DELETE;
-            for (Msg msg : getMsgListSms().values()) {
+            for (int i = 0; i < getMsgListSms().size(); i++) {
+                Msg msg = getMsgListSms().valueAt(i);
                 // "old_folder" used only for MessageShift event
                 if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
                     eventType = EVENT_TYPE_REMOVED;
@@ -1549,20 +1499,172 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    /* Sends the events for the SMS messages added or updated since the last scan, by querying
+     * only the rows above the high-water marks. Deleted messages and changes that do not update
+     * the date are found by the next full reconcile. */
+    private void handleMsgListDeltaSms() {
+        String where = mSmsHighWaterMark.getSelection();
+        if (V) {
+            Log.d(TAG, "handleMsgListDeltaSms: " + where);
+        }
+        boolean listChanged = false;
+        synchronized (getMsgListSms()) {
+            Cursor c = mResolver.query(Sms.CONTENT_URI, getSmsProjection(), where, null, null);
+            try {
+                while (c != null && c.moveToNext()) {
+                    int idIndex = c.getColumnIndexOrThrow(Sms._ID);
+                    if (c.isNull(idIndex)) {
+                        continue;
+                    }
+                    long id = c.getLong(idIndex);
+                    listChanged |= handleSmsRow(c, id, getMsgListSms().get(id), getMsgListSms());
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            if (listChanged) {
+                setMsgListSms(getMsgListSms(), true);
+            }
+        }
+    }
+
+    private String[] getSmsProjection() {
+        if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+            return SMS_PROJECTION_SHORT;
+        }
+        return SMS_PROJECTION_SHORT_EXT;
+    }
+
+    /* Sends the events for a row of the SMS table, compared to the last known state of the
+     * message, and puts the new state in msgListSms. Returns true if the message changed. */
+    private boolean handleSmsRow(Cursor c, long id, Msg msg, LongSparseArray<Msg> msgListSms) {
+        boolean listChanged = false;
+        mSmsHighWaterMark.update(c);
+        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
+        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
+        int read = c.getInt(c.getColumnIndex(Sms.READ));
+
+        /* We must filter out any actions made by the MCE, hence do not send e.g.
+         * a message deleted and/or MessageShift for messages deleted by the MCE. */
+
+        if (msg == null) {
+            /* New message */
+            msg = new Msg(id, type, threadId, read);
+            msgListSms.put(id, msg);
+            listChanged = true;
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion
+                            > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                String date = BluetoothMapUtils.getDateTimeString(
+                        c.getLong(c.getColumnIndex(Sms.DATE)));
+                String subject = c.getString(c.getColumnIndex(Sms.BODY));
+                if (subject == null) {
+                    subject = "";
+                }
+                String name = "";
+                String phone = "";
+                if (type == 1) { //inbox
+                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
+                    if (phone != null && !phone.isEmpty()) {
+                        name = BluetoothMapContent.getContactNameFromPhone(phone,
+                                mResolver);
+                        if (name == null || name.isEmpty()) {
+                            name = phone;
+                        }
+                    } else {
+                        name = phone;
+                    }
+                } else {
+                    TelephonyManager tm = mContext.getSystemService(
+                            TelephonyManager.class);
+                    if (tm != null) {
+                        phone = tm.getLine1Number();
+                        name = phone;
+                    }
+                }
+                String priority = "no"; // no priority for sms
+                /* Incoming message from the network */
+                if (mMapEventReportVersion
+                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
+                            mSmsType, date, subject, name, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
+                            mSmsType, date, subject, name, priority,
+                            (long) threadId, null);
+                }
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null,
+                        mSmsType);
+            }
+            sendEvent(evt);
+        } else {
+            /* Existing message */
+            if (type != msg.type) {
+                listChanged = true;
+                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+                String oldFolder = getSmsFolderName(msg.type);
+                String newFolder = getSmsFolderName(type);
+                // Filter out the intermediate outbox steps
+                if (!oldFolder.equalsIgnoreCase(newFolder)) {
+                    Event evt =
+                            new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type),
+                                    oldFolder, mSmsType);
+                    sendEvent(evt);
+                }
+                msg.type = type;
+            } else if (threadId != msg.threadId) {
+                listChanged = true;
+                Log.d(TAG, "Message delete change: type: " + type + " old type: "
+                        + msg.type + "\n    threadId: " + threadId
+                        + " old threadId: " + msg.threadId);
+                if (threadId == DELETED_THREAD_ID) { // Message deleted
+                    // TODO:
+                    // We shall only use the folder attribute, but can't remember
+                    // wether to set it to "deleted" or the name of the folder
+                    // from which the message have been deleted.
+                    // "old_folder" used only for MessageShift event
+                    Event evt = new Event(EVENT_TYPE_DELETE, id,
+                            getSmsFolderName(msg.type), null, mSmsType);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                } else { // Undelete
+                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
+                            getSmsFolderName(msg.type),
+                            BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                }
+            }
+            if (read != msg.flagRead) {
+                listChanged = true;
+                msg.flagRead = read;
+                if (mMapEventReportVersion
+                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
+                            getSmsFolderName(msg.type), mSmsType);
+                    sendEvent(evt);
+                }
+            }
+            msgListSms.put(id, msg);
+        }
+        return listChanged;
+    }
+
     private void handleMsgListChangesMms() {
         if (V) {
             Log.d(TAG, "handleMsgListChangesMms");
         }
 
-        HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+        LongSparseArray<Msg> msgListMms = new LongSparseArray<Msg>();
         boolean listChanged = false;
         Cursor c;
         synchronized (getMsgListMms()) {
-            if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                c = mResolver.query(Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
-            } else {
-                c = mResolver.query(Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
-            }
+            c = mResolver.query(Mms.CONTENT_URI, getMmsProjection(), null, null, ORDER_BY_ID);
 
             try {
                 if (c != null && c.moveToFirst()) {
@@ -1573,131 +1675,9 @@ public class BluetoothMapContentObserver {
                             continue;
                         }
                         long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
-                        // TODO: Go through code to see if we have an issue with mismatch in types
-                        //       for threadId. Seems to be a long in DB??
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
-
-                        Msg msg = getMsgListMms().remove(id);
-
-                        /* We must filter out any actions made by the MCE, hence do not send
-                         * e.g. a message deleted and/or MessageShift for messages deleted by the
-                         * MCE.*/
-
-                        if (msg == null) {
-                            /* New message - only notify on retrieve conf */
-                            listChanged = true;
-                            if (getMmsFolderName(type).equalsIgnoreCase(
-                                    BluetoothMapContract.FOLDER_NAME_INBOX)
-                                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
-                                continue;
-                            }
-                            msg = new Msg(id, type, threadId, read);
-                            msgListMms.put(id, msg);
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                String date = BluetoothMapUtils.getDateTimeString(
-                                        c.getLong(c.getColumnIndex(Mms.DATE)));
-                                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
-                                if (subject == null || subject.length() == 0) {
-                                    /* Get subject from mms text body parts - if any exists */
-                                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
-                                    if (subject == null) {
-                                        subject = "";
-                                    }
-                                }
-                                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
-                                Log.d(TAG, "TEMP handleMsgListChangesMms, "
-                                        + "newMessage 'read' state: " + read + "priority: "
-                                        + tmpPri);
-
-                                String address = BluetoothMapContent.getAddressMms(mResolver, id,
-                                        BluetoothMapContent.MMS_FROM);
-                                if (address == null) {
-                                    address = "";
-                                }
-
-                                String priority = "no";
-                                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
-                                    priority = "yes";
-                                }
-
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority,
-                                            (long) threadId, null);
-                                }
-
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null,
-                                        TYPE.MMS);
-                            }
-
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                Event evt;
-                                listChanged = true;
-                                if (!msg.localInitiatedSend) {
-                                    // Only send events about local initiated changes
-                                    evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
-
-                                if (getMmsFolderName(type).equalsIgnoreCase(
-                                        BluetoothMapContract.FOLDER_NAME_SENT)
-                                        && msg.localInitiatedSend) {
-                                    // Stop tracking changes for this message
-                                    msg.localInitiatedSend = false;
-                                    evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id,
-                                            getMmsFolderName(type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            } else if (threadId != msg.threadId) {
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                listChanged = true;
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getMmsFolderName(msg.type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getMmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListMms.put(id, msg);
-                        }
+                        Msg msg = getMsgListMms().get(id);
+                        getMsgListMms().remove(id);
+                        listChanged |= handleMmsRow(c, id, msg, msgListMms);
                     } while (c.moveToNext());
 
                 }
@@ -1706,7 +1686,8 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            for (Msg msg : getMsgListMms().values()) {
+            for (int i = 0; i < getMsgListMms().size(); i++) {
+                Msg msg = getMsgListMms().valueAt(i);
                 // "old_folder" used only for MessageShift event
                 Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
                         TYPE.MMS);
@@ -1717,151 +1698,199 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    /* Sends the events for the MMS messages added or updated since the last scan, see
+     * handleMsgListDeltaSms(). */
+    private void handleMsgListDeltaMms() {
+        String where = mMmsHighWaterMark.getSelection();
+        if (V) {
+            Log.d(TAG, "handleMsgListDeltaMms: " + where);
+        }
+        boolean listChanged = false;
+        synchronized (getMsgListMms()) {
+            Cursor c = mResolver.query(Mms.CONTENT_URI, getMmsProjection(), where, null, null);
+            try {
+                while (c != null && c.moveToNext()) {
+                    int idIndex = c.getColumnIndexOrThrow(Mms._ID);
+                    if (c.isNull(idIndex)) {
+                        continue;
+                    }
+                    long id = c.getLong(idIndex);
+                    listChanged |= handleMmsRow(c, id, getMsgListMms().get(id), getMsgListMms());
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            if (listChanged) {
+                setMsgListMms(getMsgListMms(), true);
+            }
+        }
+    }
+
+    private String[] getMmsProjection() {
+        if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+            return MMS_PROJECTION_SHORT;
+        }
+        return MMS_PROJECTION_SHORT_EXT;
+    }
+
+    /* Sends the events for a row of the MMS table, compared to the last known state of the
+     * message, and puts the new state in msgListMms. Returns true if the message changed. */
+    private boolean handleMmsRow(Cursor c, long id, Msg msg, LongSparseArray<Msg> msgListMms) {
+        boolean listChanged = false;
+        mMmsHighWaterMark.update(c);
+        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
+        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
+        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
+        // TODO: Go through code to see if we have an issue with mismatch in types
+        //       for threadId. Seems to be a long in DB??
+        int read = c.getInt(c.getColumnIndex(Mms.READ));
+
+        /* We must filter out any actions made by the MCE, hence do not send
+         * e.g. a message deleted and/or MessageShift for messages deleted by the
+         * MCE.*/
+
+        if (msg == null) {
+            /* New message - only notify on retrieve conf */
+            listChanged = true;
+            if (getMmsFolderName(type).equalsIgnoreCase(
+                    BluetoothMapContract.FOLDER_NAME_INBOX)
+                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
+                return listChanged;
+            }
+            msg = new Msg(id, type, threadId, read);
+            msgListMms.put(id, msg);
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion
+                            != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                String date = BluetoothMapUtils.getDateTimeString(
+                        c.getLong(c.getColumnIndex(Mms.DATE)));
+                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
+                if (subject == null || subject.length() == 0) {
+                    /* Get subject from mms text body parts - if any exists */
+                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
+                    if (subject == null) {
+                        subject = "";
+                    }
+                }
+                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
+                Log.d(TAG, "TEMP handleMsgListChangesMms, "
+                        + "newMessage 'read' state: " + read + "priority: "
+                        + tmpPri);
+
+                String address = BluetoothMapContent.getAddressMms(mResolver, id,
+                        BluetoothMapContent.MMS_FROM);
+                if (address == null) {
+                    address = "";
+                }
+
+                String priority = "no";
+                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
+                    priority = "yes";
+                }
+
+                /* Incoming message from the network */
+                if (mMapEventReportVersion
+                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
+                            TYPE.MMS, date, subject, address, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
+                            TYPE.MMS, date, subject, address, priority,
+                            (long) threadId, null);
+                }
+
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null,
+                        TYPE.MMS);
+            }
+
+            sendEvent(evt);
+        } else {
+            /* Existing message */
+            if (type != msg.type) {
+                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+                Event evt;
+                listChanged = true;
+                if (!msg.localInitiatedSend) {
+                    // Only send events about local initiated changes
+                    evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
+                            getMmsFolderName(msg.type), TYPE.MMS);
+                    sendEvent(evt);
+                }
+                msg.type = type;
+
+                if (getMmsFolderName(type).equalsIgnoreCase(
+                        BluetoothMapContract.FOLDER_NAME_SENT)
+                        && msg.localInitiatedSend) {
+                    // Stop tracking changes for this message
+                    msg.localInitiatedSend = false;
+                    evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id,
+                            getMmsFolderName(type), null, TYPE.MMS);
+                    sendEvent(evt);
+                }
+            } else if (threadId != msg.threadId) {
+                Log.d(TAG, "Message delete change: type: " + type + " old type: "
+                        + msg.type + "\n    threadId: " + threadId
+                        + " old threadId: " + msg.threadId);
+                listChanged = true;
+                if (threadId == DELETED_THREAD_ID) { // Message deleted
+                    // "old_folder" used only for MessageShift event
+                    Event evt = new Event(EVENT_TYPE_DELETE, id,
+                            getMmsFolderName(msg.type), null, TYPE.MMS);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                } else { // Undelete
+                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
+                            getMmsFolderName(msg.type),
+                            BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                }
+            }
+            if (read != msg.flagRead) {
+                listChanged = true;
+                msg.flagRead = read;
+                if (mMapEventReportVersion
+                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
+                            getMmsFolderName(msg.type), TYPE.MMS);
+                    sendEvent(evt);
+                }
+            }
+            msgListMms.put(id, msg);
+        }
+        return listChanged;
+    }
+
     private void handleMsgListChangesMsg(Uri uri) throws RemoteException {
         if (V) {
             Log.v(TAG, "handleMsgListChangesMsg uri: " + uri.toString());
         }
 
-        // TODO: Change observer to handle accountId and message ID if present
+        // TODO: Change observer to handle accountId if present
+        long messageId = getMessageId(uri);
+        if (messageId != -1) {
+            handleMsgChange(messageId);
+            return;
+        }
 
-        HashMap<Long, Msg> msgList = new HashMap<Long, Msg>();
+        LongSparseArray<Msg> msgList = new LongSparseArray<Msg>();
         Cursor c;
         boolean listChanged = false;
-        if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT, null, null, null);
-        } else if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT, null, null, null);
-        } else {
-            c = mProviderClient.query(mMessageUri, MSG_PROJECTION_SHORT_EXT2, null, null, null);
-        }
+        c = mProviderClient.query(mMessageUri, getMsgProjection(), null, null, ORDER_BY_ID);
         synchronized (getMsgListMsg()) {
             try {
                 if (c != null && c.moveToFirst()) {
                     do {
                         long id = c.getLong(
                                 c.getColumnIndex(BluetoothMapContract.MessageColumns._ID));
-                        int folderId = c.getInt(
-                                c.getColumnIndex(BluetoothMapContract.MessageColumns.FOLDER_ID));
-                        int readFlag = c.getInt(
-                                c.getColumnIndex(BluetoothMapContract.MessageColumns.FLAG_READ));
-                        Msg msg = getMsgListMsg().remove(id);
-                        BluetoothMapFolderElement folderElement = mFolders.getFolderById(folderId);
-                        String newFolder;
-                        if (folderElement != null) {
-                            newFolder = folderElement.getFullPath();
-                        } else {
-                            // This can happen if a new folder is created while connected
-                            newFolder = "unknown";
-                        }
-                        /* We must filter out any actions made by the MCE, hence do not send e.g.
-                         * a message deleted and/or MessageShift for messages deleted by the MCE. */
-                        if (msg == null) {
-                            listChanged = true;
-                            /* New message - created with message unread */
-                            msg = new Msg(id, folderId, 0, readFlag);
-                            msgList.put(id, msg);
-                            Event evt;
-                            /* Incoming message from the network */
-                            if (mMapEventReportVersion != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                String date = BluetoothMapUtils.getDateTimeString(c.getLong(
-                                        c.getColumnIndex(
-                                                BluetoothMapContract.MessageColumns.DATE)));
-                                String subject = c.getString(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.SUBJECT));
-                                String address = c.getString(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.FROM_LIST));
-                                String priority = "no";
-                                if (c.getInt(c.getColumnIndex(
-                                        BluetoothMapContract.MessageColumns.FLAG_HIGH_PRIORITY))
-                                        == 1) {
-                                    priority = "yes";
-                                }
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, newFolder,
-                                            mAccount.getType(), date, subject, address, priority);
-                                } else {
-                                    long threadId = c.getLong(c.getColumnIndex(
-                                            BluetoothMapContract.MessageColumns.THREAD_ID));
-                                    String threadName = c.getString(c.getColumnIndex(
-                                            BluetoothMapContract.MessageColumns.THREAD_NAME));
-                                    evt = new Event(EVENT_TYPE_NEW, id, newFolder,
-                                            mAccount.getType(), date, subject, address, priority,
-                                            threadId, threadName);
-                                }
-                            } else {
-                                evt = new Event(EVENT_TYPE_NEW, id, newFolder, null, TYPE.EMAIL);
-                            }
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (folderId != msg.folderId && msg.folderId != -1) {
-                                if (D) {
-                                    Log.d(TAG, "new folderId: " + folderId + " old folderId: "
-                                            + msg.folderId);
-                                }
-                                BluetoothMapFolderElement oldFolderElement =
-                                        mFolders.getFolderById(msg.folderId);
-                                String oldFolder;
-                                listChanged = true;
-                                if (oldFolderElement != null) {
-                                    oldFolder = oldFolderElement.getFullPath();
-                                } else {
-                                    // This can happen if a new folder is created while connected
-                                    oldFolder = "unknown";
-                                }
-                                BluetoothMapFolderElement deletedFolder = mFolders.getFolderByName(
-                                        BluetoothMapContract.FOLDER_NAME_DELETED);
-                                BluetoothMapFolderElement sentFolder = mFolders.getFolderByName(
-                                        BluetoothMapContract.FOLDER_NAME_SENT);
-                                /*
-                                 *  If the folder is now 'deleted', send a deleted-event in stead of
-                                 *  a shift or if message is sent initiated by MAP Client, then send
-                                 *  sending-success otherwise send folderShift
-                                 */
-                                if (deletedFolder != null
-                                        && deletedFolder.getFolderId() == folderId) {
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt =
-                                            new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
-                                                    mAccount.getType());
-                                    sendEvent(evt);
-                                } else if (sentFolder != null
-                                        && sentFolder.getFolderId() == folderId
-                                        && msg.localInitiatedSend) {
-                                    if (msg.transparent) {
-                                        mResolver.delete(
-                                                ContentUris.withAppendedId(mMessageUri, id), null,
-                                                null);
-                                    } else {
-                                        msg.localInitiatedSend = false;
-                                        Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id,
-                                                oldFolder, null, mAccount.getType());
-                                        sendEvent(evt);
-                                    }
-                                } else {
-                                    if (!oldFolder.equalsIgnoreCase("root")) {
-                                        Event evt = new Event(EVENT_TYPE_SHIFT, id, newFolder,
-                                                oldFolder, mAccount.getType());
-                                        sendEvent(evt);
-                                    }
-                                }
-                                msg.folderId = folderId;
-                            }
-                            if (readFlag != msg.flagRead) {
-                                listChanged = true;
-
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id, newFolder,
-                                            mAccount.getType());
-                                    sendEvent(evt);
-                                    msg.flagRead = readFlag;
-                                }
-                            }
-
-                            msgList.put(id, msg);
-                        }
+                        Msg msg = getMsgListMsg().get(id);
+                        getMsgListMsg().remove(id);
+                        listChanged |= handleMsgRow(c, id, msg, msgList);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1870,42 +1899,227 @@ public class BluetoothMapContentObserver {
                 }
             }
             // For all messages no longer in the database send a delete notification
-            for (Msg msg : getMsgListMsg().values()) {
-                BluetoothMapFolderElement oldFolderElement = mFolders.getFolderById(msg.folderId);
+            for (int i = 0; i < getMsgListMsg().size(); i++) {
+                handleMsgRemoved(getMsgListMsg().valueAt(i));
+                listChanged = true;
+            }
+            setMsgListMsg(msgList, listChanged);
+        }
+    }
+
+    /* Handles a change notified for a single message, by querying only its row. */
+    private void handleMsgChange(long id) throws RemoteException {
+        boolean listChanged = false;
+        Cursor c = mProviderClient.query(mMessageUri, getMsgProjection(),
+                BluetoothMapContract.MessageColumns._ID + "=" + id, null, null);
+        synchronized (getMsgListMsg()) {
+            try {
+                Msg msg = getMsgListMsg().get(id);
+                if (c != null && c.moveToFirst()) {
+                    listChanged = handleMsgRow(c, id, msg, getMsgListMsg());
+                } else if (msg != null) {
+                    getMsgListMsg().remove(id);
+                    handleMsgRemoved(msg);
+                    listChanged = true;
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            if (listChanged) {
+                setMsgListMsg(getMsgListMsg(), true);
+            }
+        }
+    }
+
+    /* Sends the events for a message no longer in the message table of the account. */
+    private void handleMsgRemoved(Msg msg) {
+        BluetoothMapFolderElement oldFolderElement = mFolders.getFolderById(msg.folderId);
+        String oldFolder;
+        if (oldFolderElement != null) {
+            oldFolder = oldFolderElement.getFullPath();
+        } else {
+            oldFolder = "unknown";
+        }
+        /* Some e-mail clients delete the message after sending, and creates a
+         * new message in sent. We cannot track the message anymore, hence send both a
+         * send success and delete message.
+         */
+        if (msg.localInitiatedSend) {
+            msg.localInitiatedSend = false;
+            // If message is send with transparency don't set folder as message is deleted
+            if (msg.transparent) {
+                oldFolder = null;
+            }
+            Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id, oldFolder, null,
+                    mAccount.getType());
+            sendEvent(evt);
+        }
+        /* As this message deleted is only send on a real delete - don't set folder.
+         *  - only send delete event if message is not sent with transparency
+         */
+        if (!msg.transparent) {
+
+            // "old_folder" used only for MessageShift event
+            Event evt = new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
+                    mAccount.getType());
+            sendEvent(evt);
+        }
+    }
+
+    private String[] getMsgProjection() {
+        if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+            return MSG_PROJECTION_SHORT;
+        } else if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+            return MSG_PROJECTION_SHORT_EXT;
+        }
+        return MSG_PROJECTION_SHORT_EXT2;
+    }
+
+    /* Returns the ID of the message a notified URI refers to, or -1 if the URI refers to the
+     * whole message table. */
+    @VisibleForTesting
+    static long getMessageId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        int count = segments.size();
+        if (count >= 2 && BluetoothMapContract.TABLE_MESSAGE.equals(segments.get(count - 2))) {
+            try {
+                return Long.parseLong(segments.get(count - 1));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "getMessageId: invalid message ID in " + uri);
+            }
+        }
+        return -1;
+    }
+
+    /* Sends the events for a row of the message table of the account, compared to the last
+     * known state of the message, and puts the new state in msgList. Returns true if the
+     * message changed. */
+    private boolean handleMsgRow(Cursor c, long id, Msg msg, LongSparseArray<Msg> msgList) {
+        boolean listChanged = false;
+        int folderId = c.getInt(
+                c.getColumnIndex(BluetoothMapContract.MessageColumns.FOLDER_ID));
+        int readFlag = c.getInt(
+                c.getColumnIndex(BluetoothMapContract.MessageColumns.FLAG_READ));
+        BluetoothMapFolderElement folderElement = mFolders.getFolderById(folderId);
+        String newFolder;
+        if (folderElement != null) {
+            newFolder = folderElement.getFullPath();
+        } else {
+            // This can happen if a new folder is created while connected
+            newFolder = "unknown";
+        }
+        /* We must filter out any actions made by the MCE, hence do not send e.g.
+         * a message deleted and/or MessageShift for messages deleted by the MCE. */
+        if (msg == null) {
+            listChanged = true;
+            /* New message - created with message unread */
+            msg = new Msg(id, folderId, 0, readFlag);
+            msgList.put(id, msg);
+            Event evt;
+            /* Incoming message from the network */
+            if (mMapEventReportVersion != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                String date = BluetoothMapUtils.getDateTimeString(c.getLong(
+                        c.getColumnIndex(
+                                BluetoothMapContract.MessageColumns.DATE)));
+                String subject = c.getString(c.getColumnIndex(
+                        BluetoothMapContract.MessageColumns.SUBJECT));
+                String address = c.getString(c.getColumnIndex(
+                        BluetoothMapContract.MessageColumns.FROM_LIST));
+                String priority = "no";
+                if (c.getInt(c.getColumnIndex(
+                        BluetoothMapContract.MessageColumns.FLAG_HIGH_PRIORITY))
+                        == 1) {
+                    priority = "yes";
+                }
+                if (mMapEventReportVersion
+                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, newFolder,
+                            mAccount.getType(), date, subject, address, priority);
+                } else {
+                    long threadId = c.getLong(c.getColumnIndex(
+                            BluetoothMapContract.MessageColumns.THREAD_ID));
+                    String threadName = c.getString(c.getColumnIndex(
+                            BluetoothMapContract.MessageColumns.THREAD_NAME));
+                    evt = new Event(EVENT_TYPE_NEW, id, newFolder,
+                            mAccount.getType(), date, subject, address, priority,
+                            threadId, threadName);
+                }
+            } else {
+                evt = new Event(EVENT_TYPE_NEW, id, newFolder, null, TYPE.EMAIL);
+            }
+            sendEvent(evt);
+        } else {
+            /* Existing message */
+            if (folderId != msg.folderId && msg.folderId != -1) {
+                if (D) {
+                    Log.d(TAG, "new folderId: " + folderId + " old folderId: "
+                            + msg.folderId);
+                }
+                BluetoothMapFolderElement oldFolderElement =
+                        mFolders.getFolderById(msg.folderId);
                 String oldFolder;
                 listChanged = true;
                 if (oldFolderElement != null) {
                     oldFolder = oldFolderElement.getFullPath();
                 } else {
+                    // This can happen if a new folder is created while connected
                     oldFolder = "unknown";
                 }
-                /* Some e-mail clients delete the message after sending, and creates a
-                 * new message in sent. We cannot track the message anymore, hence send both a
-                 * send success and delete message.
+                BluetoothMapFolderElement deletedFolder = mFolders.getFolderByName(
+                        BluetoothMapContract.FOLDER_NAME_DELETED);
+                BluetoothMapFolderElement sentFolder = mFolders.getFolderByName(
+                        BluetoothMapContract.FOLDER_NAME_SENT);
+                /*
+                 *  If the folder is now 'deleted', send a deleted-event in stead of
+                 *  a shift or if message is sent initiated by MAP Client, then send
+                 *  sending-success otherwise send folderShift
                  */
-                if (msg.localInitiatedSend) {
-                    msg.localInitiatedSend = false;
-                    // If message is send with transparency don't set folder as message is deleted
+                if (deletedFolder != null
+                        && deletedFolder.getFolderId() == folderId) {
+                    // "old_folder" used only for MessageShift event
+                    Event evt =
+                            new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
+                                    mAccount.getType());
+                    sendEvent(evt);
+                } else if (sentFolder != null
+                        && sentFolder.getFolderId() == folderId
+                        && msg.localInitiatedSend) {
                     if (msg.transparent) {
-                        oldFolder = null;
+                        mResolver.delete(
+                                ContentUris.withAppendedId(mMessageUri, id), null,
+                                null);
+                    } else {
+                        msg.localInitiatedSend = false;
+                        Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id,
+                                oldFolder, null, mAccount.getType());
+                        sendEvent(evt);
+                    }
+                } else {
+                    if (!oldFolder.equalsIgnoreCase("root")) {
+                        Event evt = new Event(EVENT_TYPE_SHIFT, id, newFolder,
+                                oldFolder, mAccount.getType());
+                        sendEvent(evt);
                     }
-                    Event evt = new Event(EVENT_TYPE_SENDING_SUCCESS, msg.id, oldFolder, null,
-                            mAccount.getType());
-                    sendEvent(evt);
                 }
-                /* As this message deleted is only send on a real delete - don't set folder.
-                 *  - only send delete event if message is not sent with transparency
-                 */
-                if (!msg.transparent) {
+                msg.folderId = folderId;
+            }
+            if (readFlag != msg.flagRead) {
+                listChanged = true;
 
-                    // "old_folder" used only for MessageShift event
-                    Event evt = new Event(EVENT_TYPE_DELETE, msg.id, oldFolder, null,
+                if (mMapEventReportVersion
+                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id, newFolder,
                             mAccount.getType());
                     sendEvent(evt);
+                    msg.flagRead = readFlag;
                 }
             }
-            setMsgListMsg(msgList, listChanged);
+
+            msgList.put(id, msg);
         }
+        return listChanged;
     }
 
     private void handleMsgListChanges(Uri uri) {
@@ -1925,11 +2139,35 @@ public class BluetoothMapContentObserver {
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
         if (mEnableSmsMms) {
-            handleMsgListChangesSms();
-            handleMsgListChangesMms();
+            /* New messages are reported right away, while the full reconcile finding deleted
+             * and updated messages is deferred, so that bursts of changes share one scan. */
+            handleMsgListDeltaSms();
+            handleMsgListDeltaMms();
+            scheduleReconcile();
         }
     }
 
+    private void scheduleReconcile() {
+        long now = SystemClock.elapsedRealtime();
+        if (mReconcileDeadline == 0) {
+            mReconcileDeadline = now + RECONCILE_MAX_DELAY_MS;
+        }
+        mHandler.removeCallbacks(mReconcileRunnable);
+        mHandler.postDelayed(mReconcileRunnable,
+                Math.max(0, Math.min(RECONCILE_DELAY_MS, mReconcileDeadline - now)));
+    }
+
+    private final Runnable mReconcileRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mReconcileDeadline = 0;
+            if (mObserverRegistered && mEnableSmsMms) {
+                handleMsgListChangesSms();
+                handleMsgListChangesMms();
+            }
+        }
+    };
+
     private void handleContactListChanges(Uri uri) {
         if (uri.getAuthority().equals(mAuthority)) {
             try {
@@ -3474,7 +3712,7 @@ public class BluetoothMapContentObserver {
      * @param result The result
      */
     public static void actionMmsSent(Context context, Intent intent, int result,
-            Map<Long, Msg> mmsMsgList) {
+            LongSparseArray<Msg> mmsMsgList) {
         /*
          * if transparent:
          *   delete message and send notification(regardless of result)
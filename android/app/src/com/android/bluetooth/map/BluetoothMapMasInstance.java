@@ -23,6 +23,7 @@ import android.os.Handler;
 import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.IObexConnectionHandler;
@@ -92,9 +93,9 @@ public class BluetoothMapMasInstance implements IObexConnectionHandler {
     private AtomicLong mSmsMmsConvoListVersionCounter = new AtomicLong(0);
     private AtomicLong mImEmailConvoListVersionCounter = new AtomicLong(0);
 
-    private Map<Long, Msg> mMsgListSms = null;
-    private Map<Long, Msg> mMsgListMms = null;
-    private Map<Long, Msg> mMsgListMsg = null;
+    private LongSparseArray<Msg> mMsgListSms = null;
+    private LongSparseArray<Msg> mMsgListMms = null;
+    private LongSparseArray<Msg> mMsgListMsg = null;
 
     private Map<String, BluetoothMapConvoContactElement> mContactList;
 
@@ -195,27 +196,27 @@ public class BluetoothMapMasInstance implements IObexConnectionHandler {
         mImEmailConvoListVersionCounter.incrementAndGet();
     }
 
-    /* package */ Map<Long, Msg> getMsgListSms() {
+    /* package */ LongSparseArray<Msg> getMsgListSms() {
         return mMsgListSms;
     }
 
-    /* package */ void setMsgListSms(Map<Long, Msg> msgListSms) {
+    /* package */ void setMsgListSms(LongSparseArray<Msg> msgListSms) {
         mMsgListSms = msgListSms;
     }
 
-    /* package */ Map<Long, Msg> getMsgListMms() {
+    /* package */ LongSparseArray<Msg> getMsgListMms() {
         return mMsgListMms;
     }
 
-    /* package */ void setMsgListMms(Map<Long, Msg> msgListMms) {
+    /* package */ void setMsgListMms(LongSparseArray<Msg> msgListMms) {
         mMsgListMms = msgListMms;
     }
 
-    /* package */ Map<Long, Msg> getMsgListMsg() {
+    /* package */ LongSparseArray<Msg> getMsgListMsg() {
         return mMsgListMsg;
     }
 
-    /* package */ void setMsgListMsg(Map<Long, Msg> msgListMsg) {
+    /* package */ void setMsgListMsg(LongSparseArray<Msg> msgListMsg) {
         mMsgListMsg = msgListMsg;
     }
 
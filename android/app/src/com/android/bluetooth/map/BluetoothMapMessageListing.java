@@ -22,6 +22,7 @@ import com.android.bluetooth.DeviceWorkArounds;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -58,6 +59,14 @@ public class BluetoothMapMessageListing {
         return 0;
     }
 
+    /**
+     * Records an unread message which precedes the listed ones, so that it is reflected by
+     * {@link #hasUnread()} even though it is not part of the list.
+     */
+    public void markUnread() {
+        mHasUnread = true;
+    }
+
     /**
      * does the list contain any unread messages
      * @return true if unread messages have been added to the list, else false
@@ -90,29 +99,10 @@ public class BluetoothMapMessageListing {
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
         StringWriter sw = new StringWriter();
-        boolean isBenzCarkit = DeviceWorkArounds.addressStartsWith(
-                BluetoothMapService.getRemoteDevice().getAddress(),
-                DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
         try {
             XmlSerializer xmlMsgElement = Xml.newSerializer();
             xmlMsgElement.setOutput(sw);
-            if (isBenzCarkit) {
-                Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
-                        + "using Xml Workaround.");
-                xmlMsgElement.text("\n");
-            } else {
-                xmlMsgElement.startDocument("UTF-8", true);
-                xmlMsgElement.setFeature(
-                        "http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            }
-            xmlMsgElement.startTag(null, "MAP-msg-listing");
-            xmlMsgElement.attribute(null, "version", version);
-            // Do the XML encoding of list
-            for (BluetoothMapMessageListingElement element : mList) {
-                element.encode(xmlMsgElement, includeThreadId); // Append the list element
-            }
-            xmlMsgElement.endTag(null, "MAP-msg-listing");
-            xmlMsgElement.endDocument();
+            encode(xmlMsgElement, includeThreadId, version);
         } catch (IllegalArgumentException e) {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
@@ -132,6 +122,58 @@ public class BluetoothMapMessageListing {
         return sw.toString().getBytes("UTF-8");
     }
 
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 formatted XML directly
+     * into a stream, element by element, without building the entire listing in memory first.
+     *
+     * @param out the stream to write to, typically the OBEX body stream.
+     * @param version the version as a string, see {@link #encode(boolean, String)}.
+     * @throws IOException if writing to the stream failed.
+     */
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
+        if (DeviceWorkArounds.addressStartsWith(BluetoothMapService.getRemoteDevice().getAddress(),
+                    DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
+            // The IOT workaround rewrites the escaped XML, hence needs the entire listing
+            out.write(encode(includeThreadId, version));
+            return;
+        }
+        try {
+            XmlSerializer xmlMsgElement = Xml.newSerializer();
+            xmlMsgElement.setOutput(out, "UTF-8");
+            encode(xmlMsgElement, includeThreadId, version);
+            xmlMsgElement.flush();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, e);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, e);
+        }
+    }
+
+    private void encode(XmlSerializer xmlMsgElement, boolean includeThreadId, String version)
+            throws IOException {
+        boolean isBenzCarkit = DeviceWorkArounds.addressStartsWith(
+                BluetoothMapService.getRemoteDevice().getAddress(),
+                DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
+        if (isBenzCarkit) {
+            Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
+                    + "using Xml Workaround.");
+            xmlMsgElement.text("\n");
+        } else {
+            xmlMsgElement.startDocument("UTF-8", true);
+            xmlMsgElement.setFeature(
+                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        }
+        xmlMsgElement.startTag(null, "MAP-msg-listing");
+        xmlMsgElement.attribute(null, "version", version);
+        // Do the XML encoding of list
+        for (BluetoothMapMessageListingElement element : mList) {
+            element.encode(xmlMsgElement, includeThreadId); // Append the list element
+        }
+        xmlMsgElement.endTag(null, "MAP-msg-listing");
+        xmlMsgElement.endDocument();
+    }
+
     public void sort() {
         Collections.sort(mList);
     }
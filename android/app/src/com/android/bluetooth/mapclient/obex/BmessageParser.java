@@ -29,7 +29,9 @@ import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardVersionException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 
@@ -70,14 +72,23 @@ class BmessageParser {
     }
 
     public static Bmessage createBmessage(String str) {
-        BmessageParser p = new BmessageParser();
-
         if (DBG) {
             Log.d(TAG, "actual wired contents: " + str);
         }
 
+        return createBmessage(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parses a bMessage as it is read from the stream, which is left positioned after END:BMSG.
+     *
+     * @return the bMessage, or null if it can't be read or parsed
+     */
+    public static Bmessage createBmessage(InputStream in) {
+        BmessageParser p = new BmessageParser();
+
         try {
-            p.parse(str);
+            p.parse(in);
         } catch (IOException e) {
             Log.e(TAG, "I/O exception when parsing bMessage", e);
             return null;
@@ -104,14 +115,14 @@ class BmessageParser {
         return new ParseException("Expected: " + sb.toString(), mParser.pos());
     }
 
-    private void parse(String str) throws IOException, ParseException {
+    private void parse(InputStream in) throws IOException, ParseException {
         Property prop;
 
         /*
          * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
          * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
          */
-        mParser = new BmsgTokenizer(str + CRLF);
+        mParser = new BmsgTokenizer(in);
 
         prop = mParser.next();
         if (!prop.equals(BEGIN_BMSG)) {
@@ -147,7 +158,7 @@ class BmessageParser {
         mParser = null;
     }
 
-    private Property parseProperties() throws ParseException {
+    private Property parseProperties() throws IOException, ParseException {
         Property prop;
         /*
          * <bmessage-property>::=<bmessage-version-property>
@@ -303,32 +314,36 @@ class BmessageParser {
          */
 
         int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
-        int offset = messageLen + CRLF_LEN;
-        int restartPos = mParser.pos() + offset;
+        if (messageLen < 0) {
+            throw new ParseException("Invalid LENGTH value", mParser.pos());
+        }
+
         /*
-         * length is specified in bytes so we need to convert from unicode
-         * string back to bytes array
+         * length is specified in bytes so the message is read as is from the stream, and only
+         * decoded once complete
          */
-        String remng = mParser.remaining();
-        byte[] data = remng.getBytes();
+        byte[] data = mParser.readBytes(messageLen);
 
-        if (offset < 0 || offset > data.length) {
+        /*
+         * skip the <CRLF> following 'message' and check that END:MSG comes next, keeping what is
+         * read in case it does not
+         */
+        mParser.beginCapture();
+        prop = mParser.readBytes(CRLF_LEN) != null ? mParser.next(true) : null;
+        byte[] probe = mParser.endCapture();
+
+        if (data == null || probe.length < CRLF_LEN) {
             /* Handle possible exception for incorrect LENGTH value
              * from MSE while parsing end of props */
             throw new ParseException("Invalid LENGTH value", mParser.pos());
         }
 
-        /* restart parsing from after 'message'<CRLF> */
-        mParser = new BmsgTokenizer(new String(data, offset, data.length - offset), restartPos);
-
-        prop = mParser.next(true);
-
         if (prop != null) {
             if (prop.equals(END_MSG)) {
                 if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                    mBmsg.mMessage = new String(data, 0, messageLen, StandardCharsets.UTF_8);
+                    mBmsg.mMessage = new String(data, StandardCharsets.UTF_8);
                 } else {
-                    mBmsg.mMessage = new String(data, 0, messageLen);
+                    mBmsg.mMessage = new String(data);
                 }
             } else {
                 /* Handle possible exception for incorrect LENGTH value
@@ -338,13 +353,22 @@ class BmessageParser {
                 throw expected(END_MSG);
             }
         } else {
-            data = null;
-
             /*
              * now we check if bMessage can be parsed if LENGTH is handled as
-             * number of characters instead of number of bytes
+             * number of characters instead of number of bytes. This needs the
+             * rest of the bMessage as a string, which is only built here.
              */
-            if (offset < 0 || offset > remng.length()) {
+            int offset = messageLen + CRLF_LEN;
+            byte[] rest = mParser.readRemaining();
+            ByteArrayOutputStream all =
+                    new ByteArrayOutputStream(data.length + probe.length + rest.length);
+            all.write(data, 0, data.length);
+            all.write(probe, 0, probe.length);
+            all.write(rest, 0, rest.length);
+            data = null;
+            String remng = all.toString(StandardCharsets.UTF_8.name());
+
+            if (offset > remng.length()) {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
                 throw new ParseException("Invalid LENGTH value", mParser.pos());
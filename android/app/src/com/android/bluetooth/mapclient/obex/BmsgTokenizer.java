@@ -18,65 +18,227 @@ package com.android.bluetooth.mapclient;
 
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+/**
+ * Reads the properties of a bMessage, one line at a time, directly from a stream.
+ *
+ * <p>Only one line is held in memory at any time, and lines longer than MAX_LINE_LENGTH are
+ * rejected. The message body, whose length is given by the LENGTH property, is not split into
+ * lines but read as a whole with {@link #readBytes(int)}.
+ */
 public final class BmsgTokenizer {
     private static final String TAG = "BmsgTokenizer";
     private static final boolean VDBG = MapClientService.VDBG;
 
-    private final String mStr;
+    @VisibleForTesting
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte COLON = ':';
+
+    private static final int LINE_EMPTY = 0;
+    private static final int LINE_PROPERTY = 1;
+    private static final int LINE_INVALID = 2;
+
+    private final InputStream mIn;
+    private final byte[] mBuf = new byte[BUFFER_SIZE];
+    private int mBufPos = 0;
+    private int mBufLen = 0;
 
-    private final Matcher mMatcher;
-    private final int mOffset;
+    private byte[] mLine = new byte[256];
+    private int mLineLen = 0;
+
+    private ByteArrayOutputStream mCapture = null;
     private int mPos = 0;
 
     public BmsgTokenizer(String str) {
-        this(str, 0);
+        this(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
     }
 
-    public BmsgTokenizer(String str, int offset) {
-        mStr = str;
-        mOffset = offset;
-        mMatcher = Pattern.compile("(([^:]*):(.*))?\r\n").matcher(str);
-        mPos = mMatcher.regionStart();
+    public BmsgTokenizer(InputStream in) {
+        mIn = in;
     }
 
-    public Property next(boolean alwaysReturn) throws ParseException {
-        boolean found = false;
+    /**
+     * Returns the next property, skipping empty lines.
+     *
+     * @param alwaysReturn return null instead of throwing if the next non empty line is not a
+     *     property
+     */
+    public Property next(boolean alwaysReturn) throws IOException, ParseException {
+        int status;
+
+        while ((status = readLine()) == LINE_EMPTY) {
+            // Skipped
+        }
 
-        do {
-            mMatcher.region(mPos, mMatcher.regionEnd());
+        if (status == LINE_INVALID) {
+            if (alwaysReturn) {
+                return null;
+            }
 
-            if (!mMatcher.lookingAt()) {
-                if (alwaysReturn) {
+            throw new ParseException("Property or empty line expected", pos());
+        }
+
+        int colon = 0;
+        while (mLine[colon] != COLON) {
+            colon++;
+        }
+
+        return new Property(new String(mLine, 0, colon, StandardCharsets.UTF_8),
+                new String(mLine, colon + 1, mLineLen - colon - 1, StandardCharsets.UTF_8));
+    }
+
+    public Property next() throws IOException, ParseException {
+        return next(false);
+    }
+
+    /**
+     * Reads exactly length bytes, whatever they contain.
+     *
+     * @return the bytes read, or null if the stream ends before
+     */
+    public byte[] readBytes(int length) throws IOException {
+        // Grown as data comes in, so that a bogus length does not allocate a huge array
+        byte[] out = new byte[Math.min(length, BUFFER_SIZE)];
+        int count = 0;
+
+        while (count < length) {
+            if (count == out.length) {
+                out = Arrays.copyOf(out, (int) Math.min(length, 2L * out.length));
+            }
+
+            int n;
+            if (mBufPos < mBufLen) {
+                n = Math.min(out.length - count, mBufLen - mBufPos);
+                System.arraycopy(mBuf, mBufPos, out, count, n);
+                mBufPos += n;
+            } else {
+                n = mIn.read(out, count, out.length - count);
+                if (n < 0) {
                     return null;
                 }
+            }
 
-                throw new ParseException("Property or empty line expected", pos());
+            if (mCapture != null) {
+                mCapture.write(out, count, n);
             }
+            count += n;
+            mPos += n;
+        }
 
-            mPos = mMatcher.end();
+        return out;
+    }
 
-            if (mMatcher.group(1) != null) {
-                found = true;
-            }
-        } while (!found);
+    /** Reads everything up to the end of the stream. */
+    public byte[] readRemaining() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-        return new Property(mMatcher.group(2), mMatcher.group(3));
+        out.write(mBuf, mBufPos, mBufLen - mBufPos);
+        mPos += mBufLen - mBufPos;
+        mBufPos = mBufLen;
+
+        int n;
+        while ((n = mIn.read(mBuf)) != -1) {
+            out.write(mBuf, 0, n);
+            mPos += n;
+        }
+
+        return out.toByteArray();
     }
 
-    public Property next() throws ParseException {
-        return next(false);
+    /** Starts keeping a copy of the bytes read, until {@link #endCapture()}. */
+    public void beginCapture() {
+        mCapture = new ByteArrayOutputStream();
     }
 
-    public String remaining() {
-        return mStr.substring(mPos);
+    /** Returns the bytes read since {@link #beginCapture()}. */
+    public byte[] endCapture() {
+        byte[] captured = mCapture.toByteArray();
+        mCapture = null;
+        return captured;
     }
 
     public int pos() {
-        return mPos + mOffset;
+        return mPos;
+    }
+
+    /*
+     * Reads the next line into mLine, without its CRLF. A line ending the stream does not need
+     * to be terminated. Reading stops early on a line which can't be a property, as the caller
+     * gives up on it anyway.
+     */
+    private int readLine() throws IOException {
+        boolean colon = false;
+        mLineLen = 0;
+
+        while (true) {
+            if (mBufPos == mBufLen && !fill()) {
+                if (mLineLen == 0) {
+                    return LINE_INVALID;
+                }
+                if (mLine[mLineLen - 1] == CR) {
+                    return LINE_INVALID;
+                }
+                return colon ? LINE_PROPERTY : LINE_INVALID;
+            }
+
+            byte b = mBuf[mBufPos++];
+            mPos++;
+            if (mCapture != null) {
+                mCapture.write(b);
+            }
+
+            if (b == LF) {
+                if (mLineLen == 0 || mLine[mLineLen - 1] != CR) {
+                    return LINE_INVALID;
+                }
+                mLineLen--;
+                if (mLineLen == 0) {
+                    return LINE_EMPTY;
+                }
+                return colon ? LINE_PROPERTY : LINE_INVALID;
+            }
+
+            if (mLineLen > 0 && mLine[mLineLen - 1] == CR) {
+                // CR is only allowed before LF
+                return LINE_INVALID;
+            }
+
+            if (mLineLen == MAX_LINE_LENGTH) {
+                Log.w(TAG, "Line longer than " + MAX_LINE_LENGTH + " bytes");
+                return LINE_INVALID;
+            }
+
+            if (mLineLen == mLine.length) {
+                mLine = Arrays.copyOf(mLine, Math.min(MAX_LINE_LENGTH + 1, 2 * mLine.length));
+            }
+            mLine[mLineLen++] = b;
+            colon |= (b == COLON);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = mIn.read(mBuf);
+        if (n <= 0) {
+            return false;
+        }
+
+        mBufPos = 0;
+        mBufLen = n;
+        return true;
     }
 
     public static class Property {
@@ -28,11 +28,8 @@ import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 
 final class RequestGetMessage extends Request {
 
@@ -61,32 +58,21 @@ final class RequestGetMessage extends Request {
     @Override
     protected void readResponse(InputStream stream) {
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
+        // Parse the message while it is received rather than buffering it first. The attributes
+        // in the payload are all encoded in UTF-8, the actual message body may need to be
+        // transcoded depending on charset/encoding defined for body-content.
+        mBmessage = BmessageParser.createBmessage(stream);
 
+        // Consume whatever follows the bMessage so that the operation completes
+        byte[] buf = new byte[1024];
         try {
-            int len;
-            while ((len = stream.read(buf)) != -1) {
-                baos.write(buf, 0, len);
+            while (stream.read(buf) != -1) {
+                // Ignored
             }
         } catch (IOException e) {
             Log.e(TAG, "I/O exception while reading response", e);
         }
 
-        // Convert the input stream using UTF-8 since the attributes in the payload are all encoded
-        // according to it. The actual message body may need to be transcoded depending on
-        // charset/encoding defined for body-content.
-        String bmsg;
-        try {
-            bmsg = baos.toString(StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException ex) {
-            Log.e(TAG,
-                    "Coudn't decode the bmessage with UTF-8. Something must be really messed up.");
-            return;
-        }
-
-        mBmessage = BmessageParser.createBmessage(bmsg);
-
         if (mBmessage == null) {
             mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
         }
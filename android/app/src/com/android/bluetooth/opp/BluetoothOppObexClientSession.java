@@ -51,7 +51,6 @@ import com.android.obex.HeaderSet;
 import com.android.obex.ObexTransport;
 import com.android.obex.ResponseCodes;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -126,18 +125,6 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
         mThread.addShare(share);
     }
 
-    private static int readFully(InputStream is, byte[] buffer, int size) throws IOException {
-        int done = 0;
-        while (done < size) {
-            int got = is.read(buffer, done, size - done);
-            if (got <= 0) {
-                break;
-            }
-            done += got;
-        }
-        return done;
-    }
-
     private class ClientThread extends Thread {
 
         private static final int SLEEP_TIME = 500;
@@ -386,6 +373,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            BluetoothOppTransferPipeline pipeline = null;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -453,12 +441,16 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     long timestamp = 0;
                     long currentTime = 0;
                     long prevTimestamp = SystemClock.elapsedRealtime();
-                    int outputBufferSize = putOperation.getMaxPacketSize();
-                    byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    // Read the file on another thread while the packets are sent
+                    pipeline = BluetoothOppTransferPipeline.forReading(fileInfo.mInputStream,
+                            fileInfo.mLength, putOperation.getMaxPacketSize());
+                    BluetoothOppTransferPipeline.Packet packet = null;
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
-                        readLength = readFully(a, buffer, outputBufferSize);
+                        packet = nextPacket(pipeline);
+                    }
+                    if (packet != null) {
+                        readLength = packet.mLength;
 
                         mCallback.sendMessageDelayed(mCallback.obtainMessage(
                                 BluetoothOppObexSession.MSG_CONNECT_TIMEOUT),
@@ -468,7 +460,8 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                         }
 
                         // first packet will block here
-                        outputStream.write(buffer, 0, readLength);
+                        outputStream.write(packet.mData, 0, readLength);
+                        pipeline.release(packet);
 
                         position += readLength;
 
@@ -508,8 +501,13 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             timestamp = SystemClock.elapsedRealtime();
                         }
 
-                        readLength = a.read(buffer, 0, outputBufferSize);
-                        outputStream.write(buffer, 0, readLength);
+                        packet = nextPacket(pipeline);
+                        if (packet == null) {
+                            break;
+                        }
+                        readLength = packet.mLength;
+                        outputStream.write(packet.mData, 0, readLength);
+                        pipeline.release(packet);
 
                         /* check remote abort */
                         responseCode = putOperation.getResponseCode();
@@ -554,7 +552,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     } else if (!mInterrupted && position == fileInfo.mLength) {
                         Log.i(TAG,
                                 "SendFile finished send out file " + fileInfo.mFileName + " length "
-                                        + fileInfo.mLength);
+                                        + fileInfo.mLength + ": " + pipeline.getStats());
                     } else {
                         error = true;
                         status = BluetoothShare.STATUS_CANCELED;
@@ -579,6 +577,9 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
 
+                if (pipeline != null) {
+                    pipeline.close();
+                }
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
                 try {
@@ -628,6 +629,16 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             return status;
         }
 
+        // Returns the next packet of the file, or null if the thread was interrupted
+        private BluetoothOppTransferPipeline.Packet nextPacket(
+                BluetoothOppTransferPipeline pipeline) throws IOException {
+            BluetoothOppTransferPipeline.Packet packet = pipeline.take();
+            if (packet != null && packet.mLength < 0) {
+                throw new IOException("File ended before its declared length");
+            }
+            return packet;
+        }
+
         private void handleSendException(String exception) {
             Log.e(TAG, "Error when sending file: " + exception);
             // Update interrupted outbound content resolver entry when
@@ -460,12 +460,13 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
         }
 
         if (!error) {
-            int outputBufferSize = op.getMaxPacketSize();
-            byte[] b = new byte[outputBufferSize];
             int readLength;
             long timestamp = 0;
             long currentTime;
             long prevTimestamp = SystemClock.elapsedRealtime();
+            // Write the file on another thread while the next packets are received
+            BluetoothOppTransferPipeline pipeline =
+                    BluetoothOppTransferPipeline.forWriting(os, op.getMaxPacketSize());
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -473,7 +474,11 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         timestamp = SystemClock.elapsedRealtime();
                     }
 
-                    readLength = is.read(b);
+                    BluetoothOppTransferPipeline.Packet packet = pipeline.obtain();
+                    if (packet == null) {
+                        break;
+                    }
+                    readLength = is.read(packet.mData);
 
                     if (readLength == -1) {
                         if (D) {
@@ -482,7 +487,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         break;
                     }
 
-                    os.write(b, 0, readLength);
+                    packet.mLength = readLength;
+                    pipeline.submit(packet);
                     position += readLength;
                     percent = position * 100 / fileInfo.mLength;
                     currentTime = SystemClock.elapsedRealtime();
@@ -504,6 +510,10 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         prevTimestamp = currentTime;
                     }
                 }
+                pipeline.finish();
+                if (D) {
+                    Log.d(TAG, "Received " + fileInfo.mFileName + ": " + pipeline.getStats());
+                }
             } catch (IOException e1) {
                 Log.e(TAG, "Error when receiving file: " + e1);
                 /* OBEX Abort packet received from remote device */
@@ -513,6 +523,8 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                     status = BluetoothShare.STATUS_OBEX_DATA_ERROR;
                 }
                 error = true;
+            } finally {
+                pipeline.close();
             }
         }
 
@@ -522,7 +534,7 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             }
             status = BluetoothShare.STATUS_CANCELED;
         } else {
-            if (position == fileInfo.mLength) {
+            if (position == fileInfo.mLength && !error) {
                 if (D) {
                     Log.d(TAG, "Receiving file completed for " + fileInfo.mFileName);
                 }
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Moves file data between storage and an OBEX operation through a ring of reusable packet
+ * buffers, so that storage reads and writes on a worker thread overlap with OBEX sends and
+ * receives on the session thread.
+ *
+ * <p>A pipeline created with {@link #forReading} reads a file ahead of the sender: the sender
+ * {@link #take}s filled packets and {@link #release}s them once written to OBEX. Large regular
+ * files are read through memory mapped windows instead of read calls.
+ *
+ * <p>A pipeline created with {@link #forWriting} writes received data behind the receiver: the
+ * receiver {@link #obtain}s an empty packet, fills it and {@link #submit}s it, then calls
+ * {@link #finish} once the transfer is complete.
+ */
+class BluetoothOppTransferPipeline {
+    private static final String TAG = "BtOppTransferPipeline";
+    private static final boolean D = Constants.DEBUG;
+
+    @VisibleForTesting
+    static final int PACKET_COUNT = 4;
+    // Files at least this large are read through memory mapped windows
+    @VisibleForTesting
+    static final long MMAP_THRESHOLD = 1024 * 1024;
+    private static final long MMAP_WINDOW_SIZE = 8 * 1024 * 1024;
+    // Bounds the wait for the storage read or write in progress when the pipeline is closed
+    @VisibleForTesting
+    static final long CLOSE_TIMEOUT_MS = 2000;
+
+    /** A packet buffer of the ring */
+    static final class Packet {
+        final byte[] mData;
+        /** Number of valid bytes in mData, or -1 for the end of the stream */
+        int mLength;
+
+        Packet(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    private final BlockingQueue<Packet> mFree = new ArrayBlockingQueue<>(PACKET_COUNT + 1);
+    private final BlockingQueue<Packet> mFull = new ArrayBlockingQueue<>(PACKET_COUNT + 1);
+    // Queued after the last packet to transfer, or when the worker stopped
+    private final Packet mEndOfStream = new Packet(0);
+    private Thread mWorker;
+    private volatile IOException mError;
+    private volatile boolean mClosed;
+    private volatile boolean mMapped;
+
+    // Statistics. mBytes and mSessionWaitMillis are only used by the session thread.
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private long mBytes;
+    private volatile long mWorkerWaitMillis;
+    private long mSessionWaitMillis;
+
+    private BluetoothOppTransferPipeline(int packetSize) {
+        mEndOfStream.mLength = -1;
+        for (int i = 0; i < PACKET_COUNT; i++) {
+            mFree.add(new Packet(packetSize));
+        }
+    }
+
+    /**
+     * Starts reading up to {@code length} bytes of {@code input} ahead of the sender, in
+     * packets of {@code packetSize} bytes. Every packet is full, except the last one.
+     */
+    static BluetoothOppTransferPipeline forReading(InputStream input, long length,
+            int packetSize) {
+        Objects.requireNonNull(input, "input is null");
+        BluetoothOppTransferPipeline pipeline = new BluetoothOppTransferPipeline(packetSize);
+        pipeline.start("BtOppFileReader", () -> pipeline.readAll(input, length));
+        return pipeline;
+    }
+
+    /**
+     * Starts writing the packets submitted by the receiver to {@code output}.
+     */
+    static BluetoothOppTransferPipeline forWriting(OutputStream output, int packetSize) {
+        Objects.requireNonNull(output, "output is null");
+        BluetoothOppTransferPipeline pipeline = new BluetoothOppTransferPipeline(packetSize);
+        pipeline.start("BtOppFileWriter", () -> pipeline.writeAll(output));
+        return pipeline;
+    }
+
+    private void start(String name, Runnable work) {
+        mWorker = new Thread(() -> {
+            try {
+                work.run();
+            } finally {
+                // Unblock the session thread if the worker stopped early
+                mFull.offer(mEndOfStream);
+            }
+        }, name);
+        mWorker.start();
+    }
+
+    /**
+     * Returns the next packet read from the file, with a length of -1 at the end of the file.
+     * Returns null if the calling thread was interrupted.
+     *
+     * @throws IOException if reading the file failed
+     */
+    Packet take() throws IOException {
+        Packet packet = waitFor(mFull);
+        if (packet == mEndOfStream) {
+            mFull.offer(mEndOfStream);
+            throwIfFailed();
+        }
+        if (packet != null && packet.mLength > 0) {
+            mBytes += packet.mLength;
+        }
+        return packet;
+    }
+
+    /** Gives a packet returned by {@link #take} back to the reader */
+    void release(Packet packet) {
+        if (packet != mEndOfStream) {
+            mFree.offer(packet);
+        }
+    }
+
+    /**
+     * Returns an empty packet to fill with received data, or null if the calling thread was
+     * interrupted.
+     *
+     * @throws IOException if writing the file failed
+     */
+    Packet obtain() throws IOException {
+        Packet packet = waitFor(mFree);
+        throwIfFailed();
+        return packet;
+    }
+
+    /** Queues a packet returned by {@link #obtain} for writing */
+    void submit(Packet packet) throws IOException {
+        throwIfFailed();
+        mBytes += packet.mLength;
+        mFull.offer(packet);
+    }
+
+    /**
+     * Waits until all the submitted packets are written.
+     *
+     * @throws IOException if writing the file failed
+     */
+    void finish() throws IOException {
+        mFull.offer(mEndOfStream);
+        try {
+            mWorker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing file");
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * Stops the worker thread, dropping the packets not transferred yet, and waits for it to
+     * stop so that the caller may close or delete the file. Reads and writes on storage are not
+     * interruptible, so this waits for the one in progress for up to {@link #CLOSE_TIMEOUT_MS}.
+     * Past that, the worker is left to finish it but does not touch the stream afterwards.
+     */
+    void close() {
+        mClosed = true;
+        mWorker.interrupt();
+        mFull.offer(mEndOfStream);
+        // The session thread may be interrupted itself, e.g. when the transfer is canceled
+        boolean interrupted = Thread.interrupted();
+        try {
+            mWorker.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (mWorker.isAlive()) {
+            Log.w(TAG, mWorker.getName() + " did not stop within " + CLOSE_TIMEOUT_MS + " ms");
+        }
+    }
+
+    /** Returns a summary of the throughput of the transfer, for logging */
+    String getStats() {
+        long elapsed = Math.max(SystemClock.elapsedRealtime() - mStartTime, 1);
+        return mBytes + " bytes in " + elapsed + " ms (" + (mBytes * 1000 / 1024 / elapsed)
+                + " KB/s" + (mMapped ? ", mapped" : "") + "), storage waited "
+                + mWorkerWaitMillis + " ms, session waited " + mSessionWaitMillis + " ms";
+    }
+
+    @VisibleForTesting
+    boolean isMapped() {
+        return mMapped;
+    }
+
+    private Packet waitFor(BlockingQueue<Packet> queue) {
+        Packet packet = queue.poll();
+        if (packet != null) {
+            return packet;
+        }
+        long start = SystemClock.elapsedRealtime();
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            mSessionWaitMillis += SystemClock.elapsedRealtime() - start;
+        }
+    }
+
+    private Packet workerWaitFor(BlockingQueue<Packet> queue) throws InterruptedException {
+        Packet packet = queue.poll();
+        if (packet == null) {
+            long start = SystemClock.elapsedRealtime();
+            packet = queue.take();
+            mWorkerWaitMillis += SystemClock.elapsedRealtime() - start;
+        }
+        return packet;
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException error = mError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void readAll(InputStream input, long length) {
+        try {
+            FileChannel channel = getMappableChannel(input, length);
+            if (channel != null) {
+                mMapped = true;
+                readMapped(channel, length);
+            } else {
+                readStream(input, length);
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.e(TAG, "Error when reading file: " + e);
+                mError = e;
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // Returns the channel of the input if it is a regular file large enough to be mapped
+    private static FileChannel getMappableChannel(InputStream input, long length) {
+        if (length < MMAP_THRESHOLD || !(input instanceof FileInputStream)) {
+            return null;
+        }
+        try {
+            FileChannel channel = ((FileInputStream) input).getChannel();
+            // Pipes and sockets report a size of 0
+            if (channel.size() - channel.position() >= length) {
+                return channel;
+            }
+        } catch (IOException e) {
+            if (D) {
+                Log.d(TAG, "Input is not mappable: " + e);
+            }
+        }
+        return null;
+    }
+
+    private void readMapped(FileChannel channel, long length)
+            throws IOException, InterruptedException {
+        long position = channel.position();
+        long end = position + length;
+        MappedByteBuffer window = null;
+        while (position < end && !mClosed) {
+            Packet packet = workerWaitFor(mFree);
+            int filled = 0;
+            while (filled < packet.mData.length && position < end) {
+                if (window == null || !window.hasRemaining()) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MMAP_WINDOW_SIZE, end - position));
+                }
+                int count = Math.min(packet.mData.length - filled, window.remaining());
+                window.get(packet.mData, filled, count);
+                filled += count;
+                position += count;
+            }
+            packet.mLength = filled;
+            mFull.put(packet);
+        }
+        Packet packet = workerWaitFor(mFree);
+        packet.mLength = -1;
+        mFull.put(packet);
+    }
+
+    private void readStream(InputStream input, long length)
+            throws IOException, InterruptedException {
+        long remaining = length;
+        while (!mClosed) {
+            Packet packet = workerWaitFor(mFree);
+            int size = (int) Math.min(packet.mData.length, remaining);
+            int done = 0;
+            while (done < size) {
+                int got = input.read(packet.mData, done, size - done);
+                if (got <= 0) {
+                    break;
+                }
+                done += got;
+            }
+            remaining -= done;
+            packet.mLength = done > 0 ? done : -1;
+            mFull.put(packet);
+            if (done == 0) {
+                return;
+            }
+        }
+    }
+
+    private void writeAll(OutputStream output) {
+        try {
+            while (true) {
+                Packet packet = workerWaitFor(mFull);
+                if (packet == mEndOfStream || mClosed) {
+                    break;
+                }
+                output.write(packet.mData, 0, packet.mLength);
+                mFree.put(packet);
+            }
+            if (!mClosed) {
+                output.flush();
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.e(TAG, "Error when writing file: " + e);
+                mError = e;
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            // Unblock a receiver waiting for a free packet
+            mFree.offer(new Packet(0));
+        }
+    }
+}
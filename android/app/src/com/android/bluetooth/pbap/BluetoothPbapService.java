@@ -659,6 +659,12 @@ public class BluetoothPbapService extends ProfileService implements IObexConnect
         sBluetoothPbapService = instance;
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        BluetoothPbapVcardWriter.dump(sb);
+    }
+
     @Override
     protected void setCurrentUser(int userId) {
         Log.i(TAG, "setCurrentUser(" + userId + ")");
@@ -752,6 +752,7 @@ public class BluetoothPbapVcardManager {
             buffer = new HandlerForStringBuffer(op, ownerVCard);
             Log.v(TAG, "contactIdCursor size: " + contactIdCursor.getCount());
             if (!composer.init(contactIdCursor) || !buffer.onInit(mContext)) {
+                buffer.onAbort();
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
             }
             int idColumn = contactIdCursor.getColumnIndex(Data.CONTACT_ID);
@@ -761,6 +762,7 @@ public class BluetoothPbapVcardManager {
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
+                    buffer.onAbort();
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
@@ -772,6 +774,7 @@ public class BluetoothPbapVcardManager {
                 }
                 if (vcard == null) {
                     Log.e(TAG, "Failed to read a contact.");
+                    buffer.onAbort();
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 } else if (vcard.isEmpty()) {
                     Log.i(TAG, "Contact may have been deleted during operation");
@@ -790,6 +793,7 @@ public class BluetoothPbapVcardManager {
 
                 if (!buffer.onEntryCreated(vcard)) {
                     // onEntryCreate() already emits error.
+                    buffer.onAbort();
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
             }
@@ -857,6 +861,7 @@ public class BluetoothPbapVcardManager {
             buffer = new HandlerForStringBuffer(op, ownerVCard);
             Log.v(TAG, "contactIdCursor size: " + contactIdCursor.getCount());
             if (!composer.init(contactIdCursor) || !buffer.onInit(mContext)) {
+                buffer.onAbort();
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
             }
             int idColumn = contactIdCursor.getColumnIndex(Data.CONTACT_ID);
@@ -866,6 +871,7 @@ public class BluetoothPbapVcardManager {
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
+                    buffer.onAbort();
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
@@ -877,6 +883,7 @@ public class BluetoothPbapVcardManager {
                 }
                 if (vcard == null) {
                     Log.e(TAG, "Failed to read a contact.");
+                    buffer.onAbort();
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 } else if (vcard.isEmpty()) {
                     Log.i(TAG, "Contact may have been deleted during operation");
@@ -905,6 +912,7 @@ public class BluetoothPbapVcardManager {
 
                     if (!buffer.onEntryCreated(vcard)) {
                         // onEntryCreate() already emits error.
+                        buffer.onAbort();
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
                 }
@@ -949,11 +957,13 @@ public class BluetoothPbapVcardManager {
             buffer = new HandlerForStringBuffer(op, ownerVCard);
             if (!composer.init(CallLog.Calls.CONTENT_URI, selection, null, CALLLOG_SORT_ORDER)
                     || !buffer.onInit(mContext)) {
+                buffer.onAbort();
                 return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
             }
 
             while (!composer.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
+                    buffer.onAbort();
                     ((ServerOperation) op).setAborted(true);
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
@@ -970,6 +980,7 @@ public class BluetoothPbapVcardManager {
                         if (vcard == null) {
                             Log.e(TAG, "Failed to read a contact. Error reason: "
                                     + composer.getErrorReason());
+                            buffer.onAbort();
                             return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                         } else if (vcard.isEmpty()) {
                             Log.i(TAG, "Call Log may have been deleted during operation");
@@ -987,6 +998,7 @@ public class BluetoothPbapVcardManager {
                     if (vcard == null) {
                         Log.e(TAG, "Failed to read a contact. Error reason: "
                                 + composer.getErrorReason());
+                        buffer.onAbort();
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
                     if (V) {
@@ -1051,13 +1063,18 @@ public class BluetoothPbapVcardManager {
 
     // TODO: Merge this class with BluetoothPbapSimVcardManager.HandlerForStringBuffer
     /**
-     * Handler to emit vCards to PCE.
+     * Handler to emit vCards to PCE. The vCards are streamed to the OBEX output stream by a
+     * {@link BluetoothPbapVcardWriter}, while the next ones are composed.
      */
     public class HandlerForStringBuffer {
         private Operation mOperation;
 
         private OutputStream mOutputStream;
 
+        private BluetoothPbapVcardWriter mWriter;
+
+        private boolean mAborted;
+
         private String mPhoneOwnVCard = null;
 
         public HandlerForStringBuffer(Operation op, String ownerVCard) {
@@ -1073,23 +1090,12 @@ public class BluetoothPbapVcardManager {
             }
         }
 
-        private boolean write(String vCard) {
-            try {
-                if (vCard != null) {
-                    mOutputStream.write(vCard.getBytes());
-                    return true;
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "write outputstrem failed" + e.toString());
-            }
-            return false;
-        }
-
         public boolean onInit(Context context) {
             try {
                 mOutputStream = mOperation.openOutputStream();
+                mWriter = new BluetoothPbapVcardWriter(mOutputStream);
                 if (mPhoneOwnVCard != null) {
-                    return write(mPhoneOwnVCard);
+                    return mWriter.write(mPhoneOwnVCard);
                 }
                 return true;
             } catch (IOException e) {
@@ -1099,10 +1105,29 @@ public class BluetoothPbapVcardManager {
         }
 
         public boolean onEntryCreated(String vcard) {
-            return write(vcard);
+            return mWriter.write(vcard);
+        }
+
+        /**
+         * Drops the vCards not sent yet and stops the writer, on abort or error. Must be called
+         * before the operation is aborted, so that nothing is written to it afterwards.
+         */
+        public void onAbort() {
+            if (mWriter != null && !mAborted) {
+                mAborted = true;
+                mWriter.close();
+            }
         }
 
         public void onTerminate() {
+            // Only a complete pull waits for the queued vCards to be sent
+            if (mWriter != null && !mAborted) {
+                if (!mWriter.finish()) {
+                    Log.e(TAG, "Failed to send vCards: " + mWriter.getStats());
+                } else if (V) {
+                    Log.v(TAG, "vCards sent: " + mWriter.getStats());
+                }
+            }
             if (!BluetoothPbapObexServer.closeStream(mOutputStream, mOperation)) {
                 if (V) {
                     Log.v(TAG, "CloseStream failed!");
@@ -1144,8 +1169,11 @@ public class BluetoothPbapVcardManager {
             }
         }
 
-        private static final String SEPARATOR = System.getProperty("line.separator");
+        private static final FilterBit[] FILTER_BITS = FilterBit.values();
         private final byte[] mFilter;
+        // isFilteredIn() of each FilterBit, resolved once for both vCard versions
+        private final boolean[] mFilteredInV21 = new boolean[FILTER_BITS.length];
+        private final boolean[] mFilteredInV30 = new boolean[FILTER_BITS.length];
 
         //This function returns true if the attributes needs to be included in the filtered vcard.
         private boolean isFilteredIn(FilterBit bit, boolean vCardType21) {
@@ -1165,56 +1193,76 @@ public class BluetoothPbapVcardManager {
 
         VCardFilter(byte[] filter) {
             this.mFilter = filter;
+            for (FilterBit bit : FILTER_BITS) {
+                mFilteredInV21[bit.ordinal()] = isFilteredIn(bit, true);
+                mFilteredInV30[bit.ordinal()] = isFilteredIn(bit, false);
+            }
         }
 
         public boolean isPhotoEnabled() {
             return isFilteredIn(FilterBit.PHOTO, false);
         }
 
+        /**
+         * Returns the vCard without the properties excluded by the filter, in a single pass over
+         * its lines. The vCard itself is returned if no line is excluded.
+         */
         public String apply(String vCard, boolean vCardType21) {
             if (mFilter == null) {
                 return vCard;
             }
-            String[] lines = vCard.split(SEPARATOR);
-            StringBuilder filteredVCard = new StringBuilder();
+            final boolean[] filteredInBits = vCardType21 ? mFilteredInV21 : mFilteredInV30;
+            final int length = vCard.length();
+            // Only allocated once the filtered vCard differs from the original one
+            StringBuilder filteredVCard = null;
             boolean filteredIn = false;
+            int start = 0;
 
-            for (String line : lines) {
+            while (start < length) {
+                int end = getLineEnd(vCard, start);
+                int next = end < length ? end + SEPARATOR.length() : length;
                 // Check whether the current property is changing (ignoring multi-line properties)
                 // and determine if the current property is filtered in.
-                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    String currentProp = line.split("[;:]")[0];
-                    filteredIn = true;
-
-                    for (FilterBit bit : FilterBit.values()) {
-                        if (bit.prop.equals(currentProp)) {
-                            filteredIn = isFilteredIn(bit, vCardType21);
-                            break;
-                        }
-                    }
-
-                    // Since PBAP does not have filter bits for IM and SIP,
-                    // exclude them by default. Easiest way is to exclude all
-                    // X- fields, except date time....
-                    if (currentProp.startsWith("X-")) {
-                        filteredIn = false;
-                        if (currentProp.equals("X-IRMC-CALL-DATETIME")) {
-                            filteredIn = true;
-                        }
-                    }
+                if (isPropertyLine(vCard, start, end)) {
+                    filteredIn = isPropertyFilteredIn(vCard, start, end, filteredInBits);
+                }
+                // Empty lines are dropped, and the last line is always terminated
+                boolean keep = filteredIn && start < end;
+                if (filteredVCard == null && (!keep || next == end)) {
+                    filteredVCard = new StringBuilder(length + SEPARATOR.length());
+                    filteredVCard.append(vCard, 0, start);
                 }
 
                 // Build filtered vCard
-                if (filteredIn) {
-                    filteredVCard.append(line + SEPARATOR);
+                if (keep && filteredVCard != null) {
+                    filteredVCard.append(vCard, start, end).append(SEPARATOR);
                 }
+                start = next;
             }
 
-            return filteredVCard.toString();
+            return filteredVCard != null ? filteredVCard.toString() : vCard;
+        }
+
+        private static boolean isPropertyFilteredIn(String vCard, int start, int end,
+                boolean[] filteredInBits) {
+            int nameEnd = getPropertyNameEnd(vCard, start, end);
+            // Since PBAP does not have filter bits for IM and SIP,
+            // exclude them by default. Easiest way is to exclude all
+            // X- fields, except date time....
+            if (vCard.startsWith("X-", start)) {
+                return isProperty(vCard, start, nameEnd, FilterBit.DATETIME.prop);
+            }
+            for (FilterBit bit : FILTER_BITS) {
+                if (isProperty(vCard, start, nameEnd, bit.prop)) {
+                    return filteredInBits[bit.ordinal()];
+                }
+            }
+            return true;
         }
     }
 
-    private static class PropertySelector {
+    @VisibleForTesting
+    static class PropertySelector {
         private enum PropertyMask {
             //               bit    property
             VERSION(0, "VERSION"),
@@ -1242,11 +1290,18 @@ public class BluetoothPbapVcardManager {
             }
         }
 
-        private static final String SEPARATOR = System.getProperty("line.separator");
-        private final byte[] mSelector;
+        // The properties whose bit is set in the selector
+        private final ArrayList<String> mSelectedProps = new ArrayList<String>();
 
         PropertySelector(byte[] selector) {
-            this.mSelector = selector;
+            if (selector == null) {
+                return;
+            }
+            for (PropertyMask bit : PropertyMask.values()) {
+                if (checkbit(bit.pos, selector)) {
+                    mSelectedProps.add(bit.prop);
+                }
+            }
         }
 
         private boolean checkbit(int attrBit, byte[] selector) {
@@ -1257,66 +1312,92 @@ public class BluetoothPbapVcardManager {
             return true;
         }
 
-        private boolean checkprop(String vcard, String prop) {
-            String[] lines = vcard.split(SEPARATOR);
-            boolean isPresent = false;
-            for (String line : lines) {
-                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    String currentProp = line.split("[;:]")[0];
-                    if (prop.equals(currentProp)) {
-                        Log.d(TAG, "bit.prop.equals current prop :" + prop);
-                        isPresent = true;
-                        return isPresent;
-                    }
-                }
+        /**
+         * Returns true if the vCard has any ("0") or all ("1") of the selected properties, in a
+         * single pass over its lines.
+         */
+        boolean checkVCardSelector(String vcard, String vcardselectorop) {
+            final boolean matchAll = "1".equals(vcardselectorop);
+            if (mSelectedProps.isEmpty() || (!matchAll && !"0".equals(vcardselectorop))) {
+                return true;
             }
-
-            return isPresent;
-        }
-
-        private boolean checkVCardSelector(String vcard, String vcardselectorop) {
-            boolean selectedIn = true;
-
-            for (PropertyMask bit : PropertyMask.values()) {
-                if (checkbit(bit.pos, mSelector)) {
-                    Log.d(TAG, "checking for prop :" + bit.prop);
-                    if (vcardselectorop.equals("0")) {
-                        if (checkprop(vcard, bit.prop)) {
-                            Log.d(TAG, "bit.prop.equals current prop :" + bit.prop);
-                            selectedIn = true;
-                            break;
-                        } else {
-                            selectedIn = false;
-                        }
-                    } else if (vcardselectorop.equals("1")) {
-                        if (!checkprop(vcard, bit.prop)) {
-                            Log.d(TAG, "bit.prop.notequals current prop" + bit.prop);
-                            selectedIn = false;
-                            return selectedIn;
-                        } else {
-                            selectedIn = true;
+            final int allPresent = (1 << mSelectedProps.size()) - 1;
+            final int length = vcard.length();
+            int present = 0;
+            int start = 0;
+
+            while (start < length) {
+                int end = getLineEnd(vcard, start);
+                if (isPropertyLine(vcard, start, end)) {
+                    int nameEnd = getPropertyNameEnd(vcard, start, end);
+                    for (int i = 0; i < mSelectedProps.size(); i++) {
+                        if (isProperty(vcard, start, nameEnd, mSelectedProps.get(i))) {
+                            present |= 1 << i;
                         }
                     }
+                    if (matchAll ? present == allPresent : present != 0) {
+                        return true;
+                    }
                 }
+                start = end + SEPARATOR.length();
+            }
+            if (V) {
+                Log.v(TAG, "vcard selector " + mSelectedProps + " not matched, op "
+                        + vcardselectorop);
             }
-            return selectedIn;
+            return false;
         }
 
         private String getName(String vcard) {
-            String[] lines = vcard.split(SEPARATOR);
             String name = "";
-            for (String line : lines) {
-                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    if (line.startsWith("N:")) {
-                        name = line.substring(line.lastIndexOf(':'), line.length());
-                    }
+            final int length = vcard.length();
+            int start = 0;
+            while (start < length) {
+                int end = getLineEnd(vcard, start);
+                if (vcard.startsWith("N:", start)) {
+                    name = vcard.substring(vcard.lastIndexOf(':', end - 1), end);
                 }
+                start = end + SEPARATOR.length();
             }
             Log.d(TAG, "returning name: " + name);
             return name;
         }
     }
 
+    /* Helpers walking the lines of a composed vCard in place, without splitting it */
+
+    private static final String SEPARATOR = System.getProperty("line.separator");
+
+    // Returns the end of the line starting at start, excluding the separator
+    private static int getLineEnd(String vCard, int start) {
+        int end = vCard.indexOf(SEPARATOR, start);
+        return end != -1 ? end : vCard.length();
+    }
+
+    // Returns true if the line starts a new property, rather than continuing the previous one
+    private static boolean isPropertyLine(String vCard, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        char first = vCard.charAt(start);
+        return !Character.isWhitespace(first) && first != '=';
+    }
+
+    // Returns the end of the property name of the line, before its parameters and value
+    private static int getPropertyNameEnd(String vCard, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = vCard.charAt(i);
+            if (c == ';' || c == ':') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isProperty(String vCard, int start, int nameEnd, String prop) {
+        return nameEnd - start == prop.length() && vCard.startsWith(prop, start);
+    }
+
     private static Uri getPhoneLookupFilterUri() {
         return PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI;
     }
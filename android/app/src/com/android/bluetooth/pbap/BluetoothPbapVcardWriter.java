@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.btservice.ProfileService;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Streams the vCards of a PBAP pull to the OBEX output stream.
+ *
+ * <p>The composing thread encodes each vCard in UTF-8 into a ring of reusable byte buffers, and
+ * a writer thread drains the filled buffers to the OBEX output stream. The ring is bounded, so
+ * composing blocks when the remote device does not keep up, and composing the next contacts
+ * overlaps with sending the previous ones. The writer threads are shared by all the pulls.
+ */
+class BluetoothPbapVcardWriter {
+    private static final String TAG = "BluetoothPbapVcardWriter";
+    private static final boolean V = BluetoothPbapService.VERBOSE;
+
+    @VisibleForTesting
+    static final int BUFFER_COUNT = 4;
+    @VisibleForTesting
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final BlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private final BlockingQueue<ByteBuffer> mFull = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    // Queued after the last filled buffer
+    private final ByteBuffer mEndOfStream = ByteBuffer.allocate(0);
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Writer threads, kept alive for a while between the pulls
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(
+            r -> new Thread(r, "BtPbapVcardWriter"));
+
+    private final OutputStream mOutputStream;
+    private final CountDownLatch mWriterDone = new CountDownLatch(1);
+    // Thread running writeAll(), guarded by mWriterDone so that close() never interrupts a
+    // pooled thread which already moved on to another pull
+    private Thread mWriterThread;
+    private ByteBuffer mCurrent;
+    private boolean mFinished;
+    private volatile IOException mError;
+    private volatile boolean mClosed;
+
+    // Statistics of the pull. Only mWriteWaitMillis is updated by the writer thread.
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private int mVCards;
+    private long mBytes;
+    private long mComposeWaitMillis;
+    private volatile long mWriteWaitMillis;
+
+    // Statistics of all the pulls since the service started, for dump
+    private static int sPulls;
+    private static long sTotalVCards;
+    private static long sTotalBytes;
+    private static long sTotalMillis;
+    private static String sLastPullStats;
+
+    BluetoothPbapVcardWriter(OutputStream outputStream) {
+        mOutputStream = Objects.requireNonNull(outputStream, "outputStream is null");
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFree.add(ByteBuffer.allocate(BUFFER_SIZE));
+        }
+        sExecutor.execute(this::writeAll);
+    }
+
+    /**
+     * Queues a vCard for writing. Returns false if the output stream failed, or if the calling
+     * thread was interrupted.
+     */
+    boolean write(String vCard) {
+        if (vCard == null || mError != null || mClosed) {
+            return false;
+        }
+        CharBuffer chars = CharBuffer.wrap(vCard);
+        mEncoder.reset();
+        CoderResult result;
+        do {
+            if (mCurrent == null && (mCurrent = obtain()) == null) {
+                return false;
+            }
+            result = mEncoder.encode(chars, mCurrent, true);
+            if (!result.isOverflow()) {
+                result = mEncoder.flush(mCurrent);
+            }
+            if (result.isOverflow()) {
+                mBytes += mCurrent.position();
+                submit();
+            }
+        } while (result.isOverflow());
+        mVCards++;
+        return true;
+    }
+
+    /**
+     * Waits until all the queued vCards are written. Returns false if the output stream failed.
+     */
+    boolean finish() {
+        if (mFinished) {
+            return mError == null;
+        }
+        mFinished = true;
+        if (mCurrent != null && mCurrent.position() > 0) {
+            mBytes += mCurrent.position();
+            submit();
+        }
+        mFull.offer(mEndOfStream);
+        try {
+            mWriterDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mError = new InterruptedIOException("Interrupted while writing vCards");
+        }
+        recordStats();
+        return mError == null;
+    }
+
+    /**
+     * Stops the writer, dropping the vCards not written yet, and waits until it no longer uses
+     * the output stream. Must be called before the OBEX operation is aborted.
+     */
+    void close() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mClosed = true;
+        synchronized (mWriterDone) {
+            if (mWriterThread != null) {
+                mWriterThread.interrupt();
+            }
+        }
+        mFull.offer(mEndOfStream);
+        try {
+            mWriterDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (V) {
+            Log.v(TAG, "Pull closed: " + getStats());
+        }
+    }
+
+    /** Returns a summary of the throughput of the pull, for logging */
+    String getStats() {
+        long elapsed = Math.max(SystemClock.elapsedRealtime() - mStartTime, 1);
+        return mVCards + " vCards, " + mBytes + " bytes in " + elapsed + " ms ("
+                + (mBytes * 1000 / 1024 / elapsed) + " KB/s, "
+                + (mVCards > 0 ? mBytes / mVCards : 0) + " bytes/vCard), composing waited "
+                + mComposeWaitMillis + " ms, OBEX waited " + mWriteWaitMillis + " ms";
+    }
+
+    /** Dumps the statistics of the pulls streamed since the process started */
+    static synchronized void dump(StringBuilder sb) {
+        ProfileService.println(sb, "vCard pulls: " + sPulls);
+        if (sPulls == 0) {
+            return;
+        }
+        long millis = Math.max(sTotalMillis, 1);
+        ProfileService.println(sb, "  vCards: " + sTotalVCards + ", bytes: " + sTotalBytes
+                + ", bytes/vCard: " + (sTotalVCards > 0 ? sTotalBytes / sTotalVCards : 0)
+                + ", throughput: " + (sTotalBytes * 1000 / 1024 / millis) + " KB/s");
+        ProfileService.println(sb, "  last pull: " + sLastPullStats);
+    }
+
+    private void recordStats() {
+        String stats = getStats();
+        if (V) {
+            Log.v(TAG, "Pull done: " + stats);
+        }
+        synchronized (BluetoothPbapVcardWriter.class) {
+            sPulls++;
+            sTotalVCards += mVCards;
+            sTotalBytes += mBytes;
+            sTotalMillis += SystemClock.elapsedRealtime() - mStartTime;
+            sLastPullStats = stats;
+        }
+    }
+
+    private ByteBuffer obtain() {
+        ByteBuffer buffer = mFree.poll();
+        if (buffer == null) {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                buffer = mFree.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                mComposeWaitMillis += SystemClock.elapsedRealtime() - start;
+            }
+        }
+        // The writer stopped
+        if (mError != null || mClosed) {
+            return null;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void submit() {
+        mCurrent.flip();
+        mFull.offer(mCurrent);
+        mCurrent = null;
+    }
+
+    private void writeAll() {
+        synchronized (mWriterDone) {
+            mWriterThread = Thread.currentThread();
+        }
+        try {
+            while (true) {
+                ByteBuffer buffer = mFull.poll();
+                if (buffer == null) {
+                    long start = SystemClock.elapsedRealtime();
+                    buffer = mFull.take();
+                    mWriteWaitMillis += SystemClock.elapsedRealtime() - start;
+                }
+                if (buffer == mEndOfStream || mClosed) {
+                    break;
+                }
+                mOutputStream.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+                mFree.put(buffer);
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.e(TAG, "write outputstrem failed" + e.toString());
+                mError = e;
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } finally {
+            // Unblock the composing thread if it waits for a free buffer
+            mFree.offer(ByteBuffer.allocate(0));
+            synchronized (mWriterDone) {
+                mWriterThread = null;
+                // Do not leave a late close() interrupt on the pooled thread
+                Thread.interrupted();
+            }
+            mWriterDone.countDown();
+        }
+    }
+}
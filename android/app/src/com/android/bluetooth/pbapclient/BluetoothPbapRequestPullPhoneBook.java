@@ -21,6 +21,7 @@ import android.util.Log;
 
 import com.android.obex.HeaderSet;
 import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -42,9 +43,21 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
 
     private final byte mFormat;
 
+    private final VCardEntryHandler mEntryHandler;
+
     BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
             int maxListCount, int listStartOffset) {
+        this(pbName, account, filter, format, maxListCount, listStartOffset, null);
+    }
+
+    /**
+     * Creates a request whose entries are handed to entryHandler as they are parsed from the
+     * response, instead of being returned by {@link #getList}.
+     */
+    BluetoothPbapRequestPullPhoneBook(String pbName, Account account, long filter, byte format,
+            int maxListCount, int listStartOffset, VCardEntryHandler entryHandler) {
         mAccount = account;
+        mEntryHandler = entryHandler;
         if (maxListCount < 0 || maxListCount > 65535) {
             throw new IllegalArgumentException("maxListCount should be [0..65535]");
         }
@@ -94,8 +107,9 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
     protected void readResponse(InputStream stream) throws IOException {
         if (VDBG) Log.v(TAG, "readResponse");
 
-        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat);
-        if (VDBG) {
+        mResponse = new BluetoothPbapVcardList(mAccount, stream, mFormat, mEntryHandler);
+        // Streamed entries are not kept in the list, the importer logs how many it was handed
+        if (VDBG && mEntryHandler == null) {
             Log.d(TAG, "Read " + mResponse.getCount() + " entries.");
         }
     }
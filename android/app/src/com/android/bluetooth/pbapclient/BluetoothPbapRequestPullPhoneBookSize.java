@@ -16,6 +16,7 @@
 
 package com.android.bluetooth.pbapclient;
 
+import android.util.Base64;
 import android.util.Log;
 
 import com.android.obex.HeaderSet;
@@ -30,6 +31,8 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    private String mVersion;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -58,9 +61,26 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+
+        byte[] databaseIdentifier = oap.getByteArray(OAP_TAGID_DATABASE_IDENTIFIER);
+        byte[] primaryVersion = oap.getByteArray(OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        byte[] secondaryVersion = oap.getByteArray(OAP_TAGID_SECONDARY_VERSION_COUNTER);
+        if (databaseIdentifier != null && primaryVersion != null && secondaryVersion != null) {
+            mVersion = Base64.encodeToString(databaseIdentifier, Base64.NO_WRAP) + ":"
+                    + Base64.encodeToString(primaryVersion, Base64.NO_WRAP) + ":"
+                    + Base64.encodeToString(secondaryVersion, Base64.NO_WRAP);
+        }
     }
 
     public int getSize() {
         return mSize;
     }
+
+    /**
+     * Returns the database identifier and the folder version counters of the phonebook, which
+     * change whenever its contacts change, or null if the PSE does not support them (PBAP 1.2).
+     */
+    public String getVersion() {
+        return mVersion;
+    }
 }
@@ -53,11 +53,21 @@ class BluetoothPbapVcardList {
     }
 
     BluetoothPbapVcardList(Account account, InputStream in, byte format) throws IOException {
+        this(account, in, format, null);
+    }
+
+    /**
+     * Parses the vCards of a response. If entryHandler is not null, the entries are handed to it
+     * as they are parsed instead of being kept in the list.
+     */
+    BluetoothPbapVcardList(Account account, InputStream in, byte format,
+            VCardEntryHandler entryHandler) throws IOException {
         mAccount = account;
-        parse(in, format);
+        parse(in, format, entryHandler);
     }
 
-    private void parse(InputStream in, byte format) throws IOException {
+    private void parse(InputStream in, byte format, VCardEntryHandler entryHandler)
+            throws IOException {
         VCardParser parser;
 
         if (format == PbapClientConnectionHandler.VCARD_TYPE_30) {
@@ -69,7 +79,8 @@ class BluetoothPbapVcardList {
         VCardEntryConstructor constructor =
                 new VCardEntryConstructor(VCardConfig.VCARD_TYPE_V21_GENERIC, mAccount);
         VCardEntryCounter counter = new VCardEntryCounter();
-        CardEntryHandler handler = new CardEntryHandler();
+        VCardEntryHandler handler =
+                entryHandler != null ? entryHandler : new CardEntryHandler();
 
         constructor.addEntryHandler(handler);
 
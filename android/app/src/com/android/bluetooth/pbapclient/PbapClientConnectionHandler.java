@@ -35,10 +35,8 @@ import com.android.bluetooth.R;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
-import com.android.vcard.VCardEntry;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 
 /* Bluetooth/pbapclient/PbapClientConnectionHandler is responsible
@@ -85,6 +83,8 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
 
@@ -99,6 +99,8 @@ class PbapClientConnectionHandler extends Handler {
 
     private static final int PBAP_SUPPORTED_FEATURE =
             PBAP_FEATURE_DEFAULT_IMAGE_FORMAT | PBAP_FEATURE_DOWNLOADING;
+    private static final int PBAP_SUPPORTED_FEATURE_DELTA_SYNC = PBAP_SUPPORTED_FEATURE
+            | PBAP_FEATURE_DATABASE_IDENTIFIER | PBAP_FEATURE_FOLDER_VERSION_COUNTERS;
     private static final long PBAP_REQUESTED_FIELDS =
             PBAP_FILTER_VERSION | PBAP_FILTER_FN | PBAP_FILTER_N | PBAP_FILTER_PHOTO
                     | PBAP_FILTER_ADR | PBAP_FILTER_EMAIL | PBAP_FILTER_TEL | PBAP_FILTER_NICKNAME;
@@ -135,6 +137,9 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    // Keep the contacts of the device after it disconnects, and only apply the changes made on
+    // the device since the last download when it reconnects
+    private final boolean mDeltaSync;
 
     PbapClientConnectionHandler(Looper looper, Context context, PbapClientStateMachine stateMachine,
             BluetoothDevice device) {
@@ -147,6 +152,7 @@ class PbapClientConnectionHandler extends Handler {
         mAccountManager = AccountManager.get(mPbapClientStateMachine.getContext());
         mAccount =
                 new Account(mDevice.getAddress(), mContext.getString(R.string.pbap_account_type));
+        mDeltaSync = mContext.getResources().getBoolean(R.bool.pbap_client_delta_sync);
     }
 
     /**
@@ -164,6 +170,7 @@ class PbapClientConnectionHandler extends Handler {
         mAccountManager = AccountManager.get(mPbapClientStateMachine.getContext());
         mAccount =
                 new Account(mDevice.getAddress(), mContext.getString(R.string.pbap_account_type));
+        mDeltaSync = mContext.getResources().getBoolean(R.bool.pbap_client_delta_sync);
     }
 
     public static class Builder {
@@ -252,14 +259,22 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount(mAccount);
+                // PbapClientService removes the kept account once the device is unbonded, and keeps
+                // it across restarts of the service as long as the device stays bonded.
+                if (mDeltaSync && mDevice.getBondState() == BluetoothDevice.BOND_BONDED) {
+                    if (DBG) {
+                        Log.d(TAG, "Keeping contacts of " + mAccount + " for the next sync");
+                    }
+                } else {
+                    removeAccount(mAccount);
+                }
                 removeCallLog(mAccount);
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
                 break;
 
             case MSG_DOWNLOAD:
-                mAccountCreated = addAccount(mAccount);
+                mAccountCreated = addAccount(mAccount) || (mDeltaSync && hasAccount(mAccount));
                 if (!mAccountCreated) {
                     Log.e(TAG, "Account creation failed.");
                     return;
@@ -341,7 +356,8 @@ class PbapClientConnectionHandler extends Handler {
 
                 if (mPseRec.getProfileVersion() >= PBAP_V1_2) {
                     oap.add(BluetoothPbapRequest.OAP_TAGID_PBAP_SUPPORTED_FEATURES,
-                            PBAP_SUPPORTED_FEATURE);
+                            mDeltaSync ? PBAP_SUPPORTED_FEATURE_DELTA_SYNC
+                                    : PBAP_SUPPORTED_FEATURE);
                 }
 
                 oap.addToHeaderSet(connectionRequest);
@@ -389,7 +405,7 @@ class PbapClientConnectionHandler extends Handler {
         try {
             PhonebookPullRequest processor =
                     new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
-                            mAccount);
+                            mAccount, path, mDeltaSync);
 
             // Download contacts in batches of size DEFAULT_BATCH_SIZE
             BluetoothPbapRequestPullPhoneBookSize requestPbSize =
@@ -397,6 +413,18 @@ class PbapClientConnectionHandler extends Handler {
                             PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
 
+            // The folder version counters and database identifier of a PBAP 1.2 PSE tell whether
+            // the contacts kept from the last download are still up to date.
+            String version = requestPbSize.getVersion();
+            if (mDeltaSync) {
+                if (version != null
+                        && version.equals(mAccountManager.getUserData(mAccount, path))) {
+                    Log.i(TAG, "Contacts of " + path + " are up to date");
+                    return;
+                }
+                mAccountManager.setUserData(mAccount, path, null);
+            }
+
             int numberOfContactsRemaining = requestPbSize.getSize();
             int startOffset = 0;
             if (PB_PATH.equals(path)) {
@@ -408,30 +436,31 @@ class PbapClientConnectionHandler extends Handler {
                 numberOfContactsRemaining -= 1;
             }
 
-            while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
-                int numberOfContactsToDownload =
-                        Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
-                        UPPER_LIMIT - startOffset + 1);
-                BluetoothPbapRequestPullPhoneBook request =
-                        new BluetoothPbapRequestPullPhoneBook(path, mAccount,
-                                PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
-                                numberOfContactsToDownload, startOffset);
-                request.execute(mObexSession);
-                ArrayList<VCardEntry> vcards = request.getList();
-                if (path == FAV_PATH) {
-                    // mark each vcard as a favorite
-                    for (VCardEntry v : vcards) {
-                        v.setStarred(true);
-                    }
+            // Contacts are inserted by the importer while the next ones are downloaded and
+            // parsed. Favorites are marked as starred.
+            PhonebookImporter importer = new PhonebookImporter(processor, FAV_PATH.equals(path));
+            boolean imported;
+            try {
+                while ((numberOfContactsRemaining > 0) && (startOffset <= UPPER_LIMIT)) {
+                    int numberOfContactsToDownload =
+                            Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
+                            UPPER_LIMIT - startOffset + 1);
+                    BluetoothPbapRequestPullPhoneBook request =
+                            new BluetoothPbapRequestPullPhoneBook(path, mAccount,
+                                    PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
+                                    numberOfContactsToDownload, startOffset, importer);
+                    request.execute(mObexSession);
+
+                    startOffset += numberOfContactsToDownload;
+                    numberOfContactsRemaining -= numberOfContactsToDownload;
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
-
-                startOffset += numberOfContactsToDownload;
-                numberOfContactsRemaining -= numberOfContactsToDownload;
+            } finally {
+                imported = importer.finish();
             }
             if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
                 Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
+            } else if (imported && processor.removeStaleContacts() && version != null) {
+                mAccountManager.setUserData(mAccount, path, version);
             }
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
@@ -463,6 +492,15 @@ class PbapClientConnectionHandler extends Handler {
         return false;
     }
 
+    private boolean hasAccount(Account account) {
+        for (Account existing : mAccountManager.getAccountsByType(account.type)) {
+            if (existing.equals(account)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void removeAccount(Account account) {
         if (mAccountManager.removeAccountExplicitly(account)) {
             if (DBG) {
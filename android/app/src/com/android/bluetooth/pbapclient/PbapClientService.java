@@ -41,6 +41,7 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.bluetooth.hfpclient.HfpClientConnectionService;
 import com.android.bluetooth.sdp.SdpManager;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
@@ -75,8 +76,14 @@ public class PbapClientService extends ProfileService {
     private PbapBroadcastReceiver mPbapBroadcastReceiver = new PbapBroadcastReceiver();
     private int mSdpHandle = -1;
 
+    private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
 
+    // Whether the accounts of bonded devices are kept across connections, see
+    // PbapClientConnectionHandler
+    @VisibleForTesting
+    boolean mDeltaSync;
+
     /**
      * There's an ~1-2 second latency between when our Authentication service is set as available to
      * the system and when the Authentication/Account framework code will recognize it and allow us
@@ -126,13 +133,18 @@ public class PbapClientService extends ProfileService {
             Log.v(TAG, "onStart");
         }
 
-        mDatabaseManager = Objects.requireNonNull(AdapterService.getAdapterService().getDatabase(),
+        mAdapterService = Objects.requireNonNull(AdapterService.getAdapterService(),
+                "AdapterService cannot be null when PbapClientService starts");
+        mDatabaseManager = Objects.requireNonNull(mAdapterService.getDatabase(),
                 "DatabaseManager cannot be null when PbapClientService starts");
+        mDeltaSync = getResources().getBoolean(R.bool.pbap_client_delta_sync);
 
         setComponentAvailable(AUTHENTICATOR_SERVICE, true);
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        // To remove the contacts kept for delta sync when a device is unbonded while disconnected
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         // delay initial download until after the user is unlocked to add an account.
         filter.addAction(Intent.ACTION_USER_UNLOCKED);
         // To remove call logs when PBAP was never connected while calls were made,
@@ -175,6 +187,10 @@ public class PbapClientService extends ProfileService {
                 mPbapClientStateMachineMap.remove(device);
             }
         }
+        // The device may have been unbonded after its connection handler kept the account
+        if (mDeltaSync && mAdapterService.getBondState(device) != BluetoothDevice.BOND_BONDED) {
+            removeKeptAccount(device);
+        }
     }
 
     /**
@@ -216,12 +232,17 @@ public class PbapClientService extends ProfileService {
             return;
         }
 
-        // Find all accounts that match the type "pbap" and delete them.
+        // Find all accounts that match the type "pbap" and delete them, except the ones kept for
+        // the delta sync of bonded devices.
         AccountManager accountManager = AccountManager.get(this);
         Account[] accounts =
                 accountManager.getAccountsByType(getString(R.string.pbap_account_type));
         if (VDBG) Log.v(TAG, "Found " + accounts.length + " unclean accounts");
         for (Account acc : accounts) {
+            if (isKeptAccount(acc)) {
+                if (DBG) Log.d(TAG, "Keeping " + acc + " for the next sync");
+                continue;
+            }
             Log.w(TAG, "Deleting " + acc);
             try {
                 getContentResolver().delete(CallLog.Calls.CONTENT_URI,
@@ -234,6 +255,44 @@ public class PbapClientService extends ProfileService {
         }
     }
 
+    /**
+     * Returns whether the contacts of an account are kept for the delta sync of its device, which
+     * is the case as long as the device is bonded.
+     */
+    @VisibleForTesting
+    boolean isKeptAccount(Account account) {
+        if (!mDeltaSync || mAdapterService == null) {
+            return false;
+        }
+        BluetoothDevice[] bondedDevices = mAdapterService.getBondedDevices();
+        if (bondedDevices == null) {
+            return false;
+        }
+        // The device ID is the name of the account.
+        for (BluetoothDevice device : bondedDevices) {
+            if (device.getAddress().equals(account.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeKeptAccount(BluetoothDevice device) {
+        if (!mDeltaSync || mPbapClientStateMachineMap.containsKey(device)) {
+            // The connection handler removes the account when it disconnects from an unbonded
+            // device.
+            return;
+        }
+        if (!isAuthenticationServiceReady()) {
+            Log.w(TAG, "Can't remove account. AccountManager hasn't registered our service yet.");
+            return;
+        }
+        Account account = new Account(device.getAddress(), getString(R.string.pbap_account_type));
+        if (AccountManager.get(this).removeAccountExplicitly(account)) {
+            Log.i(TAG, "Removed the contacts kept for " + device + ", unbonded");
+        }
+    }
+
     private void removeHfpCallLog(String accountName, Context context) {
         if (DBG) Log.d(TAG, "Removing call logs from " + accountName);
         // Delete call logs belonging to accountName==BD_ADDR that also match
@@ -288,6 +347,13 @@ public class PbapClientService extends ProfileService {
                 if (getConnectionState(device) == BluetoothProfile.STATE_CONNECTED) {
                     disconnect(device);
                 }
+            } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                        BluetoothDevice.ERROR);
+                if (device != null && bondState == BluetoothDevice.BOND_NONE) {
+                    removeKeptAccount(device);
+                }
             } else if (action.equals(Intent.ACTION_USER_UNLOCKED)) {
                 for (PbapClientStateMachine stateMachine : mPbapClientStateMachineMap.values()) {
                     stateMachine.tryDownloadIfConnected();
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.pbapclient;
+
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryHandler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Imports the contacts of a phonebook while it is being downloaded.
+ *
+ * <p>Entries are handed over by the vCard parser as soon as they are parsed, through a bounded
+ * queue, to an inserter thread which adds them to a {@link PhonebookPullRequest} in batches. The
+ * download, the parsing and the provider inserts overlap, and at most QUEUE_CAPACITY entries are
+ * held in memory whatever the size of the phonebook.
+ */
+class PhonebookImporter implements VCardEntryHandler {
+    private static final boolean VDBG = Utils.VDBG;
+    private static final String TAG = "PbapPhonebookImporter";
+
+    @VisibleForTesting
+    static final int QUEUE_CAPACITY = 64;
+
+    private final PhonebookPullRequest mProcessor;
+    private final boolean mStarred;
+    private final BlockingQueue<VCardEntry> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Queued after the last entry
+    private final VCardEntry mEnd = new VCardEntry();
+    private final Thread mInserter;
+    private volatile boolean mFailed = false;
+    private int mCount = 0;
+
+    /**
+     * @param processor the request inserting the entries in the contacts provider
+     * @param starred whether the entries are favorites
+     */
+    PhonebookImporter(PhonebookPullRequest processor, boolean starred) {
+        mProcessor = processor;
+        mStarred = starred;
+        mInserter = new Thread(this::insertAll, "PbapPhonebookImporter");
+        mInserter.start();
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    @Override
+    public void onEntryCreated(VCardEntry entry) {
+        if (mFailed) {
+            return;
+        }
+        if (mStarred) {
+            entry.setStarred(true);
+        }
+        try {
+            // Blocks the parser, and so the download, while the inserter is behind
+            mQueue.put(entry);
+            mCount++;
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while queueing entries");
+            Thread.currentThread().interrupt();
+            mFailed = true;
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        // Called at the end of each response
+        if (VDBG) {
+            Log.d(TAG, "Read " + mCount + " entries so far");
+        }
+    }
+
+    /** Returns the number of entries parsed so far */
+    @VisibleForTesting
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Waits until all the parsed entries are inserted.
+     *
+     * @return true if all the entries were inserted
+     */
+    boolean finish() {
+        try {
+            mQueue.put(mEnd);
+            mInserter.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while inserting entries");
+            Thread.currentThread().interrupt();
+            mFailed = true;
+            mInserter.interrupt();
+        }
+        if (mFailed) {
+            mProcessor.onFailed();
+        }
+        return !mFailed;
+    }
+
+    private void insertAll() {
+        int imported = 0;
+        VCardEntry entry = null;
+        try {
+            while ((entry = mQueue.take()) != mEnd) {
+                if (!mFailed) {
+                    mProcessor.addEntry(entry);
+                    imported++;
+                }
+            }
+            mProcessor.flush();
+        } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
+            Log.e(TAG, "Got exception: ", e);
+            mFailed = true;
+            if (entry != mEnd) {
+                // Keep draining the queue so that the parser is not blocked
+                drain();
+            }
+        } catch (InterruptedException e) {
+            mFailed = true;
+        }
+        if (VDBG) {
+            Log.d(TAG, "Imported " + imported + " entries");
+        }
+    }
+
+    private void drain() {
+        try {
+            while (mQueue.take() != mEnd) {
+                // Dropped
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+}
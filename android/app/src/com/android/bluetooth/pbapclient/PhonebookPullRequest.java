@@ -20,18 +20,32 @@ import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
+import android.util.Base64;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 public class PhonebookPullRequest extends PullRequest {
     @VisibleForTesting
     static final int MAX_OPS = 250;
+    // Keeps a batch well below the binder transaction limit
+    @VisibleForTesting
+    static final int MAX_BATCH_BYTES = 512 * 1024;
+    // Estimated size of an operation in a batch, besides the photos
+    private static final int OPERATION_SIZE = 128;
     private static final boolean VDBG = Utils.VDBG;
     private static final String TAG = "PbapPbPullRequest";
 
@@ -39,13 +53,29 @@ public class PhonebookPullRequest extends PullRequest {
     private final Context mContext;
     public boolean complete = false;
 
+    // In delta sync mode, the fingerprints of the contacts of the path already in the provider,
+    // mapped to their raw contact IDs. Contacts pulled again unchanged are kept as they are, and
+    // the ones left once the whole path is pulled are removed by removeStaleContacts().
+    private final boolean mDeltaSync;
+    private HashMap<String, ArrayList<Long>> mExistingContacts;
+    private int mInserted = 0;
+    private int mKept = 0;
+    private boolean mFailed = false;
+
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+    private int mOperationsSize = 0;
+
     public PhonebookPullRequest(Context context, Account account) {
+        this(context, account, PbapClientConnectionHandler.PB_PATH, false);
+    }
+
+    PhonebookPullRequest(Context context, Account account, String path, boolean deltaSync) {
         mContext = context;
         mAccount = account;
-        path = PbapClientConnectionHandler.PB_PATH;
+        this.path = path;
+        mDeltaSync = deltaSync;
     }
 
-
     @Override
     public void onPullComplete() {
         if (mEntries == null) {
@@ -57,43 +87,244 @@ public class PhonebookPullRequest extends PullRequest {
         }
 
         try {
-            ContentResolver contactsProvider = mContext.getContentResolver();
-            ArrayList<ContentProviderOperation> insertOperations = new ArrayList<>();
-            ArrayList<ContentProviderOperation> currentContactOperations;
-            // Group insert operations together to minimize inter process communication and improve
-            // processing time.
             for (VCardEntry e : mEntries) {
                 if (Thread.currentThread().isInterrupted()) {
                     Log.e(TAG, "Interrupted durring insert.");
+                    mFailed = true;
                     break;
                 }
-                int numberOfOperations = insertOperations.size();
-                // Append current vcard to list of insert operations.
-                e.constructInsertOperations(contactsProvider, insertOperations);
-                if (insertOperations.size() >= MAX_OPS) {
-                    // If we have exceded the limit to the insert operation remove the latest vcard
-                    // and submit.
-                    insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
-                    contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                    insertOperations = e.constructInsertOperations(contactsProvider, null);
-                    if (insertOperations.size() >= MAX_OPS) {
-                        // Current VCard has more than 500 attributes, drop the card.
-                        insertOperations.clear();
-                    }
-                }
-            }
-            if (insertOperations.size() > 0) {
-                // Apply any unsubmitted vcards.
-                contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                insertOperations.clear();
+                addEntry(e);
             }
+            // Apply any unsubmitted vcards.
+            flush();
             if (VDBG) {
-                Log.d(TAG, "Sync complete: add=" + mEntries.size());
+                Log.d(TAG, "Sync complete: add=" + mInserted + ", unchanged=" + mKept);
             }
         } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
             Log.e(TAG, "Got exception: ", e);
+            mFailed = true;
+            mOperations.clear();
         } finally {
             complete = true;
         }
     }
+
+    /**
+     * Queues the insert operations of a pulled contact. Operations are grouped together to
+     * minimize inter process communication and improve processing time, and a batch is applied
+     * once it reaches MAX_OPS operations or MAX_BATCH_BYTES bytes.
+     */
+    void addEntry(VCardEntry e) throws OperationApplicationException, RemoteException {
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        if (mDeltaSync && mExistingContacts == null) {
+            mExistingContacts = loadExistingContacts(contactsProvider);
+        }
+        String fingerprint = null;
+        if (mDeltaSync) {
+            fingerprint = getFingerprint(path, e);
+            if (keepExistingContact(fingerprint)) {
+                mKept++;
+                return;
+            }
+        }
+        int numberOfOperations = mOperations.size();
+        // Append current vcard to list of insert operations.
+        appendInsertOperations(contactsProvider, e, fingerprint, mOperations);
+        int size = estimateSize(e, mOperations.size() - numberOfOperations);
+        if (mOperations.size() >= MAX_OPS
+                || (mOperationsSize + size > MAX_BATCH_BYTES && numberOfOperations > 0)) {
+            // If we have exceded the limit to the insert operation remove the latest vcard
+            // and submit.
+            mOperations.subList(numberOfOperations, mOperations.size()).clear();
+            flush();
+            appendInsertOperations(contactsProvider, e, fingerprint, mOperations);
+            if (mOperations.size() >= MAX_OPS) {
+                // Current VCard has more than 500 attributes, drop the card.
+                mOperations.clear();
+                return;
+            }
+        }
+        mOperationsSize += size;
+        mInserted++;
+    }
+
+    /** Applies the queued insert operations */
+    void flush() throws OperationApplicationException, RemoteException {
+        if (mOperations.size() > 0) {
+            mContext.getContentResolver().applyBatch(ContactsContract.AUTHORITY, mOperations);
+            mOperations.clear();
+        }
+        mOperationsSize = 0;
+    }
+
+    /** Marks the sync of the path as failed, so that the contacts kept are not removed */
+    void onFailed() {
+        mFailed = true;
+    }
+
+    // Estimates the size of the operations of a contact in a batch, dominated by its photos
+    private static int estimateSize(VCardEntry entry, int operations) {
+        int size = operations * OPERATION_SIZE;
+        List<VCardEntry.PhotoData> photos = entry.getPhotoList();
+        if (photos != null) {
+            for (VCardEntry.PhotoData photo : photos) {
+                if (photo.getBytes() != null) {
+                    size += photo.getBytes().length;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes the contacts of the path that were not pulled again, once the whole path has been
+     * pulled in delta sync mode. These are the contacts deleted or changed on the phone since the
+     * last sync.
+     *
+     * @return true if the contacts of the path are now in sync with the phone
+     */
+    boolean removeStaleContacts() {
+        if (!mDeltaSync || mFailed) {
+            return false;
+        }
+        ContentResolver contactsProvider = mContext.getContentResolver();
+        try {
+            if (mExistingContacts == null) {
+                // Nothing was pulled, the path is empty now
+                mExistingContacts = loadExistingContacts(contactsProvider);
+            }
+            Uri uri = asSyncAdapter(RawContacts.CONTENT_URI);
+            ArrayList<ContentProviderOperation> deleteOperations = new ArrayList<>();
+            int deleted = 0;
+            for (ArrayList<Long> ids : mExistingContacts.values()) {
+                for (long id : ids) {
+                    deleteOperations.add(ContentProviderOperation.newDelete(uri)
+                            .withSelection(RawContacts._ID + "=?",
+                                    new String[] {Long.toString(id)})
+                            .build());
+                    if (deleteOperations.size() >= MAX_OPS) {
+                        contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+                        deleteOperations.clear();
+                    }
+                    deleted++;
+                }
+            }
+            if (deleteOperations.size() > 0) {
+                contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+            }
+            mExistingContacts.clear();
+            Log.i(TAG, "Delta sync of " + path + ": add=" + mInserted + ", unchanged=" + mKept
+                    + ", remove=" + deleted);
+            return true;
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.e(TAG, "Got exception: ", e);
+            return false;
+        }
+    }
+
+    private void appendInsertOperations(ContentResolver contactsProvider, VCardEntry entry,
+            String fingerprint, ArrayList<ContentProviderOperation> operations) {
+        int rawContactIndex = operations.size();
+        entry.constructInsertOperations(contactsProvider, operations);
+        if (fingerprint != null && operations.size() > rawContactIndex) {
+            // Tag the new raw contact with its fingerprint, for the next delta sync
+            operations.add(ContentProviderOperation
+                    .newUpdate(asSyncAdapter(RawContacts.CONTENT_URI))
+                    .withSelection(RawContacts._ID + "=?", new String[1])
+                    .withSelectionBackReference(0, rawContactIndex)
+                    .withValue(RawContacts.SYNC1, fingerprint)
+                    .build());
+        }
+    }
+
+    private boolean keepExistingContact(String fingerprint) {
+        ArrayList<Long> ids = mExistingContacts.get(fingerprint);
+        if (ids == null) {
+            return false;
+        }
+        ids.remove(ids.size() - 1);
+        if (ids.isEmpty()) {
+            mExistingContacts.remove(fingerprint);
+        }
+        return true;
+    }
+
+    private HashMap<String, ArrayList<Long>> loadExistingContacts(ContentResolver resolver) {
+        HashMap<String, ArrayList<Long>> contacts = new HashMap<>();
+        String prefix = getFingerprintPrefix(path);
+        try (Cursor cursor = resolver.query(RawContacts.CONTENT_URI,
+                new String[] {RawContacts._ID, RawContacts.SYNC1},
+                RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=? AND "
+                        + RawContacts.DELETED + "=0 AND " + RawContacts.SYNC1 + " LIKE ?",
+                new String[] {mAccount.name, mAccount.type, prefix + "%"}, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                contacts.computeIfAbsent(cursor.getString(1), k -> new ArrayList<>())
+                        .add(cursor.getLong(0));
+            }
+        }
+        if (VDBG) {
+            Log.d(TAG, "Found " + contacts.size() + " existing contacts for " + path);
+        }
+        return contacts;
+    }
+
+    private static Uri asSyncAdapter(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true").build();
+    }
+
+    private static String getFingerprintPrefix(String path) {
+        return path + ":";
+    }
+
+    /**
+     * Returns a fingerprint of all the data of a contact pulled from a path, which is stored with
+     * the contact to recognize it on the next delta sync.
+     */
+    @VisibleForTesting
+    static String getFingerprint(String path, VCardEntry entry) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        entry.iterateAllData(new VCardEntry.EntryElementIterator() {
+            @Override
+            public void onIterationStarted() {
+            }
+
+            @Override
+            public void onIterationEnded() {
+            }
+
+            @Override
+            public void onElementGroupStarted(VCardEntry.EntryLabel label) {
+                update(label.name());
+            }
+
+            @Override
+            public void onElementGroupEnded() {
+            }
+
+            @Override
+            public boolean onElement(VCardEntry.EntryElement element) {
+                update(element.toString());
+                if (element instanceof VCardEntry.PhotoData) {
+                    byte[] bytes = ((VCardEntry.PhotoData) element).getBytes();
+                    if (bytes != null) {
+                        digest.update(bytes);
+                    }
+                }
+                return true;
+            }
+
+            private void update(String value) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        });
+        return getFingerprintPrefix(path)
+                + Base64.encodeToString(digest.digest(), Base64.NO_WRAP);
+    }
 }
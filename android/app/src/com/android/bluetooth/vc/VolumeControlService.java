@@ -211,6 +211,11 @@ public class VolumeControlService extends ProfileService {
         }
     }
 
+    @Override
+    protected boolean canStartInBackground() {
+        return true;
+    }
+
     @Override
     protected boolean start() {
         if (DBG) {
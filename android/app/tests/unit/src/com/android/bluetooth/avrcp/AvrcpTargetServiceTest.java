@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcp;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.audio_util.MediaPlayerList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AvrcpTargetServiceTest {
+    private static final int USER_ID = 0;
+
+    private AvrcpTargetService mService;
+
+    @Mock private MediaPlayerList mMediaPlayerList;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mService = new AvrcpTargetService();
+        mService.mMediaPlayerList = mMediaPlayerList;
+    }
+
+    @Test
+    public void testSetUserUnlocked_whenInitDeferred_initsPlayerListOnce() {
+        mService.mPlayerListInitDeferred = true;
+
+        mService.setUserUnlocked(USER_ID);
+        verify(mMediaPlayerList, never()).init(any());
+
+        mService.startDeferred();
+        verify(mMediaPlayerList, times(1)).init(any());
+
+        // Nothing left to do once started
+        mService.startDeferred();
+        verify(mMediaPlayerList, times(1)).init(any());
+    }
+
+    @Test
+    public void testSetUserUnlocked_whenNotDeferred_initsPlayerList() {
+        mService.mPlayerListInitDeferred = false;
+
+        mService.setUserUnlocked(USER_ID);
+        verify(mMediaPlayerList, times(1)).init(any());
+
+        mService.startDeferred();
+        verify(mMediaPlayerList, times(1)).init(any());
+    }
+}
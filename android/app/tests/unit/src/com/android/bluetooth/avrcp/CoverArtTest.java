@@ -215,6 +215,23 @@ public class CoverArtTest {
         assertThat(isThumbnailFormat(image)).isTrue();
     }
 
+    /**
+     * Make sure the image is encoded once and the same bytes are served for every format
+     */
+    @Test
+    public void testGetImageEncodedOnce() {
+        CoverArt artwork = new CoverArt(mImage);
+        assertThat(artwork.isEncoded()).isFalse();
+
+        artwork.encode();
+
+        assertThat(artwork.isEncoded()).isTrue();
+        byte[] image = artwork.getImage();
+        assertThat(artwork.getThumbnail()).isSameInstanceAs(image);
+        assertThat(artwork.getImage(getDescriptor(BipEncoding.JPEG, 200, 200)))
+                .isSameInstanceAs(image);
+    }
+
     /**
      * Make sure you can set the image handle associated with this object
      */
@@ -36,6 +36,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -84,6 +87,18 @@ public final class AvrcpCoverArtStorageTest {
         mTargetContext = null;
     }
 
+    private byte[] readImageData(int resId) throws IOException {
+        InputStream is = mTestResources.openRawResource(resId);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            data.write(buffer, 0, count);
+        }
+        is.close();
+        return data.toByteArray();
+    }
+
     private void assertImageSame(Bitmap expected, BluetoothDevice device, String handle) {
         Bitmap image = mAvrcpCoverArtStorage.getImage(device, handle);
         Assert.assertTrue(expected.sameAs(image));
@@ -329,4 +344,80 @@ public final class AvrcpCoverArtStorageTest {
         Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice2, mHandle1));
         Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice2, mHandle2));
     }
+
+    @Test
+    public void addImageData_imageDecodedWhenRequested() throws IOException {
+        byte[] data = readImageData(com.android.bluetooth.tests.R.raw.image_600_600);
+
+        Uri uri = mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, data);
+
+        Assert.assertEquals(AvrcpCoverArtProvider.getImageUri(mDevice1, mHandle1), uri);
+        Assert.assertArrayEquals(data, mAvrcpCoverArtStorage.getImageData(mDevice1, mHandle1));
+        assertImageSame(mImage2, mDevice1, mHandle1);
+    }
+
+    @Test
+    public void getImageWithSize_imageDownsampled() throws IOException {
+        byte[] data = readImageData(com.android.bluetooth.tests.R.raw.image_600_600);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, data);
+
+        Bitmap image = mAvrcpCoverArtStorage.getImage(mDevice1, mHandle1, 200, 200);
+
+        Assert.assertEquals(300, image.getWidth());
+        Assert.assertEquals(300, image.getHeight());
+    }
+
+    @Test
+    public void addImagesOverMemoryBudget_leastRecentlyUsedEvicted() throws IOException {
+        byte[] data = readImageData(com.android.bluetooth.tests.R.raw.image_200_200);
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext, 2 * data.length, 0);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, data);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, data);
+
+        // Makes the second image the least recently used one
+        mAvrcpCoverArtStorage.getImageData(mDevice1, mHandle1);
+        mAvrcpCoverArtStorage.addImage(mDevice2, mHandle1, data);
+
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle2));
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice2, mHandle1));
+    }
+
+    @Test
+    public void addImagesOverMemoryBudget_evictedImagesSpilledToDisk() throws IOException {
+        byte[] data = readImageData(com.android.bluetooth.tests.R.raw.image_200_200);
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext, data.length,
+                data.length);
+        mAvrcpCoverArtStorage.clear();
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, data);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, data);
+
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        Assert.assertArrayEquals(data, mAvrcpCoverArtStorage.getImageData(mDevice1, mHandle1));
+
+        // Only one image fits on disk, the second one is replaced there by the first one
+        mAvrcpCoverArtStorage.addImage(mDevice2, mHandle1, data);
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle2));
+        Assert.assertTrue(mAvrcpCoverArtStorage.doesImageExist(mDevice2, mHandle1));
+        mAvrcpCoverArtStorage.clear();
+    }
+
+    @Test
+    public void removeSpilledImage_fileDeleted() throws IOException {
+        byte[] data = readImageData(com.android.bluetooth.tests.R.raw.image_200_200);
+        File diskCacheDir = new File(mTargetContext.getCacheDir(), "avrcpcontroller_cover_art");
+        mAvrcpCoverArtStorage = new AvrcpCoverArtStorage(mTargetContext, data.length,
+                data.length);
+        mAvrcpCoverArtStorage.clear();
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle1, data);
+        mAvrcpCoverArtStorage.addImage(mDevice1, mHandle2, data);
+        Assert.assertEquals(1, diskCacheDir.listFiles().length);
+
+        mAvrcpCoverArtStorage.removeImage(mDevice1, mHandle1);
+
+        Assert.assertFalse(mAvrcpCoverArtStorage.doesImageExist(mDevice1, mHandle1));
+        Assert.assertEquals(0, diskCacheDir.listFiles().length);
+        mAvrcpCoverArtStorage.clear();
+    }
 }
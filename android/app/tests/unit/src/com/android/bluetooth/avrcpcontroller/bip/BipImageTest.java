@@ -32,6 +32,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.InputStream;
 
 /**
@@ -76,6 +78,29 @@ public class BipImageTest {
         Assert.assertTrue(bitmap.sameAs(image.getImage()));
     }
 
+    @Test
+    public void testParseImage_keepsReceivedData() throws Exception {
+        InputStream imageInputStream = mTestResources.openRawResource(
+                com.android.bluetooth.tests.R.raw.image_200_200);
+        BipImage image = new BipImage(sImageHandle, imageInputStream);
+
+        InputStream expectedInputStream = mTestResources.openRawResource(
+                com.android.bluetooth.tests.R.raw.image_200_200);
+        byte[] expected = new byte[image.getImageData().length];
+        new DataInputStream(expectedInputStream).readFully(expected);
+        Assert.assertEquals(-1, expectedInputStream.read());
+        Assert.assertArrayEquals(expected, image.getImageData());
+    }
+
+    @Test
+    public void testParseInvalidImage_noImage() {
+        InputStream imageInputStream = new ByteArrayInputStream(new byte[] {1, 2, 3, 4});
+        BipImage image = new BipImage(sImageHandle, imageInputStream);
+
+        Assert.assertNull(image.getImageData());
+        Assert.assertNull(image.getImage());
+    }
+
     @Test
     public void testMakeFromImage_200by200() {
         InputStream imageInputStream = mTestResources.openRawResource(
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.a2dp.A2dpService;
+import com.android.bluetooth.avrcp.AvrcpTargetService;
+import com.android.bluetooth.hfp.HeadsetService;
+import com.android.bluetooth.le_audio.LeAudioService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileStartSchedulerTest {
+    private final List<Class> mStartedProfiles = new ArrayList<>();
+    private final Map<Class, Class[]> mDependencies = new HashMap<>();
+    private ExecutorService mExecutor;
+    private ProfileStartScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mDependencies.put(AvrcpTargetService.class, new Class[] {A2dpService.class});
+        mExecutor = Executors.newSingleThreadExecutor();
+        mScheduler = new ProfileStartScheduler(mStartedProfiles::add, mDependencies, mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.cleanup();
+    }
+
+    @Test
+    public void start_withoutDependencies_startsAllProfiles() {
+        mScheduler.start(new Class[] {A2dpService.class, HeadsetService.class});
+
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class, HeadsetService.class)
+                .inOrder();
+    }
+
+    @Test
+    public void start_waitsForDependencies() {
+        mScheduler.start(new Class[] {AvrcpTargetService.class, A2dpService.class});
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class);
+
+        mScheduler.onProfileStarted(A2dpService.class.getSimpleName());
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class, AvrcpTargetService.class)
+                .inOrder();
+    }
+
+    @Test
+    public void start_ignoresUnsupportedDependencies() {
+        mScheduler.start(new Class[] {AvrcpTargetService.class, LeAudioService.class});
+
+        assertThat(mStartedProfiles).containsExactly(AvrcpTargetService.class,
+                LeAudioService.class).inOrder();
+    }
+
+    @Test
+    public void onProfileStartFailed_startsDependentProfiles() {
+        mScheduler.start(new Class[] {AvrcpTargetService.class, A2dpService.class});
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class);
+
+        mScheduler.onProfileStartFailed(A2dpService.class.getSimpleName());
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class, AvrcpTargetService.class)
+                .inOrder();
+
+        StringWriter out = new StringWriter();
+        mScheduler.dump(new PrintWriter(out));
+        assertThat(out.toString()).contains("(failed)");
+        assertThat(out.toString()).doesNotContain("waiting for its dependencies");
+    }
+
+    @Test
+    public void onProfileStartFailed_waitsForOtherDependencies() {
+        mDependencies.put(LeAudioService.class,
+                new Class[] {A2dpService.class, HeadsetService.class});
+        mScheduler.start(new Class[] {LeAudioService.class, A2dpService.class,
+                HeadsetService.class});
+
+        mScheduler.onProfileStartFailed(A2dpService.class.getSimpleName());
+        assertThat(mStartedProfiles).doesNotContain(LeAudioService.class);
+
+        mScheduler.onProfileStarted(HeadsetService.class.getSimpleName());
+        assertThat(mStartedProfiles).contains(LeAudioService.class);
+    }
+
+    @Test
+    public void cancel_dropsWaitingProfiles() {
+        mScheduler.start(new Class[] {AvrcpTargetService.class, A2dpService.class});
+        mScheduler.cancel();
+
+        mScheduler.onProfileStarted(A2dpService.class.getSimpleName());
+        assertThat(mStartedProfiles).containsExactly(A2dpService.class);
+    }
+
+    @Test
+    public void run_inBackground_runsOnStartThread() throws Exception {
+        Thread[] startThread = new Thread[1];
+        Future<?> start = mScheduler.run("A2dpService",
+                () -> startThread[0] = Thread.currentThread(), true);
+
+        assertThat(start).isNotNull();
+        start.get();
+        assertThat(startThread[0]).isNotEqualTo(Thread.currentThread());
+    }
+
+    @Test
+    public void run_notInBackground_runsInline() {
+        Thread[] startThread = new Thread[1];
+        Future<?> start = mScheduler.run("A2dpService",
+                () -> startThread[0] = Thread.currentThread(), false);
+
+        assertThat(start).isNull();
+        assertThat(startThread[0]).isEqualTo(Thread.currentThread());
+    }
+
+    @Test
+    public void run_afterCleanup_runsInline() {
+        mScheduler.cleanup();
+        Thread[] startThread = new Thread[1];
+        Future<?> start = mScheduler.run("A2dpService",
+                () -> startThread[0] = Thread.currentThread(), true);
+
+        assertThat(start).isNull();
+        assertThat(startThread[0]).isEqualTo(Thread.currentThread());
+    }
+
+    @Test
+    public void dump_listsProfileTimeline() {
+        mScheduler.start(new Class[] {AvrcpTargetService.class, A2dpService.class});
+        mScheduler.run("A2dpService", () -> {}, false);
+        mScheduler.onProfileStarted("A2dpService");
+
+        StringWriter out = new StringWriter();
+        mScheduler.dump(new PrintWriter(out));
+        assertThat(out.toString()).contains("A2dpService");
+        assertThat(out.toString()).contains("AvrcpTargetService");
+    }
+}
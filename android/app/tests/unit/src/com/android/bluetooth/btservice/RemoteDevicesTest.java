@@ -517,6 +517,108 @@ public class RemoteDevicesTest {
         Assert.assertNull(mRemoteDevices.getDeviceProperties(mDevice1));
     }
 
+    @Test
+    public void testGetIdentityAddress_updatedByLeAddressAssociate() {
+        String identityAddress = "00:11:22:33:44:66";
+        Assert.assertNull(mRemoteDevices.getIdentityAddress(TEST_BT_ADDR_1));
+
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        Assert.assertNull(mRemoteDevices.getIdentityAddress(TEST_BT_ADDR_1));
+
+        mRemoteDevices.leAddressAssociateCallback(Utils.getBytesFromAddress(TEST_BT_ADDR_1),
+                Utils.getBytesFromAddress(identityAddress));
+        Assert.assertEquals(identityAddress, mRemoteDevices.getIdentityAddress(TEST_BT_ADDR_1));
+        Assert.assertEquals(identityAddress,
+                mRemoteDevices.getIdentityAddress(TEST_BT_ADDR_1.toLowerCase()));
+
+        // A new property entry for the same address starts without identity address.
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        Assert.assertNull(mRemoteDevices.getIdentityAddress(TEST_BT_ADDR_1));
+    }
+
+    @Test
+    public void testAddDeviceProperties_evictsLeastRecentlyFoundDevice() {
+        byte[] bondedAddress = getTestAddress(0);
+        mRemoteDevices.addDeviceProperties(bondedAddress).mBondState =
+                BluetoothDevice.BOND_BONDED;
+        for (int i = 1; i <= RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            mRemoteDevices.addDeviceProperties(getTestAddress(i));
+        }
+
+        // The oldest device is bonded, so the next oldest one is evicted instead.
+        Assert.assertEquals(RemoteDevices.MAX_DEVICE_QUEUE_SIZE, mRemoteDevices.getDeviceCount());
+        Assert.assertEquals(1, mRemoteDevices.getEvictionCount());
+        Assert.assertNotNull(mRemoteDevices.getDevice(bondedAddress));
+        Assert.assertNull(mRemoteDevices.getDevice(getTestAddress(1)));
+        Assert.assertNotNull(mRemoteDevices.getDevice(getTestAddress(2)));
+
+        // The table stays bounded however many devices are found.
+        for (int i = RemoteDevices.MAX_DEVICE_QUEUE_SIZE + 1;
+                i <= 3 * RemoteDevices.MAX_DEVICE_QUEUE_SIZE; i++) {
+            mRemoteDevices.addDeviceProperties(getTestAddress(i));
+        }
+        Assert.assertEquals(RemoteDevices.MAX_DEVICE_QUEUE_SIZE, mRemoteDevices.getDeviceCount());
+        Assert.assertNotNull(mRemoteDevices.getDevice(bondedAddress));
+    }
+
+    @Test
+    public void testDevicePropertyChanged_typeChanged_invalidatesCache() {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+        long invalidationCount = mRemoteDevices.getCacheInvalidationCount();
+
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE,
+                Utils.intToByteArray(BluetoothDevice.DEVICE_TYPE_LE));
+        Assert.assertEquals(invalidationCount + 1, mRemoteDevices.getCacheInvalidationCount());
+        Assert.assertEquals(BluetoothDevice.DEVICE_TYPE_LE,
+                mRemoteDevices.getDeviceProperties(mDevice1).getDeviceType());
+
+        // Every inquiry result reports the type again, an unchanged type keeps the cache
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE,
+                Utils.intToByteArray(BluetoothDevice.DEVICE_TYPE_LE));
+        Assert.assertEquals(invalidationCount + 1, mRemoteDevices.getCacheInvalidationCount());
+    }
+
+    @Test
+    public void testDevicePropertyChanged_aliasChanged_invalidatesCache() {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+        long invalidationCount = mRemoteDevices.getCacheInvalidationCount();
+
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME,
+                "alias".getBytes());
+        Assert.assertEquals(invalidationCount + 1, mRemoteDevices.getCacheInvalidationCount());
+        Assert.assertEquals("alias", mRemoteDevices.getDeviceProperties(mDevice1).getAlias());
+
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME,
+                "alias".getBytes());
+        Assert.assertEquals(invalidationCount + 1, mRemoteDevices.getCacheInvalidationCount());
+
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME,
+                "other alias".getBytes());
+        Assert.assertEquals(invalidationCount + 2, mRemoteDevices.getCacheInvalidationCount());
+    }
+
+    @Test
+    public void testDevicePropertyChanged_rssiChanged_keepsCache() {
+        byte[] address = Utils.getBytesFromAddress(TEST_BT_ADDR_1);
+        mRemoteDevices.addDeviceProperties(address);
+        long invalidationCount = mRemoteDevices.getCacheInvalidationCount();
+
+        updateDeviceProperty(address, AbstractionLayer.BT_PROPERTY_REMOTE_RSSI,
+                new byte[] {(byte) -60});
+        Assert.assertEquals(invalidationCount, mRemoteDevices.getCacheInvalidationCount());
+    }
+
+    private void updateDeviceProperty(byte[] address, int type, byte[] value) {
+        mRemoteDevices.devicePropertyChangedCallback(address, new int[] {type},
+                new byte[][] {value});
+    }
+
+    private static byte[] getTestAddress(int index) {
+        return new byte[] {0x00, 0x11, 0x22, 0x33, (byte) (index >> 8), (byte) index};
+    }
+
     private static void verifyBatteryLevelChangedIntent(BluetoothDevice device, int batteryLevel,
             ArgumentCaptor<Intent> intentArgument) {
         verifyBatteryLevelChangedIntent(device, batteryLevel, intentArgument.getValue());
@@ -103,6 +103,8 @@ public final class DatabaseManagerTest {
         when(mAdapterService.getPackageManager()).thenReturn(
                 InstrumentationRegistry.getTargetContext().getPackageManager());
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Write updates right away so that tests can check the database after the handler runs
+        mDatabaseManager.setWriteDelayMillis(0);
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -171,6 +173,44 @@ public final class DatabaseManagerTest {
                 BluetoothProfile.CONNECTION_POLICY_UNKNOWN, false);
     }
 
+    @Test
+    public void testUpdateDatabase_coalescedUntilCleanup() {
+        mDatabaseManager.setWriteDelayMillis(60000);
+        long flushCount = mDatabaseManager.getFlushCount();
+        long flushedRowCount = mDatabaseManager.getFlushedRowCount();
+
+        Assert.assertTrue(mDatabaseManager.setProfileConnectionPolicy(mTestDevice,
+                BluetoothProfile.HEADSET, BluetoothProfile.CONNECTION_POLICY_ALLOWED));
+        Assert.assertTrue(mDatabaseManager.setProfileConnectionPolicy(mTestDevice,
+                BluetoothProfile.A2DP, BluetoothProfile.CONNECTION_POLICY_FORBIDDEN));
+        Assert.assertTrue(mDatabaseManager.setCustomMeta(mTestDevice, 0, TEST_BYTE_ARRAY));
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+
+        // Nothing is written before the write delay expires
+        Assert.assertEquals(0, mDatabase.load().size());
+        Assert.assertEquals(flushCount, mDatabaseManager.getFlushCount());
+
+        // Cleanup writes the pending updates in one transaction
+        mDatabaseManager.cleanup();
+        Assert.assertEquals(flushCount + 1, mDatabaseManager.getFlushCount());
+        Assert.assertEquals(flushedRowCount + 1, mDatabaseManager.getFlushedRowCount());
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Metadata checkData = list.get(0);
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                checkData.getProfileConnectionPolicy(BluetoothProfile.HEADSET));
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_FORBIDDEN,
+                checkData.getProfileConnectionPolicy(BluetoothProfile.A2DP));
+        Assert.assertArrayEquals(TEST_BYTE_ARRAY, checkData.getCustomizedMeta(0));
+
+        mDatabaseManager.setWriteDelayMillis(0);
+        restartDatabaseManagerHelper();
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testSetGetA2dpSupportsOptionalCodecs() {
         int badValue = -100;
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+
+import android.content.pm.PackageManager;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.btservice.AdapterService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.UUID;
+
+/**
+ * Test cases for {@link ContextMap}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ContextMapTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+
+    @Mock private AdapterService mAdapterService;
+    @Mock private GattService mGattService;
+    @Mock private PackageManager mPackageManager;
+
+    private ContextMap<Object, Void> mMap;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        TestUtils.setAdapterService(mAdapterService);
+        doReturn(mPackageManager).when(mGattService).getPackageManager();
+        doReturn("com.android.test").when(mPackageManager).getNameForUid(anyInt());
+        mMap = new ContextMap<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearAdapterService(mAdapterService);
+    }
+
+    private ContextMap<Object, Void>.App addApp(int id) {
+        ContextMap<Object, Void>.App app =
+                mMap.add(UUID.randomUUID(), null, null, null, mGattService);
+        app.id = id;
+        return app;
+    }
+
+    @Test
+    public void getById_afterIdAssigned_returnsApp() {
+        ContextMap<Object, Void>.App app = addApp(5);
+
+        assertThat(mMap.getById(5)).isSameInstanceAs(app);
+        assertThat(mMap.getById(6)).isNull();
+
+        app.id = 6;
+        assertThat(mMap.getById(5)).isNull();
+        assertThat(mMap.getById(6)).isSameInstanceAs(app);
+    }
+
+    @Test
+    public void connectionLookups() {
+        ContextMap<Object, Void>.App app = addApp(5);
+        ContextMap<Object, Void>.App otherApp = addApp(7);
+        mMap.addConnection(5, 10, ADDRESS);
+        mMap.addConnection(7, 11, ADDRESS);
+        mMap.addConnection(7, 12, OTHER_ADDRESS);
+
+        assertThat(mMap.getByConnId(10)).isSameInstanceAs(app);
+        assertThat(mMap.getByConnId(12)).isSameInstanceAs(otherApp);
+        assertThat(mMap.getByConnId(13)).isNull();
+        assertThat(mMap.addressByConnId(11)).isEqualTo(ADDRESS);
+        assertThat(mMap.connIdByAddress(5, ADDRESS.toLowerCase())).isEqualTo(10);
+        assertThat(mMap.connIdByAddress(7, ADDRESS)).isEqualTo(11);
+        assertThat(mMap.connIdByAddress(5, OTHER_ADDRESS)).isNull();
+        assertThat(mMap.getConnectedDevices()).containsExactly(ADDRESS, OTHER_ADDRESS);
+    }
+
+    @Test
+    public void removeConnection_removesLookups() {
+        addApp(5);
+        mMap.addConnection(5, 10, ADDRESS);
+
+        mMap.removeConnection(5, 10);
+
+        assertThat(mMap.getByConnId(10)).isNull();
+        assertThat(mMap.addressByConnId(10)).isNull();
+        assertThat(mMap.connIdByAddress(5, ADDRESS)).isNull();
+    }
+
+    @Test
+    public void removeApp_removesItsConnections() {
+        addApp(5);
+        ContextMap<Object, Void>.App otherApp = addApp(7);
+        mMap.addConnection(5, 10, ADDRESS);
+        mMap.addConnection(7, 11, ADDRESS);
+
+        mMap.remove(5);
+
+        assertThat(mMap.getById(5)).isNull();
+        assertThat(mMap.getByConnId(10)).isNull();
+        assertThat(mMap.connIdByAddress(7, ADDRESS)).isEqualTo(11);
+        assertThat(mMap.getByConnId(11)).isSameInstanceAs(otherApp);
+    }
+
+    @Test
+    public void clear_removesEverything() {
+        addApp(5);
+        mMap.addConnection(5, 10, ADDRESS);
+
+        mMap.clear();
+
+        assertThat(mMap.getById(5)).isNull();
+        assertThat(mMap.getByConnId(10)).isNull();
+        assertThat(mMap.addressByConnId(10)).isNull();
+        assertThat(mMap.getConnectedDevices()).isEmpty();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+/**
+ * Test cases for {@link HandleMap}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class HandleMapTest {
+    private static final UUID SERVICE_UUID = UUID.randomUUID();
+    private static final UUID CHAR_UUID = UUID.randomUUID();
+    private static final UUID DESC_UUID = UUID.randomUUID();
+
+    @Test
+    public void getByHandle_returnsAddedEntries() {
+        HandleMap map = new HandleMap();
+        map.addService(1, 40, SERVICE_UUID, 0, 0, false);
+        map.addCharacteristic(1, 42, CHAR_UUID, 40);
+        map.addDescriptor(1, 43, DESC_UUID, 40);
+
+        assertThat(map.getByHandle(40).type).isEqualTo(HandleMap.TYPE_SERVICE);
+        assertThat(map.getByHandle(42).uuid).isEqualTo(CHAR_UUID);
+        assertThat(map.getByHandle(43).charHandle).isEqualTo(42);
+        assertThat(map.getByHandle(44)).isNull();
+    }
+
+    @Test
+    public void deleteService_removesItsEntries() {
+        HandleMap map = new HandleMap();
+        map.addService(1, 40, SERVICE_UUID, 0, 0, false);
+        map.addCharacteristic(1, 42, CHAR_UUID, 40);
+        map.addService(2, 50, SERVICE_UUID, 0, 0, false);
+
+        map.deleteService(1, 40);
+
+        assertThat(map.getByHandle(40)).isNull();
+        assertThat(map.getByHandle(42)).isNull();
+        assertThat(map.getByHandle(50).serverIf).isEqualTo(2);
+        assertThat(map.getEntries()).hasSize(1);
+    }
+
+    @Test
+    public void getByRequestId_returnsEntryOfRequest() {
+        HandleMap map = new HandleMap();
+        map.addService(1, 40, SERVICE_UUID, 0, 0, false);
+        map.addCharacteristic(1, 42, CHAR_UUID, 40);
+
+        map.addRequest(7, 42);
+        assertThat(map.getByRequestId(7).uuid).isEqualTo(CHAR_UUID);
+
+        map.deleteRequest(7);
+        assertThat(map.getByRequestId(7)).isNull();
+    }
+
+    @Test
+    public void clear_removesAllEntries() {
+        HandleMap map = new HandleMap();
+        map.addService(1, 40, SERVICE_UUID, 0, 0, false);
+
+        map.clear();
+
+        assertThat(map.getByHandle(40)).isNull();
+        assertThat(map.getEntries()).isEmpty();
+    }
+}
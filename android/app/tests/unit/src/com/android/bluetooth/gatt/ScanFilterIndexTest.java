@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+    private static final ParcelUuid HEART_RATE_UUID =
+            ParcelUuid.fromString("0000180D-0000-1000-8000-00805F9B34FB");
+    private static final ParcelUuid BATTERY_UUID =
+            ParcelUuid.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+    private static final int MANUFACTURER_ID = 0x00E0;
+
+    // Complete 16-bit UUID list (0x180D) followed by manufacturer data for 0x00E0.
+    private static final byte[] ADV_DATA = new byte[] {
+            0x03, 0x03, 0x0D, 0x18,
+            0x05, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02};
+
+    @Test
+    public void compile_emptyFilters_returnsNull() {
+        assertThat(ScanFilterIndex.compile(null)).isNull();
+        assertThat(ScanFilterIndex.compile(Collections.emptyList())).isNull();
+    }
+
+    @Test
+    public void match_byAddress() {
+        ScanFilterIndex index = ScanFilterIndex.compile(Arrays.asList(
+                new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build(),
+                new ScanFilter.Builder().setDeviceAddress(ADDRESS).build()));
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+        assertThat(index.match(createResult("00:01:02:03:04:07"), null))
+                .isEqualTo(ScanFilterIndex.MATCH_NONE);
+    }
+
+    @Test
+    public void match_byOriginalAddress_ignoresCase() {
+        ScanFilterIndex index = ScanFilterIndex.compile(Collections.singletonList(
+                new ScanFilter.Builder().setDeviceAddress("AA:BB:CC:DD:EE:FF").build()));
+
+        assertThat(index.match(createResult(ADDRESS), "aa:bb:cc:dd:ee:ff"))
+                .isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+    }
+
+    @Test
+    public void match_byServiceUuidAndManufacturerId() {
+        ScanFilterIndex uuidIndex = ScanFilterIndex.compile(Arrays.asList(
+                new ScanFilter.Builder().setServiceUuid(BATTERY_UUID).build(),
+                new ScanFilter.Builder().setServiceUuid(HEART_RATE_UUID).build()));
+        ScanFilterIndex manufacturerIndex = ScanFilterIndex.compile(Collections.singletonList(
+                new ScanFilter.Builder()
+                        .setManufacturerData(MANUFACTURER_ID, new byte[] {0x01}).build()));
+        ScanFilterIndex missIndex = ScanFilterIndex.compile(Collections.singletonList(
+                new ScanFilter.Builder().setServiceUuid(BATTERY_UUID).build()));
+
+        assertThat(uuidIndex.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+        assertThat(manufacturerIndex.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+        assertThat(missIndex.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_NONE);
+    }
+
+    @Test
+    public void match_firstMatchingFilterWins() {
+        // The first filter only matches through the original address, the second one matches
+        // the advertisement itself. The linear walk reports the first one.
+        ScanFilterIndex index = ScanFilterIndex.compile(Arrays.asList(
+                new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build(),
+                new ScanFilter.Builder().setServiceUuid(HEART_RATE_UUID).build()));
+
+        assertThat(index.match(createResult(ADDRESS), OTHER_ADDRESS))
+                .isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+    }
+
+    @Test
+    public void match_unindexedFilter() {
+        ScanFilterIndex index = ScanFilterIndex.compile(Collections.singletonList(
+                new ScanFilter.Builder().setDeviceName("name").build()));
+
+        assertThat(index.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_NONE);
+    }
+
+    private static ScanResult createResult(String address) {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        return new ScanResult(device, 0x1b, 1, 0, 0xff, 127, -54, 0,
+                ScanRecord.parseFromBytes(ADV_DATA), 0);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ScanResultBatcher}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanResultBatcherTest {
+    // Long enough for the timer never to fire during a test, unless the test sets its own.
+    private static final long WINDOW_MILLIS = 60_000;
+
+    private final List<List<ScanResult>> mDelivered =
+            Collections.synchronizedList(new ArrayList<>());
+    private final Semaphore mDeliveries = new Semaphore(0);
+    private HandlerThread mHandlerThread;
+    private ScanResultBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mHandlerThread = new HandlerThread("ScanResultBatcherTest");
+        mHandlerThread.start();
+        mBatcher = new ScanResultBatcher(mHandlerThread.getLooper(),
+                (client, results) -> {
+                    mDelivered.add(results);
+                    mDeliveries.release();
+                });
+    }
+
+    @After
+    public void tearDown() {
+        mBatcher.clear();
+        mHandlerThread.quit();
+    }
+
+    @Test
+    public void isBatchedDelivery() {
+        assertThat(ScanResultBatcher.isBatchedDelivery(createClient(1, 0))).isFalse();
+        assertThat(ScanResultBatcher.isBatchedDelivery(createClient(1, 3))).isTrue();
+    }
+
+    @Test
+    public void add_deliversInOrderWhenBatchIsFull() {
+        ScanClient client = createClient(1, 3);
+        ScanResult first = createResult(-10);
+        ScanResult second = createResult(-20);
+        ScanResult third = createResult(-30);
+
+        mBatcher.add(client, first);
+        mBatcher.add(client, second);
+        assertThat(mDelivered).isEmpty();
+
+        mBatcher.add(client, third);
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mDelivered.get(0)).containsExactly(first, second, third).inOrder();
+    }
+
+    @Test
+    public void flush_deliversPendingResultsOfThatClientOnly() {
+        ScanClient client = createClient(1, 10);
+        ScanClient otherClient = createClient(2, 10);
+        ScanResult result = createResult(-10);
+
+        mBatcher.add(client, result);
+        mBatcher.add(otherClient, createResult(-20));
+        mBatcher.flush(client.scannerId);
+
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mDelivered.get(0)).containsExactly(result);
+
+        mBatcher.flush(client.scannerId);
+        assertThat(mDelivered).hasSize(1);
+    }
+
+    @Test
+    public void remove_dropsPendingResults() {
+        ScanClient client = createClient(1, 10);
+
+        mBatcher.add(client, createResult(-10));
+        mBatcher.remove(client.scannerId);
+        mBatcher.flush(client.scannerId);
+
+        assertThat(mDelivered).isEmpty();
+    }
+
+    @Test
+    public void add_deliversWhenWindowExpires() throws Exception {
+        ScanClient client = createClient(1, 10, 100);
+        ScanResult first = createResult(-10);
+        ScanResult second = createResult(-20);
+
+        mBatcher.add(client, first);
+        mBatcher.add(client, second);
+
+        assertThat(mDeliveries.tryAcquire(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mDelivered.get(0)).containsExactly(first, second).inOrder();
+    }
+
+    @Test
+    public void stop_deliversPendingResultsAndDropsBatch() {
+        ScanClient client = createClient(1, 10);
+        ScanResult result = createResult(-10);
+
+        mBatcher.add(client, result);
+        mBatcher.stop(client.scannerId);
+
+        assertThat(mDelivered).hasSize(1);
+        assertThat(mDelivered.get(0)).containsExactly(result);
+        assertThat(mBatcher.getBatchCount()).isEqualTo(0);
+
+        mBatcher.flush(client.scannerId);
+        assertThat(mDelivered).hasSize(1);
+    }
+
+    private static ScanClient createClient(int scannerId, int maxResults) {
+        return createClient(scannerId, maxResults, WINDOW_MILLIS);
+    }
+
+    private static ScanClient createClient(int scannerId, int maxResults, long windowMillis) {
+        ScanSettings.Builder builder = new ScanSettings.Builder();
+        if (maxResults > 0) {
+            builder.setBatchedDelivery(windowMillis, maxResults);
+        }
+        return new ScanClient(scannerId, builder.build(), null);
+    }
+
+    private static ScanResult createResult(int rssi) {
+        return new ScanResult(
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05"),
+                0x1b, 1, 0, 0xff, 127, rssi, 0, null, 0);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Test cases for {@link ScanResultDeduplicator}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanResultDeduplicatorTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+    private static final byte[] PAYLOAD = new byte[] {0x02, 0x01, 0x06};
+    private static final byte[] OTHER_PAYLOAD = new byte[] {0x02, 0x01, 0x1a};
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void isEnabled() {
+        assertThat(ScanResultDeduplicator.isEnabled(new ScanSettings.Builder().build())).isFalse();
+        assertThat(ScanResultDeduplicator.isEnabled(
+                new ScanSettings.Builder().setDuplicateFilter(5, 1000).build())).isTrue();
+    }
+
+    @Test
+    public void shouldDeliver_dropsUnchangedAdvertisement() {
+        ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(5, 1000, 16);
+
+        assertThat(deduplicator.shouldDeliver(createResult(ADDRESS, PAYLOAD, -50, 0))).isTrue();
+        assertThat(deduplicator.shouldDeliver(createResult(ADDRESS, PAYLOAD, -52, 10 * MILLIS)))
+                .isFalse();
+        assertThat(deduplicator.shouldDeliver(createResult(OTHER_ADDRESS, PAYLOAD, -50, 0)))
+                .isTrue();
+    }
+
+    @Test
+    public void shouldDeliver_payloadRssiOrIntervalChange() {
+        ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(5, 1000, 16);
+
+        assertThat(deduplicator.shouldDeliver(createResult(ADDRESS, PAYLOAD, -50, 0))).isTrue();
+        // Payload changed.
+        assertThat(deduplicator.shouldDeliver(
+                createResult(ADDRESS, OTHER_PAYLOAD, -50, 10 * MILLIS))).isTrue();
+        // RSSI moved by more than the delta.
+        assertThat(deduplicator.shouldDeliver(
+                createResult(ADDRESS, OTHER_PAYLOAD, -60, 20 * MILLIS))).isTrue();
+        // Refresh interval elapsed since the last delivery.
+        assertThat(deduplicator.shouldDeliver(
+                createResult(ADDRESS, OTHER_PAYLOAD, -60, 1020 * MILLIS))).isTrue();
+    }
+
+    @Test
+    public void shouldDeliver_payloadChangeWithSameHash() {
+        // Service data whose two last bytes change without changing the hash of the payload
+        byte[] payload = new byte[] {0x03, 0x16, 0x00, 0x1f};
+        byte[] collidingPayload = new byte[] {0x03, 0x16, 0x01, 0x00};
+        assertThat(Arrays.hashCode(collidingPayload)).isEqualTo(Arrays.hashCode(payload));
+        ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(5, 1000, 16);
+
+        assertThat(deduplicator.shouldDeliver(createResult(ADDRESS, payload, -50, 0))).isTrue();
+        assertThat(deduplicator.shouldDeliver(
+                createResult(ADDRESS, collidingPayload, -50, 10 * MILLIS))).isTrue();
+        assertThat(deduplicator.shouldDeliver(
+                createResult(ADDRESS, collidingPayload, -50, 20 * MILLIS))).isFalse();
+    }
+
+    @Test
+    public void shouldDeliver_evictsLeastRecentlySeen() {
+        ScanResultDeduplicator deduplicator = new ScanResultDeduplicator(5, 1000, 2);
+
+        deduplicator.shouldDeliver(createResult("00:00:00:00:00:01", PAYLOAD, -50, 0));
+        deduplicator.shouldDeliver(createResult("00:00:00:00:00:02", PAYLOAD, -50, 0));
+        deduplicator.shouldDeliver(createResult("00:00:00:00:00:01", PAYLOAD, -50, 0));
+        deduplicator.shouldDeliver(createResult("00:00:00:00:00:03", PAYLOAD, -50, 0));
+
+        assertThat(deduplicator.size()).isEqualTo(2);
+        // 01 is still tracked, 02 was evicted.
+        assertThat(deduplicator.shouldDeliver(
+                createResult("00:00:00:00:00:01", PAYLOAD, -50, MILLIS))).isFalse();
+        assertThat(deduplicator.shouldDeliver(
+                createResult("00:00:00:00:00:02", PAYLOAD, -50, MILLIS))).isTrue();
+    }
+
+    @Test
+    public void addressToLong() {
+        assertThat(ScanResultDeduplicator.addressToLong("AA:BB:CC:DD:EE:FF"))
+                .isEqualTo(0xAABBCCDDEEFFL);
+        assertThat(ScanResultDeduplicator.addressToLong("aa:bb:cc:dd:ee:ff"))
+                .isEqualTo(0xAABBCCDDEEFFL);
+    }
+
+    private static ScanResult createResult(String address, byte[] payload, int rssi,
+            long timestampNanos) {
+        return new ScanResult(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address),
+                0x1b, 1, 0, 0xff, 127, rssi, 0, ScanRecord.parseFromBytes(payload),
+                timestampNanos);
+    }
+}
@@ -20,7 +20,10 @@ import static org.mockito.Mockito.*;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.IBluetoothHidHostReportCallback;
 import android.content.Context;
+import android.os.IBinder;
+import android.os.SystemClock;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.MediumTest;
@@ -29,6 +32,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 
@@ -133,6 +137,23 @@ public class HidHostServiceTest {
                 badBondState, badPriorityValue, false);
     }
 
+    @Test
+    public void testDispatchReport() throws Exception {
+        IBluetoothHidHostReportCallback callback = mock(IBluetoothHidHostReportCallback.class);
+        doReturn(mock(IBinder.class)).when(callback).asBinder();
+        byte[] address = Utils.getByteAddress(mTestDevice);
+        doReturn(mTestDevice).when(mAdapterService).getDeviceFromByte(address);
+        byte[] report = new byte[] {0x01, 0x02, 0x03};
+
+        mService.mReportCallbacks.register(callback);
+        mService.dispatchReport(address, report, SystemClock.elapsedRealtimeNanos());
+        verify(callback).onReport(mTestDevice, report);
+
+        mService.mReportCallbacks.unregister(callback);
+        mService.dispatchReport(address, report, SystemClock.elapsedRealtimeNanos());
+        verify(callback, times(1)).onReport(any(), any());
+    }
+
     /**
      * Helper function to test okToConnect() method.
      *
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hid;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ReportLatencyHistogramTest {
+    private static final long NANOS_PER_MICRO = 1000;
+
+    @Test
+    public void add_countsReportsInBuckets() {
+        ReportLatencyHistogram histogram = new ReportLatencyHistogram("Test");
+
+        histogram.add(50 * NANOS_PER_MICRO);
+        histogram.add(100 * NANOS_PER_MICRO);
+        histogram.add(300 * NANOS_PER_MICRO);
+        histogram.add(50000 * NANOS_PER_MICRO);
+
+        int lastBucket = ReportLatencyHistogram.BUCKET_BOUNDS_US.length;
+        assertThat(histogram.getCount()).isEqualTo(4);
+        assertThat(histogram.getBucketCount(0)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(1)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(2)).isEqualTo(1);
+        assertThat(histogram.getBucketCount(lastBucket)).isEqualTo(1);
+    }
+
+    @Test
+    public void dump_listsBuckets() {
+        ReportLatencyHistogram histogram = new ReportLatencyHistogram("Test");
+        StringBuilder sb = new StringBuilder();
+        histogram.dump(sb);
+        assertThat(sb.toString()).contains("Test: no reports");
+
+        histogram.add(150 * NANOS_PER_MICRO);
+        sb = new StringBuilder();
+        histogram.dump(sb);
+        assertThat(sb.toString()).contains("Test: 1 reports, avg 150us, max 150us");
+        assertThat(sb.toString()).contains("100-250us");
+        assertThat(sb.toString()).contains(">=20000us");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.Telephony.CanonicalAddressesColumns;
+import android.provider.Telephony.Threads;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapAddressCacheTest {
+    private ThreadsProvider mProvider;
+    private BluetoothMapAddressCache mCache;
+
+    /** Serves two threads, the first one with two recipients, and records the selections. */
+    static class ThreadsProvider extends MockContentProvider {
+        final List<String> mSelections = new ArrayList<String>();
+
+        ThreadsProvider() {
+            super(InstrumentationRegistry.getTargetContext());
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] args,
+                String sortOrder) {
+            mSelections.add(selection);
+            if (uri.getPath().contains("canonical-addresses")) {
+                MatrixCursor c = new MatrixCursor(new String[] {
+                        CanonicalAddressesColumns._ID, CanonicalAddressesColumns.ADDRESS});
+                c.addRow(new Object[] {10L, "5551212"});
+                c.addRow(new Object[] {11L, "5551234"});
+                c.addRow(new Object[] {12L, "5550000"});
+                return c;
+            }
+            MatrixCursor c = new MatrixCursor(
+                    new String[] {BaseColumns._ID, Threads.RECIPIENT_IDS});
+            c.addRow(new Object[] {1L, "10 11"});
+            c.addRow(new Object[] {2L, "12"});
+            return c;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = new ThreadsProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider("mms-sms", mProvider);
+        mCache = new BluetoothMapAddressCache(resolver);
+    }
+
+    @Test
+    public void testPrefetchThreadAddresses_batchesQueries() {
+        mCache.prefetchThreadAddresses(Arrays.asList(1L, 2L, 1L));
+
+        Assert.assertEquals(2, mProvider.mSelections.size());
+        Assert.assertEquals("_id IN (1,2)", mProvider.mSelections.get(0));
+        Assert.assertEquals("5551212;5551234", mCache.getCanonicalAddressSms(1));
+        Assert.assertEquals("5550000", mCache.getCanonicalAddressSms(2));
+        Assert.assertEquals(2, mProvider.mSelections.size());
+        Assert.assertEquals(2, mCache.getHitCount());
+    }
+
+    @Test
+    public void testPrefetchThreadAddresses_skipsCachedThreads() {
+        mCache.prefetchThreadAddresses(Arrays.asList(1L));
+        mCache.prefetchThreadAddresses(Arrays.asList(1L, 2L));
+
+        Assert.assertEquals(4, mProvider.mSelections.size());
+        Assert.assertEquals("_id IN (2)", mProvider.mSelections.get(2));
+    }
+
+    @Test
+    public void testInvalidate_dropsCachedAddresses() {
+        mCache.prefetchThreadAddresses(Arrays.asList(1L));
+        mCache.invalidate();
+        mCache.prefetchThreadAddresses(Arrays.asList(1L));
+
+        Assert.assertEquals(4, mProvider.mSelections.size());
+    }
+}
@@ -21,11 +21,13 @@ import static org.mockito.Mockito.*;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.Looper;
 import android.os.RemoteException;
 import android.os.UserManager;
+import android.provider.BaseColumns;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.Sms;
 import android.telephony.TelephonyManager;
@@ -37,6 +39,7 @@ import androidx.test.filters.MediumTest;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.R;
+import com.android.bluetooth.mapapi.BluetoothMapContract;
 
 import org.junit.Assert;
 import org.junit.Assume;
@@ -187,4 +190,30 @@ public class BluetoothMapContentObserverTest {
         Assert.assertTrue(mockProvider.mContents.contains(TEST_NUMBER_TWO));
     }
 
+    @Test
+    public void testGetMessageId() {
+        Uri base = Uri.parse("content://com.android.email.bluetoothprovider/1");
+        Assert.assertEquals(42, BluetoothMapContentObserver.getMessageId(
+                base.buildUpon().appendPath(BluetoothMapContract.TABLE_MESSAGE)
+                        .appendPath("42").build()));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getMessageId(
+                base.buildUpon().appendPath(BluetoothMapContract.TABLE_MESSAGE).build()));
+        Assert.assertEquals(-1, BluetoothMapContentObserver.getMessageId(
+                base.buildUpon().appendPath(BluetoothMapContract.TABLE_FOLDER)
+                        .appendPath("42").build()));
+    }
+
+    @Test
+    public void testHighWaterMark() {
+        BluetoothMapContentObserver.HighWaterMark mark =
+                new BluetoothMapContentObserver.HighWaterMark(Sms.DATE);
+        MatrixCursor c = new MatrixCursor(new String[] {BaseColumns._ID, Sms.DATE});
+        c.addRow(new Object[] {7L, 2000L});
+        c.addRow(new Object[] {3L, 5000L});
+        while (c.moveToNext()) {
+            mark.update(c);
+        }
+
+        Assert.assertEquals("_id > 7 OR date > 5000", mark.getSelection());
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static org.mockito.Mockito.*;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.mapapi.BluetoothMapContract;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapContentTest {
+    private static final String AUTHORITY = "com.android.bluetooth.map.test";
+    // Only the fields read while merging the listing, the others require a MAS connection
+    private static final long PARAMETER_MASK = 0x00001002; // Datetime and read
+
+    private MessagesProvider mProvider;
+    private BluetoothMapContent mContent;
+    private BluetoothMapFolderElement mFolder;
+
+    /** Serves the email messages added by the test, newest first. */
+    static class MessagesProvider extends MockContentProvider {
+        final MatrixCursor mMessages =
+                new MatrixCursor(BluetoothMapContract.BT_MESSAGE_PROJECTION);
+
+        MessagesProvider() {
+            super(InstrumentationRegistry.getTargetContext());
+        }
+
+        void addMessage(long id, long date, boolean read) {
+            mMessages.newRow()
+                    .add(BluetoothMapContract.MessageColumns._ID, id)
+                    .add(BluetoothMapContract.MessageColumns.DATE, date)
+                    .add(BluetoothMapContract.MessageColumns.FLAG_READ, read ? 1 : 0);
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] args,
+                String sortOrder) {
+            return mMessages;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = new MessagesProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(AUTHORITY, mProvider);
+        Context context = mock(Context.class);
+        doReturn(resolver).when(context).getContentResolver();
+        BluetoothMapAccountItem account = BluetoothMapAccountItem.create("1", "Test", "test",
+                AUTHORITY, null, BluetoothMapUtils.TYPE.EMAIL);
+        mContent = new BluetoothMapContent(context, account, null);
+        mFolder = new BluetoothMapFolderElement("inbox", null);
+        mFolder.setHasEmailContent(true);
+        mFolder.setFolderId(1);
+    }
+
+    @Test
+    public void testMsgListing_unreadMessageSkippedByOffset_hasUnread() {
+        mProvider.addMessage(3, 3000, false);
+        mProvider.addMessage(2, 2000, true);
+        mProvider.addMessage(1, 1000, true);
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mFolder, getAppParams(3, 1));
+
+        Assert.assertEquals(0, listing.getCount());
+        Assert.assertTrue(listing.hasUnread());
+    }
+
+    @Test
+    public void testMsgListing_readMessagesSkippedByOffset_hasNoUnread() {
+        mProvider.addMessage(2, 2000, true);
+        mProvider.addMessage(1, 1000, true);
+
+        BluetoothMapMessageListing listing = mContent.msgListing(mFolder, getAppParams(2, 1));
+
+        Assert.assertEquals(0, listing.getCount());
+        Assert.assertFalse(listing.hasUnread());
+    }
+
+    private static BluetoothMapAppParams getAppParams(int offset, int count) {
+        BluetoothMapAppParams ap = new BluetoothMapAppParams();
+        ap.setParameterMask(PARAMETER_MASK);
+        ap.setStartOffset(offset);
+        ap.setMaxListCount(count);
+        return ap;
+    }
+}
@@ -25,6 +25,10 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BmessageTest {
@@ -57,6 +61,13 @@ public class BmessageTest {
             + "BEGIN:BBODY\r\nLENGTH:-1\r\nBEGIN:MSG\r\nThis is a new msg\r\nEND:MSG\r\n"
             + "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
 
+    private static final String UTF8_MESSAGE_HEADER =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+            + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+            + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\n";
+
+    private static final String MESSAGE_FOOTER = "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+
     @Test
     public void testNormalMessages() {
         Bmessage message = BmessageParser.createBmessage(SIMPLE_MMS_MESSAGE);
@@ -93,4 +104,72 @@ public class BmessageTest {
         Bmessage message = BmessageParser.createBmessage(NEGATIVE_LENGTH_MESSAGE);
         Assert.assertNull(message);
     }
+
+    @Test
+    public void testParseLargeMessageFromStream() {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 2 * 1024 * 1024) {
+            body.append("Line with multi-byte characters \u00e9\u4e2d\ud83d\ude00\r\n");
+        }
+        body.append("End");
+        byte[] bmsg = createUtf8Message(body.toString(),
+                body.toString().getBytes(StandardCharsets.UTF_8).length);
+
+        Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body.toString(), message.getBodyContent());
+        Assert.assertEquals(1, message.getRecipients().size());
+    }
+
+    @Test
+    public void testParseCharLengthMessage() {
+        String body = "H\u00e9llo";
+        byte[] bmsg = createUtf8Message(body, body.length());
+
+        Bmessage message = BmessageParser.createBmessage(new ByteArrayInputStream(bmsg));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body, message.getBodyContent());
+    }
+
+    @Test
+    public void testParseStreamLeavesTrailingData() throws Exception {
+        byte[] bmsg = createUtf8Message("Hi", 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bmsg);
+        out.write(new byte[] {'x', 'y', 'z'});
+
+        Bmessage message =
+                BmessageParser.createBmessage(new ByteArrayInputStream(out.toByteArray()));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals("Hi", message.getBodyContent());
+    }
+
+    @Test
+    public void testTokenizerRejectsTooLongLine() throws Exception {
+        StringBuilder line = new StringBuilder("NAME:");
+        while (line.length() <= BmsgTokenizer.MAX_LINE_LENGTH) {
+            line.append('A');
+        }
+        BmsgTokenizer tokenizer =
+                new BmsgTokenizer(line.append("\r\nVERSION:1.0\r\n").toString());
+
+        Assert.assertNull(tokenizer.next(true));
+    }
+
+    @Test
+    public void testTokenizerSkipsEmptyLines() throws Exception {
+        BmsgTokenizer tokenizer = new BmsgTokenizer("\r\n\r\nVERSION:1.0\r\nFOLDER:a:b");
+
+        Assert.assertEquals(new BmsgTokenizer.Property("VERSION", "1.0"), tokenizer.next());
+        Assert.assertEquals(new BmsgTokenizer.Property("FOLDER", "a:b"), tokenizer.next());
+        Assert.assertNull(tokenizer.next(true));
+    }
+
+    private static byte[] createUtf8Message(String body, int length) {
+        return (UTF8_MESSAGE_HEADER + "LENGTH:" + (length + 22) + "\r\nBEGIN:MSG\r\n" + body
+                + "\r\nEND:MSG\r\n" + MESSAGE_FOOTER).getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.opp;
+
+import android.os.SystemClock;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferPipelineTest {
+    private static final int PACKET_SIZE = 1000;
+
+    @Test
+    public void testForReading_stream() throws Exception {
+        byte[] data = createData(10 * PACKET_SIZE + 123);
+        BluetoothOppTransferPipeline pipeline = BluetoothOppTransferPipeline.forReading(
+                new ByteArrayInputStream(data), data.length, PACKET_SIZE);
+
+        Assert.assertArrayEquals(data, takeAll(pipeline, data.length));
+        Assert.assertFalse(pipeline.isMapped());
+        pipeline.close();
+    }
+
+    @Test
+    public void testForReading_stopsAtLength() throws Exception {
+        byte[] data = createData(3 * PACKET_SIZE);
+        BluetoothOppTransferPipeline pipeline = BluetoothOppTransferPipeline.forReading(
+                new ByteArrayInputStream(data), PACKET_SIZE + 1, PACKET_SIZE);
+
+        byte[] read = takeAll(pipeline, PACKET_SIZE + 1);
+        for (int i = 0; i < read.length; i++) {
+            Assert.assertEquals(data[i], read[i]);
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void testForReading_mappedFile() throws Exception {
+        byte[] data = createData((int) BluetoothOppTransferPipeline.MMAP_THRESHOLD + 123);
+        File file = File.createTempFile("opp", null,
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+        try {
+            try (OutputStream output = new FileOutputStream(file)) {
+                output.write(data);
+            }
+            try (InputStream input = new FileInputStream(file)) {
+                BluetoothOppTransferPipeline pipeline =
+                        BluetoothOppTransferPipeline.forReading(input, data.length, PACKET_SIZE);
+
+                Assert.assertArrayEquals(data, takeAll(pipeline, data.length));
+                Assert.assertTrue(pipeline.isMapped());
+                pipeline.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testForWriting() throws Exception {
+        byte[] data = createData(10 * PACKET_SIZE + 123);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BluetoothOppTransferPipeline pipeline =
+                BluetoothOppTransferPipeline.forWriting(output, PACKET_SIZE);
+
+        submitAll(pipeline, data);
+        pipeline.finish();
+
+        Assert.assertArrayEquals(data, output.toByteArray());
+        pipeline.close();
+    }
+
+    @Test
+    public void testForWriting_reportsWriteError() throws Exception {
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("No space left");
+            }
+        };
+        BluetoothOppTransferPipeline pipeline =
+                BluetoothOppTransferPipeline.forWriting(output, PACKET_SIZE);
+
+        try {
+            submitAll(pipeline, createData(10 * PACKET_SIZE));
+            pipeline.finish();
+            Assert.fail("Write error should be reported");
+        } catch (IOException expected) {
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void testClose_waitsForWriteInProgress() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        AtomicBoolean inWrite = new AtomicBoolean();
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                inWrite.set(true);
+                writing.countDown();
+                // A storage write is not interruptible
+                SystemClock.sleep(200);
+                inWrite.set(false);
+            }
+        };
+        BluetoothOppTransferPipeline pipeline =
+                BluetoothOppTransferPipeline.forWriting(output, PACKET_SIZE);
+        submitAll(pipeline, createData(PACKET_SIZE));
+        Assert.assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+        pipeline.close();
+
+        // The write in progress completed and no other one started
+        Assert.assertFalse(inWrite.get());
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    private static byte[] takeAll(BluetoothOppTransferPipeline pipeline, int length)
+            throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        while (true) {
+            BluetoothOppTransferPipeline.Packet packet = pipeline.take();
+            Assert.assertNotNull(packet);
+            if (packet.mLength < 0) {
+                break;
+            }
+            // Every packet is full, except the last one
+            if (read.size() + packet.mLength < length) {
+                Assert.assertEquals(PACKET_SIZE, packet.mLength);
+            }
+            read.write(packet.mData, 0, packet.mLength);
+            pipeline.release(packet);
+        }
+        return read.toByteArray();
+    }
+
+    private static void submitAll(BluetoothOppTransferPipeline pipeline, byte[] data)
+            throws IOException {
+        int position = 0;
+        while (position < data.length) {
+            BluetoothOppTransferPipeline.Packet packet = pipeline.obtain();
+            int length = Math.min(packet.mData.length, data.length - position);
+            System.arraycopy(data, position, packet.mData, 0, length);
+            packet.mLength = length;
+            pipeline.submit(packet);
+            position += length;
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+}
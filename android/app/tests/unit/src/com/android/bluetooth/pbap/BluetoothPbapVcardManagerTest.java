@@ -333,4 +333,54 @@ public class BluetoothPbapVcardManagerTest {
 
         assertThat(mManager.stripTelephoneNumber(vCard)).isEqualTo(expectedResult);
     }
+
+    @Test
+    public void testVCardFilterApply_removesFilteredOutProperties() {
+        final String separator = System.getProperty("line.separator");
+        // Only the FN bit is set
+        final byte[] filter = new byte[] {0, 0, 0, 0, 0, 0, 0, 0x02};
+        final String vCard = "BEGIN:VCARD" + separator + "VERSION:3.0" + separator
+                + "FN:Alice" + separator + "EMAIL;TYPE=HOME:alice@example.com" + separator
+                + "NOTE:first line" + separator + " continued" + separator
+                + "X-ANDROID-CUSTOM:value" + separator + "TEL:5551212" + separator
+                + "END:VCARD";
+        final String expectedResult = "BEGIN:VCARD" + separator + "VERSION:3.0" + separator
+                + "FN:Alice" + separator + "TEL:5551212" + separator + "END:VCARD" + separator;
+
+        BluetoothPbapVcardManager.VCardFilter vCardFilter =
+                new BluetoothPbapVcardManager.VCardFilter(filter);
+
+        assertThat(vCardFilter.apply(vCard, false)).isEqualTo(expectedResult);
+    }
+
+    @Test
+    public void testVCardFilterApply_returnsSameVCardWhenNothingIsFilteredOut() {
+        final String separator = System.getProperty("line.separator");
+        final byte[] filter = new byte[] {0, 0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF};
+        final String vCard = "BEGIN:VCARD" + separator + "FN:Alice" + separator
+                + "EMAIL:alice@example.com" + separator + "END:VCARD" + separator;
+
+        BluetoothPbapVcardManager.VCardFilter vCardFilter =
+                new BluetoothPbapVcardManager.VCardFilter(filter);
+
+        assertThat(vCardFilter.apply(vCard, false)).isSameInstanceAs(vCard);
+    }
+
+    @Test
+    public void testPropertySelectorCheckVCardSelector() {
+        final String separator = System.getProperty("line.separator");
+        // The TEL and EMAIL bits are set
+        final byte[] selector = new byte[] {0, 0, 0, 0, 0, 0, 0x01, (byte) 0x80};
+        final String vCard = "BEGIN:VCARD" + separator + "N:Doe;John" + separator
+                + "TEL;TYPE=CELL:5551212" + separator + "END:VCARD" + separator;
+
+        BluetoothPbapVcardManager.PropertySelector propertySelector =
+                new BluetoothPbapVcardManager.PropertySelector(selector);
+
+        assertThat(propertySelector.checkVCardSelector(vCard, "0")).isTrue();
+        assertThat(propertySelector.checkVCardSelector(vCard, "1")).isFalse();
+        assertThat(propertySelector.checkVCardSelector(
+                vCard.replace("END:VCARD", "EMAIL:john@example.com" + separator + "END:VCARD"),
+                "1")).isTrue();
+    }
 }
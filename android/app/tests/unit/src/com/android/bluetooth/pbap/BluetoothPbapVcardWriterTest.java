@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothPbapVcardWriterTest {
+
+    @Test
+    public void testWrite_streamsAllVCardsInOrder() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BluetoothPbapVcardWriter writer = new BluetoothPbapVcardWriter(output);
+        StringBuilder expected = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            String vCard = createVCard("Contact \u00e9\u4e2d\ud83d\ude00 " + i, i % 10 == 0);
+            assertThat(writer.write(vCard)).isTrue();
+            expected.append(vCard);
+        }
+
+        assertThat(writer.finish()).isTrue();
+        assertThat(output.toByteArray())
+                .isEqualTo(expected.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWrite_whenOutputFails_returnsFalse() {
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection lost");
+            }
+        };
+        BluetoothPbapVcardWriter writer = new BluetoothPbapVcardWriter(output);
+        String vCard = createVCard("Contact", true);
+
+        boolean written = true;
+        for (int i = 0; i < 10 * BluetoothPbapVcardWriter.BUFFER_COUNT && written; i++) {
+            written = writer.write(vCard);
+        }
+
+        assertThat(written).isFalse();
+        assertThat(writer.finish()).isFalse();
+    }
+
+    @Test
+    public void testClose_whileWriting_stopsWritingToOutput() throws Exception {
+        AtomicInteger writes = new AtomicInteger();
+        CountDownLatch writing = new CountDownLatch(1);
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writes.incrementAndGet();
+                writing.countDown();
+                try {
+                    // Blocks like a remote device which does not read
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        BluetoothPbapVcardWriter writer = new BluetoothPbapVcardWriter(output);
+
+        // Spans two buffers, so that the first one is handed to the output
+        assertThat(writer.write(createVCard("Contact", true))).isTrue();
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        writer.close();
+
+        assertThat(writes.get()).isEqualTo(1);
+        assertThat(writer.write(createVCard("Contact", false))).isFalse();
+        assertThat(writes.get()).isEqualTo(1);
+    }
+
+    private static String createVCard(String name, boolean withPhoto) {
+        StringBuilder vCard = new StringBuilder("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:")
+                .append(name).append("\r\n");
+        if (withPhoto) {
+            // Larger than a buffer, so that the vCard spans several of them
+            vCard.append("PHOTO;ENCODING=b;TYPE=JPEG:");
+            for (int i = 0; i < BluetoothPbapVcardWriter.BUFFER_SIZE / 10; i++) {
+                vCard.append("QUJDREVGR0");
+            }
+            vCard.append("\r\n");
+        }
+        return vCard.append("END:VCARD\r\n").toString();
+    }
+}
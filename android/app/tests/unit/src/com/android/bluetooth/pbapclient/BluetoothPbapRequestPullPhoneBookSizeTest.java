@@ -49,4 +49,35 @@ public class BluetoothPbapRequestPullPhoneBookSizeTest {
             assertWithMessage("Exception should not happen.").fail();
         }
     }
+
+    @Test
+    public void readResponseHeaders_withVersionCounters() {
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PHONEBOOK_SIZE, (short) 10);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_DATABASE_IDENTIFIER, new byte[16]);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, new byte[16]);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_SECONDARY_VERSION_COUNTER, new byte[16]);
+        HeaderSet headerSet = new HeaderSet();
+        oap.addToHeaderSet(headerSet);
+        mRequest.readResponseHeaders(headerSet);
+        String version = mRequest.getVersion();
+
+        byte[] changed = new byte[16];
+        changed[15] = 1;
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, changed);
+        headerSet = new HeaderSet();
+        oap.addToHeaderSet(headerSet);
+        mRequest.readResponseHeaders(headerSet);
+
+        assertThat(mRequest.getSize()).isEqualTo(10);
+        assertThat(version).isNotNull();
+        assertThat(mRequest.getVersion()).isNotEqualTo(version);
+    }
+
+    @Test
+    public void readResponseHeaders_withoutVersionCounters() {
+        mRequest.readResponseHeaders(new HeaderSet());
+
+        assertThat(mRequest.getVersion()).isNull();
+    }
 }
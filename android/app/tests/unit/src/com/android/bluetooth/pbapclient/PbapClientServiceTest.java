@@ -18,7 +18,9 @@ package com.android.bluetooth.pbapclient;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 
+import android.accounts.Account;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 
 import androidx.test.InstrumentationRegistry;
@@ -86,4 +88,21 @@ public class PbapClientServiceTest {
     public void testInitialize() {
         Assert.assertNotNull(PbapClientService.getPbapClientService());
     }
+
+    @Test
+    public void testIsKeptAccount() {
+        BluetoothDevice bonded = mAdapter.getRemoteDevice("00:01:02:03:04:05");
+        String accountType = mTargetContext.getString(R.string.pbap_account_type);
+        Account bondedAccount = new Account(bonded.getAddress(), accountType);
+        Account unbondedAccount = new Account("00:01:02:03:04:06", accountType);
+        doReturn(new BluetoothDevice[] {bonded}).when(mAdapterService).getBondedDevices();
+
+        // Without delta sync, no account survives a disconnection
+        mService.mDeltaSync = false;
+        Assert.assertFalse(mService.isKeptAccount(bondedAccount));
+
+        mService.mDeltaSync = true;
+        Assert.assertTrue(mService.isKeptAccount(bondedAccount));
+        Assert.assertFalse(mService.isKeptAccount(unbondedAccount));
+    }
 }
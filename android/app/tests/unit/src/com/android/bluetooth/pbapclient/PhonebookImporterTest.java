@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.RemoteException;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.vcard.VCardEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookImporterTest {
+
+    private PhonebookPullRequest mProcessor;
+
+    @Before
+    public void setUp() {
+        mProcessor = mock(PhonebookPullRequest.class);
+    }
+
+    @Test
+    public void finish_insertsAllEntriesInOrder() throws Exception {
+        PhonebookImporter importer = new PhonebookImporter(mProcessor, false);
+        int count = 3 * PhonebookImporter.QUEUE_CAPACITY;
+        VCardEntry[] entries = new VCardEntry[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = new VCardEntry();
+            importer.onEntryCreated(entries[i]);
+        }
+
+        assertThat(importer.finish()).isTrue();
+        assertThat(importer.getCount()).isEqualTo(count);
+        InOrder inOrder = Mockito.inOrder(mProcessor);
+        for (VCardEntry entry : entries) {
+            inOrder.verify(mProcessor).addEntry(entry);
+        }
+        inOrder.verify(mProcessor).flush();
+        verify(mProcessor, never()).onFailed();
+    }
+
+    @Test
+    public void finish_whenInsertFails_returnsFalse() throws Exception {
+        doThrow(new RemoteException()).when(mProcessor).addEntry(any());
+        PhonebookImporter importer = new PhonebookImporter(mProcessor, false);
+        int count = 3 * PhonebookImporter.QUEUE_CAPACITY;
+        for (int i = 0; i < count; i++) {
+            importer.onEntryCreated(new VCardEntry());
+        }
+
+        assertThat(importer.finish()).isFalse();
+        verify(mProcessor, times(1)).addEntry(any());
+        verify(mProcessor).onFailed();
+    }
+}
@@ -74,6 +74,21 @@ public class PhonebookPullRequestTest {
         assertThat(mRequest.complete).isTrue();
     }
 
+    @Test
+    public void getFingerprint_dependsOnPathAndData() {
+        String fingerprint =
+                PhonebookPullRequest.getFingerprint(PbapClientConnectionHandler.PB_PATH,
+                        createEntry(2));
+
+        assertThat(PhonebookPullRequest.getFingerprint(PbapClientConnectionHandler.PB_PATH,
+                createEntry(2))).isEqualTo(fingerprint);
+        assertThat(fingerprint).startsWith(PbapClientConnectionHandler.PB_PATH + ":");
+        assertThat(PhonebookPullRequest.getFingerprint(PbapClientConnectionHandler.FAV_PATH,
+                createEntry(2))).isNotEqualTo(fingerprint);
+        assertThat(PhonebookPullRequest.getFingerprint(PbapClientConnectionHandler.PB_PATH,
+                createEntry(3))).isNotEqualTo(fingerprint);
+    }
+
     private VCardProperty createProperty(String name, String value) {
         VCardProperty property = new VCardProperty();
         property.setName(name);
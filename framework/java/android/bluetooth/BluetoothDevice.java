@@ -37,6 +37,7 @@ import android.compat.annotation.UnsupportedAppUsage;
 import android.content.AttributionSource;
 import android.content.Context;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.IpcDataCache;
 import android.os.Parcel;
@@ -53,7 +54,6 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
@@ -1476,28 +1476,26 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public String getName() {
         if (DBG) log("getName()");
-        final IBluetooth service = getService();
-        final String defaultValue = null;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "BT not enabled. Cannot get Remote Device name");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<String> recv = SynchronousResultReceiver.get();
-                service.getRemoteName(this, mAttributionSource, recv);
-                String name = recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
-                if (name != null) {
-                    // remove whitespace characters from the name
-                    return name
-                        .replace('\t', ' ')
-                        .replace('\n', ' ')
-                        .replace('\r', ' ');
-                }
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getName(getDeviceProperties());
+    }
+
+    /** Returns the name in the given device properties, null if they could not be fetched */
+    /* package */ static String getName(@Nullable Bundle properties) {
+        if (properties == null) {
+            return null;
         }
-        return defaultValue;
+        return removeWhitespaces(properties.getString(DEVICE_PROPERTY_NAME));
+    }
+
+    /** Replaces the tab and new line characters of a name by spaces */
+    private static String removeWhitespaces(String name) {
+        if (name == null) {
+            return null;
+        }
+        return name
+                .replace('\t', ' ')
+                .replace('\n', ' ')
+                .replace('\r', ' ');
     }
 
     /**
@@ -1511,21 +1509,15 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public int getType() {
         if (DBG) log("getType()");
-        final IBluetooth service = getService();
-        final int defaultValue = DEVICE_TYPE_UNKNOWN;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "BT not enabled. Cannot get Remote Device type");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
-                service.getRemoteType(this, mAttributionSource, recv);
-                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getType(getDeviceProperties());
+    }
+
+    /** Returns the type in the given device properties, unknown if they could not be fetched */
+    /* package */ static int getType(@Nullable Bundle properties) {
+        if (properties == null) {
+            return DEVICE_TYPE_UNKNOWN;
         }
-        return defaultValue;
+        return properties.getInt(DEVICE_PROPERTY_TYPE, DEVICE_TYPE_UNKNOWN);
     }
 
     /**
@@ -1540,28 +1532,19 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public String getAlias() {
         if (DBG) log("getAlias()");
-        final IBluetooth service = getService();
-        final String defaultValue = null;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "BT not enabled. Cannot get Remote Device Alias");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<String> recv = SynchronousResultReceiver.get();
-                service.getRemoteAliasWithAttribution(this, mAttributionSource, recv);
-                String alias = recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
-                if (alias == null) {
-                    return getName();
-                }
-                return alias
-                        .replace('\t', ' ')
-                        .replace('\n', ' ')
-                        .replace('\r', ' ');
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getAlias(getDeviceProperties());
+    }
+
+    /** Returns the alias in the given device properties, or the name if there is no alias */
+    /* package */ static String getAlias(@Nullable Bundle properties) {
+        if (properties == null) {
+            return null;
         }
-        return defaultValue;
+        String alias = properties.getString(DEVICE_PROPERTY_ALIAS);
+        if (alias == null) {
+            return removeWhitespaces(properties.getString(DEVICE_PROPERTY_NAME));
+        }
+        return removeWhitespaces(alias);
     }
 
     /** @hide */
@@ -1635,21 +1618,18 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public @IntRange(from = -100, to = 100) int getBatteryLevel() {
         if (DBG) log("getBatteryLevel()");
-        final IBluetooth service = getService();
-        final int defaultValue = BATTERY_LEVEL_BLUETOOTH_OFF;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "Bluetooth disabled. Cannot get remote device battery level");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
-                service.getBatteryLevel(this, mAttributionSource, recv);
-                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getBatteryLevel(getDeviceProperties(), isBluetoothEnabled());
+    }
+
+    /**
+     * Returns the battery level in the given device properties. When they could not be fetched,
+     * the level depends on whether Bluetooth is enabled.
+     */
+    /* package */ static int getBatteryLevel(@Nullable Bundle properties, boolean enabled) {
+        if (properties == null) {
+            return enabled ? BATTERY_LEVEL_UNKNOWN : BATTERY_LEVEL_BLUETOOTH_OFF;
         }
-        return defaultValue;
+        return properties.getInt(DEVICE_PROPERTY_BATTERY_LEVEL, BATTERY_LEVEL_UNKNOWN);
     }
 
     /**
@@ -1898,6 +1878,104 @@ public final class BluetoothDevice implements Parcelable, Attributable {
         invalidateCache(GET_BOND_STATE_API);
     }
 
+    /**
+     * Keys of the remote device properties which the Bluetooth service returns together, so that
+     * the getters of a device only need one call to the service.
+     *
+     * @hide
+     */
+    public static final String DEVICE_PROPERTY_NAME = "name";
+    /** @hide */
+    public static final String DEVICE_PROPERTY_ALIAS = "alias";
+    /** @hide */
+    public static final String DEVICE_PROPERTY_TYPE = "type";
+    /** @hide */
+    public static final String DEVICE_PROPERTY_CLASS = "class";
+    /** @hide */
+    public static final String DEVICE_PROPERTY_UUIDS = "uuids";
+    /** @hide */
+    public static final String DEVICE_PROPERTY_BATTERY_LEVEL = "batteryLevel";
+
+    private static final IpcDataCache.QueryHandler<Pair<IBluetooth, BluetoothDevice>, Bundle>
+            sBluetoothDevicePropertiesQuery = new IpcDataCache.QueryHandler<>() {
+                @RequiresLegacyBluetoothPermission
+                @RequiresBluetoothConnectPermission
+                @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+                @Override
+                public Bundle apply(Pair<IBluetooth, BluetoothDevice> pairQuery) {
+                    if (DBG) {
+                        log("getDeviceProperties(" + pairQuery.second.getAnonymizedAddress()
+                                + ") uncached");
+                    }
+                    try {
+                        final SynchronousResultReceiver<Bundle> recv =
+                                SynchronousResultReceiver.get();
+                        pairQuery.first.getRemoteDeviceProperties(pairQuery.second,
+                                pairQuery.second.mAttributionSource, recv);
+                        return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    } catch (RemoteException | TimeoutException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+    private static final String GET_DEVICE_PROPERTIES_API = "BluetoothDevice_getDeviceProperties";
+
+    /**
+     * Device lists read the properties of many devices at once, so unlike the other caches this
+     * one is shared by all the BluetoothDevice objects of the process and keeps more entries.
+     */
+    private static final int DEVICE_PROPERTIES_CACHE_SIZE = 256;
+
+    private static final IpcDataCache<Pair<IBluetooth, BluetoothDevice>, Bundle>
+            sBluetoothDevicePropertiesCache = new IpcDataCache<>(DEVICE_PROPERTIES_CACHE_SIZE,
+                    IpcDataCache.MODULE_BLUETOOTH, GET_DEVICE_PROPERTIES_API,
+                    GET_DEVICE_PROPERTIES_API, sBluetoothDevicePropertiesQuery);
+
+    /** @hide */
+    public static void disableBluetoothGetDevicePropertiesCache() {
+        sBluetoothDevicePropertiesCache.disableForCurrentProcess();
+    }
+
+    /**
+     * Invalidate the cached properties of the remote devices, must be called whenever the name,
+     * alias, type, class, UUIDs or battery level of a remote device change.
+     *
+     * @hide
+     */
+    public static void invalidateBluetoothGetDevicePropertiesCache() {
+        invalidateCache(GET_DEVICE_PROPERTIES_API);
+    }
+
+    /**
+     * Returns the properties of this remote device, read in a single call to the Bluetooth
+     * service and cached until they change.
+     *
+     * @return the properties, or null if Bluetooth is off or they could not be read
+     */
+    @RequiresLegacyBluetoothPermission
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    private @Nullable Bundle getDeviceProperties() {
+        final IBluetooth service = getService();
+        if (service == null || !isBluetoothEnabled()) {
+            Log.e(TAG, "BT not enabled. Cannot get remote device properties");
+            if (DBG) log(Log.getStackTraceString(new Throwable()));
+            return null;
+        }
+        try {
+            return sBluetoothDevicePropertiesCache.query(
+                    new Pair<>(service, BluetoothDevice.this));
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof TimeoutException)
+                    && !(e.getCause() instanceof RemoteException)) {
+                throw e;
+            }
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+        }
+        return null;
+    }
+
     /**
      * Get the bond state of the remote device.
      * <p>Possible values for the bond state are:
@@ -2140,23 +2218,17 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public BluetoothClass getBluetoothClass() {
         if (DBG) log("getBluetoothClass()");
-        final IBluetooth service = getService();
-        final int defaultValue = 0;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "BT not enabled. Cannot get Bluetooth Class");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
-                service.getRemoteClass(this, mAttributionSource, recv);
-                int classInt = recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
-                if (classInt == BluetoothClass.ERROR) return null;
-                return new BluetoothClass(classInt);
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getBluetoothClass(getDeviceProperties());
+    }
+
+    /** Returns the class in the given device properties, null if it is not valid */
+    /* package */ static BluetoothClass getBluetoothClass(@Nullable Bundle properties) {
+        if (properties == null) {
+            return null;
         }
-        return null;
+        int classInt = properties.getInt(DEVICE_PROPERTY_CLASS, 0);
+        if (classInt == BluetoothClass.ERROR) return null;
+        return new BluetoothClass(classInt);
     }
 
     /**
@@ -2174,24 +2246,18 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     public ParcelUuid[] getUuids() {
         if (DBG) log("getUuids()");
-        final IBluetooth service = getService();
-        final ParcelUuid[] defaultValue = null;
-        if (service == null || !isBluetoothEnabled()) {
-            Log.e(TAG, "BT not enabled. Cannot get remote device Uuids");
-            if (DBG) log(Log.getStackTraceString(new Throwable()));
-        } else {
-            try {
-                final SynchronousResultReceiver<List<ParcelUuid>> recv =
-                        SynchronousResultReceiver.get();
-                service.getRemoteUuids(this, mAttributionSource, recv);
-                List<ParcelUuid> parcels = recv.awaitResultNoInterrupt(getSyncTimeout())
-                        .getValue(null);
-                return parcels != null ? parcels.toArray(new ParcelUuid[parcels.size()]) : null;
-            } catch (RemoteException | TimeoutException e) {
-                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
-            }
+        return getUuids(getDeviceProperties());
+    }
+
+    /** Returns a copy of the UUIDs in the given device properties */
+    /* package */ static ParcelUuid[] getUuids(@Nullable Bundle properties) {
+        if (properties == null) {
+            return null;
         }
-        return defaultValue;
+        ParcelUuid[] uuids = properties.getParcelableArray(DEVICE_PROPERTY_UUIDS,
+                ParcelUuid.class);
+        // The cached properties are shared, do not let the caller modify them
+        return uuids != null ? uuids.clone() : null;
     }
 
     /**
@@ -20,6 +20,7 @@ import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
 import android.annotation.IntDef;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.RequiresNoPermission;
 import android.annotation.RequiresPermission;
 import android.annotation.SuppressLint;
@@ -32,12 +33,14 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -82,6 +85,12 @@ public final class BluetoothGatt implements BluetoothProfile {
     private boolean mOpportunistic;
     private final AttributionSource mAttributionSource;
 
+    // Operations queued through the enqueue methods, guarded by mDeviceBusyLock
+    private final ArrayDeque<GattOperation> mPendingOperations = new ArrayDeque<>();
+    private GattOperation mCurrentOperation;
+    private long mCompletedOperationCount;
+    private long mTotalOperationLatencyMillis;
+
     private static final int AUTH_RETRY_STATE_IDLE = 0;
     private static final int AUTH_RETRY_STATE_NO_MITM = 1;
     private static final int AUTH_RETRY_STATE_MITM = 2;
@@ -95,6 +104,13 @@ public final class BluetoothGatt implements BluetoothProfile {
     private static final int WRITE_CHARACTERISTIC_MAX_RETRIES = 5;
     private static final int WRITE_CHARACTERISTIC_TIME_TO_WAIT = 10; // milliseconds
 
+    /* package */ static final int MAX_PENDING_OPERATIONS = 1024;
+
+    private static final int OPERATION_READ_CHARACTERISTIC = 0;
+    private static final int OPERATION_WRITE_CHARACTERISTIC = 1;
+    private static final int OPERATION_READ_DESCRIPTOR = 2;
+    private static final int OPERATION_WRITE_DESCRIPTOR = 3;
+
     private List<BluetoothGattService> mServices;
 
     /** A GATT operation completed successfully */
@@ -170,6 +186,47 @@ public final class BluetoothGatt implements BluetoothProfile {
      */
     /*package*/ static final int AUTHENTICATION_MITM = 2;
 
+    /**
+     * Callback reporting the result of an operation queued with one of the enqueue methods, such
+     * as {@link BluetoothGatt#enqueueWriteCharacteristic}.
+     *
+     * <p>It is invoked on the {@link Handler} of this client, after the matching
+     * {@link BluetoothGattCallback} method, or with {@link #GATT_FAILURE} if the operation could
+     * not be started or the connection was lost before it completed.
+     */
+    public abstract static class OperationCallback {
+        /**
+         * Called when a queued operation has completed.
+         *
+         * @param gatt GATT client the operation was queued on
+         * @param status {@link #GATT_SUCCESS} if the operation succeeded
+         * @param value value read from the remote device, or {@code null} for write operations
+         * and failures
+         */
+        public void onOperationCompleted(@NonNull BluetoothGatt gatt, int status,
+                @Nullable byte[] value) {
+        }
+    }
+
+    /** A read or write queued on this client, waiting for the previous one to complete */
+    private static final class GattOperation {
+        final int mType;
+        final int mHandle;
+        final byte[] mValue;
+        final int mWriteType;
+        final OperationCallback mCallback;
+        final long mEnqueueTime = SystemClock.elapsedRealtime();
+
+        GattOperation(int type, int handle, byte[] value, int writeType,
+                OperationCallback callback) {
+            mType = type;
+            mHandle = handle;
+            mValue = value;
+            mWriteType = writeType;
+            mCallback = callback;
+        }
+    }
+
     /**
      * Bluetooth GATT callbacks. Overrides the default BluetoothGattCallback implementation.
      */
@@ -313,6 +370,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                     synchronized (mDeviceBusyLock) {
                         mDeviceBusy = false;
                     }
+
+                    if (connected) {
+                        dispatchNextOperation();
+                    } else {
+                        failOperations();
+                    }
                 }
 
                 /**
@@ -413,6 +476,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             handle);
                     if (characteristic == null) {
                         Log.w(TAG, "onCharacteristicRead() failed to find characteristic!");
+                        onOperationComplete(OPERATION_READ_CHARACTERISTIC, handle, status, value);
                         return;
                     }
 
@@ -427,6 +491,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     });
+                    onOperationComplete(OPERATION_READ_CHARACTERISTIC, handle, status, value);
                 }
 
                 /**
@@ -453,7 +518,10 @@ public final class BluetoothGatt implements BluetoothProfile {
 
                     BluetoothGattCharacteristic characteristic = getCharacteristicById(mDevice,
                             handle);
-                    if (characteristic == null) return;
+                    if (characteristic == null) {
+                        onOperationComplete(OPERATION_WRITE_CHARACTERISTIC, handle, status, null);
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -461,24 +529,8 @@ public final class BluetoothGatt implements BluetoothProfile {
                         try {
                             final int authReq = (mAuthRetryState == AUTH_RETRY_STATE_IDLE)
                                     ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
-                            int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
-                            for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
-                                final SynchronousResultReceiver<Integer> recv =
-                                        SynchronousResultReceiver.get();
-                                mService.writeCharacteristic(mClientIf, address, handle,
-                                        characteristic.getWriteType(), authReq, value,
-                                        mAttributionSource, recv);
-                                requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
-                                    .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
-                                if (requestStatus
-                                        != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
-                                    break;
-                                }
-                                try {
-                                    Thread.sleep(WRITE_CHARACTERISTIC_TIME_TO_WAIT);
-                                } catch (InterruptedException e) {
-                                }
-                            }
+                            sendWriteCharacteristic(address, handle,
+                                    characteristic.getWriteType(), authReq, value);
                             mAuthRetryState++;
                             return;
                         } catch (RemoteException | TimeoutException e) {
@@ -497,6 +549,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     });
+                    onOperationComplete(OPERATION_WRITE_CHARACTERISTIC, handle, status, null);
                 }
 
                 /**
@@ -550,8 +603,10 @@ public final class BluetoothGatt implements BluetoothProfile {
                     }
 
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
-
+                    if (descriptor == null) {
+                        onOperationComplete(OPERATION_READ_DESCRIPTOR, handle, status, value);
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -583,6 +638,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     });
+                    onOperationComplete(OPERATION_READ_DESCRIPTOR, handle, status, value);
                 }
 
                 /**
@@ -607,7 +663,10 @@ public final class BluetoothGatt implements BluetoothProfile {
                     }
 
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
+                    if (descriptor == null) {
+                        onOperationComplete(OPERATION_WRITE_DESCRIPTOR, handle, status, null);
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
@@ -637,6 +696,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     });
+                    onOperationComplete(OPERATION_WRITE_DESCRIPTOR, handle, status, null);
                 }
 
                 /**
@@ -666,6 +726,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     });
+                    dispatchNextOperation();
                 }
 
                 /**
@@ -799,6 +860,10 @@ public final class BluetoothGatt implements BluetoothProfile {
         unregisterApp();
         mConnState = CONN_STATE_CLOSED;
         mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+        synchronized (mDeviceBusyLock) {
+            mPendingOperations.clear();
+            mCurrentOperation = null;
+        }
     }
 
     /**
@@ -1249,9 +1314,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
             return false;
         }
 
@@ -1289,9 +1352,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
             return false;
         }
 
@@ -1390,33 +1451,20 @@ public final class BluetoothGatt implements BluetoothProfile {
 
         int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
         try {
-            for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
-                final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
-                mService.writeCharacteristic(mClientIf, device.getAddress(),
-                        characteristic.getInstanceId(), writeType, AUTHENTICATION_NONE, value,
-                        mAttributionSource, recv);
-                requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
-                    .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
-                if (requestStatus != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
-                    break;
-                }
-                try {
-                    Thread.sleep(WRITE_CHARACTERISTIC_TIME_TO_WAIT);
-                } catch (InterruptedException e) {
-                }
-            }
+            requestStatus = sendWriteCharacteristic(device.getAddress(),
+                    characteristic.getInstanceId(), writeType, AUTHENTICATION_NONE, value);
         } catch (TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
         } catch (RemoteException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
             throw e.rethrowFromSystemServer();
         }
+        if (requestStatus != BluetoothStatusCodes.SUCCESS) {
+            // No callback will complete the request
+            onRequestFailed();
+        }
 
         return requestStatus;
     }
@@ -1459,9 +1507,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
             return false;
         }
 
@@ -1546,21 +1592,341 @@ public final class BluetoothGatt implements BluetoothProfile {
             mService.writeDescriptor(mClientIf, device.getAddress(),
                     descriptor.getInstanceId(), AUTHENTICATION_NONE, value, mAttributionSource,
                     recv);
-            return recv.awaitResultNoInterrupt(getSyncTimeout())
+            int requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
                 .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+            if (requestStatus != BluetoothStatusCodes.SUCCESS) {
+                // No callback will complete the request
+                onRequestFailed();
+            }
+            return requestStatus;
         } catch (TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
         } catch (RemoteException e) {
             Log.e(TAG, "", e);
+            onRequestFailed();
+            e.rethrowFromSystemServer();
+        }
+        return BluetoothStatusCodes.ERROR_UNKNOWN;
+    }
+
+    /**
+     * Queues a read of the given characteristic from the associated remote device.
+     *
+     * <p>Unlike {@link #readCharacteristic}, this does not fail while another operation is in
+     * progress: queued operations are sent one after the other, each as soon as the previous
+     * one has completed. The result is reported by the
+     * {@link BluetoothGattCallback#onCharacteristicRead(BluetoothGatt,
+     * BluetoothGattCharacteristic, byte[], int)} callback, then by the given
+     * {@link OperationCallback}.
+     *
+     * @param characteristic Characteristic to read from the remote device
+     * @param callback callback invoked once the read has completed, or null
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the read was queued
+     * @throws IllegalArgumentException if characteristic is null
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public int enqueueReadCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
+            @Nullable OperationCallback callback) {
+        if (characteristic == null) {
+            throw new IllegalArgumentException("characteristic must not be null");
+        }
+        if (VDBG) Log.d(TAG, "enqueueReadCharacteristic() - uuid: " + characteristic.getUuid());
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+            return BluetoothStatusCodes.ERROR_UNKNOWN;
+        }
+        return enqueueOperation(new GattOperation(OPERATION_READ_CHARACTERISTIC,
+                characteristic.getInstanceId(), null, 0, callback));
+    }
+
+    /**
+     * Queues a write of the given value to a characteristic of the associated remote device.
+     *
+     * <p>Unlike {@link #writeCharacteristic(BluetoothGattCharacteristic, byte[], int)}, this
+     * does not fail with {@link BluetoothStatusCodes#ERROR_GATT_WRITE_REQUEST_BUSY} while
+     * another operation is in progress: queued operations are sent one after the other, each as
+     * soon as the previous one has completed. Writes without response complete as soon as the
+     * stack has room to send them, so a stream of them is paced by the link rather than by
+     * the application. The result is reported by the
+     * {@link BluetoothGattCallback#onCharacteristicWrite} callback, then by the given
+     * {@link OperationCallback}.
+     *
+     * @param characteristic Characteristic to write on the remote device
+     * @param value value to write, copied when queued
+     * @param writeType write type of the operation
+     * @param callback callback invoked once the write has completed, or null
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the write was queued
+     * @throws IllegalArgumentException if characteristic or value are null
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    @WriteOperationReturnValues
+    public int enqueueWriteCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
+            @NonNull byte[] value, @WriteType int writeType,
+            @Nullable OperationCallback callback) {
+        if (characteristic == null) {
+            throw new IllegalArgumentException("characteristic must not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        if (VDBG) Log.d(TAG, "enqueueWriteCharacteristic() - uuid: " + characteristic.getUuid());
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE) == 0
+                && (characteristic.getProperties()
+                & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) == 0) {
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_NOT_ALLOWED;
+        }
+        return enqueueOperation(new GattOperation(OPERATION_WRITE_CHARACTERISTIC,
+                characteristic.getInstanceId(), value.clone(), writeType, callback));
+    }
+
+    /**
+     * Queues a read of the given descriptor from the associated remote device.
+     *
+     * <p>The result is reported by the {@link BluetoothGattCallback#onDescriptorRead} callback,
+     * then by the given {@link OperationCallback}.
+     *
+     * @param descriptor Descriptor to read from the remote device
+     * @param callback callback invoked once the read has completed, or null
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the read was queued
+     * @throws IllegalArgumentException if descriptor is null
+     * @see #enqueueReadCharacteristic
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public int enqueueReadDescriptor(@NonNull BluetoothGattDescriptor descriptor,
+            @Nullable OperationCallback callback) {
+        if (descriptor == null) {
+            throw new IllegalArgumentException("descriptor must not be null");
+        }
+        if (VDBG) Log.d(TAG, "enqueueReadDescriptor() - uuid: " + descriptor.getUuid());
+        return enqueueOperation(new GattOperation(OPERATION_READ_DESCRIPTOR,
+                descriptor.getInstanceId(), null, 0, callback));
+    }
+
+    /**
+     * Queues a write of the given value to a descriptor of the associated remote device.
+     *
+     * <p>The result is reported by the {@link BluetoothGattCallback#onDescriptorWrite}
+     * callback, then by the given {@link OperationCallback}.
+     *
+     * @param descriptor Descriptor to write to the associated remote device
+     * @param value value to write, copied when queued
+     * @param callback callback invoked once the write has completed, or null
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the write was queued
+     * @throws IllegalArgumentException if descriptor or value are null
+     * @see #enqueueWriteCharacteristic
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    @WriteOperationReturnValues
+    public int enqueueWriteDescriptor(@NonNull BluetoothGattDescriptor descriptor,
+            @NonNull byte[] value, @Nullable OperationCallback callback) {
+        if (descriptor == null) {
+            throw new IllegalArgumentException("descriptor must not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        if (VDBG) Log.d(TAG, "enqueueWriteDescriptor() - uuid: " + descriptor.getUuid());
+        return enqueueOperation(new GattOperation(OPERATION_WRITE_DESCRIPTOR,
+                descriptor.getInstanceId(), value.clone(), 0, callback));
+    }
+
+    /**
+     * Returns the number of operations queued with the enqueue methods which have not completed
+     * yet, including the one in progress.
+     */
+    @RequiresNoPermission
+    public int getQueuedOperationCount() {
+        synchronized (mDeviceBusyLock) {
+            return mPendingOperations.size() + (mCurrentOperation != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * Returns the average time, in milliseconds, between queuing an operation with one of the
+     * enqueue methods and its completion, over all the operations completed by this client, or
+     * 0 if none has completed yet.
+     */
+    @RequiresNoPermission
+    public long getAverageOperationLatencyMillis() {
+        synchronized (mDeviceBusyLock) {
+            if (mCompletedOperationCount == 0) return 0;
+            return mTotalOperationLatencyMillis / mCompletedOperationCount;
+        }
+    }
+
+    /**
+     * Clears the busy state after a request failed to start, so that the next queued operation
+     * is sent.
+     */
+    private void onRequestFailed() {
+        synchronized (mDeviceBusyLock) {
+            mDeviceBusy = false;
+        }
+        dispatchNextOperation();
+    }
+
+    private int enqueueOperation(GattOperation operation) {
+        if (mService == null || mClientIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+        synchronized (mDeviceBusyLock) {
+            if (mPendingOperations.size() >= MAX_PENDING_OPERATIONS) {
+                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+            }
+            mPendingOperations.add(operation);
+        }
+        dispatchNextOperation();
+        return BluetoothStatusCodes.SUCCESS;
+    }
+
+    /**
+     * Sends the next queued operation, unless an operation is already in progress. Operations
+     * which cannot be started are completed with {@link #GATT_FAILURE}.
+     */
+    private void dispatchNextOperation() {
+        while (true) {
+            GattOperation operation;
+            synchronized (mDeviceBusyLock) {
+                if (mDeviceBusy || mCurrentOperation != null) return;
+                operation = mPendingOperations.poll();
+                if (operation == null) return;
+                mDeviceBusy = true;
+                mCurrentOperation = operation;
+            }
+
+            if (startOperation(operation) == BluetoothStatusCodes.SUCCESS) return;
+
             synchronized (mDeviceBusyLock) {
+                if (mCurrentOperation != operation) return;
+                mCurrentOperation = null;
                 mDeviceBusy = false;
             }
-            e.rethrowFromSystemServer();
+            finishOperation(operation, GATT_FAILURE, null);
+        }
+    }
+
+    private int startOperation(GattOperation operation) {
+        if (mService == null || mClientIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+        final String address = mDevice.getAddress();
+        try {
+            switch (operation.mType) {
+                case OPERATION_READ_CHARACTERISTIC: {
+                    final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+                    mService.readCharacteristic(mClientIf, address, operation.mHandle,
+                            AUTHENTICATION_NONE, mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    return BluetoothStatusCodes.SUCCESS;
+                }
+                case OPERATION_WRITE_CHARACTERISTIC:
+                    return sendWriteCharacteristic(address, operation.mHandle,
+                            operation.mWriteType, AUTHENTICATION_NONE, operation.mValue);
+                case OPERATION_READ_DESCRIPTOR: {
+                    final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+                    mService.readDescriptor(mClientIf, address, operation.mHandle,
+                            AUTHENTICATION_NONE, mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    return BluetoothStatusCodes.SUCCESS;
+                }
+                case OPERATION_WRITE_DESCRIPTOR: {
+                    final SynchronousResultReceiver<Integer> recv =
+                            SynchronousResultReceiver.get();
+                    mService.writeDescriptor(mClientIf, address, operation.mHandle,
+                            AUTHENTICATION_NONE, operation.mValue, mAttributionSource, recv);
+                    return recv.awaitResultNoInterrupt(getSyncTimeout())
+                        .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+                }
+                default:
+                    return BluetoothStatusCodes.ERROR_UNKNOWN;
+            }
+        } catch (RemoteException | TimeoutException e) {
+            Log.e(TAG, "", e);
+            return BluetoothStatusCodes.ERROR_UNKNOWN;
         }
-        return BluetoothStatusCodes.ERROR_UNKNOWN;
+    }
+
+    /**
+     * Completes the operation in progress if it matches the given type and handle, and sends
+     * the next queued one.
+     */
+    private void onOperationComplete(int type, int handle, int status, byte[] value) {
+        GattOperation operation = null;
+        synchronized (mDeviceBusyLock) {
+            if (mCurrentOperation != null && mCurrentOperation.mType == type
+                    && mCurrentOperation.mHandle == handle) {
+                operation = mCurrentOperation;
+                mCurrentOperation = null;
+            }
+        }
+        if (operation != null) {
+            finishOperation(operation, status, status == GATT_SUCCESS ? value : null);
+        }
+        dispatchNextOperation();
+    }
+
+    /** Fails the operation in progress and all the queued ones, e.g. on disconnection. */
+    private void failOperations() {
+        List<GattOperation> operations = new ArrayList<>();
+        synchronized (mDeviceBusyLock) {
+            if (mCurrentOperation != null) {
+                operations.add(mCurrentOperation);
+                mCurrentOperation = null;
+            }
+            operations.addAll(mPendingOperations);
+            mPendingOperations.clear();
+        }
+        for (GattOperation operation : operations) {
+            finishOperation(operation, GATT_FAILURE, null);
+        }
+    }
+
+    private void finishOperation(GattOperation operation, int status, byte[] value) {
+        final long latency = SystemClock.elapsedRealtime() - operation.mEnqueueTime;
+        synchronized (mDeviceBusyLock) {
+            mCompletedOperationCount++;
+            mTotalOperationLatencyMillis += latency;
+        }
+        if (VDBG) {
+            Log.d(TAG, "finishOperation() - handle=" + operation.mHandle + " status=" + status
+                    + " latency=" + latency + "ms");
+        }
+        final OperationCallback callback = operation.mCallback;
+        if (callback == null) return;
+        runOrQueueCallback(new Runnable() {
+            @Override
+            public void run() {
+                callback.onOperationCompleted(BluetoothGatt.this, status, value);
+            }
+        });
+    }
+
+    /**
+     * Sends a characteristic write to the service, retrying while the service reports it is
+     * busy with a write from another client.
+     */
+    private int sendWriteCharacteristic(String address, int handle, int writeType, int authReq,
+            byte[] value) throws RemoteException, TimeoutException {
+        int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
+        for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
+            final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
+            mService.writeCharacteristic(mClientIf, address, handle, writeType, authReq, value,
+                    mAttributionSource, recv);
+            requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
+                .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+            if (requestStatus != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                break;
+            }
+            try {
+                Thread.sleep(WRITE_CHARACTERISTIC_TIME_TO_WAIT);
+            } catch (InterruptedException e) {
+            }
+        }
+        return requestStatus;
     }
 
     /**
@@ -1630,9 +1996,7 @@ public final class BluetoothGatt implements BluetoothProfile {
             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
         } catch (RemoteException | TimeoutException e) {
             Log.e(TAG, "", e);
-            synchronized (mDeviceBusyLock) {
-                mDeviceBusy = false;
-            }
+            onRequestFailed();
             return false;
         }
 
@@ -19,6 +19,7 @@ package android.bluetooth;
 import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
 import android.Manifest;
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
 import android.annotation.RequiresPermission;
 import android.annotation.SdkConstant;
@@ -37,7 +38,11 @@ import android.util.Log;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 
@@ -241,6 +246,76 @@ public final class BluetoothHidHost implements BluetoothProfile {
     public static final String EXTRA_IDLE_TIME =
             "android.bluetooth.BluetoothHidHost.extra.IDLE_TIME";
 
+    /**
+     * Callback for the reports received from the connected HID input devices.
+     *
+     * <p>The reports are delivered as raw bytes over binder, instead of through the
+     * {@link #ACTION_REPORT} broadcast.
+     *
+     * @hide
+     */
+    public interface ReportCallback {
+        /**
+         * Called when a report is received from a HID input device.
+         *
+         * @param device remote device which sent the report
+         * @param report the report, as received from the device
+         * @hide
+         */
+        void onReport(@NonNull BluetoothDevice device, @NonNull byte[] report);
+    }
+
+    private final Map<ReportCallback, Executor> mReportCallbackExecutorMap = new HashMap<>();
+
+    @SuppressLint("AndroidFrameworkBluetoothPermission")
+    private final IBluetoothHidHostReportCallback mReportCallback =
+            new IBluetoothHidHostReportCallback.Stub() {
+        @Override
+        public void onReport(@NonNull BluetoothDevice device, @NonNull byte[] report) {
+            Attributable.setAttributionSource(device, mAttributionSource);
+            synchronized (mReportCallbackExecutorMap) {
+                for (Map.Entry<ReportCallback, Executor> callbackExecutorEntry :
+                        mReportCallbackExecutorMap.entrySet()) {
+                    ReportCallback callback = callbackExecutorEntry.getKey();
+                    Executor executor = callbackExecutorEntry.getValue();
+                    executor.execute(() -> callback.onReport(device, report));
+                }
+            }
+        }
+    };
+
+    @SuppressLint("AndroidFrameworkBluetoothPermission")
+    private final IBluetoothStateChangeCallback mBluetoothStateChangeCallback =
+            new IBluetoothStateChangeCallback.Stub() {
+                public void onBluetoothStateChange(boolean up) {
+                    if (DBG) Log.d(TAG, "onBluetoothStateChange: up=" + up);
+                    if (!up) {
+                        return;
+                    }
+                    // re-register the service-to-app callback
+                    synchronized (mReportCallbackExecutorMap) {
+                        if (!mReportCallbackExecutorMap.isEmpty()) {
+                            try {
+                                final IBluetoothHidHost service = getService();
+                                if (service != null) {
+                                    final SynchronousResultReceiver<Integer> recv =
+                                            SynchronousResultReceiver.get();
+                                    service.registerReportCallback(mReportCallback,
+                                            mAttributionSource, recv);
+                                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                                }
+                            } catch (RemoteException e) {
+                                Log.e(TAG, "onBluetoothServiceUp: Failed to register "
+                                        + "HID host report callback", e);
+                            } catch (TimeoutException e) {
+                                Log.e(TAG, e.toString() + "\n"
+                                        + Log.getStackTraceString(new Throwable()));
+                            }
+                        }
+                    }
+                }
+            };
+
     private final BluetoothAdapter mAdapter;
     private final AttributionSource mAttributionSource;
     private final BluetoothProfileConnector<IBluetoothHidHost> mProfileConnector =
@@ -261,10 +336,28 @@ public final class BluetoothHidHost implements BluetoothProfile {
         mAdapter = adapter;
         mAttributionSource = adapter.getAttributionSource();
         mProfileConnector.connect(context, listener);
+
+        IBluetoothManager mgr = mAdapter.getBluetoothManager();
+        if (mgr != null) {
+            try {
+                mgr.registerStateChangeCallback(mBluetoothStateChangeCallback);
+            } catch (RemoteException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
     }
 
     /*package*/ void close() {
         if (VDBG) log("close()");
+
+        IBluetoothManager mgr = mAdapter.getBluetoothManager();
+        if (mgr != null) {
+            try {
+                mgr.unregisterStateChangeCallback(mBluetoothStateChangeCallback);
+            } catch (RemoteException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
         mProfileConnector.disconnect();
     }
 
@@ -766,6 +859,155 @@ public final class BluetoothHidHost implements BluetoothProfile {
         return defaultValue;
     }
 
+    /**
+     * Send Set_Report command with a raw report to the connected HID input device.
+     *
+     * @param device Remote Bluetooth Device
+     * @param reportType Report type
+     * @param report Report to send
+     * @return false on immediate error, true otherwise
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public boolean setReport(BluetoothDevice device, byte reportType, @NonNull byte[] report) {
+        if (VDBG) log("setReport(" + device + "), reportType=" + reportType);
+        Objects.requireNonNull(report, "report cannot be null");
+        final IBluetoothHidHost service = getService();
+        final boolean defaultValue = false;
+        if (service == null) {
+            Log.w(TAG, "Proxy not attached to service");
+            if (DBG) log(Log.getStackTraceString(new Throwable()));
+        } else if (isEnabled() && isValidDevice(device)) {
+            try {
+                final SynchronousResultReceiver<Boolean> recv = SynchronousResultReceiver.get();
+                service.setReportBytes(device, reportType, report, mAttributionSource, recv);
+                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
+            } catch (RemoteException | TimeoutException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Send Send_Data command with a raw report to the connected HID input device.
+     *
+     * @param device Remote Bluetooth Device
+     * @param report Report to send
+     * @return false on immediate error, true otherwise
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public boolean sendData(BluetoothDevice device, @NonNull byte[] report) {
+        Objects.requireNonNull(report, "report cannot be null");
+        if (VDBG) log("sendData(" + device + "), length=" + report.length);
+        final IBluetoothHidHost service = getService();
+        final boolean defaultValue = false;
+        if (service == null) {
+            Log.w(TAG, "Proxy not attached to service");
+            if (DBG) log(Log.getStackTraceString(new Throwable()));
+        } else if (isEnabled() && isValidDevice(device)) {
+            try {
+                final SynchronousResultReceiver<Boolean> recv = SynchronousResultReceiver.get();
+                service.sendDataBytes(device, report, mAttributionSource, recv);
+                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
+            } catch (RemoteException | TimeoutException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Register a {@link ReportCallback} to receive the reports of the connected HID input
+     * devices as raw bytes.
+     *
+     * <p>The same <var>callback</var> object can only be registered once, even with a different
+     * <var>executor</var>.
+     *
+     * @param executor an {@link Executor} to execute given callback
+     * @param callback user implementation of the {@link ReportCallback}
+     * @throws IllegalArgumentException if the callback is already registered
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(allOf = {
+            android.Manifest.permission.BLUETOOTH_CONNECT,
+            android.Manifest.permission.BLUETOOTH_PRIVILEGED,
+    })
+    public void registerReportCallback(@NonNull @CallbackExecutor Executor executor,
+            @NonNull ReportCallback callback) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(callback, "callback cannot be null");
+        if (DBG) log("registerReportCallback");
+        synchronized (mReportCallbackExecutorMap) {
+            if (mReportCallbackExecutorMap.containsKey(callback)) {
+                throw new IllegalArgumentException("This callback has already been registered");
+            }
+            // If the callback map is empty, we register the service-to-app callback
+            if (mReportCallbackExecutorMap.isEmpty() && mAdapter.isEnabled()) {
+                try {
+                    final IBluetoothHidHost service = getService();
+                    if (service != null) {
+                        final SynchronousResultReceiver<Integer> recv =
+                                SynchronousResultReceiver.get();
+                        service.registerReportCallback(mReportCallback, mAttributionSource, recv);
+                        recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    }
+                } catch (RemoteException e) {
+                    Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+                    throw e.rethrowFromSystemServer();
+                } catch (TimeoutException e) {
+                    Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+                }
+            }
+            // If Bluetooth is off, the callback is registered when Bluetooth turns on
+            mReportCallbackExecutorMap.put(callback, executor);
+        }
+    }
+
+    /**
+     * Unregister the specified {@link ReportCallback}.
+     *
+     * @param callback the {@link ReportCallback} passed to
+     *     {@link #registerReportCallback(Executor, ReportCallback)}
+     * @throws IllegalArgumentException if the callback is not registered
+     * @hide
+     */
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(allOf = {
+            android.Manifest.permission.BLUETOOTH_CONNECT,
+            android.Manifest.permission.BLUETOOTH_PRIVILEGED,
+    })
+    public void unregisterReportCallback(@NonNull ReportCallback callback) {
+        Objects.requireNonNull(callback, "callback cannot be null");
+        if (DBG) log("unregisterReportCallback");
+        synchronized (mReportCallbackExecutorMap) {
+            if (mReportCallbackExecutorMap.remove(callback) == null) {
+                throw new IllegalArgumentException("This callback has not been registered");
+            }
+            // If the callback map is empty, we unregister the service-to-app callback
+            if (!mReportCallbackExecutorMap.isEmpty()) {
+                return;
+            }
+            try {
+                final IBluetoothHidHost service = getService();
+                if (service != null) {
+                    final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
+                    service.unregisterReportCallback(mReportCallback, mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+                throw e.rethrowFromSystemServer();
+            } catch (IllegalStateException | TimeoutException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
+    }
+
     /**
      * Send Get_Idle_Time command to the connected HID input device.
      *
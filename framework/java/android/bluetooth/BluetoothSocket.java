@@ -16,8 +16,10 @@
 
 package android.bluetooth;
 
+import android.annotation.NonNull;
 import android.annotation.RequiresNoPermission;
 import android.annotation.RequiresPermission;
+import android.annotation.SystemApi;
 import android.bluetooth.annotations.RequiresBluetoothConnectPermission;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.net.LocalSocket;
@@ -25,6 +27,8 @@ import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import java.io.Closeable;
@@ -633,6 +637,176 @@ public final class BluetoothSocket implements Closeable {
         return length;
     }
 
+    /**
+     * Read bytes from this socket into the given buffer, from its position up to its limit.
+     *
+     * <p>For L2CAP sockets, a read returns the data of at most one received packet. When the
+     * buffer has room for {@link #getMaxReceivePacketSize()} bytes, the packet is read straight
+     * into it, so reading into a direct buffer does not copy the data. Otherwise the packet is
+     * kept and returned over several reads, like with {@link #getInputStream()}.
+     *
+     * @param dst the buffer to read into
+     * @return the number of bytes read, or -1 if the end of stream was reached
+     * @throws IOException on error, for example if the socket is not connected
+     * @hide
+     */
+    @SystemApi
+    @RequiresNoPermission
+    public int read(@NonNull ByteBuffer dst) throws IOException {
+        FileDescriptor fd = getConnectedFileDescriptor();
+        if (VDBG) Log.d(TAG, "read(ByteBuffer) in: " + mSocketIS + " len: " + dst.remaining());
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if ((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE)) {
+            if (mL2capBuffer == null) {
+                createL2capRxBuffer();
+            }
+            if (mL2capBuffer.remaining() == 0 && dst.remaining() < mMaxRxPacketSize) {
+                // The packet might not fit, stage it so that no byte of it is lost.
+                if (fillL2capRxBuffer() == -1) {
+                    return -1;
+                }
+            }
+            if (mL2capBuffer.remaining() > 0) {
+                int bytesToRead = Math.min(dst.remaining(), mL2capBuffer.remaining());
+                int limit = mL2capBuffer.limit();
+                mL2capBuffer.limit(mL2capBuffer.position() + bytesToRead);
+                dst.put(mL2capBuffer);
+                mL2capBuffer.limit(limit);
+                return bytesToRead;
+            }
+        }
+        int ret;
+        try {
+            ret = Os.read(fd, dst);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        if (VDBG) Log.d(TAG, "read(ByteBuffer) out: " + mSocketIS + " ret: " + ret);
+        // read(2) returns 0 at the end of stream
+        return ret == 0 ? -1 : ret;
+    }
+
+    /**
+     * Write the bytes of the given buffer, from its position up to its limit, to this socket.
+     *
+     * <p>Direct buffers are written without copying the data. For L2CAP sockets, the data is
+     * sent in packets of at most {@link #getMaxTransmitPacketSize()} bytes, each written whole.
+     *
+     * @param src the buffer to write
+     * @return the number of bytes written, which is always all the remaining bytes of src
+     * @throws IOException on error, for example if the socket is not connected, or if only part
+     *         of an L2CAP packet could be written
+     * @hide
+     */
+    @SystemApi
+    @RequiresNoPermission
+    public int write(@NonNull ByteBuffer src) throws IOException {
+        FileDescriptor fd = getConnectedFileDescriptor();
+        int length = src.remaining();
+        if (VDBG) Log.d(TAG, "write(ByteBuffer): " + mSocketOS + " length: " + length);
+        boolean isL2cap = ((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE))
+                && mMaxTxPacketSize > 0;
+        int limit = src.limit();
+        try {
+            while (src.hasRemaining()) {
+                if (isL2cap) {
+                    int packetLength = Math.min(src.remaining(), mMaxTxPacketSize);
+                    src.limit(src.position() + packetLength);
+                    checkL2capPacketWritten(Os.write(fd, src), packetLength);
+                } else {
+                    Os.write(fd, src);
+                }
+                src.limit(limit);
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        } finally {
+            src.limit(limit);
+        }
+        return length;
+    }
+
+    /**
+     * Write the bytes of the given buffers, in order, to this socket with a single gathering
+     * write when possible. The position of each buffer is advanced past the bytes written.
+     *
+     * <p>For L2CAP sockets, the buffers are sent as one packet, which makes it possible to send
+     * a header and a payload kept in different buffers without copying them.
+     *
+     * @param srcs the buffers to write
+     * @return the number of bytes written, which is always all the remaining bytes of srcs
+     * @throws IllegalArgumentException if the socket is an L2CAP socket and the buffers hold
+     *         more than {@link #getMaxTransmitPacketSize()} bytes
+     * @throws IOException on error, for example if the socket is not connected, or if only part
+     *         of the L2CAP packet could be written
+     * @hide
+     */
+    @SystemApi
+    @RequiresNoPermission
+    public long write(@NonNull ByteBuffer[] srcs) throws IOException {
+        FileDescriptor fd = getConnectedFileDescriptor();
+        long length = 0;
+        for (ByteBuffer src : srcs) {
+            length += src.remaining();
+        }
+        if (VDBG) Log.d(TAG, "write(ByteBuffer[]): " + mSocketOS + " length: " + length);
+        boolean isL2cap = ((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE))
+                && mMaxTxPacketSize > 0;
+        if (isL2cap && length > mMaxTxPacketSize) {
+            throw new IllegalArgumentException("Buffers larger than L2CAP packet size "
+                    + mMaxTxPacketSize + ": " + length);
+        }
+        // Os.writev may replace heap buffers with their backing array, so use a copy.
+        Object[] buffers = new Object[srcs.length];
+        int[] offsets = new int[srcs.length];
+        int[] byteCounts = new int[srcs.length];
+        long written = 0;
+        try {
+            while (written < length) {
+                for (int i = 0; i < srcs.length; i++) {
+                    buffers[i] = srcs[i];
+                    offsets[i] = srcs[i].position();
+                    byteCounts[i] = srcs[i].remaining();
+                }
+                int ret = Os.writev(fd, buffers, offsets, byteCounts);
+                written += ret;
+                for (ByteBuffer src : srcs) {
+                    int count = Math.min(ret, src.remaining());
+                    src.position(src.position() + count);
+                    ret -= count;
+                }
+                if (isL2cap) {
+                    checkL2capPacketWritten(written, length);
+                }
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return length;
+    }
+
+    /**
+     * Fails a partial write of an L2CAP packet. Writing the rest would send it as another
+     * packet, so the peer would receive one SDU split in two.
+     */
+    private static void checkL2capPacketWritten(long written, long packetLength)
+            throws IOException {
+        if (written != packetLength) {
+            throw new IOException("Partial write of L2CAP packet: " + written + " of "
+                    + packetLength + " bytes");
+        }
+    }
+
+    private FileDescriptor getConnectedFileDescriptor() throws IOException {
+        LocalSocket socket = mSocket;
+        if (mSocketState != SocketState.CONNECTED || socket == null) {
+            throw new IOException("socket not connected");
+        }
+        return socket.getFileDescriptor();
+    }
+
     @Override
     public void close() throws IOException {
         Log.d(TAG, "close() this: " + this + ", channel: " + mPort + ", mSocketIS: " + mSocketIS
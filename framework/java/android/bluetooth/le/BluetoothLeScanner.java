@@ -634,6 +634,11 @@ public final class BluetoothLeScanner {
     }
 
     private boolean isSettingsConfigAllowedForScan(ScanSettings settings) {
+        // Batched delivery only coalesces results reported for every match.
+        if (settings.getBatchedDeliveryWindowMillis() > 0
+                && settings.getCallbackType() != ScanSettings.CALLBACK_TYPE_ALL_MATCHES) {
+            return false;
+        }
         if (mBluetoothAdapter.isOffloadedFilteringSupported()) {
             return true;
         }
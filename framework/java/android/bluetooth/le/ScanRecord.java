@@ -44,6 +44,9 @@ public final class ScanRecord {
 
     private static final String TAG = "ScanRecord";
 
+    // Initial size of the AD structure offset table, enough for typical legacy advertisements.
+    private static final int INITIAL_FIELD_CAPACITY = 8;
+
     /** @hide */
     @IntDef(prefix = "DATA_TYPE_", value = {
         DATA_TYPE_FLAGS,
@@ -317,25 +320,36 @@ public final class ScanRecord {
     // Flags of the advertising data.
     private final int mAdvertiseFlags;
 
-    @Nullable
-    private final List<ParcelUuid> mServiceUuids;
-    @Nullable
-    private final List<ParcelUuid> mServiceSolicitationUuids;
-
-    private final SparseArray<byte[]> mManufacturerSpecificData;
-
-    private final Map<ParcelUuid, byte[]> mServiceData;
-
     // Transmission power level(in dB).
     private final int mTxPowerLevel;
 
-    // Local name of the Bluetooth LE device.
-    private final String mDeviceName;
-
     // Raw bytes of scan record.
     private final byte[] mBytes;
 
-    private final HashMap<Integer, byte[]> mAdvertisingDataMap;
+    // Offsets in mBytes of the length byte of each AD structure, in order. Only the first
+    // mFieldCount entries are used; the structures are decoded from mBytes on first access.
+    private final int[] mFieldOffsets;
+    private final int mFieldCount;
+
+    // Whether all AD structures could be parsed. Invalid records only expose mBytes and the
+    // advertising data map of the structures before the malformed one.
+    private final boolean mValid;
+
+    // Lazily decoded fields. Decoding is idempotent, so racing threads at worst decode twice.
+    private volatile boolean mServiceUuidsDecoded;
+    @Nullable
+    private volatile List<ParcelUuid> mServiceUuids;
+    private volatile boolean mServiceSolicitationUuidsDecoded;
+    @Nullable
+    private volatile List<ParcelUuid> mServiceSolicitationUuids;
+    private volatile boolean mManufacturerSpecificDataDecoded;
+    private volatile SparseArray<byte[]> mManufacturerSpecificData;
+    private volatile boolean mServiceDataDecoded;
+    private volatile Map<ParcelUuid, byte[]> mServiceData;
+    // Local name of the Bluetooth LE device.
+    private volatile boolean mDeviceNameDecoded;
+    private volatile String mDeviceName;
+    private volatile HashMap<Integer, byte[]> mAdvertisingDataMap;
 
     /**
      * Returns the advertising flags indicating the discoverable mode and capability of the device.
@@ -350,6 +364,24 @@ public final class ScanRecord {
      * bluetooth GATT services.
      */
     public List<ParcelUuid> getServiceUuids() {
+        if (!mServiceUuidsDecoded) {
+            List<ParcelUuid> serviceUuids = null;
+            if (mValid) {
+                serviceUuids = new ArrayList<ParcelUuid>();
+                for (int i = 0; i < mFieldCount; i++) {
+                    int uuidLength = getServiceUuidLength(getFieldType(i));
+                    if (uuidLength > 0) {
+                        parseServiceUuid(mBytes, getFieldDataOffset(i), getFieldDataLength(i),
+                                uuidLength, serviceUuids);
+                    }
+                }
+                if (serviceUuids.isEmpty()) {
+                    serviceUuids = null;
+                }
+            }
+            mServiceUuids = serviceUuids;
+            mServiceUuidsDecoded = true;
+        }
         return mServiceUuids;
     }
 
@@ -359,6 +391,21 @@ public final class ScanRecord {
      */
     @NonNull
     public List<ParcelUuid> getServiceSolicitationUuids() {
+        if (!mServiceSolicitationUuidsDecoded) {
+            List<ParcelUuid> serviceSolicitationUuids = null;
+            if (mValid) {
+                serviceSolicitationUuids = new ArrayList<ParcelUuid>();
+                for (int i = 0; i < mFieldCount; i++) {
+                    int uuidLength = getServiceSolicitationUuidLength(getFieldType(i));
+                    if (uuidLength > 0) {
+                        parseServiceSolicitationUuid(mBytes, getFieldDataOffset(i),
+                                getFieldDataLength(i), uuidLength, serviceSolicitationUuids);
+                    }
+                }
+            }
+            mServiceSolicitationUuids = serviceSolicitationUuids;
+            mServiceSolicitationUuidsDecoded = true;
+        }
         return mServiceSolicitationUuids;
     }
 
@@ -367,6 +414,27 @@ public final class ScanRecord {
      * data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
+        if (!mManufacturerSpecificDataDecoded) {
+            SparseArray<byte[]> manufacturerData = null;
+            if (mValid) {
+                manufacturerData = new SparseArray<byte[]>();
+                for (int i = 0; i < mFieldCount; i++) {
+                    if (getFieldType(i) != DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                        continue;
+                    }
+                    int currentPos = getFieldDataOffset(i);
+                    // The first two bytes of the manufacturer specific data are
+                    // manufacturer ids in little endian.
+                    int manufacturerId = ((mBytes[currentPos + 1] & 0xFF) << 8)
+                            + (mBytes[currentPos] & 0xFF);
+                    byte[] manufacturerDataBytes = extractBytes(mBytes, currentPos + 2,
+                            getFieldDataLength(i) - 2);
+                    manufacturerData.put(manufacturerId, manufacturerDataBytes);
+                }
+            }
+            mManufacturerSpecificData = manufacturerData;
+            mManufacturerSpecificDataDecoded = true;
+        }
         return mManufacturerSpecificData;
     }
 
@@ -376,16 +444,40 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        if (mManufacturerSpecificData == null) {
+        SparseArray<byte[]> manufacturerSpecificData = getManufacturerSpecificData();
+        if (manufacturerSpecificData == null) {
             return null;
         }
-        return mManufacturerSpecificData.get(manufacturerId);
+        return manufacturerSpecificData.get(manufacturerId);
     }
 
     /**
      * Returns a map of service UUID and its corresponding service data.
      */
     public Map<ParcelUuid, byte[]> getServiceData() {
+        if (!mServiceDataDecoded) {
+            Map<ParcelUuid, byte[]> serviceData = null;
+            if (mValid) {
+                serviceData = new ArrayMap<ParcelUuid, byte[]>();
+                for (int i = 0; i < mFieldCount; i++) {
+                    int serviceUuidLength = getServiceDataUuidLength(getFieldType(i));
+                    if (serviceUuidLength == 0) {
+                        continue;
+                    }
+                    int currentPos = getFieldDataOffset(i);
+                    byte[] serviceDataUuidBytes = extractBytes(mBytes, currentPos,
+                            serviceUuidLength);
+                    ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
+                            serviceDataUuidBytes);
+                    byte[] serviceDataArray = extractBytes(mBytes,
+                            currentPos + serviceUuidLength,
+                            getFieldDataLength(i) - serviceUuidLength);
+                    serviceData.put(serviceDataUuid, serviceDataArray);
+                }
+            }
+            mServiceData = serviceData;
+            mServiceDataDecoded = true;
+        }
         return mServiceData;
     }
 
@@ -395,10 +487,14 @@ public final class ScanRecord {
      */
     @Nullable
     public byte[] getServiceData(ParcelUuid serviceDataUuid) {
-        if (serviceDataUuid == null || mServiceData == null) {
+        if (serviceDataUuid == null) {
+            return null;
+        }
+        Map<ParcelUuid, byte[]> serviceData = getServiceData();
+        if (serviceData == null) {
             return null;
         }
-        return mServiceData.get(serviceDataUuid);
+        return serviceData.get(serviceDataUuid);
     }
 
     /**
@@ -417,6 +513,21 @@ public final class ScanRecord {
      */
     @Nullable
     public String getDeviceName() {
+        if (!mDeviceNameDecoded) {
+            String localName = null;
+            if (mValid) {
+                for (int i = 0; i < mFieldCount; i++) {
+                    int fieldType = getFieldType(i);
+                    if (fieldType == DATA_TYPE_LOCAL_NAME_SHORT
+                            || fieldType == DATA_TYPE_LOCAL_NAME_COMPLETE) {
+                        localName = new String(extractBytes(mBytes, getFieldDataOffset(i),
+                                getFieldDataLength(i)));
+                    }
+                }
+            }
+            mDeviceName = localName;
+            mDeviceNameDecoded = true;
+        }
         return mDeviceName;
     }
 
@@ -427,7 +538,16 @@ public final class ScanRecord {
      * (https://www.bluetooth.com/specifications/assigned-numbers/)
      */
     public @NonNull Map<Integer, byte[]> getAdvertisingDataMap() {
-        return mAdvertisingDataMap;
+        HashMap<Integer, byte[]> advertisingDataMap = mAdvertisingDataMap;
+        if (advertisingDataMap == null) {
+            advertisingDataMap = new HashMap<Integer, byte[]>();
+            for (int i = 0; i < mFieldCount; i++) {
+                advertisingDataMap.put(getFieldType(i),
+                        extractBytes(mBytes, getFieldDataOffset(i), getFieldDataLength(i)));
+            }
+            mAdvertisingDataMap = advertisingDataMap;
+        }
+        return advertisingDataMap;
     }
 
     /**
@@ -458,21 +578,14 @@ public final class ScanRecord {
         return false;
     }
 
-    private ScanRecord(List<ParcelUuid> serviceUuids,
-            List<ParcelUuid> serviceSolicitationUuids,
-            SparseArray<byte[]> manufacturerData,
-            Map<ParcelUuid, byte[]> serviceData,
-            int advertiseFlags, int txPowerLevel,
-            String localName, HashMap<Integer, byte[]> advertisingDataMap, byte[] bytes) {
-        mServiceSolicitationUuids = serviceSolicitationUuids;
-        mServiceUuids = serviceUuids;
-        mManufacturerSpecificData = manufacturerData;
-        mServiceData = serviceData;
-        mDeviceName = localName;
+    private ScanRecord(byte[] bytes, int[] fieldOffsets, int fieldCount, boolean valid,
+            int advertiseFlags, int txPowerLevel) {
+        mBytes = bytes;
+        mFieldOffsets = fieldOffsets;
+        mFieldCount = fieldCount;
+        mValid = valid;
         mAdvertiseFlags = advertiseFlags;
         mTxPowerLevel = txPowerLevel;
-        mAdvertisingDataMap = advertisingDataMap;
-        mBytes = bytes;
     }
 
     /**
@@ -482,6 +595,10 @@ public final class ScanRecord {
      * <p>
      * All numerical multi-byte entities and values shall use little-endian <strong>byte</strong>
      * order.
+     * <p>
+     * Only the AD structure boundaries, the flags and the TX power level are parsed here. UUIDs,
+     * service data, manufacturer specific data, the local name and the advertising data map are
+     * decoded from the raw bytes on first access.
      *
      * @param scanRecord The scan record of Bluetooth LE advertisement and/or scan response.
      * @hide
@@ -494,124 +611,158 @@ public final class ScanRecord {
 
         int currentPos = 0;
         int advertiseFlag = -1;
-        List<ParcelUuid> serviceUuids = new ArrayList<ParcelUuid>();
-        List<ParcelUuid> serviceSolicitationUuids = new ArrayList<ParcelUuid>();
-        String localName = null;
         int txPowerLevel = Integer.MIN_VALUE;
-
-        SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-        Map<ParcelUuid, byte[]> serviceData = new ArrayMap<ParcelUuid, byte[]>();
-        HashMap<Integer, byte[]> advertisingDataMap = new HashMap<Integer, byte[]>();
-
-        try {
-            while (currentPos < scanRecord.length) {
-                // length is unsigned int.
-                int length = scanRecord[currentPos++] & 0xFF;
-                if (length == 0) {
+        int[] fieldOffsets = new int[INITIAL_FIELD_CAPACITY];
+        int fieldCount = 0;
+        boolean valid = true;
+
+        while (currentPos < scanRecord.length) {
+            int fieldOffset = currentPos;
+            // length is unsigned int.
+            int length = scanRecord[currentPos++] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+            // Note the length includes the length of the field type itself.
+            int dataLength = length - 1;
+            if (currentPos + 1 + dataLength > scanRecord.length) {
+                valid = false;
+                break;
+            }
+            // fieldType is unsigned int.
+            int fieldType = scanRecord[currentPos++] & 0xFF;
+            if (fieldCount == fieldOffsets.length) {
+                fieldOffsets = Arrays.copyOf(fieldOffsets, fieldCount * 2);
+            }
+            fieldOffsets[fieldCount++] = fieldOffset;
+            if (!isFieldValid(scanRecord, currentPos, dataLength, fieldType)) {
+                valid = false;
+                break;
+            }
+            switch (fieldType) {
+                case DATA_TYPE_FLAGS:
+                    advertiseFlag = scanRecord[currentPos] & 0xFF;
+                    break;
+                case DATA_TYPE_TX_POWER_LEVEL:
+                    txPowerLevel = scanRecord[currentPos];
+                    break;
+                default:
+                    // Everything else is decoded on demand.
                     break;
-                }
-                // Note the length includes the length of the field type itself.
-                int dataLength = length - 1;
-                // fieldType is unsigned int.
-                int fieldType = scanRecord[currentPos++] & 0xFF;
-                byte[] advertisingData = extractBytes(scanRecord, currentPos, dataLength);
-                advertisingDataMap.put(fieldType, advertisingData);
-                switch (fieldType) {
-                    case DATA_TYPE_FLAGS:
-                        advertiseFlag = scanRecord[currentPos] & 0xFF;
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos,
-                                dataLength, BluetoothUuid.UUID_BYTES_16_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_32_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
-                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-                        parseServiceUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_128_BIT, serviceUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_16_BIT, serviceSolicitationUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_32_BIT, serviceSolicitationUuids);
-                        break;
-                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
-                        parseServiceSolicitationUuid(scanRecord, currentPos, dataLength,
-                                BluetoothUuid.UUID_BYTES_128_BIT, serviceSolicitationUuids);
-                        break;
-                    case DATA_TYPE_LOCAL_NAME_SHORT:
-                    case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                        localName = new String(
-                                extractBytes(scanRecord, currentPos, dataLength));
-                        break;
-                    case DATA_TYPE_TX_POWER_LEVEL:
-                        txPowerLevel = scanRecord[currentPos];
-                        break;
-                    case DATA_TYPE_SERVICE_DATA_16_BIT:
-                    case DATA_TYPE_SERVICE_DATA_32_BIT:
-                    case DATA_TYPE_SERVICE_DATA_128_BIT:
-                        int serviceUuidLength = BluetoothUuid.UUID_BYTES_16_BIT;
-                        if (fieldType == DATA_TYPE_SERVICE_DATA_32_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_32_BIT;
-                        } else if (fieldType == DATA_TYPE_SERVICE_DATA_128_BIT) {
-                            serviceUuidLength = BluetoothUuid.UUID_BYTES_128_BIT;
-                        }
-
-                        byte[] serviceDataUuidBytes = extractBytes(scanRecord, currentPos,
-                                serviceUuidLength);
-                        ParcelUuid serviceDataUuid = BluetoothUuid.parseUuidFrom(
-                                serviceDataUuidBytes);
-                        byte[] serviceDataArray = extractBytes(scanRecord,
-                                currentPos + serviceUuidLength, dataLength - serviceUuidLength);
-                        serviceData.put(serviceDataUuid, serviceDataArray);
-                        break;
-                    case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
-                        // The first two bytes of the manufacturer specific data are
-                        // manufacturer ids in little endian.
-                        int manufacturerId = ((scanRecord[currentPos + 1] & 0xFF) << 8)
-                                + (scanRecord[currentPos] & 0xFF);
-                        byte[] manufacturerDataBytes = extractBytes(scanRecord, currentPos + 2,
-                                dataLength - 2);
-                        manufacturerData.put(manufacturerId, manufacturerDataBytes);
-                        break;
-                    default:
-                        // Just ignore, we don't handle such data type.
-                        break;
-                }
-                currentPos += dataLength;
             }
+            currentPos += dataLength;
+        }
 
-            if (serviceUuids.isEmpty()) {
-                serviceUuids = null;
-            }
-            return new ScanRecord(serviceUuids, serviceSolicitationUuids, manufacturerData,
-                    serviceData, advertiseFlag, txPowerLevel, localName, advertisingDataMap,
-                    scanRecord);
-        } catch (Exception e) {
+        if (!valid) {
             Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord));
             // As the record is invalid, ignore all the parsed results for this packet
             // and return an empty record with raw scanRecord bytes in results
-            return new ScanRecord(null, null, null, null, -1, Integer.MIN_VALUE, null,
-                    advertisingDataMap, scanRecord);
+            return new ScanRecord(scanRecord, fieldOffsets, fieldCount, false, -1,
+                    Integer.MIN_VALUE);
+        }
+        return new ScanRecord(scanRecord, fieldOffsets, fieldCount, true, advertiseFlag,
+                txPowerLevel);
+    }
+
+    /**
+     * Checks that the AD structure starting at {@code currentPos} can be decoded, i.e. that
+     * decoding it does not read outside of {@code scanRecord}.
+     */
+    private static boolean isFieldValid(byte[] scanRecord, int currentPos, int dataLength,
+            int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_FLAGS:
+            case DATA_TYPE_TX_POWER_LEVEL:
+                return currentPos < scanRecord.length;
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT: {
+                int uuidLength = Math.max(getServiceUuidLength(fieldType),
+                        getServiceSolicitationUuidLength(fieldType));
+                // UUIDs are read whole, even if the last one overruns the structure.
+                int uuidCount = (dataLength + uuidLength - 1) / uuidLength;
+                return currentPos + uuidCount * uuidLength <= scanRecord.length;
+            }
+            case DATA_TYPE_SERVICE_DATA_16_BIT:
+            case DATA_TYPE_SERVICE_DATA_32_BIT:
+            case DATA_TYPE_SERVICE_DATA_128_BIT:
+                return dataLength >= getServiceDataUuidLength(fieldType);
+            case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                return dataLength >= 2;
+            default:
+                return true;
+        }
+    }
+
+    private static int getServiceUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    private static int getServiceSolicitationUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
         }
     }
 
+    private static int getServiceDataUuidLength(int fieldType) {
+        switch (fieldType) {
+            case DATA_TYPE_SERVICE_DATA_16_BIT:
+                return BluetoothUuid.UUID_BYTES_16_BIT;
+            case DATA_TYPE_SERVICE_DATA_32_BIT:
+                return BluetoothUuid.UUID_BYTES_32_BIT;
+            case DATA_TYPE_SERVICE_DATA_128_BIT:
+                return BluetoothUuid.UUID_BYTES_128_BIT;
+            default:
+                return 0;
+        }
+    }
+
+    private int getFieldType(int field) {
+        return mBytes[mFieldOffsets[field] + 1] & 0xFF;
+    }
+
+    private int getFieldDataOffset(int field) {
+        return mFieldOffsets[field] + 2;
+    }
+
+    private int getFieldDataLength(int field) {
+        return (mBytes[mFieldOffsets[field]] & 0xFF) - 1;
+    }
+
     @Override
     public String toString() {
-        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags + ", mServiceUuids=" + mServiceUuids
-                + ", mServiceSolicitationUuids=" + mServiceSolicitationUuids
+        return "ScanRecord [mAdvertiseFlags=" + mAdvertiseFlags
+                + ", mServiceUuids=" + getServiceUuids()
+                + ", mServiceSolicitationUuids=" + getServiceSolicitationUuids()
                 + ", mManufacturerSpecificData=" + BluetoothLeUtils.toString(
-                mManufacturerSpecificData)
-                + ", mServiceData=" + BluetoothLeUtils.toString(mServiceData)
-                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + mDeviceName + "]";
+                getManufacturerSpecificData())
+                + ", mServiceData=" + BluetoothLeUtils.toString(getServiceData())
+                + ", mTxPowerLevel=" + mTxPowerLevel + ", mDeviceName=" + getDeviceName() + "]";
     }
 
     // Parse service UUIDs.
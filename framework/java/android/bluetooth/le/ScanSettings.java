@@ -16,6 +16,7 @@
 
 package android.bluetooth.le;
 
+import android.annotation.NonNull;
 import android.annotation.SystemApi;
 import android.bluetooth.BluetoothDevice;
 import android.os.Parcel;
@@ -158,6 +159,15 @@ public final class ScanSettings implements Parcelable {
      */
     public static final int PHY_LE_ALL_SUPPORTED = 255;
 
+    /**
+     * Maximum number of results that can be coalesced into a single batched delivery, see
+     * {@link Builder#setBatchedDelivery}.
+     *
+     * @hide
+     */
+    @SystemApi
+    public static final int BATCHED_DELIVERY_MAX_RESULTS = 256;
+
     // Bluetooth LE scan mode.
     private int mScanMode;
 
@@ -179,6 +189,16 @@ public final class ScanSettings implements Parcelable {
 
     private int mPhy;
 
+    // Window for coalescing results delivered to the app, 0 if batched delivery is disabled
+    private long mBatchedDeliveryWindowMillis;
+
+    private int mBatchedDeliveryMaxResults;
+
+    // Minimum time between two deliveries of an unchanged advertisement, 0 if disabled
+    private long mDuplicateFilterRefreshMillis;
+
+    private int mDuplicateFilterRssiDelta;
+
     public int getScanMode() {
         return mScanMode;
     }
@@ -228,9 +248,56 @@ public final class ScanSettings implements Parcelable {
         return mReportDelayMillis;
     }
 
+    /**
+     * Returns the maximum time, in milliseconds, scan results are held before being delivered
+     * together through {@link ScanCallback#onBatchScanResults}, or 0 if every result is
+     * delivered as soon as it is found.
+     *
+     * @hide
+     */
+    @SystemApi
+    public long getBatchedDeliveryWindowMillis() {
+        return mBatchedDeliveryWindowMillis;
+    }
+
+    /**
+     * Returns the maximum number of scan results delivered together through
+     * {@link ScanCallback#onBatchScanResults} when batched delivery is enabled.
+     *
+     * @hide
+     */
+    @SystemApi
+    public int getBatchedDeliveryMaxResults() {
+        return mBatchedDeliveryMaxResults;
+    }
+
+    /**
+     * Returns the interval, in milliseconds, after which an unchanged advertisement from the
+     * same device is delivered again, or 0 if duplicate filtering is disabled.
+     *
+     * @hide
+     */
+    @SystemApi
+    public long getDuplicateFilterRefreshMillis() {
+        return mDuplicateFilterRefreshMillis;
+    }
+
+    /**
+     * Returns the RSSI change, in dBm, above which an otherwise unchanged advertisement is
+     * delivered again when duplicate filtering is enabled.
+     *
+     * @hide
+     */
+    @SystemApi
+    public int getDuplicateFilterRssiDelta() {
+        return mDuplicateFilterRssiDelta;
+    }
+
     private ScanSettings(int scanMode, int callbackType, int scanResultType,
             long reportDelayMillis, int matchMode,
-            int numOfMatchesPerFilter, boolean legacy, int phy) {
+            int numOfMatchesPerFilter, boolean legacy, int phy,
+            long batchedDeliveryWindowMillis, int batchedDeliveryMaxResults,
+            long duplicateFilterRefreshMillis, int duplicateFilterRssiDelta) {
         mScanMode = scanMode;
         mCallbackType = callbackType;
         mScanResultType = scanResultType;
@@ -239,6 +306,10 @@ public final class ScanSettings implements Parcelable {
         mMatchMode = matchMode;
         mLegacy = legacy;
         mPhy = phy;
+        mBatchedDeliveryWindowMillis = batchedDeliveryWindowMillis;
+        mBatchedDeliveryMaxResults = batchedDeliveryMaxResults;
+        mDuplicateFilterRefreshMillis = duplicateFilterRefreshMillis;
+        mDuplicateFilterRssiDelta = duplicateFilterRssiDelta;
     }
 
     private ScanSettings(Parcel in) {
@@ -250,6 +321,10 @@ public final class ScanSettings implements Parcelable {
         mNumOfMatchesPerFilter = in.readInt();
         mLegacy = in.readInt() != 0;
         mPhy = in.readInt();
+        mBatchedDeliveryWindowMillis = in.readLong();
+        mBatchedDeliveryMaxResults = in.readInt();
+        mDuplicateFilterRefreshMillis = in.readLong();
+        mDuplicateFilterRssiDelta = in.readInt();
     }
 
     @Override
@@ -262,6 +337,10 @@ public final class ScanSettings implements Parcelable {
         dest.writeInt(mNumOfMatchesPerFilter);
         dest.writeInt(mLegacy ? 1 : 0);
         dest.writeInt(mPhy);
+        dest.writeLong(mBatchedDeliveryWindowMillis);
+        dest.writeInt(mBatchedDeliveryMaxResults);
+        dest.writeLong(mDuplicateFilterRefreshMillis);
+        dest.writeInt(mDuplicateFilterRssiDelta);
     }
 
     @Override
@@ -294,6 +373,10 @@ public final class ScanSettings implements Parcelable {
         private int mNumOfMatchesPerFilter = MATCH_NUM_MAX_ADVERTISEMENT;
         private boolean mLegacy = true;
         private int mPhy = PHY_LE_ALL_SUPPORTED;
+        private long mBatchedDeliveryWindowMillis = 0;
+        private int mBatchedDeliveryMaxResults = BATCHED_DELIVERY_MAX_RESULTS;
+        private long mDuplicateFilterRefreshMillis = 0;
+        private int mDuplicateFilterRssiDelta = 0;
 
         /**
          * Set scan mode for Bluetooth LE scan.
@@ -445,13 +528,83 @@ public final class ScanSettings implements Parcelable {
             return this;
         }
 
+        /**
+         * Set batched delivery of scan results. If {@code windowMillis} is &gt; 0, results found
+         * for {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES} are coalesced and delivered in order
+         * through {@link ScanCallback#onBatchScanResults}, at the latest {@code windowMillis}
+         * after the first result of the batch was found, or as soon as {@code maxResults} results
+         * are pending. If set to 0, every result is delivered through
+         * {@link ScanCallback#onScanResult}.
+         * <p>
+         * Unlike {@link #setReportDelay}, this does not use the controller batch scan storage and
+         * does not delay the scan itself; it only reduces the number of callbacks.
+         *
+         * @param windowMillis maximum time a result is held before delivery, in milliseconds
+         * @param maxResults maximum number of results per delivery, between 1 and
+         * {@link ScanSettings#BATCHED_DELIVERY_MAX_RESULTS}
+         * @throws IllegalArgumentException if {@code windowMillis} &lt; 0 or {@code maxResults}
+         * is out of range
+         * @hide
+         */
+        @SystemApi
+        public @NonNull Builder setBatchedDelivery(long windowMillis, int maxResults) {
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("windowMillis must be >= 0");
+            }
+            if (maxResults < 1 || maxResults > BATCHED_DELIVERY_MAX_RESULTS) {
+                throw new IllegalArgumentException("invalid maxResults " + maxResults);
+            }
+            mBatchedDeliveryWindowMillis = windowMillis;
+            mBatchedDeliveryMaxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * Set duplicate filtering of scan results. If {@code refreshIntervalMillis} is &gt; 0,
+         * an advertisement from a device whose payload is unchanged since it was last delivered
+         * is dropped, unless its RSSI moved by more than {@code rssiDelta} dBm or
+         * {@code refreshIntervalMillis} elapsed since the last delivery. If set to 0, every
+         * advertisement is delivered.
+         * <p>
+         * This only applies to {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES} results and does not
+         * require controller support. A bounded number of recently seen devices is tracked per
+         * scan, so a device that was not seen for a while may be delivered again earlier.
+         *
+         * @param rssiDelta RSSI change, in dBm, that triggers a new delivery
+         * @param refreshIntervalMillis interval after which an unchanged advertisement is
+         * delivered again, in milliseconds
+         * @throws IllegalArgumentException if {@code rssiDelta} or {@code refreshIntervalMillis}
+         * is negative
+         * @hide
+         */
+        @SystemApi
+        public @NonNull Builder setDuplicateFilter(int rssiDelta, long refreshIntervalMillis) {
+            if (rssiDelta < 0) {
+                throw new IllegalArgumentException("rssiDelta must be >= 0");
+            }
+            if (refreshIntervalMillis < 0) {
+                throw new IllegalArgumentException("refreshIntervalMillis must be >= 0");
+            }
+            mDuplicateFilterRssiDelta = rssiDelta;
+            mDuplicateFilterRefreshMillis = refreshIntervalMillis;
+            return this;
+        }
+
         /**
          * Build {@link ScanSettings}.
+         *
+         * @throws IllegalArgumentException if batched delivery is combined with a report delay
          */
         public ScanSettings build() {
+            if (mBatchedDeliveryWindowMillis > 0 && mReportDelayMillis > 0) {
+                throw new IllegalArgumentException(
+                        "batched delivery cannot be combined with a report delay");
+            }
             return new ScanSettings(mScanMode, mCallbackType, mScanResultType,
                     mReportDelayMillis, mMatchMode,
-                    mNumOfMatchesPerFilter, mLegacy, mPhy);
+                    mNumOfMatchesPerFilter, mLegacy, mPhy,
+                    mBatchedDeliveryWindowMillis, mBatchedDeliveryMaxResults,
+                    mDuplicateFilterRefreshMillis, mDuplicateFilterRssiDelta);
         }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.os.Bundle;
+import android.os.ParcelUuid;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Unit test cases for the mapping of the remote device properties, as fetched from the adapter
+ * service, to the values returned by the {@link BluetoothDevice} getters.
+ */
+public class BluetoothDeviceTest extends TestCase {
+    private static final ParcelUuid[] UUIDS = {BluetoothUuid.A2DP_SINK, BluetoothUuid.HFP};
+
+    @SmallTest
+    public void testGetProperties_whenPropertiesNotFetched_returnsDefaults() {
+        assertNull(BluetoothDevice.getName(null));
+        assertNull(BluetoothDevice.getAlias(null));
+        assertEquals(BluetoothDevice.DEVICE_TYPE_UNKNOWN, BluetoothDevice.getType(null));
+        assertNull(BluetoothDevice.getBluetoothClass(null));
+        assertNull(BluetoothDevice.getUuids(null));
+        assertEquals(BluetoothDevice.BATTERY_LEVEL_UNKNOWN,
+                BluetoothDevice.getBatteryLevel(null, true));
+        assertEquals(BluetoothDevice.BATTERY_LEVEL_BLUETOOTH_OFF,
+                BluetoothDevice.getBatteryLevel(null, false));
+    }
+
+    @SmallTest
+    public void testGetProperties_whenDeviceUnknown_returnsDefaults() {
+        // The adapter service only sets the type and battery level of an unknown device
+        Bundle properties = new Bundle();
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_TYPE,
+                BluetoothDevice.DEVICE_TYPE_UNKNOWN);
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_BATTERY_LEVEL,
+                BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+
+        assertNull(BluetoothDevice.getName(properties));
+        assertNull(BluetoothDevice.getAlias(properties));
+        assertEquals(BluetoothDevice.DEVICE_TYPE_UNKNOWN, BluetoothDevice.getType(properties));
+        assertEquals(0, BluetoothDevice.getBluetoothClass(properties).getClassOfDevice());
+        assertNull(BluetoothDevice.getUuids(properties));
+        assertEquals(BluetoothDevice.BATTERY_LEVEL_UNKNOWN,
+                BluetoothDevice.getBatteryLevel(properties, true));
+    }
+
+    @SmallTest
+    public void testGetProperties_returnsFetchedValues() {
+        Bundle properties = new Bundle();
+        properties.putString(BluetoothDevice.DEVICE_PROPERTY_NAME, "name\twith\nspaces\r");
+        properties.putString(BluetoothDevice.DEVICE_PROPERTY_ALIAS, "alias");
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_TYPE, BluetoothDevice.DEVICE_TYPE_DUAL);
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_CLASS,
+                BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES);
+        properties.putParcelableArray(BluetoothDevice.DEVICE_PROPERTY_UUIDS, UUIDS);
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_BATTERY_LEVEL, 42);
+
+        assertEquals("name with spaces ", BluetoothDevice.getName(properties));
+        assertEquals("alias", BluetoothDevice.getAlias(properties));
+        assertEquals(BluetoothDevice.DEVICE_TYPE_DUAL, BluetoothDevice.getType(properties));
+        assertEquals(BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES,
+                BluetoothDevice.getBluetoothClass(properties).getDeviceClass());
+        assertTrue(Arrays.equals(UUIDS, BluetoothDevice.getUuids(properties)));
+        assertEquals(42, BluetoothDevice.getBatteryLevel(properties, true));
+    }
+
+    @SmallTest
+    public void testGetAlias_withoutAlias_returnsName() {
+        Bundle properties = new Bundle();
+        properties.putString(BluetoothDevice.DEVICE_PROPERTY_NAME, "name");
+
+        assertEquals("name", BluetoothDevice.getAlias(properties));
+    }
+
+    @SmallTest
+    public void testGetBluetoothClass_whenClassIsError_returnsNull() {
+        Bundle properties = new Bundle();
+        properties.putInt(BluetoothDevice.DEVICE_PROPERTY_CLASS, BluetoothClass.ERROR);
+
+        assertNull(BluetoothDevice.getBluetoothClass(properties));
+    }
+
+    @SmallTest
+    public void testGetUuids_returnsCopy() {
+        Bundle properties = new Bundle();
+        properties.putParcelableArray(BluetoothDevice.DEVICE_PROPERTY_UUIDS, UUIDS.clone());
+
+        BluetoothDevice.getUuids(properties)[0] = null;
+
+        assertTrue(Arrays.equals(UUIDS, BluetoothDevice.getUuids(properties)));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.content.AttributionSource;
+import android.os.RemoteException;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.modules.utils.SynchronousResultReceiver;
+
+import junit.framework.TestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit test cases for the operation queue of {@link BluetoothGatt}, against a mocked GATT
+ * service.
+ */
+public class BluetoothGattTest extends TestCase {
+    private static final int CLIENT_IF = 1;
+    private static final byte[] VALUE = new byte[] {0x01, 0x02};
+
+    private IBluetoothGatt mService;
+    private IBluetoothGattCallback mGattCallback;
+    private BluetoothDevice mDevice;
+    private BluetoothGatt mGatt;
+    private List<String> mCompletions;
+    private BluetoothGatt.OperationCallback mOperationCallback;
+
+    @Override
+    protected void setUp() throws Exception {
+        mService = mock(IBluetoothGatt.class);
+        doAnswer(sendResult(null)).when(mService).registerClient(any(), any(), anyBoolean(),
+                any(), any());
+        doAnswer(sendResult(null)).when(mService).clientConnect(anyInt(), anyString(),
+                anyBoolean(), anyInt(), anyBoolean(), anyInt(), any(), any());
+        doAnswer(sendResult(null)).when(mService).unregisterClient(anyInt(), any(), any());
+        doAnswer(sendResult(null)).when(mService).readCharacteristic(anyInt(), anyString(),
+                anyInt(), anyInt(), any(), any());
+        doAnswer(sendResult(null)).when(mService).readDescriptor(anyInt(), anyString(),
+                anyInt(), anyInt(), any(), any());
+        doAnswer(sendResult(BluetoothStatusCodes.SUCCESS)).when(mService).writeCharacteristic(
+                anyInt(), anyString(), anyInt(), anyInt(), anyInt(), any(), any(), any());
+        doAnswer(sendResult(BluetoothStatusCodes.SUCCESS)).when(mService).writeDescriptor(
+                anyInt(), anyString(), anyInt(), anyInt(), any(), any(), any());
+
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        mGatt = new BluetoothGatt(mService, mDevice, BluetoothDevice.TRANSPORT_LE, false,
+                BluetoothDevice.PHY_LE_1M_MASK, AttributionSource.myAttributionSource());
+        mCompletions = new ArrayList<>();
+        mOperationCallback = new BluetoothGatt.OperationCallback() {
+            @Override
+            public void onOperationCompleted(BluetoothGatt gatt, int status, byte[] value) {
+                mCompletions.add(status + ":" + (value != null ? value.length : -1));
+            }
+        };
+
+        // Without a handler, the callbacks are run synchronously
+        assertTrue(mGatt.connect(false, new BluetoothGattCallback() {}, null));
+        ArgumentCaptor<IBluetoothGattCallback> captor =
+                ArgumentCaptor.forClass(IBluetoothGattCallback.class);
+        verify(mService).registerClient(any(), captor.capture(), anyBoolean(), any(), any());
+        mGattCallback = captor.getValue();
+        mGattCallback.onClientRegistered(BluetoothGatt.GATT_SUCCESS, CLIENT_IF);
+        mGattCallback.onClientConnectionState(BluetoothGatt.GATT_SUCCESS, CLIENT_IF, true,
+                mDevice.getAddress());
+    }
+
+    @SmallTest
+    public void testEnqueue_sendsOperationsInOrder() throws Exception {
+        assertEquals(BluetoothStatusCodes.SUCCESS,
+                mGatt.enqueueReadCharacteristic(createCharacteristic(1), mOperationCallback));
+        assertEquals(BluetoothStatusCodes.SUCCESS, mGatt.enqueueWriteCharacteristic(
+                createCharacteristic(2), VALUE, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT,
+                mOperationCallback));
+        assertEquals(BluetoothStatusCodes.SUCCESS,
+                mGatt.enqueueReadDescriptor(createDescriptor(3), mOperationCallback));
+        assertEquals(3, mGatt.getQueuedOperationCount());
+
+        // Only the first operation is sent until it completes
+        verify(mService).readCharacteristic(eq(CLIENT_IF), anyString(), eq(1), anyInt(), any(),
+                any());
+        verify(mService, never()).writeCharacteristic(anyInt(), anyString(), anyInt(), anyInt(),
+                anyInt(), any(), any(), any());
+
+        String address = mDevice.getAddress();
+        mGattCallback.onCharacteristicRead(address, BluetoothGatt.GATT_SUCCESS, 1, VALUE);
+        mGattCallback.onCharacteristicWrite(address, BluetoothGatt.GATT_SUCCESS, 2, VALUE);
+        mGattCallback.onDescriptorRead(address, BluetoothGatt.GATT_SUCCESS, 3, VALUE);
+
+        InOrder order = inOrder(mService);
+        order.verify(mService).readCharacteristic(eq(CLIENT_IF), anyString(), eq(1), anyInt(),
+                any(), any());
+        order.verify(mService).writeCharacteristic(eq(CLIENT_IF), anyString(), eq(2), anyInt(),
+                anyInt(), eq(VALUE), any(), any());
+        order.verify(mService).readDescriptor(eq(CLIENT_IF), anyString(), eq(3), anyInt(), any(),
+                any());
+        assertEquals(List.of("0:2", "0:-1", "0:2"), mCompletions);
+        assertEquals(0, mGatt.getQueuedOperationCount());
+    }
+
+    @SmallTest
+    public void testEnqueue_whenOperationFailsToStart_sendsNext() throws Exception {
+        doAnswer(sendResult(BluetoothStatusCodes.ERROR_UNKNOWN)).when(mService)
+                .writeCharacteristic(anyInt(), anyString(), eq(1), anyInt(), anyInt(), any(),
+                        any(), any());
+
+        mGatt.enqueueWriteCharacteristic(createCharacteristic(1), VALUE,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, mOperationCallback);
+        mGatt.enqueueReadCharacteristic(createCharacteristic(2), mOperationCallback);
+
+        assertEquals(List.of(BluetoothGatt.GATT_FAILURE + ":-1"), mCompletions);
+        verify(mService).readCharacteristic(eq(CLIENT_IF), anyString(), eq(2), anyInt(), any(),
+                any());
+        assertEquals(1, mGatt.getQueuedOperationCount());
+    }
+
+    @SmallTest
+    public void testEnqueue_whenSynchronousRequestFails_sendsNext() throws Exception {
+        // An operation is queued while a request made without the queue is in progress, then
+        // that request fails
+        doAnswer(invocation -> {
+            mGatt.enqueueReadCharacteristic(createCharacteristic(2), mOperationCallback);
+            throw new RemoteException();
+        }).when(mService).readUsingCharacteristicUuid(anyInt(), anyString(), any(), anyInt(),
+                anyInt(), anyInt(), any(), any());
+
+        assertFalse(mGatt.readUsingCharacteristicUuid(UUID.randomUUID(), 1, 0xffff));
+
+        verify(mService).readCharacteristic(eq(CLIENT_IF), anyString(), eq(2), anyInt(), any(),
+                any());
+        assertEquals(1, mGatt.getQueuedOperationCount());
+    }
+
+    @SmallTest
+    public void testEnqueue_whenQueueIsFull_fails() throws Exception {
+        // The first operation is in progress, the others are pending
+        for (int i = 0; i <= BluetoothGatt.MAX_PENDING_OPERATIONS; i++) {
+            assertEquals(BluetoothStatusCodes.SUCCESS,
+                    mGatt.enqueueReadCharacteristic(createCharacteristic(i + 1), null));
+        }
+
+        assertEquals(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY,
+                mGatt.enqueueReadCharacteristic(createCharacteristic(1), null));
+        assertEquals(BluetoothGatt.MAX_PENDING_OPERATIONS + 1, mGatt.getQueuedOperationCount());
+
+        // Room is made as soon as an operation completes
+        mGattCallback.onCharacteristicRead(mDevice.getAddress(), BluetoothGatt.GATT_SUCCESS, 1,
+                VALUE);
+        assertEquals(BluetoothStatusCodes.SUCCESS,
+                mGatt.enqueueReadCharacteristic(createCharacteristic(1), null));
+    }
+
+    @SmallTest
+    public void testClose_dropsQueuedOperations() throws Exception {
+        mGatt.enqueueReadCharacteristic(createCharacteristic(1), mOperationCallback);
+        mGatt.enqueueReadCharacteristic(createCharacteristic(2), mOperationCallback);
+
+        mGatt.close();
+
+        assertEquals(0, mGatt.getQueuedOperationCount());
+        verify(mService).unregisterClient(eq(CLIENT_IF), any(), any());
+        verify(mService, never()).readCharacteristic(anyInt(), anyString(), eq(2), anyInt(),
+                any(), any());
+        assertTrue(mCompletions.isEmpty());
+    }
+
+    private static BluetoothGattCharacteristic createCharacteristic(int handle) {
+        return new BluetoothGattCharacteristic(UUID.randomUUID(), handle,
+                BluetoothGattCharacteristic.PROPERTY_READ
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE,
+                BluetoothGattCharacteristic.PERMISSION_READ
+                        | BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+
+    private static BluetoothGattDescriptor createDescriptor(int handle) {
+        return new BluetoothGattDescriptor(UUID.randomUUID(), handle,
+                BluetoothGattDescriptor.PERMISSION_READ);
+    }
+
+    /** Answers a binder call by sending the given result to its SynchronousResultReceiver */
+    private static Answer<Void> sendResult(Object result) {
+        return invocation -> {
+            Object[] arguments = invocation.getArguments();
+            ((SynchronousResultReceiver) arguments[arguments.length - 1]).send(result);
+            return null;
+        };
+    }
+}
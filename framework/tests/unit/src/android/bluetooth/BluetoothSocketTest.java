@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.os.ParcelFileDescriptor;
+import android.system.Os;
+import android.system.OsConstants;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Unit test cases for the {@link java.nio.ByteBuffer} methods of {@link BluetoothSocket}, over
+ * a connected RFCOMM socket backed by a local socket pair.
+ */
+public class BluetoothSocketTest extends TestCase {
+    private static final byte[] DATA = new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+
+    private FileDescriptor mPeer;
+    private BluetoothSocket mSocket;
+
+    @Override
+    protected void setUp() throws Exception {
+        FileDescriptor fd = new FileDescriptor();
+        mPeer = new FileDescriptor();
+        Os.socketpair(OsConstants.AF_UNIX, OsConstants.SOCK_STREAM, 0, fd, mPeer);
+        ParcelFileDescriptor pfd = ParcelFileDescriptor.dup(fd);
+        Os.close(fd);
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        mSocket = BluetoothSocket.createSocketFromOpenFd(pfd, device, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSocket.close();
+        Os.close(mPeer);
+    }
+
+    @SmallTest
+    public void testWrite_directBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA).flip();
+
+        assertEquals(DATA.length, mSocket.write(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertTrue(Arrays.equals(DATA, readFromPeer(DATA.length)));
+    }
+
+    @SmallTest
+    public void testWrite_gathersBuffers() throws Exception {
+        ByteBuffer header = ByteBuffer.wrap(DATA, 0, 2);
+        ByteBuffer payload = ByteBuffer.allocateDirect(DATA.length - 2);
+        payload.put(DATA, 2, DATA.length - 2).flip();
+
+        assertEquals(DATA.length, mSocket.write(new ByteBuffer[] {header, payload}));
+        assertFalse(header.hasRemaining());
+        assertFalse(payload.hasRemaining());
+        assertTrue(Arrays.equals(DATA, readFromPeer(DATA.length)));
+    }
+
+    @SmallTest
+    public void testRead_directBuffer() throws Exception {
+        Os.write(mPeer, DATA, 0, DATA.length);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length + 10);
+
+        int read = 0;
+        while (read < DATA.length) {
+            read += mSocket.read(buffer);
+        }
+        assertEquals(DATA.length, buffer.position());
+        byte[] actual = new byte[DATA.length];
+        buffer.flip();
+        buffer.get(actual);
+        assertTrue(Arrays.equals(DATA, actual));
+    }
+
+    @SmallTest
+    public void testRead_endOfStream() throws Exception {
+        Os.shutdown(mPeer, OsConstants.SHUT_WR);
+        assertEquals(-1, mSocket.read(ByteBuffer.allocateDirect(DATA.length)));
+    }
+
+    @SmallTest
+    public void testRead_closedSocket() throws Exception {
+        mSocket.close();
+        try {
+            mSocket.read(ByteBuffer.allocateDirect(DATA.length));
+            fail("read on a closed socket should throw");
+        } catch (IOException expected) {
+        }
+    }
+
+    private byte[] readFromPeer(int length) throws Exception {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int ret = Os.read(mPeer, data, read, length - read);
+            assertTrue(ret > 0);
+            read += ret;
+        }
+        return data;
+    }
+}
@@ -154,6 +154,40 @@ public class ScanRecordTest extends TestCase {
                 0x50, 0x64 }, data.getServiceData().get(uuid2));
     }
 
+    @SmallTest
+    public void testParser_DecodedFieldsAreCached() {
+        byte[] scanRecord = new byte[] {
+                0x02, 0x01, 0x1a, // advertising flags
+                0x03, 0x02, 0x0b, 0x11, // 16 bit service uuids
+                0x05, (byte) 0xff, (byte) 0xe0, 0x00, 0x02, 0x15, // manufacturer specific data
+        };
+        ScanRecord data = ScanRecord.parseFromBytes(scanRecord);
+        assertSame(data.getServiceUuids(), data.getServiceUuids());
+        assertSame(data.getManufacturerSpecificData(), data.getManufacturerSpecificData());
+        assertSame(data.getAdvertisingDataMap(), data.getAdvertisingDataMap());
+        assertEquals(3, data.getAdvertisingDataMap().size());
+        assertArrayEquals(new byte[] {
+                0x0b, 0x11 }, data.getAdvertisingDataMap().get(
+                        ScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL));
+    }
+
+    @SmallTest
+    public void testParser_MalformedRecord() {
+        byte[] scanRecord = new byte[] {
+                0x02, 0x01, 0x1a, // advertising flags
+                0x02, (byte) 0xff, (byte) 0xe0, // manufacturer specific data without id
+                0x03, 0x09, 0x50, 0x65, // name
+        };
+        ScanRecord data = ScanRecord.parseFromBytes(scanRecord);
+        assertEquals(-1, data.getAdvertiseFlags());
+        assertNull(data.getServiceUuids());
+        assertNull(data.getManufacturerSpecificData());
+        assertNull(data.getDeviceName());
+        // Structures up to and including the malformed one are still exposed.
+        assertEquals(2, data.getAdvertisingDataMap().size());
+        assertSame(scanRecord, data.getBytes());
+    }
+
     // Assert two byte arrays are equal.
     private static void assertArrayEquals(byte[] expected, byte[] actual) {
         if (!Arrays.equals(expected, actual)) {